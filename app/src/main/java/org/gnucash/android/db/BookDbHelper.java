@@ -64,7 +64,7 @@ public class BookDbHelper extends SQLiteOpenHelper {
             + BookEntry.COLUMN_LAST_SYNC     + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
             + BookEntry.COLUMN_CREATED_AT    + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
             + BookEntry.COLUMN_MODIFIED_AT   + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP "
-            + ");" + DatabaseHelper.createUpdatedAtTrigger(BookEntry.TABLE_NAME);
+            + ")";
 
     public BookDbHelper(Context context) {
         super(context, DatabaseSchema.BOOK_DATABASE_NAME, null, DatabaseSchema.BOOK_DATABASE_VERSION);
@@ -74,6 +74,7 @@ public class BookDbHelper extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(BOOKS_TABLE_CREATE);
+        db.execSQL(DatabaseHelper.createUpdatedAtTrigger(BookEntry.TABLE_NAME));
 
         if (mContext.getDatabasePath(DatabaseSchema.LEGACY_DATABASE_NAME).exists()){
             Log.d(LOG_TAG, "Legacy database found. Migrating to multibook format");
@@ -181,6 +182,10 @@ public class BookDbHelper extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        //nothing to see here yet, move along
+        if (oldVersion < 2) {
+            // the trigger was previously appended to the create table statement, and never created
+            db.execSQL("DROP TRIGGER IF EXISTS update_time_trigger");
+            db.execSQL(DatabaseHelper.createUpdatedAtTrigger(BookEntry.TABLE_NAME));
+        }
     }
 }
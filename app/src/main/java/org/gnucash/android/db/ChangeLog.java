@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.gnucash.android.db.DatabaseSchema.ChangeLogEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Feed of the modifications of a book, for invalidating the parts of caches which depend on them.
+ * <p>Triggers record each modification of accounts, transactions, splits, prices and budget amounts
+ * in the {@link ChangeLogEntry} table, with the accounts and the earliest time it affects, and a
+ * sequence number which increases with each modification. Only the latest {@link #MAX_ENTRIES}
+ * modifications are kept.</p>
+ * <p>Subscribers receive the modifications since the last time they were notified when
+ * {@link #dispatch()} is called, typically before the cache of the subscriber is read. They are
+ * told that modifications were lost instead when the log no longer has them, or when its
+ * sequence numbers went back because the database was replaced.
+ * A record which is saved with REPLACE is logged as deleted and inserted again.</p>
+ */
+public class ChangeLog {
+    private static final String LOG_TAG = "ChangeLog";
+
+    public static final String ENTITY_ACCOUNT = "account";
+    public static final String ENTITY_TRANSACTION = "transaction";
+    public static final String ENTITY_SPLIT = "split";
+    public static final String ENTITY_PRICE = "price";
+    public static final String ENTITY_BUDGET_AMOUNT = "budget_amount";
+
+    /**
+     * Number of modifications which are kept in the log
+     */
+    static final int MAX_ENTRIES = 10000;
+
+    public enum Operation {INSERT, UPDATE, DELETE}
+
+    /**
+     * Modification of a record of the book
+     */
+    public static class Change {
+        private final long mSequence;
+        private final String mEntityType;
+        private final String mEntityUID;
+        private final List<String> mAccountUIDs;
+        private final long mTimestamp;
+        private final Operation mOperation;
+
+        Change(long sequence, String entityType, String entityUID, List<String> accountUIDs,
+               long timestamp, Operation operation) {
+            mSequence = sequence;
+            mEntityType = entityType;
+            mEntityUID = entityUID;
+            mAccountUIDs = accountUIDs;
+            mTimestamp = timestamp;
+            mOperation = operation;
+        }
+
+        public long getSequence() {
+            return mSequence;
+        }
+
+        /**
+         * Returns the type of the modified record, one of the {@code ENTITY_} constants
+         */
+        public String getEntityType() {
+            return mEntityType;
+        }
+
+        public String getEntityUID() {
+            return mEntityUID;
+        }
+
+        /**
+         * Returns the GUIDs of the accounts whose balances may have changed.
+         * <p>The balances of their ancestors may have changed as well</p>
+         */
+        public List<String> getAccountUIDs() {
+            return mAccountUIDs;
+        }
+
+        /**
+         * Returns the earliest time affected by the modification, or -1 if it does not depend on time
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        public Operation getOperation() {
+            return mOperation;
+        }
+    }
+
+    /**
+     * Receives the modifications of a book
+     */
+    public interface Subscriber {
+        /**
+         * Called with the modifications since the last notification, oldest first
+         */
+        void onChanges(@NonNull List<Change> changes);
+
+        /**
+         * Called instead of {@link #onChanges(List)} when some of the modifications since the last
+         * notification are no longer in the log. Everything derived from the book should be discarded
+         */
+        void onChangesLost();
+    }
+
+    private static final Map<String, ChangeLog> sInstances = new HashMap<>();
+
+    private SQLiteDatabase mDb;
+
+    /**
+     * Subscribers with the sequence number of the last modification they were notified of
+     */
+    private final Map<Subscriber, Long> mSubscribers = new LinkedHashMap<>();
+
+    private ChangeLog(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Returns the change log of a book. The subscribers are kept while the process is running
+     * @param db Database of the book
+     */
+    public static ChangeLog getInstance(@NonNull SQLiteDatabase db) {
+        synchronized (sInstances) {
+            ChangeLog changeLog = sInstances.get(db.getPath());
+            if (changeLog == null) {
+                changeLog = new ChangeLog(db);
+                sInstances.put(db.getPath(), changeLog);
+            } else {
+                // the database may have been opened again
+                changeLog.mDb = db;
+            }
+            return changeLog;
+        }
+    }
+
+    /**
+     * Returns the sequence number of the latest modification, or 0 if there are none
+     */
+    public long getLastSequence() {
+        return getSequenceRange()[1];
+    }
+
+    /**
+     * Returns the minimum and maximum sequence numbers in the log, or 0 if it is empty
+     */
+    private long[] getSequenceRange() {
+        Cursor cursor = mDb.rawQuery("SELECT ifnull(MIN(" + ChangeLogEntry._ID + "), 0), ifnull(MAX("
+                + ChangeLogEntry._ID + "), 0) FROM " + ChangeLogEntry.TABLE_NAME, null);
+        try {
+            cursor.moveToFirst();
+            return new long[]{cursor.getLong(0), cursor.getLong(1)};
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the modifications after a sequence number which are still in the log
+     * @param sequence Sequence number of the last modification already known
+     * @return Modifications, oldest first
+     */
+    public List<Change> getChangesSince(long sequence) {
+        Cursor cursor = mDb.query(ChangeLogEntry.TABLE_NAME,
+                new String[]{ChangeLogEntry._ID, ChangeLogEntry.COLUMN_ENTITY_TYPE, ChangeLogEntry.COLUMN_ENTITY_UID,
+                        ChangeLogEntry.COLUMN_ACCOUNT_UIDS, ChangeLogEntry.COLUMN_TIMESTAMP, ChangeLogEntry.COLUMN_OPERATION},
+                ChangeLogEntry._ID + " > ?", new String[]{Long.toString(sequence)},
+                null, null, ChangeLogEntry._ID + " ASC");
+        List<Change> changes = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                String accountUIDs = cursor.getString(3);
+                changes.add(new Change(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                        TextUtils.isEmpty(accountUIDs) ? Collections.<String>emptyList()
+                                : Arrays.asList(accountUIDs.split(",")),
+                        cursor.isNull(4) ? -1 : cursor.getLong(4), Operation.valueOf(cursor.getString(5))));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    /**
+     * Adds a subscriber, which is notified of the modifications from now on
+     */
+    public synchronized void subscribe(@NonNull Subscriber subscriber) {
+        mSubscribers.put(subscriber, getLastSequence());
+    }
+
+    public synchronized void unsubscribe(@NonNull Subscriber subscriber) {
+        mSubscribers.remove(subscriber);
+    }
+
+    /**
+     * Notifies the subscribers of the modifications since they were last notified.
+     * <p>Nothing is dispatched while a transaction of the database is in progress, since it could
+     * still be rolled back. The subscribers are called on the calling thread</p>
+     */
+    public void dispatch() {
+        Map<Subscriber, List<Change>> notifications = new LinkedHashMap<>();
+        List<Subscriber> lostSubscribers = new ArrayList<>();
+        synchronized (this) {
+            if (mSubscribers.isEmpty() || mDb.inTransaction())
+                return;
+            long[] range = getSequenceRange();
+            boolean changed = false;
+            long oldestSequence = range[1];
+            for (long sequence : mSubscribers.values()) {
+                changed |= sequence != range[1];
+                oldestSequence = Math.min(oldestSequence, sequence);
+            }
+            if (!changed)
+                return;
+
+            List<Change> changes = oldestSequence < range[1]
+                    ? getChangesSince(oldestSequence) : Collections.<Change>emptyList();
+            for (Map.Entry<Subscriber, Long> entry : mSubscribers.entrySet()) {
+                long sequence = entry.getValue();
+                if (sequence == range[1])
+                    continue;
+                // the sequence goes backwards when the database of the book was replaced, e.g. restored
+                if (sequence > range[1] || range[0] > sequence + 1) {
+                    lostSubscribers.add(entry.getKey());
+                } else {
+                    int start = 0;
+                    while (changes.get(start).getSequence() <= sequence) {
+                        start++;
+                    }
+                    notifications.put(entry.getKey(), changes.subList(start, changes.size()));
+                }
+                entry.setValue(range[1]);
+            }
+            Log.d(LOG_TAG, String.format("Dispatching %d changes to %d subscribers", changes.size(),
+                    notifications.size() + lostSubscribers.size()));
+        }
+        // outside of the lock, so that subscribers can call back into the log
+        for (Map.Entry<Subscriber, List<Change>> notification : notifications.entrySet()) {
+            notification.getKey().onChanges(notification.getValue());
+        }
+        for (Subscriber subscriber : lostSubscribers) {
+            subscriber.onChangesLost();
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package org.gnucash.android.db;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
@@ -37,8 +38,11 @@ import javax.xml.parsers.ParserConfigurationException;
 import static org.gnucash.android.db.DatabaseSchema.AccountEntry;
 import static org.gnucash.android.db.DatabaseSchema.BudgetAmountEntry;
 import static org.gnucash.android.db.DatabaseSchema.BudgetEntry;
+import static org.gnucash.android.db.DatabaseSchema.ChangeLogEntry;
 import static org.gnucash.android.db.DatabaseSchema.CommodityEntry;
 import static org.gnucash.android.db.DatabaseSchema.CommonColumns;
+import static org.gnucash.android.db.DatabaseSchema.NetWorthCheckpointEntry;
+import static org.gnucash.android.db.DatabaseSchema.NetWorthStateEntry;
 import static org.gnucash.android.db.DatabaseSchema.PriceEntry;
 import static org.gnucash.android.db.DatabaseSchema.RecurrenceEntry;
 import static org.gnucash.android.db.DatabaseSchema.ScheduledActionEntry;
@@ -79,7 +83,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + AccountEntry.COLUMN_MODIFIED_AT      + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
 //            + "FOREIGN KEY (" 	+ AccountEntry.COLUMN_DEFAULT_TRANSFER_ACCOUNT_UID + ") REFERENCES " + AccountEntry.TABLE_NAME + " (" + AccountEntry.COLUMN_UID + ") ON DELETE SET NULL, "
             + "FOREIGN KEY (" 	+ AccountEntry.COLUMN_COMMODITY_UID + ") REFERENCES " + CommodityEntry.TABLE_NAME + " (" + CommodityEntry.COLUMN_UID + ") "
-			+ ");" + createUpdatedAtTrigger(AccountEntry.TABLE_NAME);
+			+ ")";
 	
 	/**
 	 * SQL statement to create the transactions table in the database
@@ -99,7 +103,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + TransactionEntry.COLUMN_MODIFIED_AT   + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
             + "FOREIGN KEY (" 	+ TransactionEntry.COLUMN_SCHEDX_ACTION_UID + ") REFERENCES " + ScheduledActionEntry.TABLE_NAME + " (" + ScheduledActionEntry.COLUMN_UID + ") ON DELETE SET NULL, "
             + "FOREIGN KEY (" 	+ TransactionEntry.COLUMN_COMMODITY_UID + ") REFERENCES " + CommodityEntry.TABLE_NAME + " (" + CommodityEntry.COLUMN_UID + ") "
-			+ ");" + createUpdatedAtTrigger(TransactionEntry.TABLE_NAME);
+			+ ")";
 
     /**
      * SQL statement to create the transaction splits table
@@ -121,7 +125,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + SplitEntry.COLUMN_MODIFIED_AT     + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
             + "FOREIGN KEY (" 	+ SplitEntry.COLUMN_ACCOUNT_UID + ") REFERENCES " + AccountEntry.TABLE_NAME + " (" + AccountEntry.COLUMN_UID + ") ON DELETE CASCADE, "
             + "FOREIGN KEY (" 	+ SplitEntry.COLUMN_TRANSACTION_UID + ") REFERENCES " + TransactionEntry.TABLE_NAME + " (" + TransactionEntry.COLUMN_UID + ") ON DELETE CASCADE "
-            + ");" + createUpdatedAtTrigger(SplitEntry.TABLE_NAME);
+            + ")";
 
 
     public static final String SCHEDULED_ACTIONS_TABLE_CREATE = "CREATE TABLE " + ScheduledActionEntry.TABLE_NAME + " ("
@@ -145,7 +149,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + ScheduledActionEntry.COLUMN_CREATED_AT        + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
             + ScheduledActionEntry.COLUMN_MODIFIED_AT       + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
             + "FOREIGN KEY (" 	+ ScheduledActionEntry.COLUMN_RECURRENCE_UID + ") REFERENCES " + RecurrenceEntry.TABLE_NAME + " (" + RecurrenceEntry.COLUMN_UID + ") "
-            + ");" + createUpdatedAtTrigger(ScheduledActionEntry.TABLE_NAME);
+            + ")";
 
     public static final String COMMODITIES_TABLE_CREATE = "CREATE TABLE " + DatabaseSchema.CommodityEntry.TABLE_NAME + " ("
             + CommodityEntry._ID                + " integer primary key autoincrement, "
@@ -159,7 +163,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + CommodityEntry.COLUMN_QUOTE_FLAG  + " integer not null, "
             + CommodityEntry.COLUMN_CREATED_AT  + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
             + CommodityEntry.COLUMN_MODIFIED_AT + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP "
-            + ");" + createUpdatedAtTrigger(CommodityEntry.TABLE_NAME);
+            + ")";
 
     /**
      * SQL statement to create the commodity prices table
@@ -176,10 +180,10 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + PriceEntry.COLUMN_VALUE_DENOM     + " integer not null, "
             + PriceEntry.COLUMN_CREATED_AT      + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
             + PriceEntry.COLUMN_MODIFIED_AT     + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
-            + "UNIQUE (" + PriceEntry.COLUMN_COMMODITY_UID + ", " + PriceEntry.COLUMN_CURRENCY_UID + ") ON CONFLICT REPLACE, "
+            + "UNIQUE (" + PriceEntry.COLUMN_COMMODITY_UID + ", " + PriceEntry.COLUMN_CURRENCY_UID + ", " + PriceEntry.COLUMN_DATE + ") ON CONFLICT REPLACE, "
             + "FOREIGN KEY (" 	+ PriceEntry.COLUMN_COMMODITY_UID + ") REFERENCES " + CommodityEntry.TABLE_NAME + " (" + CommodityEntry.COLUMN_UID + ") ON DELETE CASCADE, "
             + "FOREIGN KEY (" 	+ PriceEntry.COLUMN_CURRENCY_UID + ") REFERENCES " + CommodityEntry.TABLE_NAME + " (" + CommodityEntry.COLUMN_UID + ") ON DELETE CASCADE "
-            + ");" + createUpdatedAtTrigger(PriceEntry.TABLE_NAME);
+            + ")";
 
 
     private static final String BUDGETS_TABLE_CREATE = "CREATE TABLE " + BudgetEntry.TABLE_NAME + " ("
@@ -192,7 +196,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + BudgetEntry.COLUMN_CREATED_AT     + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
             + BudgetEntry.COLUMN_MODIFIED_AT    + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
             + "FOREIGN KEY (" 	+ BudgetEntry.COLUMN_RECURRENCE_UID + ") REFERENCES " + RecurrenceEntry.TABLE_NAME + " (" + RecurrenceEntry.COLUMN_UID + ") "
-            + ");" + createUpdatedAtTrigger(BudgetEntry.TABLE_NAME);
+            + ")";
 
     private static final String BUDGET_AMOUNTS_TABLE_CREATE = "CREATE TABLE " + BudgetAmountEntry.TABLE_NAME + " ("
             + BudgetAmountEntry._ID                   + " integer primary key autoincrement, "
@@ -206,7 +210,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + BudgetAmountEntry.COLUMN_MODIFIED_AT    + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
             + "FOREIGN KEY (" 	+ BudgetAmountEntry.COLUMN_ACCOUNT_UID + ") REFERENCES " + AccountEntry.TABLE_NAME + " (" + AccountEntry.COLUMN_UID + ") ON DELETE CASCADE, "
             + "FOREIGN KEY (" 	+ BudgetAmountEntry.COLUMN_BUDGET_UID + ") REFERENCES " + BudgetEntry.TABLE_NAME + " (" + BudgetEntry.COLUMN_UID + ") ON DELETE CASCADE "
-            + ");" + createUpdatedAtTrigger(BudgetAmountEntry.TABLE_NAME);
+            + ")";
 
 
     private static final String RECURRENCE_TABLE_CREATE = "CREATE TABLE " + RecurrenceEntry.TABLE_NAME + " ("
@@ -218,8 +222,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + RecurrenceEntry.COLUMN_PERIOD_START   + " timestamp not null, "
             + RecurrenceEntry.COLUMN_PERIOD_END   + " timestamp, "
             + RecurrenceEntry.COLUMN_CREATED_AT     + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
-            + RecurrenceEntry.COLUMN_MODIFIED_AT    + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP); "
-            + createUpdatedAtTrigger(RecurrenceEntry.TABLE_NAME);
+            + RecurrenceEntry.COLUMN_MODIFIED_AT    + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)";
 
 
     /**
@@ -229,30 +232,331 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	 */
 	public DatabaseHelper(Context context, String databaseName){
 		super(context, databaseName, null, DatabaseSchema.DATABASE_VERSION);
-
+        // also opts out of the compatibility WAL mode of Android 9, see onConfigure()
+        setWriteAheadLoggingEnabled(false);
 	}
 
     /**
-     * Creates an update trigger to update the updated_at column for all records in the database.
-     * This has to be run per table, and is currently appended to the create table statement.
+     * Tables of a book whose records have a modified_at column, which is updated by a trigger
+     */
+    private static final String[] TIMESTAMPED_TABLES = {
+            AccountEntry.TABLE_NAME, TransactionEntry.TABLE_NAME, SplitEntry.TABLE_NAME,
+            ScheduledActionEntry.TABLE_NAME, CommodityEntry.TABLE_NAME, PriceEntry.TABLE_NAME,
+            RecurrenceEntry.TABLE_NAME, BudgetEntry.TABLE_NAME, BudgetAmountEntry.TABLE_NAME
+    };
+
+    /**
+     * Creates an update trigger to update the modified_at column of the records of a table.
+     * <p>The trigger has to be created per table, with a separate statement, since only the first statement
+     * of an SQL string is executed. Updates which set the modified_at column themselves are left as they are</p>
      * @param tableName Name of table on which to create trigger
      * @return SQL statement for creating trigger
      */
     static String createUpdatedAtTrigger(String tableName){
-        return "CREATE TRIGGER update_time_trigger "
+        return "CREATE TRIGGER " + tableName + "_modified_at_trigger"
                 + "  AFTER UPDATE ON " + tableName + " FOR EACH ROW"
+                + "  WHEN NEW." + CommonColumns.COLUMN_MODIFIED_AT + " IS OLD." + CommonColumns.COLUMN_MODIFIED_AT
                 + "  BEGIN " + "UPDATE " + tableName
                 + "  SET " + CommonColumns.COLUMN_MODIFIED_AT + " = CURRENT_TIMESTAMP"
-                + "  WHERE OLD." + CommonColumns.COLUMN_UID + " = NEW." + CommonColumns.COLUMN_UID + ";"
+                + "  WHERE " + CommonColumns._ID + " = NEW." + CommonColumns._ID + ";"
                 + "  END;";
     }
 
+    /**
+     * Creates the triggers updating the modified_at column of all the tables of a book
+     * @param db Database of the book
+     */
+    static void createUpdatedAtTriggers(SQLiteDatabase db) {
+        for (String table : TIMESTAMPED_TABLES) {
+            db.execSQL(createUpdatedAtTrigger(table));
+        }
+    }
+
+    /**
+     * Creates the index of the splits by transaction.
+     * <p>The change log triggers look up the splits of each inserted transaction, which scans
+     * the whole splits table without it and makes the imports quadratic</p>
+     * @param db Database of a book
+     */
+    static void createSplitTransactionIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS '" + SplitEntry.INDEX_TRANSACTION_UID + "' ON "
+                + SplitEntry.TABLE_NAME + "(" + SplitEntry.COLUMN_TRANSACTION_UID + ")");
+    }
+
+    /**
+     * Creates the tables of the net worth checkpoints, and the triggers which record the earliest
+     * modified transaction in the state table.
+     * <p>Transactions and splits are saved with SQL REPLACE, which deletes the previous rows without
+     * running the delete triggers, so the previous rows are also recorded before each insert</p>
+     * @param db Database of a book
+     * @see org.gnucash.android.report.NetWorthSeries
+     */
+    static void createNetWorthTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + NetWorthCheckpointEntry.TABLE_NAME + " ("
+                + NetWorthCheckpointEntry.COLUMN_DATE           + " varchar(10) not null, "
+                + NetWorthCheckpointEntry.COLUMN_ACCOUNT_TYPE   + " varchar(255) not null, "
+                + NetWorthCheckpointEntry.COLUMN_COMMODITY_UID  + " varchar(255) not null, "
+                + NetWorthCheckpointEntry.COLUMN_BALANCE_NUM    + " integer not null, "
+                + NetWorthCheckpointEntry.COLUMN_BALANCE_DENOM  + " integer not null, "
+                + "PRIMARY KEY (" + NetWorthCheckpointEntry.COLUMN_ACCOUNT_TYPE + ", "
+                + NetWorthCheckpointEntry.COLUMN_COMMODITY_UID + ", " + NetWorthCheckpointEntry.COLUMN_DATE + ")"
+                + ")");
+        db.execSQL("CREATE TABLE " + NetWorthStateEntry.TABLE_NAME + " ("
+                + NetWorthStateEntry.COLUMN_DIRTY_FROM + " integer"
+                + ")");
+        // existing transactions are all included the first time the checkpoints are computed
+        db.execSQL("INSERT INTO " + NetWorthStateEntry.TABLE_NAME + " (" + NetWorthStateEntry.COLUMN_DIRTY_FROM + ") "
+                + "SELECT MIN(" + TransactionEntry.COLUMN_TIMESTAMP + ") FROM " + TransactionEntry.TABLE_NAME);
+
+        String transactionTimestamp = "SELECT " + TransactionEntry.COLUMN_TIMESTAMP + " FROM " + TransactionEntry.TABLE_NAME
+                + " WHERE " + TransactionEntry.COLUMN_UID;
+        String splitTransactionTimestamp = "SELECT " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP
+                + " FROM " + TransactionEntry.TABLE_NAME + " , " + SplitEntry.TABLE_NAME
+                + " WHERE " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID
+                + " = " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " AND ";
+
+        db.execSQL(createNetWorthTrigger("net_worth_transaction_replace",
+                "BEFORE INSERT ON " + TransactionEntry.TABLE_NAME,
+                transactionTimestamp + " = NEW." + TransactionEntry.COLUMN_UID));
+        db.execSQL(createNetWorthTrigger("net_worth_transaction_update",
+                "AFTER UPDATE OF " + TransactionEntry.COLUMN_TIMESTAMP + ", " + TransactionEntry.COLUMN_TEMPLATE
+                        + " ON " + TransactionEntry.TABLE_NAME,
+                "SELECT OLD." + TransactionEntry.COLUMN_TIMESTAMP + " UNION ALL SELECT NEW." + TransactionEntry.COLUMN_TIMESTAMP));
+        // before the splits are deleted by the foreign key, when the transaction is gone
+        db.execSQL(createNetWorthTrigger("net_worth_transaction_delete",
+                "BEFORE DELETE ON " + TransactionEntry.TABLE_NAME,
+                "SELECT OLD." + TransactionEntry.COLUMN_TIMESTAMP));
+        db.execSQL(createNetWorthTrigger("net_worth_split_replace",
+                "BEFORE INSERT ON " + SplitEntry.TABLE_NAME,
+                splitTransactionTimestamp + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_UID + " = NEW." + SplitEntry.COLUMN_UID));
+        db.execSQL(createNetWorthTrigger("net_worth_split_insert",
+                "AFTER INSERT ON " + SplitEntry.TABLE_NAME,
+                transactionTimestamp + " = NEW." + SplitEntry.COLUMN_TRANSACTION_UID));
+        db.execSQL(createNetWorthTrigger("net_worth_split_update",
+                "AFTER UPDATE OF " + SplitEntry.COLUMN_TYPE + ", " + SplitEntry.COLUMN_QUANTITY_NUM + ", "
+                        + SplitEntry.COLUMN_QUANTITY_DENOM + ", " + SplitEntry.COLUMN_ACCOUNT_UID + ", "
+                        + SplitEntry.COLUMN_TRANSACTION_UID + " ON " + SplitEntry.TABLE_NAME,
+                transactionTimestamp + " IN (OLD." + SplitEntry.COLUMN_TRANSACTION_UID
+                        + ", NEW." + SplitEntry.COLUMN_TRANSACTION_UID + ")"));
+        db.execSQL(createNetWorthTrigger("net_worth_split_delete",
+                "AFTER DELETE ON " + SplitEntry.TABLE_NAME,
+                transactionTimestamp + " = OLD." + SplitEntry.COLUMN_TRANSACTION_UID));
+        db.execSQL(createNetWorthTrigger("net_worth_account_update",
+                "AFTER UPDATE OF " + AccountEntry.COLUMN_TYPE + ", " + AccountEntry.COLUMN_COMMODITY_UID
+                        + " ON " + AccountEntry.TABLE_NAME,
+                splitTransactionTimestamp + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " = NEW." + AccountEntry.COLUMN_UID));
+    }
+
+    /**
+     * Creates a trigger which lowers the time from which the net worth checkpoints are recomputed
+     * @param name Name of the trigger
+     * @param event When the trigger runs, e.g. "AFTER DELETE ON splits"
+     * @param timestampQuery Query of the timestamps of the modified transactions
+     * @return SQL statement for creating the trigger
+     */
+    private static String createNetWorthTrigger(String name, String event, String timestampQuery) {
+        return "CREATE TRIGGER " + name + " " + event + " FOR EACH ROW"
+                + " BEGIN UPDATE " + NetWorthStateEntry.TABLE_NAME
+                + " SET " + NetWorthStateEntry.COLUMN_DIRTY_FROM + " = (SELECT MIN(time) FROM ("
+                + "SELECT " + NetWorthStateEntry.COLUMN_DIRTY_FROM + " AS time FROM " + NetWorthStateEntry.TABLE_NAME
+                + " UNION ALL " + timestampQuery + "));"
+                + " END;";
+    }
+
+    /**
+     * Creates the change log and the triggers which record the modifications of the book in it
+     * @param db Database of the book
+     * @see ChangeLog
+     */
+    static void createChangeLogTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ChangeLogEntry.TABLE_NAME + " ("
+                + ChangeLogEntry._ID                + " integer primary key autoincrement, "
+                + ChangeLogEntry.COLUMN_ENTITY_TYPE + " varchar(255) not null, "
+                + ChangeLogEntry.COLUMN_ENTITY_UID  + " varchar(255) not null, "
+                + ChangeLogEntry.COLUMN_ACCOUNT_UIDS + " text, "
+                + ChangeLogEntry.COLUMN_TIMESTAMP   + " integer, "
+                + ChangeLogEntry.COLUMN_OPERATION   + " varchar(255) not null"
+                + ")");
+        createChangeLogTriggers(db);
+    }
+
+    /**
+     * Creates the triggers which record the modifications of the book in the change log
+     * @param db Database of the book
+     */
+    static void createChangeLogTriggers(SQLiteDatabase db) {
+        // only the latest modifications are kept, without separate writes for removing the others
+        db.execSQL("CREATE TRIGGER change_log_prune AFTER INSERT ON " + ChangeLogEntry.TABLE_NAME + " FOR EACH ROW"
+                + " BEGIN DELETE FROM " + ChangeLogEntry.TABLE_NAME
+                + " WHERE " + ChangeLogEntry._ID + " <= NEW." + ChangeLogEntry._ID + " - " + ChangeLog.MAX_ENTRIES + ";"
+                + " END;");
+
+        // records replaced with REPLACE are logged as deleted, since the delete triggers do not run for them
+        String accountUIDs = "%1$s" + AccountEntry.COLUMN_UID
+                + " || ifnull(',' || %1$s" + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + ", '')";
+        createChangeLogTriggers(db, AccountEntry.TABLE_NAME, ChangeLog.ENTITY_ACCOUNT,
+                String.format(accountUIDs, AccountEntry.TABLE_NAME + ".") + ", NULL",
+                String.format(accountUIDs, "NEW.") + ", NULL",
+                // a moved account also changes the balances of its former parent
+                String.format(accountUIDs, "NEW.") + " || CASE WHEN OLD." + AccountEntry.COLUMN_PARENT_ACCOUNT_UID
+                        + " IS NOT NEW." + AccountEntry.COLUMN_PARENT_ACCOUNT_UID
+                        + " THEN ifnull(',' || OLD." + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + ", '') ELSE '' END, NULL",
+                String.format(accountUIDs, "OLD.") + ", NULL", false);
+
+        String transactionAccountUIDs = "(SELECT group_concat(" + SplitEntry.COLUMN_ACCOUNT_UID + ") FROM "
+                + SplitEntry.TABLE_NAME + " WHERE " + SplitEntry.COLUMN_TRANSACTION_UID + " = %s)";
+        createChangeLogTriggers(db, TransactionEntry.TABLE_NAME, ChangeLog.ENTITY_TRANSACTION,
+                String.format(transactionAccountUIDs, TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID)
+                        + ", " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP,
+                String.format(transactionAccountUIDs, "NEW." + TransactionEntry.COLUMN_UID)
+                        + ", NEW." + TransactionEntry.COLUMN_TIMESTAMP,
+                String.format(transactionAccountUIDs, "NEW." + TransactionEntry.COLUMN_UID)
+                        + ", min(OLD." + TransactionEntry.COLUMN_TIMESTAMP + ", NEW." + TransactionEntry.COLUMN_TIMESTAMP + ")",
+                String.format(transactionAccountUIDs, "OLD." + TransactionEntry.COLUMN_UID)
+                        + ", OLD." + TransactionEntry.COLUMN_TIMESTAMP,
+                // before the splits are deleted by the foreign key
+                true);
+
+        String splitTimestamp = "(SELECT MIN(" + TransactionEntry.COLUMN_TIMESTAMP + ") FROM " + TransactionEntry.TABLE_NAME
+                + " WHERE " + TransactionEntry.COLUMN_UID + " IN (%s))";
+        createChangeLogTriggers(db, SplitEntry.TABLE_NAME, ChangeLog.ENTITY_SPLIT,
+                SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + ", "
+                        + String.format(splitTimestamp, SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID),
+                "NEW." + SplitEntry.COLUMN_ACCOUNT_UID + ", "
+                        + String.format(splitTimestamp, "NEW." + SplitEntry.COLUMN_TRANSACTION_UID),
+                "NEW." + SplitEntry.COLUMN_ACCOUNT_UID + " || CASE WHEN OLD." + SplitEntry.COLUMN_ACCOUNT_UID
+                        + " IS NOT NEW." + SplitEntry.COLUMN_ACCOUNT_UID + " THEN ',' || OLD." + SplitEntry.COLUMN_ACCOUNT_UID
+                        + " ELSE '' END, "
+                        + String.format(splitTimestamp, "OLD." + SplitEntry.COLUMN_TRANSACTION_UID
+                        + ", NEW." + SplitEntry.COLUMN_TRANSACTION_UID),
+                "OLD." + SplitEntry.COLUMN_ACCOUNT_UID + ", "
+                        + String.format(splitTimestamp, "OLD." + SplitEntry.COLUMN_TRANSACTION_UID), false);
+
+        // prices change the balances of the accounts in both commodities, once converted
+        String priceAccountUIDs = "(SELECT group_concat(" + AccountEntry.COLUMN_UID + ") FROM " + AccountEntry.TABLE_NAME
+                + " WHERE " + AccountEntry.COLUMN_COMMODITY_UID + " IN (%1$s" + PriceEntry.COLUMN_COMMODITY_UID
+                + ", %1$s" + PriceEntry.COLUMN_CURRENCY_UID + ")), CAST(strftime('%%s', %1$s" + PriceEntry.COLUMN_DATE
+                + ") AS INTEGER) * 1000";
+        createChangeLogTriggers(db, PriceEntry.TABLE_NAME, ChangeLog.ENTITY_PRICE,
+                String.format(priceAccountUIDs, PriceEntry.TABLE_NAME + "."),
+                String.format(priceAccountUIDs, "NEW."),
+                String.format(priceAccountUIDs, "NEW."),
+                String.format(priceAccountUIDs, "OLD."), false);
+
+        createChangeLogTriggers(db, BudgetAmountEntry.TABLE_NAME, ChangeLog.ENTITY_BUDGET_AMOUNT,
+                BudgetAmountEntry.COLUMN_ACCOUNT_UID + ", NULL",
+                "NEW." + BudgetAmountEntry.COLUMN_ACCOUNT_UID + ", NULL",
+                "NEW." + BudgetAmountEntry.COLUMN_ACCOUNT_UID + " || CASE WHEN OLD." + BudgetAmountEntry.COLUMN_ACCOUNT_UID
+                        + " IS NOT NEW." + BudgetAmountEntry.COLUMN_ACCOUNT_UID + " THEN ',' || OLD."
+                        + BudgetAmountEntry.COLUMN_ACCOUNT_UID + " ELSE '' END, NULL",
+                "OLD." + BudgetAmountEntry.COLUMN_ACCOUNT_UID + ", NULL", false);
+    }
+
+    /**
+     * Creates the triggers which log the modifications of the records of a table
+     * <p>Each argument is the list of the expressions of the affected accounts and the affected time
+     * of a record, for the records of the table which are replaced, and for the new, updated and deleted records</p>
+     * @param table Name of the table
+     * @param entityType Type of the records, which is logged
+     * @param replacedValues Expressions for the replaced record, in the table itself
+     * @param insertValues Expressions for the new record
+     * @param updateValues Expressions for the updated record
+     * @param deleteValues Expressions for the deleted record
+     * @param deleteBefore Whether deletions are logged before they happen, when the affected accounts are still known
+     */
+    private static void createChangeLogTriggers(SQLiteDatabase db, String table, String entityType,
+                                                String replacedValues, String insertValues, String updateValues,
+                                                String deleteValues, boolean deleteBefore) {
+        String insert = " FOR EACH ROW BEGIN INSERT INTO " + ChangeLogEntry.TABLE_NAME + " ("
+                + ChangeLogEntry.COLUMN_ENTITY_TYPE + ", " + ChangeLogEntry.COLUMN_OPERATION + ", "
+                + ChangeLogEntry.COLUMN_ENTITY_UID + ", " + ChangeLogEntry.COLUMN_ACCOUNT_UIDS + ", "
+                + ChangeLogEntry.COLUMN_TIMESTAMP + ") SELECT '" + entityType + "', ";
+        db.execSQL("CREATE TRIGGER change_log_" + table + "_replace BEFORE INSERT ON " + table + insert
+                + "'" + ChangeLog.Operation.DELETE.name() + "', " + table + "." + CommonColumns.COLUMN_UID + ", "
+                + replacedValues + " FROM " + table
+                + " WHERE " + table + "." + CommonColumns.COLUMN_UID + " = NEW." + CommonColumns.COLUMN_UID + "; END;");
+        db.execSQL("CREATE TRIGGER change_log_" + table + "_insert AFTER INSERT ON " + table + insert
+                + "'" + ChangeLog.Operation.INSERT.name() + "', NEW." + CommonColumns.COLUMN_UID + ", "
+                + insertValues + "; END;");
+        db.execSQL("CREATE TRIGGER change_log_" + table + "_update AFTER UPDATE OF " + getDataColumns(db, table)
+                + " ON " + table + insert
+                + "'" + ChangeLog.Operation.UPDATE.name() + "', NEW." + CommonColumns.COLUMN_UID + ", "
+                + updateValues + "; END;");
+        db.execSQL("CREATE TRIGGER change_log_" + table + "_delete " + (deleteBefore ? "BEFORE" : "AFTER")
+                + " DELETE ON " + table + insert
+                + "'" + ChangeLog.Operation.DELETE.name() + "', OLD." + CommonColumns.COLUMN_UID + ", "
+                + deleteValues + "; END;");
+    }
+
+    /**
+     * Returns the comma-separated columns of a table, without the modified_at column.
+     * <p>Update triggers limited to these columns do not run again when the modified_at trigger updates the record</p>
+     * @param db Database of the book
+     * @param table Name of the table
+     */
+    private static String getDataColumns(SQLiteDatabase db, String table) {
+        StringBuilder columns = new StringBuilder();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                String column = cursor.getString(nameIndex);
+                if (column.equals(CommonColumns.COLUMN_MODIFIED_AT))
+                    continue;
+                if (columns.length() > 0)
+                    columns.append(", ");
+                columns.append(column);
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns.toString();
+    }
+
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		createDatabaseTables(db);
 
 	}
 
+    /**
+     * Keeps the books in rollback journal mode.
+     * <p>The data version of a book, see {@link org.gnucash.android.report.ReportCache#getDataVersion(SQLiteDatabase)},
+     * is the file change counter of the database, which is only incremented by commits in rollback journal mode.
+     * Snapshot backups also copy the database file alone, without a write-ahead log</p>
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.disableWriteAheadLogging();
+        if (isWriteAheadLogging(db)) {
+            // the journal mode of a database which was opened in WAL mode is persistent
+            Cursor cursor = db.rawQuery("PRAGMA journal_mode = TRUNCATE", null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+            if (isWriteAheadLogging(db))
+                throw new IllegalStateException("Could not disable write-ahead logging of " + db.getPath());
+        }
+    }
+
+    /**
+     * Returns {@code true} if the database is in write-ahead logging mode.
+     * <p>{@link SQLiteDatabase#isWriteAheadLoggingEnabled()} does not report the compatibility WAL mode
+     * of Android 9, so the journal mode is queried</p>
+     * @param db Database instance
+     */
+    public static boolean isWriteAheadLogging(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+        try {
+            return cursor.moveToFirst() && "wal".equalsIgnoreCase(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Override
     public void onOpen(SQLiteDatabase db) {
         super.onOpen(db);
@@ -316,7 +620,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(RECURRENCE_TABLE_CREATE);
         db.execSQL(BUDGETS_TABLE_CREATE);
         db.execSQL(BUDGET_AMOUNTS_TABLE_CREATE);
-
+        createUpdatedAtTriggers(db);
 
         String createAccountUidIndex = "CREATE UNIQUE INDEX '" + AccountEntry.INDEX_UID + "' ON "
                 + AccountEntry.TABLE_NAME + "(" + AccountEntry.COLUMN_UID + ")";
@@ -354,6 +658,9 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(createBudgetUidIndex);
         db.execSQL(createRecurrenceUidIndex);
         db.execSQL(createBudgetAmountUidIndex);
+        createSplitTransactionIndex(db);
+        createNetWorthTables(db);
+        createChangeLogTable(db);
 
         try {
             MigrationHelper.importCommodities(db);
@@ -33,13 +33,13 @@ public class DatabaseSchema {
     /**
      * Version number of database containing information about the books in the application
      */
-    public static final int BOOK_DATABASE_VERSION = 1;
+    public static final int BOOK_DATABASE_VERSION = 2;
 
     /**
      * Version number of database containing accounts and transactions info.
      * With any change to the database schema, this number must increase
      */
-    public static final int DATABASE_VERSION = 15;
+    public static final int DATABASE_VERSION = 19;
 
     /**
      * Name of the database
@@ -147,6 +147,7 @@ public class DatabaseSchema {
         public static final String COLUMN_RECONCILE_DATE        = "reconcile_date";
 
         public static final String INDEX_UID                    = "split_uid_index";
+        public static final String INDEX_TRANSACTION_UID        = "split_transaction_uid_index";
     }
 
     public static abstract class ScheduledActionEntry implements CommonColumns {
@@ -274,4 +275,61 @@ public class DatabaseSchema {
 
         public static final String INDEX_UID = "recurrence_uid_index";
     }
+
+    /**
+     * Daily balances of the accounts by account type and commodity.
+     * <p>There is a row for each day on which the balance of an account type and commodity changed,
+     * with the balance at the end of that day. The balances are computed from the splits and have the
+     * sign of debits, see {@link org.gnucash.android.report.NetWorthSeries}</p>
+     */
+    public static abstract class NetWorthCheckpointEntry {
+        public static final String TABLE_NAME           = "net_worth_checkpoints";
+
+        /**
+         * Day of the balance in local time, formatted as yyyy-MM-dd
+         */
+        public static final String COLUMN_DATE          = "date";
+        public static final String COLUMN_ACCOUNT_TYPE  = "account_type";
+        public static final String COLUMN_COMMODITY_UID = "commodity_uid";
+        public static final String COLUMN_BALANCE_NUM   = "balance_num";
+        public static final String COLUMN_BALANCE_DENOM = "balance_denom";
+    }
+
+    /**
+     * Single row recording the earliest time of the transactions which have been modified since the
+     * net worth checkpoints were computed. It is updated by triggers on the transactions, splits and accounts
+     */
+    public static abstract class NetWorthStateEntry {
+        public static final String TABLE_NAME           = "net_worth_state";
+
+        /**
+         * Time in milliseconds from which the checkpoints have to be recomputed, or {@code null} if they are up to date
+         */
+        public static final String COLUMN_DIRTY_FROM    = "dirty_from";
+    }
+
+    /**
+     * Log of the modifications of the book, filled by triggers.
+     * The row ID is the sequence number of the modification
+     */
+    public static abstract class ChangeLogEntry implements BaseColumns {
+        public static final String TABLE_NAME           = "change_log";
+
+        /**
+         * Type of the modified record, see {@link org.gnucash.android.db.ChangeLog}
+         */
+        public static final String COLUMN_ENTITY_TYPE   = "entity_type";
+        public static final String COLUMN_ENTITY_UID    = "entity_uid";
+
+        /**
+         * Comma-separated GUIDs of the accounts whose balances are affected by the modification
+         */
+        public static final String COLUMN_ACCOUNT_UIDS  = "account_uids";
+
+        /**
+         * Earliest time in milliseconds affected by the modification, or {@code null}
+         */
+        public static final String COLUMN_TIMESTAMP     = "timestamp";
+        public static final String COLUMN_OPERATION     = "operation";
+    }
 }
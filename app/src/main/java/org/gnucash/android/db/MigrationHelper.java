@@ -76,6 +76,7 @@ import javax.xml.parsers.SAXParserFactory;
 import static org.gnucash.android.db.DatabaseSchema.AccountEntry;
 import static org.gnucash.android.db.DatabaseSchema.BudgetAmountEntry;
 import static org.gnucash.android.db.DatabaseSchema.BudgetEntry;
+import static org.gnucash.android.db.DatabaseSchema.ChangeLogEntry;
 import static org.gnucash.android.db.DatabaseSchema.CommodityEntry;
 import static org.gnucash.android.db.DatabaseSchema.CommonColumns;
 import static org.gnucash.android.db.DatabaseSchema.PriceEntry;
@@ -521,7 +522,7 @@ public class MigrationHelper {
                     + ScheduledActionEntry.COLUMN_EXECUTION_COUNT+ " integer default 0, "
                     + ScheduledActionEntry.COLUMN_CREATED_AT     + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
                     + ScheduledActionEntry.COLUMN_MODIFIED_AT    + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP "
-                    + ");" + DatabaseHelper.createUpdatedAtTrigger(ScheduledActionEntry.TABLE_NAME));
+                    + ")");
 
 
             //==============================BEGIN TABLE MIGRATIONS ========================================
@@ -545,7 +546,7 @@ public class MigrationHelper {
                     + AccountEntry.COLUMN_DEFAULT_TRANSFER_ACCOUNT_UID + " varchar(255), "
                     + AccountEntry.COLUMN_CREATED_AT + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
                     + AccountEntry.COLUMN_MODIFIED_AT + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP "
-                    + ");" + DatabaseHelper.createUpdatedAtTrigger(AccountEntry.TABLE_NAME));
+                    + ")");
 
             // initialize new account table with data from old table
             db.execSQL("INSERT INTO " + AccountEntry.TABLE_NAME + " ( "
@@ -594,7 +595,7 @@ public class MigrationHelper {
                     + TransactionEntry.COLUMN_CREATED_AT + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
                     + TransactionEntry.COLUMN_MODIFIED_AT + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
                     + "FOREIGN KEY (" + TransactionEntry.COLUMN_SCHEDX_ACTION_UID + ") REFERENCES " + ScheduledActionEntry.TABLE_NAME + " (" + ScheduledActionEntry.COLUMN_UID + ") ON DELETE SET NULL "
-                    + ");" + DatabaseHelper.createUpdatedAtTrigger(TransactionEntry.TABLE_NAME));
+                    + ")");
 
             // initialize new transaction table with data from old table
             db.execSQL("INSERT INTO " + TransactionEntry.TABLE_NAME + " ( "
@@ -634,7 +635,7 @@ public class MigrationHelper {
                     + SplitEntry.COLUMN_MODIFIED_AT + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
                     + "FOREIGN KEY (" + SplitEntry.COLUMN_ACCOUNT_UID + ") REFERENCES " + AccountEntry.TABLE_NAME + " (" + AccountEntry.COLUMN_UID + ") ON DELETE CASCADE, "
                     + "FOREIGN KEY (" + SplitEntry.COLUMN_TRANSACTION_UID + ") REFERENCES " + TransactionEntry.TABLE_NAME + " (" + TransactionEntry.COLUMN_UID + ") ON DELETE CASCADE "
-                    + ");" + DatabaseHelper.createUpdatedAtTrigger(SplitEntry.TABLE_NAME));
+                    + ")");
 
             // initialize new split table with data from old table
             db.execSQL("INSERT INTO " + SplitEntry.TABLE_NAME + " ( "
@@ -878,7 +879,7 @@ public class MigrationHelper {
                     + CommodityEntry.COLUMN_QUOTE_FLAG  + " integer not null, "
                     + CommodityEntry.COLUMN_CREATED_AT  + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
                     + CommodityEntry.COLUMN_MODIFIED_AT + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP "
-                    + ");" + DatabaseHelper.createUpdatedAtTrigger(CommodityEntry.TABLE_NAME));
+                    + ")");
             db.execSQL("CREATE UNIQUE INDEX '" + CommodityEntry.INDEX_UID
                     + "' ON " + CommodityEntry.TABLE_NAME + "(" + CommodityEntry.COLUMN_UID + ")");
 
@@ -925,7 +926,7 @@ public class MigrationHelper {
                     + "UNIQUE (" + PriceEntry.COLUMN_COMMODITY_UID + ", " + PriceEntry.COLUMN_CURRENCY_UID + ") ON CONFLICT REPLACE, "
                     + "FOREIGN KEY (" 	+ PriceEntry.COLUMN_COMMODITY_UID + ") REFERENCES " + CommodityEntry.TABLE_NAME + " (" + CommodityEntry.COLUMN_UID + ") ON DELETE CASCADE, "
                     + "FOREIGN KEY (" 	+ PriceEntry.COLUMN_CURRENCY_UID + ") REFERENCES " + CommodityEntry.TABLE_NAME + " (" + CommodityEntry.COLUMN_UID + ") ON DELETE CASCADE "
-                    + ");" + DatabaseHelper.createUpdatedAtTrigger(PriceEntry.TABLE_NAME));
+                    + ")");
             db.execSQL("CREATE UNIQUE INDEX '" + PriceEntry.INDEX_UID
                     + "' ON " + PriceEntry.TABLE_NAME + "(" + PriceEntry.COLUMN_UID + ")");
 
@@ -949,7 +950,7 @@ public class MigrationHelper {
                     + SplitEntry.COLUMN_MODIFIED_AT      + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
                     + "FOREIGN KEY (" 	+ SplitEntry.COLUMN_ACCOUNT_UID + ") REFERENCES " + AccountEntry.TABLE_NAME + " (" + AccountEntry.COLUMN_UID + ") ON DELETE CASCADE, "
                     + "FOREIGN KEY (" 	+ SplitEntry.COLUMN_TRANSACTION_UID + ") REFERENCES " + TransactionEntry.TABLE_NAME + " (" + TransactionEntry.COLUMN_UID + ") ON DELETE CASCADE "
-                    + ");" + DatabaseHelper.createUpdatedAtTrigger(SplitEntry.TABLE_NAME));
+                    + ")");
 
             // initialize new split table with data from old table
             db.execSQL("INSERT INTO " + SplitEntry.TABLE_NAME + " ( "
@@ -1255,8 +1256,7 @@ public class MigrationHelper {
                     + RecurrenceEntry.COLUMN_PERIOD_START   + " timestamp not null, "
                     + RecurrenceEntry.COLUMN_PERIOD_END   + " timestamp, "
                     + RecurrenceEntry.COLUMN_CREATED_AT     + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
-                    + RecurrenceEntry.COLUMN_MODIFIED_AT    + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP); "
-                    + DatabaseHelper.createUpdatedAtTrigger(RecurrenceEntry.TABLE_NAME));
+                    + RecurrenceEntry.COLUMN_MODIFIED_AT    + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
 
             db.execSQL("CREATE TABLE " + BudgetEntry.TABLE_NAME + " ("
                     + BudgetEntry._ID                   + " integer primary key autoincrement, "
@@ -1268,7 +1268,7 @@ public class MigrationHelper {
                     + BudgetEntry.COLUMN_CREATED_AT     + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
                     + BudgetEntry.COLUMN_MODIFIED_AT    + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
                     + "FOREIGN KEY (" 	+ BudgetEntry.COLUMN_RECURRENCE_UID + ") REFERENCES " + RecurrenceEntry.TABLE_NAME + " (" + RecurrenceEntry.COLUMN_UID + ") "
-                    + ");" + DatabaseHelper.createUpdatedAtTrigger(BudgetEntry.TABLE_NAME));
+                    + ")");
 
             db.execSQL("CREATE UNIQUE INDEX '" + BudgetEntry.INDEX_UID
                     + "' ON " + BudgetEntry.TABLE_NAME + "(" + BudgetEntry.COLUMN_UID + ")");
@@ -1285,7 +1285,7 @@ public class MigrationHelper {
                     + BudgetAmountEntry.COLUMN_MODIFIED_AT    + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
                     + "FOREIGN KEY (" 	+ BudgetAmountEntry.COLUMN_ACCOUNT_UID + ") REFERENCES " + AccountEntry.TABLE_NAME + " (" + AccountEntry.COLUMN_UID + ") ON DELETE CASCADE, "
                     + "FOREIGN KEY (" 	+ BudgetAmountEntry.COLUMN_BUDGET_UID + ") REFERENCES " + BudgetEntry.TABLE_NAME + " (" + BudgetEntry.COLUMN_UID + ") ON DELETE CASCADE "
-                    + ");" + DatabaseHelper.createUpdatedAtTrigger(BudgetAmountEntry.TABLE_NAME));
+                    + ")");
 
             db.execSQL("CREATE UNIQUE INDEX '" + BudgetAmountEntry.INDEX_UID
                     + "' ON " + BudgetAmountEntry.TABLE_NAME + "(" + BudgetAmountEntry.COLUMN_UID + ")");
@@ -1315,7 +1315,7 @@ public class MigrationHelper {
                     + ScheduledActionEntry.COLUMN_CREATED_AT        + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
                     + ScheduledActionEntry.COLUMN_MODIFIED_AT       + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
                     + "FOREIGN KEY (" 	+ ScheduledActionEntry.COLUMN_RECURRENCE_UID + ") REFERENCES " + RecurrenceEntry.TABLE_NAME + " (" + RecurrenceEntry.COLUMN_UID + ") "
-                    + ");" + DatabaseHelper.createUpdatedAtTrigger(ScheduledActionEntry.TABLE_NAME));
+                    + ")");
 
 
             // initialize new transaction table with data from old table
@@ -1408,7 +1408,7 @@ public class MigrationHelper {
                     + SplitEntry.COLUMN_MODIFIED_AT     + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
                     + "FOREIGN KEY (" 	+ SplitEntry.COLUMN_ACCOUNT_UID + ") REFERENCES " + AccountEntry.TABLE_NAME + " (" + AccountEntry.COLUMN_UID + ") ON DELETE CASCADE, "
                     + "FOREIGN KEY (" 	+ SplitEntry.COLUMN_TRANSACTION_UID + ") REFERENCES " + TransactionEntry.TABLE_NAME + " (" + TransactionEntry.COLUMN_UID + ") ON DELETE CASCADE "
-                    + ");" + DatabaseHelper.createUpdatedAtTrigger(SplitEntry.TABLE_NAME));
+                    + ")");
 
             db.execSQL("INSERT INTO " + SplitEntry.TABLE_NAME + " ( "
                     + SplitEntry._ID                    + " , "
@@ -1628,4 +1628,157 @@ public class MigrationHelper {
         rescheduleServiceAlarm();
         return dbVersion;
     }
+
+    /**
+     * Upgrades the database to version 16.
+     * <p>This migration makes the following changes to the database:
+     * <ul>
+     *     <li>Keeps the history of prices: a commodity pair can now have one price per date,
+     *         instead of a single price which was replaced by every new price</li>
+     * </ul>
+     * </p>
+     * @param db SQLite database to be upgraded
+     * @return New database version, 16 if migration succeeds, 15 otherwise
+     */
+    static int upgradeDbToVersion16(SQLiteDatabase db) {
+        Log.i(DatabaseHelper.LOG_TAG, "Upgrading database to version 16");
+        int dbVersion = 15;
+
+        db.beginTransaction();
+        try {
+            db.execSQL("ALTER TABLE " + PriceEntry.TABLE_NAME + " RENAME TO " + PriceEntry.TABLE_NAME + "_bak");
+            db.execSQL("CREATE TABLE " + PriceEntry.TABLE_NAME + " ("
+                    + PriceEntry._ID                    + " integer primary key autoincrement, "
+                    + PriceEntry.COLUMN_UID             + " varchar(255) not null UNIQUE, "
+                    + PriceEntry.COLUMN_COMMODITY_UID 	+ " varchar(255) not null, "
+                    + PriceEntry.COLUMN_CURRENCY_UID    + " varchar(255) not null, "
+                    + PriceEntry.COLUMN_TYPE            + " varchar(255), "
+                    + PriceEntry.COLUMN_DATE 	        + " TIMESTAMP not null, "
+                    + PriceEntry.COLUMN_SOURCE          + " text, "
+                    + PriceEntry.COLUMN_VALUE_NUM       + " integer not null, "
+                    + PriceEntry.COLUMN_VALUE_DENOM     + " integer not null, "
+                    + PriceEntry.COLUMN_CREATED_AT      + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                    + PriceEntry.COLUMN_MODIFIED_AT     + " TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+                    + "UNIQUE (" + PriceEntry.COLUMN_COMMODITY_UID + ", " + PriceEntry.COLUMN_CURRENCY_UID + ", " + PriceEntry.COLUMN_DATE + ") ON CONFLICT REPLACE, "
+                    + "FOREIGN KEY (" 	+ PriceEntry.COLUMN_COMMODITY_UID + ") REFERENCES " + CommodityEntry.TABLE_NAME + " (" + CommodityEntry.COLUMN_UID + ") ON DELETE CASCADE, "
+                    + "FOREIGN KEY (" 	+ PriceEntry.COLUMN_CURRENCY_UID + ") REFERENCES " + CommodityEntry.TABLE_NAME + " (" + CommodityEntry.COLUMN_UID + ") ON DELETE CASCADE "
+                    + ")");
+
+            String columns = TextUtils.join(" , ", new String[]{
+                    PriceEntry._ID, PriceEntry.COLUMN_UID, PriceEntry.COLUMN_COMMODITY_UID,
+                    PriceEntry.COLUMN_CURRENCY_UID, PriceEntry.COLUMN_TYPE, PriceEntry.COLUMN_DATE,
+                    PriceEntry.COLUMN_SOURCE, PriceEntry.COLUMN_VALUE_NUM, PriceEntry.COLUMN_VALUE_DENOM,
+                    PriceEntry.COLUMN_CREATED_AT, PriceEntry.COLUMN_MODIFIED_AT});
+            db.execSQL("INSERT INTO " + PriceEntry.TABLE_NAME + " ( " + columns + " ) "
+                    + " SELECT " + columns + " FROM " + PriceEntry.TABLE_NAME + "_bak");
+            db.execSQL("DROP TABLE " + PriceEntry.TABLE_NAME + "_bak");
+            db.execSQL("CREATE UNIQUE INDEX '" + PriceEntry.INDEX_UID
+                    + "' ON " + PriceEntry.TABLE_NAME + "(" + PriceEntry.COLUMN_UID + ")");
+            db.setTransactionSuccessful();
+            dbVersion = 16;
+        } finally {
+            db.endTransaction();
+        }
+        return dbVersion;
+    }
+
+    /**
+     * Upgrades the database to version 17.
+     * <p>This migration makes the following changes to the database:
+     * <ul>
+     *     <li>Adds the tables of the daily net worth checkpoints, and the triggers which record
+     *         the modified transactions for recomputing them</li>
+     * </ul>
+     * </p>
+     * @param db SQLite database to be upgraded
+     * @return New database version, 17 if migration succeeds, 16 otherwise
+     */
+    static int upgradeDbToVersion17(SQLiteDatabase db) {
+        Log.i(DatabaseHelper.LOG_TAG, "Upgrading database to version 17");
+        int dbVersion = 16;
+
+        db.beginTransaction();
+        try {
+            // the checkpoints are computed from all transactions the first time they are read
+            DatabaseHelper.createNetWorthTables(db);
+            db.setTransactionSuccessful();
+            dbVersion = 17;
+        } finally {
+            db.endTransaction();
+        }
+        return dbVersion;
+    }
+
+    /**
+     * Upgrades the database to version 18.
+     * <p>This migration makes the following changes to the database:
+     * <ul>
+     *     <li>Adds the change log, and the triggers which record the modifications of accounts,
+     *         transactions, splits, prices and budget amounts in it</li>
+     *     <li>Indexes the splits by transaction, which the change log triggers look up</li>
+     * </ul>
+     * </p>
+     * @param db SQLite database to be upgraded
+     * @return New database version, 18 if migration succeeds, 17 otherwise
+     */
+    static int upgradeDbToVersion18(SQLiteDatabase db) {
+        Log.i(DatabaseHelper.LOG_TAG, "Upgrading database to version 18");
+        int dbVersion = 17;
+
+        db.beginTransaction();
+        try {
+            DatabaseHelper.createSplitTransactionIndex(db);
+            DatabaseHelper.createChangeLogTable(db);
+            db.setTransactionSuccessful();
+            dbVersion = 18;
+        } finally {
+            db.endTransaction();
+        }
+        return dbVersion;
+    }
+
+    /**
+     * Upgrades the database to version 19.
+     * <p>This migration makes the following changes to the database:
+     * <ul>
+     *     <li>Creates the triggers updating the modified_at column of each table. They were appended
+     *         to the create table statements, and therefore never created</li>
+     *     <li>Recreates the change log triggers, so that updates of the modified_at column alone are not logged</li>
+     *     <li>Indexes the splits by transaction, if the database was upgraded to version 18 without it</li>
+     * </ul>
+     * </p>
+     * @param db SQLite database to be upgraded
+     * @return New database version, 19 if migration succeeds, 18 otherwise
+     */
+    static int upgradeDbToVersion19(SQLiteDatabase db) {
+        Log.i(DatabaseHelper.LOG_TAG, "Upgrading database to version 19");
+        int dbVersion = 18;
+
+        db.beginTransaction();
+        try {
+            db.execSQL("DROP TRIGGER IF EXISTS update_time_trigger");
+            DatabaseHelper.createUpdatedAtTriggers(db);
+
+            List<String> changeLogTriggers = new ArrayList<>();
+            Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'trigger' AND name LIKE ?",
+                    new String[]{ChangeLogEntry.TABLE_NAME + "%"});
+            try {
+                while (cursor.moveToNext()) {
+                    changeLogTriggers.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            for (String trigger : changeLogTriggers) {
+                db.execSQL("DROP TRIGGER " + trigger);
+            }
+            DatabaseHelper.createChangeLogTriggers(db);
+            DatabaseHelper.createSplitTransactionIndex(db);
+            db.setTransactionSuccessful();
+            dbVersion = 19;
+        } finally {
+            db.endTransaction();
+        }
+        return dbVersion;
+    }
 }
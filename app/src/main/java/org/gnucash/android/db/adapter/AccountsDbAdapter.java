@@ -27,6 +27,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.Pair;
 
 import org.gnucash.android.R;
 import org.gnucash.android.app.GnuCashApplication;
@@ -35,6 +36,7 @@ import org.gnucash.android.model.Account;
 import org.gnucash.android.model.AccountType;
 import org.gnucash.android.model.Commodity;
 import org.gnucash.android.model.Money;
+import org.gnucash.android.model.PriceSeries;
 import org.gnucash.android.model.Split;
 import org.gnucash.android.model.Transaction;
 import org.gnucash.android.model.TransactionType;
@@ -43,9 +45,12 @@ import org.gnucash.android.util.TimestampHelper;
 import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
 import static org.gnucash.android.db.DatabaseSchema.AccountEntry;
 import static org.gnucash.android.db.DatabaseSchema.SplitEntry;
@@ -542,7 +547,8 @@ public class AccountsDbAdapter extends DatabaseAdapter<Account> {
         return accounts;
     }
 	/**
-	 * Returns a list of accounts which have transactions that have not been exported yet
+	 * Returns a list of accounts which have transactions that have not been exported yet.
+	 * <p>The transactions of the accounts are not loaded</p>
      * @param lastExportTimeStamp Timestamp after which to any transactions created/modified should be exported
 	 * @return List of {@link Account}s with unexported transactions
 	 */
@@ -564,7 +570,7 @@ public class AccountsDbAdapter extends DatabaseAdapter<Account> {
         );
         try {
             while (cursor.moveToNext()) {
-                accountsList.add(buildModelInstance(cursor));
+                accountsList.add(buildSimpleAccountInstance(cursor));
             }
         }
         finally {
@@ -866,6 +872,359 @@ public class AccountsDbAdapter extends DatabaseAdapter<Account> {
         return balance.add(splitSum);
     }
 
+    /**
+     * Returns the balances of all accounts within the specified time range, including sub-accounts.
+     * <p>The splits are added up per account with a single query, and the totals are then rolled up
+     * the account tree in one post-order pass, converting them with the prices valid at the end of
+     * the range. The balance of each account is the same as with {@link #getAccountBalance(String, long, long)},
+     * which aggregates the splits of all descendants again for every account it is called for,
+     * and always converts with the latest prices.</p>
+     * @param startTimestamp the start timestamp of the time range, or -1
+     * @param endTimestamp the end timestamp of the time range, or -1
+     * @return Balances of all accounts by GUID, each in the currency of the account
+     */
+    public Map<String, Money> getAccountBalances(long startTimestamp, long endTimestamp) {
+        long startTime = System.nanoTime();
+        BalanceRollup rollup = new BalanceRollup(endTimestamp == -1 ? Long.MAX_VALUE : endTimestamp);
+        rollup.loadSplitTotals(startTimestamp, endTimestamp);
+        rollup.loadAccountTree();
+        for (String accountUID : rollup.mTopLevelAccountUIDs) {
+            rollup.rollUp(accountUID);
+        }
+        Log.d(LOG_TAG, String.format("%d ns spent on rolling up the balances of %d accounts",
+                System.nanoTime() - startTime, rollup.mBalances.size()));
+        return rollup.mBalances;
+    }
+
+    /**
+     * Returns the balances of some accounts in several time ranges, including sub-accounts.
+     * <p>Ranges may overlap, so they are cut at all their bounds into intervals which do not overlap.
+     * The splits of the accounts and their descendants are added up per account and interval with
+     * a single scan, which finds the interval of each split with a binary search written as nested
+     * CASE expressions. The totals of the intervals are then added up for each range containing them.
+     * The balance of each account and range is the same as with {@link #getAccountBalance(String, long, long)}, except
+     * that amounts in other currencies are converted with the prices valid at the end of each range</p>
+     * @param accountUIDs GUIDs of the accounts
+     * @param startTimestamps Start timestamp of each range, or -1
+     * @param endTimestamps End timestamp of each range, or -1. Both bounds of the ranges are inclusive
+     * @return Balances of each account by GUID, one per range, each in the currency of the account
+     */
+    public Map<String, Money[]> getAccountBalances(@NonNull Collection<String> accountUIDs,
+                                                   @NonNull long[] startTimestamps, @NonNull long[] endTimestamps) {
+        long startTime = System.nanoTime();
+        int rangeCount = startTimestamps.length;
+        BalanceRollup rollup = new BalanceRollup(Long.MAX_VALUE);
+        rollup.loadAccountTree();
+
+        // the requested accounts which include the splits of each account
+        Map<String, List<String>> includingAccountUIDs = new HashMap<>();
+        for (String accountUID : accountUIDs) {
+            if (!rollup.mAccountTypes.containsKey(accountUID))
+                continue;
+            LinkedList<String> pending = new LinkedList<>();
+            pending.add(accountUID);
+            while (!pending.isEmpty()) {
+                String descendantUID = pending.removeFirst();
+                List<String> including = includingAccountUIDs.get(descendantUID);
+                if (including == null) {
+                    including = new ArrayList<>();
+                    includingAccountUIDs.put(descendantUID, including);
+                }
+                including.add(accountUID);
+                List<String> children = rollup.mChildAccountUIDs.get(descendantUID);
+                if (children != null)
+                    pending.addAll(children);
+            }
+        }
+
+        // totals of each requested account and range, by currency
+        Map<String, List<Map<String, BigDecimal>>> totals = new HashMap<>();
+        if (!includingAccountUIDs.isEmpty() && rangeCount > 0) {
+            // interval i starts at bounds[i - 1] and ends before bounds[i], the first and last ones are unbounded
+            TreeSet<Long> boundSet = new TreeSet<>();
+            long minStart = Long.MAX_VALUE;
+            long maxEnd = Long.MIN_VALUE;
+            for (int range = 0; range < rangeCount; range++) {
+                long start = startTimestamps[range] == -1 ? Long.MIN_VALUE : startTimestamps[range];
+                long end = endTimestamps[range] == -1 ? Long.MAX_VALUE : endTimestamps[range];
+                if (start != Long.MIN_VALUE)
+                    boundSet.add(start);
+                if (end != Long.MAX_VALUE)
+                    boundSet.add(end + 1);
+                minStart = Math.min(minStart, start);
+                maxEnd = Math.max(maxEnd, end);
+            }
+            long[] bounds = new long[boundSet.size()];
+            int boundIndex = 0;
+            for (Long bound : boundSet) {
+                bounds[boundIndex++] = bound;
+            }
+            List<List<Integer>> intervalRanges = new ArrayList<>(bounds.length + 1);
+            for (int interval = 0; interval <= bounds.length; interval++) {
+                long intervalStart = interval == 0 ? Long.MIN_VALUE : bounds[interval - 1];
+                List<Integer> ranges = new ArrayList<>();
+                for (int range = 0; range < rangeCount; range++) {
+                    long start = startTimestamps[range] == -1 ? Long.MIN_VALUE : startTimestamps[range];
+                    long end = endTimestamps[range] == -1 ? Long.MAX_VALUE : endTimestamps[range];
+                    if (start <= intervalStart && intervalStart <= end)
+                        ranges.add(range);
+                }
+                intervalRanges.add(ranges);
+            }
+
+            String timestamp = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP;
+            // amounts with different denominators cannot be added up in SQL
+            Cursor cursor = mDb.rawQuery("SELECT " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + ", "
+                    + getIntervalExpression(timestamp, bounds, 0, bounds.length) + " AS interval_index, "
+                    + "SUM(CASE WHEN " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " ELSE - "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " END), "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM
+                    + " FROM " + SplitEntry.TABLE_NAME + " INNER JOIN " + TransactionEntry.TABLE_NAME + " ON "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " = "
+                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID
+                    + " WHERE " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0"
+                    + " AND " + timestamp + " BETWEEN " + minStart + " AND " + maxEnd
+                    + " AND " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " IN ('"
+                    + TextUtils.join("', '", includingAccountUIDs.keySet()) + "')"
+                    + " GROUP BY " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + ", "
+                    + "interval_index, " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM, null);
+            try {
+                while (cursor.moveToNext()) {
+                    long amount = cursor.getLong(2);
+                    String splitAccountUID = cursor.getString(0);
+                    String currencyCode = rollup.mCurrencyCodes.get(splitAccountUID);
+                    // splits of accounts in the custom currency are ignored, as with getAccountBalance()
+                    if (amount == 0 || currencyCode.equals("XXX"))
+                        continue;
+                    List<Integer> ranges = intervalRanges.get(cursor.getInt(1));
+                    BigDecimal value = Money.getBigDecimal(amount, cursor.getLong(3));
+                    for (String accountUID : includingAccountUIDs.get(splitAccountUID)) {
+                        List<Map<String, BigDecimal>> accountTotals = totals.get(accountUID);
+                        if (accountTotals == null) {
+                            accountTotals = new ArrayList<>(rangeCount);
+                            for (int i = 0; i < rangeCount; i++) {
+                                accountTotals.add(new HashMap<String, BigDecimal>());
+                            }
+                            totals.put(accountUID, accountTotals);
+                        }
+                        for (int range : ranges) {
+                            Map<String, BigDecimal> rangeTotals = accountTotals.get(range);
+                            BigDecimal total = rangeTotals.get(currencyCode);
+                            rangeTotals.put(currencyCode, total == null ? value : total.add(value));
+                        }
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        Map<String, Money[]> balances = new HashMap<>();
+        for (String accountUID : accountUIDs) {
+            AccountType accountType = rollup.mAccountTypes.get(accountUID);
+            if (accountType == null)
+                continue;
+            Commodity commodity = rollup.getCommodity(rollup.mCurrencyCodes.get(accountUID));
+            List<Map<String, BigDecimal>> accountTotals = totals.get(accountUID);
+            Money[] accountBalances = new Money[rangeCount];
+            for (int range = 0; range < rangeCount; range++) {
+                Money balance = new Money(BigDecimal.ZERO, commodity);
+                if (accountTotals != null) {
+                    for (Map.Entry<String, BigDecimal> total : accountTotals.get(range).entrySet()) {
+                        BigDecimal amount = rollup.convert(total.getValue(), total.getKey(), commodity,
+                                endTimestamps[range] == -1 ? Long.MAX_VALUE : endTimestamps[range]);
+                        if (amount != null)
+                            balance = balance.add(new Money(amount, commodity));
+                    }
+                }
+                accountBalances[range] = accountType.hasDebitNormalBalance() ? balance : balance.negate();
+            }
+            balances.put(accountUID, accountBalances);
+        }
+        Log.d(LOG_TAG, String.format("%d ns spent on computing the balances of %d accounts in %d ranges",
+                System.nanoTime() - startTime, balances.size(), rangeCount));
+        return balances;
+    }
+
+    /**
+     * Returns an SQL expression of the index of the interval containing a timestamp, with a binary search
+     * <p>The depth of the expression grows with the logarithm of the number of intervals, which keeps it
+     * well within the limits of SQLite, unlike a compound query with one term per interval</p>
+     * @param timestamp Expression of the timestamp
+     * @param bounds Sorted bounds of the intervals. Interval i starts at {@code bounds[i - 1]} and ends before {@code bounds[i]}
+     * @param first Index of the first interval which may contain the timestamp
+     * @param last Index of the last interval which may contain the timestamp
+     */
+    private static String getIntervalExpression(String timestamp, long[] bounds, int first, int last) {
+        if (first == last)
+            return String.valueOf(first);
+        int middle = (first + last + 1) / 2;
+        return "(CASE WHEN " + timestamp + " < " + bounds[middle - 1]
+                + " THEN " + getIntervalExpression(timestamp, bounds, first, middle - 1)
+                + " ELSE " + getIntervalExpression(timestamp, bounds, middle, last) + " END)";
+    }
+
+    /**
+     * State of {@link #getAccountBalances(long, long)}, also used by {@link #getAccountBalances(Collection, long[], long[])}
+     */
+    private class BalanceRollup {
+        /**
+         * Totals of the splits of each account, in the currency of the account
+         */
+        final Map<String, BigDecimal> mSplitTotals = new HashMap<>();
+        final Map<String, List<String>> mChildAccountUIDs = new HashMap<>();
+        final Map<String, String> mCurrencyCodes = new HashMap<>();
+        final Map<String, AccountType> mAccountTypes = new HashMap<>();
+        final List<String> mTopLevelAccountUIDs = new ArrayList<>();
+        final Map<String, Money> mBalances = new HashMap<>();
+
+        final Map<String, Commodity> mCommodities = new HashMap<>();
+        /**
+         * Time of the prices used for the balances of {@link #rollUp(String)}
+         */
+        final long mPriceTime;
+        PriceSeries mPriceSeries;
+
+        BalanceRollup(long priceTime) {
+            mPriceTime = priceTime;
+        }
+
+        void loadSplitTotals(long startTimestamp, long endTimestamp) {
+            String timestamp = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP;
+            String selection = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0";
+            List<String> selectionArgs = new ArrayList<>();
+            if (startTimestamp != -1) {
+                selection += " AND " + timestamp + " >= ?";
+                selectionArgs.add(String.valueOf(startTimestamp));
+            }
+            if (endTimestamp != -1) {
+                selection += " AND " + timestamp + " <= ?";
+                selectionArgs.add(String.valueOf(endTimestamp));
+            }
+            // amounts with different denominators cannot be added up in SQL
+            Cursor cursor = mDb.rawQuery("SELECT " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + ", "
+                    + "SUM(CASE WHEN " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " ELSE - "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " END), "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM
+                    + " FROM " + SplitEntry.TABLE_NAME + " INNER JOIN " + TransactionEntry.TABLE_NAME + " ON "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID + " = "
+                    + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID
+                    + " WHERE " + selection
+                    + " GROUP BY " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + ", "
+                    + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM,
+                    selectionArgs.toArray(new String[selectionArgs.size()]));
+            try {
+                while (cursor.moveToNext()) {
+                    long amount = cursor.getLong(1);
+                    if (amount == 0)
+                        continue;
+                    String accountUID = cursor.getString(0);
+                    BigDecimal total = Money.getBigDecimal(amount, cursor.getLong(2));
+                    BigDecimal previous = mSplitTotals.get(accountUID);
+                    mSplitTotals.put(accountUID, previous == null ? total : previous.add(total));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        void loadAccountTree() {
+            Cursor cursor = mDb.query(AccountEntry.TABLE_NAME,
+                    new String[]{AccountEntry.COLUMN_UID, AccountEntry.COLUMN_PARENT_ACCOUNT_UID,
+                            AccountEntry.COLUMN_TYPE, AccountEntry.COLUMN_CURRENCY},
+                    null, null, null, null, null);
+            Map<String, String> parentAccountUIDs = new HashMap<>();
+            try {
+                while (cursor.moveToNext()) {
+                    String accountUID = cursor.getString(0);
+                    parentAccountUIDs.put(accountUID, cursor.getString(1));
+                    mAccountTypes.put(accountUID, AccountType.valueOf(cursor.getString(2)));
+                    mCurrencyCodes.put(accountUID, cursor.getString(3));
+                }
+            } finally {
+                cursor.close();
+            }
+            for (Map.Entry<String, String> entry : parentAccountUIDs.entrySet()) {
+                String parentUID = entry.getValue();
+                if (parentUID == null || !parentAccountUIDs.containsKey(parentUID)) {
+                    mTopLevelAccountUIDs.add(entry.getKey());
+                    continue;
+                }
+                List<String> children = mChildAccountUIDs.get(parentUID);
+                if (children == null) {
+                    children = new ArrayList<>();
+                    mChildAccountUIDs.put(parentUID, children);
+                }
+                children.add(entry.getKey());
+            }
+        }
+
+        /**
+         * Computes the balances of an account and its descendants
+         * @return Totals of the splits of the account and its descendants, by currency
+         */
+        Map<String, BigDecimal> rollUp(String accountUID) {
+            Map<String, BigDecimal> totals = new HashMap<>();
+            String currencyCode = mCurrencyCodes.get(accountUID);
+            BigDecimal splitTotal = mSplitTotals.get(accountUID);
+            // splits of accounts in the custom currency are ignored, as with getAccountBalance()
+            if (splitTotal != null && !currencyCode.equals("XXX"))
+                totals.put(currencyCode, splitTotal);
+
+            List<String> children = mChildAccountUIDs.get(accountUID);
+            if (children != null) {
+                for (String childUID : children) {
+                    for (Map.Entry<String, BigDecimal> childTotal : rollUp(childUID).entrySet()) {
+                        BigDecimal total = totals.get(childTotal.getKey());
+                        totals.put(childTotal.getKey(),
+                                total == null ? childTotal.getValue() : total.add(childTotal.getValue()));
+                    }
+                }
+            }
+
+            Commodity commodity = getCommodity(currencyCode);
+            Money balance = new Money(BigDecimal.ZERO, commodity);
+            for (Map.Entry<String, BigDecimal> total : totals.entrySet()) {
+                BigDecimal amount = convert(total.getValue(), total.getKey(), commodity, mPriceTime);
+                if (amount != null)
+                    balance = balance.add(new Money(amount, commodity));
+            }
+            mBalances.put(accountUID, mAccountTypes.get(accountUID).hasDebitNormalBalance() ? balance : balance.negate());
+            return totals;
+        }
+
+        /**
+         * Converts an amount with the price valid at a time
+         * @param time Time of the price, {@link Long#MAX_VALUE} for the latest price
+         * @return Converted amount, or {@code null} if there is no price
+         */
+        @Nullable
+        BigDecimal convert(BigDecimal amount, String currencyCode, Commodity targetCommodity, long time) {
+            if (currencyCode.equals(targetCommodity.getCurrencyCode()))
+                return amount;
+            // all prices are loaded at once, the first time a conversion is needed
+            if (mPriceSeries == null)
+                mPriceSeries = new PricesDbAdapter(mDb).getPriceSeries();
+            Pair<Long, Long> price = mPriceSeries.getPrice(getCommodity(currencyCode).getUID(),
+                    targetCommodity.getUID(), time);
+            if (price.first <= 0 || price.second <= 0)
+                return null;
+            return amount.multiply(new BigDecimal(price.first))
+                    .divide(new BigDecimal(price.second), targetCommodity.getSmallestFractionDigits(), BigDecimal.ROUND_HALF_EVEN);
+        }
+
+        Commodity getCommodity(String currencyCode) {
+            Commodity commodity = mCommodities.get(currencyCode);
+            if (commodity == null) {
+                commodity = mCommoditiesDbAdapter.getCommodity(currencyCode);
+                mCommodities.put(currencyCode, commodity);
+            }
+            return commodity;
+        }
+    }
+
     /**
      * Retrieve all descendant accounts of an account
      * Note, in filtering, once an account is filtered out, all its descendants
@@ -8,6 +8,7 @@ import android.util.Pair;
 
 import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.model.Price;
+import org.gnucash.android.model.PriceSeries;
 import org.gnucash.android.util.TimestampHelper;
 
 import static org.gnucash.android.db.DatabaseSchema.PriceEntry;
@@ -124,4 +125,27 @@ public class PricesDbAdapter extends DatabaseAdapter<Price> {
             cursor.close();
         }
     }
+
+    /**
+     * Loads the history of all prices, for converting amounts at the price which was valid at a time.
+     * <p>All prices are read with a single query. The series should be loaded once and used for all
+     * conversions of a computation, instead of calling {@link #getPrice(String, String)} repeatedly</p>
+     * @return Prices of all commodity pairs
+     */
+    public PriceSeries getPriceSeries() {
+        PriceSeries priceSeries = new PriceSeries();
+        Cursor cursor = mDb.query(PriceEntry.TABLE_NAME,
+                new String[]{PriceEntry.COLUMN_COMMODITY_UID, PriceEntry.COLUMN_CURRENCY_UID, PriceEntry.COLUMN_DATE,
+                        PriceEntry.COLUMN_VALUE_NUM, PriceEntry.COLUMN_VALUE_DENOM},
+                null, null, null, null, PriceEntry.COLUMN_DATE + " ASC");
+        try {
+            while (cursor.moveToNext()) {
+                long time = TimestampHelper.getTimestampFromUtcString(cursor.getString(2)).getTime();
+                priceSeries.add(cursor.getString(0), cursor.getString(1), time, cursor.getLong(3), cursor.getLong(4));
+            }
+        } finally {
+            cursor.close();
+        }
+        return priceSeries;
+    }
 }
@@ -19,6 +19,7 @@ package org.gnucash.android.db.adapter;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
@@ -35,6 +36,7 @@ import org.gnucash.android.model.AccountType;
 import org.gnucash.android.model.Money;
 import org.gnucash.android.model.Split;
 import org.gnucash.android.model.Transaction;
+import org.gnucash.android.report.LedgerSnapshot;
 import org.gnucash.android.util.TimestampHelper;
 
 import java.sql.Timestamp;
@@ -55,6 +57,13 @@ import static org.gnucash.android.db.DatabaseSchema.TransactionEntry;
  */
 public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
 
+    /**
+     * Columns computed by {@link #fetchTransactionRowsForAccount(String)}
+     */
+    public static final String COLUMN_ACCOUNT_AMOUNT            = "account_amount";
+    public static final String COLUMN_SPLIT_COUNT               = "split_count";
+    public static final String COLUMN_COUNTERPART_ACCOUNT_NAME  = "counterpart_account_name";
+
     private final SplitsDbAdapter mSplitsDbAdapter;
 
     private final CommoditiesDbAdapter mCommoditiesDbAdapter;
@@ -100,8 +109,13 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
     @Override
 	public void addRecord(@NonNull Transaction transaction, UpdateMethod updateMethod){
         Log.d(LOG_TAG, "Adding transaction to the db via " + updateMethod.name());
+        boolean saved = false;
+        boolean isNew = false;
         mDb.beginTransaction();
         try {
+            // new transactions are appended to the snapshot of the book, instead of discarding it
+            isNew = LedgerSnapshot.isLoaded(mDb) && DatabaseUtils.queryNumEntries(mDb, TransactionEntry.TABLE_NAME,
+                    TransactionEntry.COLUMN_UID + " = ?", new String[]{transaction.getUID()}) == 0;
             Split imbalanceSplit = transaction.createAutoBalanceSplit();
             if (imbalanceSplit != null){
                 String imbalanceAccountUID = new AccountsDbAdapter(mDb, this)
@@ -130,12 +144,15 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
             Log.d(LOG_TAG, deleted + " splits deleted");
 
             mDb.setTransactionSuccessful();
+            saved = true;
         } catch (SQLException sqlEx) {
             Log.e(LOG_TAG, sqlEx.getMessage());
             Crashlytics.logException(sqlEx);
         } finally {
             mDb.endTransaction();
         }
+        if (saved && isNew)
+            LedgerSnapshot.append(mDb, transaction);
 	}
 
     /**
@@ -219,6 +236,54 @@ public class TransactionsDbAdapter extends DatabaseAdapter<Transaction> {
         return queryBuilder.query(mDb, projectionIn, selection, selectionArgs, null, null, sortOrder);
     }
 
+    /**
+     * Returns a cursor to the transactions of an account, like {@link #fetchAllTransactionsForAccount(String)},
+     * with the columns needed to display them in a list already computed:
+     * <ul>
+     *     <li>{@link #COLUMN_ACCOUNT_AMOUNT}: amount of the transaction in the account currency,
+     *     as a double which is positive if it increases the balance of the account.
+     *     It is the same as {@link #getBalance(String, String)}</li>
+     *     <li>{@link #COLUMN_SPLIT_COUNT}: number of splits of the transaction</li>
+     *     <li>{@link #COLUMN_COUNTERPART_ACCOUNT_NAME}: full name of the other account, if the transaction
+     *     consists of a pair of splits. Null otherwise</li>
+     * </ul>
+     * @param accountUID GUID of the account
+     * @return Cursor with the transactions of the account, latest first
+     */
+    public Cursor fetchTransactionRowsForAccount(@NonNull String accountUID){
+        String splitValue = "CAST(s." + SplitEntry.COLUMN_VALUE_NUM + " AS REAL) / s." + SplitEntry.COLUMN_VALUE_DENOM;
+        String splitQuantity = "CAST(s." + SplitEntry.COLUMN_QUANTITY_NUM + " AS REAL) / s." + SplitEntry.COLUMN_QUANTITY_DENOM;
+        // all the splits of the transactions are grouped at once, instead of being looked up for each row
+        String sql = "SELECT t.*, a." + AccountEntry.COLUMN_FULL_NAME + " AS " + COLUMN_COUNTERPART_ACCOUNT_NAME
+                + " FROM (SELECT " + TransactionEntry.TABLE_NAME + ".*, "
+                // the value is in the account currency, else the quantity is
+                + "SUM(CASE WHEN s." + SplitEntry.COLUMN_ACCOUNT_UID + " = ? THEN"
+                + " CASE WHEN s." + SplitEntry.COLUMN_TYPE + " = ? THEN 1 ELSE -1 END"
+                + " * CASE WHEN " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_CURRENCY + " = ?"
+                + " THEN " + splitValue + " ELSE " + splitQuantity + " END END) AS " + COLUMN_ACCOUNT_AMOUNT + ", "
+                + "COUNT(*) AS " + COLUMN_SPLIT_COUNT + ", "
+                // two splits of opposite types with the same value, as in Split.isPairOf()
+                + "CASE WHEN COUNT(*) = 2 AND COUNT(DISTINCT s." + SplitEntry.COLUMN_TYPE + ") = 2"
+                + " AND MIN(" + splitValue + ") = MAX(" + splitValue + ")"
+                + " THEN MAX(CASE WHEN s." + SplitEntry.COLUMN_ACCOUNT_UID + " <> ? THEN s." + SplitEntry.COLUMN_ACCOUNT_UID
+                + " END) END AS counterpart_account_uid"
+                + " FROM " + TransactionEntry.TABLE_NAME
+                + " INNER JOIN " + SplitEntry.TABLE_NAME + " AS s ON "
+                + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " = s." + SplitEntry.COLUMN_TRANSACTION_UID
+                + " WHERE " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0"
+                + " AND " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " IN (SELECT "
+                + SplitEntry.COLUMN_TRANSACTION_UID + " FROM " + SplitEntry.TABLE_NAME
+                + " WHERE " + SplitEntry.COLUMN_ACCOUNT_UID + " = ?)"
+                + " GROUP BY " + TransactionEntry.TABLE_NAME + "." + TransactionEntry._ID + ") AS t"
+                + " LEFT JOIN " + AccountEntry.TABLE_NAME + " AS a ON a." + AccountEntry.COLUMN_UID + " = t.counterpart_account_uid"
+                + " ORDER BY t." + TransactionEntry.COLUMN_TIMESTAMP + " DESC";
+
+        AccountType accountType = getAccountType(accountUID);
+        String currencyCode = getAccountCurrencyCode(accountUID);
+        return mDb.rawQuery(sql, new String[]{accountUID, accountType.getNormalBalanceType().name(), currencyCode,
+                accountUID, accountUID});
+    }
+
     /**
      * Returns a cursor to all scheduled transactions which have at least one split in the account
      * <p>This is basically a set of all template transactions for this account</p>
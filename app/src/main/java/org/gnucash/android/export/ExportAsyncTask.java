@@ -139,9 +139,13 @@ public class ExportAsyncTask extends AsyncTask<ExportParams, Void, Boolean> {
     protected Boolean doInBackground(ExportParams... params) {
         mExportParams = params[0];
         mExporter = getExporter();
+        boolean streamToTarget = canStreamToTarget();
 
         try {
-            mExportedFiles = mExporter.generateExport();
+            if (streamToTarget)
+                mExportedFiles = streamExportToTarget();
+            else
+                mExportedFiles = mExporter.generateExport();
         } catch (final Exception e) {
             Log.e(TAG, "Error exporting: " + e.getMessage());
             Crashlytics.logException(e);
@@ -163,6 +167,9 @@ public class ExportAsyncTask extends AsyncTask<ExportParams, Void, Boolean> {
         if (mExportedFiles.isEmpty())
             return false;
 
+        if (streamToTarget)
+            return true;
+
         try {
             moveToTarget();
         } catch (Exporter.ExporterException e) {
@@ -234,6 +241,50 @@ public class ExportAsyncTask extends AsyncTask<ExportParams, Void, Boolean> {
         }
     }
 
+    /**
+     * Checks if the export can be written directly to its target, without first generating it in the cache.
+     * <p>This is only possible for XML exports to a local file or a URI. The other targets need a
+     * local file to upload or share.</p>
+     * @return {@code true} if the export can be streamed to its target
+     */
+    private boolean canStreamToTarget() {
+        if (!(mExporter instanceof GncXmlExporter))
+            return false;
+
+        switch (mExportParams.getExportTarget()) {
+            case SD_CARD:
+                return true;
+            case URI:
+                return mExportParams.getExportLocation() != null;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Generates the export and writes it directly to the target specified by the user
+     * @return List containing the location of the export
+     * @throws Exporter.ExporterException if the export could not be generated or written
+     */
+    private List<String> streamExportToTarget() throws Exporter.ExporterException {
+        ExportSink sink;
+        String destination;
+        if (mExportParams.getExportTarget() == ExportParams.ExportTarget.URI) {
+            Uri exportUri = Uri.parse(mExportParams.getExportLocation());
+            sink = ExportSink.toUri(mContext, exportUri, ExportSink.Compression.NONE);
+            destination = exportUri.toString();
+        } else {
+            destination = Exporter.getExportFolderPath(mExporter.mBookUID) + mExporter.getExportFileName();
+            sink = ExportSink.toFile(new File(destination), ExportSink.Compression.NONE);
+        }
+        Log.i(TAG, "Streaming export to " + destination);
+        ((GncXmlExporter) mExporter).generateExport(sink);
+
+        List<String> exportedFiles = new ArrayList<>();
+        exportedFiles.add(destination);
+        return exportedFiles;
+    }
+
     /**
      * Moves the generated export files to the target specified by the user
      * @throws Exporter.ExporterException if the move fails
@@ -282,13 +333,15 @@ public class ExportAsyncTask extends AsyncTask<ExportParams, Void, Boolean> {
         }
 
         if (mExportedFiles.size() > 0){
+            // Now we always get just one file exported (multi-currency QIFs are zipped)
+            File exportedFile = new File(mExportedFiles.get(0));
             try {
-                OutputStream outputStream = mContext.getContentResolver().openOutputStream(exportUri);
-                // Now we always get just one file exported (multi-currency QIFs are zipped)
-                org.gnucash.android.util.FileUtils.moveFile(mExportedFiles.get(0), outputStream);
+                org.gnucash.android.util.FileUtils.copyFileToUri(mContext, exportedFile, exportUri);
             } catch (IOException ex) {
-                throw new Exporter.ExporterException(mExportParams, "Error when moving file to URI");
+                throw new Exporter.ExporterException(mExportParams, "Error when moving file to URI", ex);
             }
+            Log.i(TAG, "Deleting temp export file: " + exportedFile);
+            exportedFile.delete();
         }
     }
 
@@ -317,15 +370,7 @@ public class ExportAsyncTask extends AsyncTask<ExportParams, Void, Boolean> {
                 final DriveContents driveContents = driveContentsResult.getDriveContents();
                 OutputStream outputStream = driveContents.getOutputStream();
                 File exportedFile = new File(exportedFilePath);
-                FileInputStream fileInputStream = new FileInputStream(exportedFile);
-                byte[] buffer = new byte[1024];
-                int count;
-
-                while ((count = fileInputStream.read(buffer)) >= 0) {
-                    outputStream.write(buffer, 0, count);
-                }
-                fileInputStream.close();
-                outputStream.flush();
+                org.gnucash.android.util.FileUtils.copyToStream(exportedFile, outputStream);
                 exportedFile.delete();
 
                 MetadataChangeSet changeSet = new MetadataChangeSet.Builder()
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.export;
+
+import android.content.Context;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Destination of an export, optionally compressed on the fly.
+ * <p>Exporters write straight into the sink, so the export does not need to be written to a
+ * temporary file first and copied to its destination afterwards.</p>
+ * <p>If the export fails, the caller calls {@link #discard()} before closing the stream, so that no
+ * truncated export is left at the destination.</p>
+ */
+public abstract class ExportSink {
+    private static final String LOG_TAG = "ExportSink";
+
+    /**
+     * Compression applied to the exported data
+     */
+    public enum Compression {NONE, GZIP, ZIP}
+
+    /**
+     * Size of the buffers between the exporter, the compressor and the destination
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Deflate level used for compression.
+     * <p>For GnuCash XML it compresses about 5% worse than the default level 6, but is about 20% faster.</p>
+     */
+    public static final int COMPRESSION_LEVEL = 5;
+
+    private final Compression mCompression;
+    private String mZipEntryName;
+    private boolean mDiscarded;
+
+    protected ExportSink(@NonNull Compression compression) {
+        mCompression = compression;
+    }
+
+    /**
+     * Opens the destination of the export
+     * @return Uncompressed and unbuffered output stream
+     */
+    protected abstract OutputStream openDestination() throws IOException;
+
+    /**
+     * Completes the export once the destination has been closed
+     * @param discarded {@code true} if the export failed and its output should be removed
+     * @throws IOException if the export could not be completed
+     */
+    protected abstract void onDestinationClosed(boolean discarded) throws IOException;
+
+    /**
+     * Sets the name of the zip entry into which the export is written.
+     * <p>Only used with {@link Compression#ZIP}</p>
+     * @param entryName Name of the file inside the zip archive
+     * @return This sink
+     */
+    public ExportSink setZipEntryName(@NonNull String entryName) {
+        mZipEntryName = entryName;
+        return this;
+    }
+
+    public Compression getCompression() {
+        return mCompression;
+    }
+
+    /**
+     * Marks the export as failed.
+     * <p>When the stream returned by {@link #open()} is closed afterwards, the partial output is removed
+     * instead of being left at the destination</p>
+     */
+    public void discard() {
+        mDiscarded = true;
+    }
+
+    public boolean isDiscarded() {
+        return mDiscarded;
+    }
+
+    /**
+     * Opens the sink for writing.
+     * <p>The returned stream is buffered and compresses the data if required. Closing it finishes
+     * the compression and closes the destination.</p>
+     * @return Output stream to write the export to
+     * @throws IOException if the destination could not be opened
+     */
+    public OutputStream open() throws IOException {
+        OutputStream destination = new DestinationOutputStream(openDestination());
+        try {
+            switch (mCompression) {
+                case GZIP:
+                    return new BufferedOutputStream(new TunedGZIPOutputStream(destination), BUFFER_SIZE);
+                case ZIP:
+                    ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(destination, BUFFER_SIZE));
+                    zipOutputStream.setLevel(COMPRESSION_LEVEL);
+                    if (mZipEntryName != null) {
+                        zipOutputStream.putNextEntry(new ZipEntry(mZipEntryName));
+                    }
+                    return zipOutputStream;
+                case NONE:
+                default:
+                    return new BufferedOutputStream(destination, BUFFER_SIZE);
+            }
+        } catch (IOException e) {
+            discard();
+            destination.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the sink for writing text in UTF-8
+     * @return Buffered writer, which must be closed to complete the export
+     * @throws IOException if the destination could not be opened
+     * @see #open()
+     */
+    public Writer openWriter() throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(open(), "UTF-8"), BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a sink which writes to a file.
+     * <p>The export is written to a temporary file next to the destination, which is renamed to the
+     * destination when the export is complete. A failed export leaves an existing file untouched</p>
+     * @param file Destination file, it is overwritten if it exists
+     * @param compression Compression to apply
+     * @return Export sink
+     */
+    public static ExportSink toFile(@NonNull final File file, @NonNull Compression compression) {
+        final File partFile = new File(file.getPath() + ".part");
+        return new ExportSink(compression) {
+            @Override
+            protected OutputStream openDestination() throws FileNotFoundException {
+                return new FileOutputStream(partFile);
+            }
+
+            @Override
+            protected void onDestinationClosed(boolean discarded) throws IOException {
+                if (discarded) {
+                    partFile.delete();
+                } else if (!partFile.renameTo(file)) {
+                    partFile.delete();
+                    throw new IOException("Could not rename " + partFile + " to " + file);
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a sink which writes to a content URI, e.g. a document of the Storage Access Framework.
+     * <p>A URI cannot be written atomically, so the document is deleted if the export fails</p>
+     * @param context Context used to resolve the URI
+     * @param uri Destination URI
+     * @param compression Compression to apply
+     * @return Export sink
+     */
+    public static ExportSink toUri(@NonNull Context context, @NonNull Uri uri, @NonNull Compression compression) {
+        return toUri(context, uri, compression, true);
+    }
+
+    /**
+     * Creates a sink which writes to a content URI
+     * @param context Context used to resolve the URI
+     * @param uri Destination URI
+     * @param compression Compression to apply
+     * @param deleteOnFailure If {@code false}, the document is kept when the export fails. Used for documents
+     *                        which are written again later, like the backup file chosen by the user
+     * @return Export sink
+     */
+    public static ExportSink toUri(@NonNull final Context context, @NonNull final Uri uri,
+                                   @NonNull Compression compression, final boolean deleteOnFailure) {
+        return new ExportSink(compression) {
+            @Override
+            protected OutputStream openDestination() throws IOException {
+                OutputStream outputStream = context.getContentResolver().openOutputStream(uri);
+                if (outputStream == null) {
+                    throw new FileNotFoundException("Could not open " + uri);
+                }
+                return outputStream;
+            }
+
+            @Override
+            protected void onDestinationClosed(boolean discarded) {
+                if (discarded && deleteOnFailure) {
+                    deleteUri(context, uri);
+                }
+            }
+        };
+    }
+
+    /**
+     * Deletes the document at a URI, if the URI supports it
+     */
+    private static void deleteUri(Context context, Uri uri) {
+        try {
+            if ("file".equals(uri.getScheme())) {
+                new File(uri.getPath()).delete();
+            } else if (DocumentsContract.isDocumentUri(context, uri)) {
+                DocumentsContract.deleteDocument(context.getContentResolver(), uri);
+            } else {
+                Log.w(LOG_TAG, "Cannot delete incomplete export at " + uri);
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Could not delete incomplete export at " + uri, e);
+        }
+    }
+
+    /**
+     * Stream to the destination which completes the export when it is closed
+     */
+    private class DestinationOutputStream extends FilterOutputStream {
+        private boolean mClosed;
+
+        DestinationOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(@NonNull byte[] buffer, int offset, int count) throws IOException {
+            out.write(buffer, offset, count);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                discard();
+                onDestinationClosed(true);
+                throw e;
+            }
+            onDestinationClosed(mDiscarded);
+        }
+    }
+
+    /**
+     * Gzip output stream using {@link #COMPRESSION_LEVEL} and large buffers
+     */
+    private static class TunedGZIPOutputStream extends GZIPOutputStream {
+        TunedGZIPOutputStream(OutputStream outputStream) throws IOException {
+            super(outputStream, BUFFER_SIZE);
+            def.setLevel(COMPRESSION_LEVEL);
+        }
+    }
+}
@@ -100,6 +100,7 @@ public abstract class Exporter {
 	protected final BudgetsDbAdapter mBudgetsDbAdapter;
     protected final Context mContext;
     private String mExportCacheFilePath;
+    private String mExportFileName;
 
     /**
      * Database being currently exported
@@ -112,6 +113,17 @@ public abstract class Exporter {
     protected String mBookUID;
 
     public Exporter(ExportParams params, SQLiteDatabase db) {
+        this(params, db, true);
+    }
+
+    /**
+     * Creates an exporter
+     * @param params Export options
+     * @param db Database to export, or null for the database of the active book
+     * @param purgeCache Whether to delete the files left in the cache directory of the export format.
+     *                   Exporters generating part of another export must not purge it
+     */
+    protected Exporter(ExportParams params, SQLiteDatabase db, boolean purgeCache) {
         this.mExportParams = params;
         mContext = GnuCashApplication.getAppContext();
         if (db == null) {
@@ -137,9 +149,11 @@ public abstract class Exporter {
 
         mBookUID = new File(mDb.getPath()).getName(); //this depends on the database file always having the name of the book GUID
         mExportCacheFilePath = null;
+        mExportFileName = null;
         mCacheDir = new File(mContext.getCacheDir(), params.getExportFormat().name());
         mCacheDir.mkdir();
-        purgeDirectory(mCacheDir);
+        if (purgeCache)
+            purgeDirectory(mCacheDir);
     }
 
     /**
@@ -213,19 +227,30 @@ public abstract class Exporter {
      * @return Absolute path to file
      */
     protected String getExportCacheFilePath(){
-        // The file name contains a timestamp, so ensure it doesn't change with multiple calls to
-        // avoid issues like #448
         if (mExportCacheFilePath == null) {
             String cachePath = mCacheDir.getAbsolutePath();
             if (!cachePath.endsWith("/"))
                 cachePath += "/";
-            String bookName = BooksDbAdapter.getInstance().getAttribute(mBookUID, DatabaseSchema.BookEntry.COLUMN_DISPLAY_NAME);
-            mExportCacheFilePath = cachePath + buildExportFilename(mExportParams.getExportFormat(), bookName);
+            mExportCacheFilePath = cachePath + getExportFileName();
         }
 
         return mExportCacheFilePath;
     }
 
+    /**
+     * Returns the name of the file generated by this exporter
+     * @return File name, including the extension of the export format
+     */
+    public String getExportFileName(){
+        // The file name contains a timestamp, so ensure it doesn't change with multiple calls to
+        // avoid issues like #448
+        if (mExportFileName == null) {
+            String bookName = BooksDbAdapter.getInstance().getAttribute(mBookUID, DatabaseSchema.BookEntry.COLUMN_DISPLAY_NAME);
+            mExportFileName = buildExportFilename(mExportParams.getExportFormat(), bookName);
+        }
+        return mExportFileName;
+    }
+
     /**
      * Returns that path to the export folder for the book with GUID {@code bookUID}.
      * This is the folder where exports like QIF and OFX will be saved for access by external programs
@@ -259,6 +284,10 @@ public abstract class Exporter {
             super("Failed to generate export with parameters: " + params.toString() + " - " + msg);
         }
 
+        public ExporterException(@NonNull ExportParams params, @NonNull String msg, Throwable throwable) {
+            super("Failed to generate export with parameters: " + params.toString() + " - " + msg, throwable);
+        }
+
         public ExporterException(ExportParams params, Throwable throwable){
             super("Failed to generate " + params.getExportFormat().toString() +"-"+ throwable.getMessage(),
                     throwable);
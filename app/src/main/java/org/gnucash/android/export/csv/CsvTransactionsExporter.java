@@ -18,24 +18,32 @@ package org.gnucash.android.export.csv;
 
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.support.annotation.NonNull;
 import android.util.Log;
 
 import com.crashlytics.android.Crashlytics;
 
 import org.gnucash.android.R;
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
 import org.gnucash.android.export.ExportParams;
 import org.gnucash.android.export.Exporter;
-import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Money;
 import org.gnucash.android.model.Split;
-import org.gnucash.android.model.Transaction;
 import org.gnucash.android.model.TransactionType;
 import org.gnucash.android.util.PreferencesHelper;
 import org.gnucash.android.util.TimestampHelper;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.FieldPosition;
+import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
@@ -46,6 +54,8 @@ import java.util.Map;
 
 /**
  * Creates a GnuCash CSV transactions representation of the accounts and transactions
+ * <p>The transactions, their splits and the accounts of the splits are read with a single query
+ * and written to the CSV file as the cursor is traversed, so the export runs in constant memory.</p>
  *
  * @author Semyannikov Gleb <nightdevgame@gmail.com>
  */
@@ -55,6 +65,27 @@ public class CsvTransactionsExporter extends Exporter{
 
     private DateFormat dateFormat = new SimpleDateFormat("YYYY-MM-dd", Locale.US);
 
+    /**
+     * Tokens written before each split after the first one of a transaction, to skip the transaction columns
+     */
+    private String mSplitLinePrefix;
+
+    /**
+     * Reusable objects for formatting tokens, to avoid creating garbage for every row
+     */
+    private final StringBuffer mTokenBuffer = new StringBuffer();
+    private final FieldPosition mFieldPosition = new FieldPosition(0);
+    private final Date mDate = new Date();
+
+    /**
+     * Currency formats and commodities of the accounts, by currency code
+     */
+    private final Map<String, NumberFormat> mCurrencyFormats = new HashMap<>();
+    private final Map<String, Commodity> mCommodities = new HashMap<>();
+
+    private final Locale mLocale = Locale.getDefault();
+    private final DecimalFormatSymbols mDecimalFormatSymbols = DecimalFormatSymbols.getInstance(mLocale);
+
     /**
      * Construct a new exporter with export parameters
      * @param params Parameters for the export
@@ -93,79 +124,258 @@ public class CsvTransactionsExporter extends Exporter{
     }
 
     /**
-     * Write splits to CSV format
-     * @param splits Splits to be written
+     * Fetches the splits of the transactions to export, together with their transaction and account.
+     * <p>The rows are ordered by transaction, so that the splits of a transaction are consecutive</p>
+     * @return Cursor over the splits
      */
-    private void writeSplitsToCsv(@NonNull List<Split> splits, @NonNull CsvWriter writer) throws IOException {
-        int index = 0;
+    private Cursor fetchSplitsToExport() {
+        String startTimeString = TimestampHelper.getUtcStringFromTimestamp(mExportParams.getExportStartTime());
+        String sql = "SELECT "
+                + "t." + TransactionEntry._ID + ", "
+                + "t." + TransactionEntry.COLUMN_UID + ", "
+                + "t." + TransactionEntry.COLUMN_TIMESTAMP + ", "
+                + "t." + TransactionEntry.COLUMN_DESCRIPTION + ", "
+                + "t." + TransactionEntry.COLUMN_NOTES + ", "
+                + "t." + TransactionEntry.COLUMN_CURRENCY + ", "
+                + "s." + SplitEntry.COLUMN_MEMO + ", "
+                + "s." + SplitEntry.COLUMN_TYPE + ", "
+                + "s." + SplitEntry.COLUMN_VALUE_NUM + ", "
+                + "s." + SplitEntry.COLUMN_VALUE_DENOM + ", "
+                + "s." + SplitEntry.COLUMN_QUANTITY_NUM + ", "
+                + "s." + SplitEntry.COLUMN_QUANTITY_DENOM + ", "
+                + "s." + SplitEntry.COLUMN_RECONCILE_STATE + ", "
+                + "s." + SplitEntry.COLUMN_RECONCILE_DATE + ", "
+                + "a." + AccountEntry.COLUMN_FULL_NAME + ", "
+                + "a." + AccountEntry.COLUMN_NAME + ", "
+                + "a." + AccountEntry.COLUMN_CURRENCY
+                + " FROM " + TransactionEntry.TABLE_NAME + " t"
+                + " INNER JOIN " + SplitEntry.TABLE_NAME + " s ON s." + SplitEntry.COLUMN_TRANSACTION_UID
+                + " = t." + TransactionEntry.COLUMN_UID
+                + " INNER JOIN " + AccountEntry.TABLE_NAME + " a ON a." + AccountEntry.COLUMN_UID
+                + " = s." + SplitEntry.COLUMN_ACCOUNT_UID
+                + " WHERE t." + TransactionEntry.COLUMN_MODIFIED_AT + " >= ?"
+                + " ORDER BY t." + TransactionEntry.COLUMN_TIMESTAMP + " ASC, t." + TransactionEntry._ID
+                + " ASC, s." + SplitEntry._ID + " ASC";
+        return mDb.rawQuery(sql, new String[]{startTimeString});
+    }
+
+    private void generateExport(final CsvWriter csvWriter) throws ExporterException {
+        try {
+            List<String> names = Arrays.asList(mContext.getResources().getStringArray(R.array.csv_transaction_headers));
+            for(int i = 0; i < names.size(); i++) {
+                csvWriter.writeToken(names.get(i));
+            }
+            csvWriter.newLine();
 
-        Map<String, Account> uidAccountMap = new HashMap<>();
+            StringBuilder prefix = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                prefix.append(mCsvSeparator);
+            }
+            mSplitLinePrefix = prefix.toString();
 
-        for (Split split : splits) {
-            if (index++ > 0){ // the first split is on the same line as the transactions. But after that, we
-                writer.write("" + mCsvSeparator + mCsvSeparator + mCsvSeparator + mCsvSeparator
-                        + mCsvSeparator + mCsvSeparator + mCsvSeparator + mCsvSeparator);
+            Cursor cursor = fetchSplitsToExport();
+            try {
+                writeSplitsToCsv(cursor, csvWriter);
+            } finally {
+                cursor.close();
             }
-            writer.writeToken(split.getMemo());
 
-            //cache accounts so that we do not have to go to the DB each time
-            String accountUID = split.getAccountUID();
-            Account account;
-            if (uidAccountMap.containsKey(accountUID)) {
-                account = uidAccountMap.get(accountUID);
+            PreferencesHelper.setLastExportTime(TimestampHelper.getTimestampFromNow());
+        } catch (IOException e) {
+            Crashlytics.logException(e);
+            throw new ExporterException(mExportParams, e);
+        }
+    }
+
+    /**
+     * Writes the transactions and their splits to CSV format.
+     * <p>The first split of a transaction is on the same line as the transaction, the others on their own lines</p>
+     * @param cursor Cursor returned by {@link #fetchSplitsToExport()}
+     * @param writer CSV writer
+     */
+    private void writeSplitsToCsv(Cursor cursor, CsvWriter writer) throws IOException {
+        final int idIndex              = 0;
+        final int uidIndex             = 1;
+        final int timestampIndex       = 2;
+        final int descriptionIndex     = 3;
+        final int notesIndex           = 4;
+        final int currencyIndex        = 5;
+        final int memoIndex            = 6;
+        final int typeIndex            = 7;
+        final int valueNumIndex        = 8;
+        final int valueDenomIndex      = 9;
+        final int quantityNumIndex     = 10;
+        final int quantityDenomIndex   = 11;
+        final int reconcileStateIndex  = 12;
+        final int reconcileDateIndex   = 13;
+        final int fullNameIndex        = 14;
+        final int nameIndex            = 15;
+        final int accountCurrencyIndex = 16;
+
+        long lastTransactionId = -1;
+        int transactionCount = 0;
+        String creditType = TransactionType.CREDIT.name();
+        while (cursor.moveToNext()) {
+            long transactionId = cursor.getLong(idIndex);
+            if (transactionId != lastTransactionId) {
+                lastTransactionId = transactionId;
+                transactionCount++;
+
+                mDate.setTime(cursor.getLong(timestampIndex));
+                mTokenBuffer.setLength(0);
+                dateFormat.format(mDate, mTokenBuffer, mFieldPosition);
+                writer.writeToken(mTokenBuffer);
+                writer.writeToken(cursor.getString(uidIndex));
+                writer.writeToken(null);  //Transaction number
+
+                writer.writeToken(cursor.getString(descriptionIndex));
+                writer.writeToken(cursor.getString(notesIndex));
+
+                mTokenBuffer.setLength(0);
+                mTokenBuffer.append("CURRENCY::").append(cursor.getString(currencyIndex));
+                writer.writeToken(mTokenBuffer);
+                writer.writeToken(null); // Void Reason
+                writer.writeToken(null); // Action
             } else {
-                account = mAccountsDbAdapter.getRecord(accountUID);
-                uidAccountMap.put(accountUID, account);
+                writer.write(mSplitLinePrefix);
             }
 
-            writer.writeToken(account.getFullName());
-            writer.writeToken(account.getName());
+            writer.writeToken(cursor.getString(memoIndex));
+            writer.writeToken(cursor.getString(fullNameIndex));
+            writer.writeToken(cursor.getString(nameIndex));
+
+            String currencyCode = cursor.getString(accountCurrencyIndex);
+            boolean credit = creditType.equals(cursor.getString(typeIndex));
+            long quantityNum = cursor.getLong(quantityNumIndex);
+            long quantityDenom = cursor.getLong(quantityDenomIndex);
+
+            mTokenBuffer.setLength(0);
+            if (credit)
+                mTokenBuffer.append('-');
+            getCurrencyFormat(currencyCode).format(toDouble(quantityNum, quantityDenom), mTokenBuffer, mFieldPosition);
+            writer.writeToken(mTokenBuffer);
+
+            mTokenBuffer.setLength(0);
+            if (credit)
+                mTokenBuffer.append('-');
+            appendDecimal(quantityNum, quantityDenom);
+            writer.writeToken(mTokenBuffer);
 
-            String sign = split.getType() == TransactionType.CREDIT ? "-" : "";
-            writer.writeToken(sign + split.getQuantity().formattedString());
-            writer.writeToken(sign + split.getQuantity().toLocaleString());
-            writer.writeToken("" + split.getReconcileState());
-            if (split.getReconcileState() == Split.FLAG_RECONCILED) {
-                String recDateString = dateFormat.format(new Date(split.getReconcileDate().getTime()));
-                writer.writeToken(recDateString);
+            String reconcileState = cursor.getString(reconcileStateIndex);
+            writer.writeToken(reconcileState);
+            if (reconcileState != null && reconcileState.length() > 0
+                    && reconcileState.charAt(0) == Split.FLAG_RECONCILED) {
+                mDate.setTime(TimestampHelper.getTimestampFromUtcString(cursor.getString(reconcileDateIndex)).getTime());
+                mTokenBuffer.setLength(0);
+                dateFormat.format(mDate, mTokenBuffer, mFieldPosition);
+                writer.writeToken(mTokenBuffer);
             } else {
                 writer.writeToken(null);
             }
-            writer.writeEndToken(split.getQuantity().divide(split.getValue()).toLocaleString());
+
+            mTokenBuffer.setLength(0);
+            appendPrice(currencyCode, quantityNum, quantityDenom,
+                    cursor.getLong(valueNumIndex), cursor.getLong(valueDenomIndex));
+            writer.writeEndToken(mTokenBuffer);
         }
+        Log.d(LOG_TAG, String.format("Exported %d transactions to CSV", transactionCount));
     }
 
-    private void generateExport(final CsvWriter csvWriter) throws ExporterException {
-        try {
-            List<String> names = Arrays.asList(mContext.getResources().getStringArray(R.array.csv_transaction_headers));
-            for(int i = 0; i < names.size(); i++) {
-                csvWriter.writeToken(names.get(i));
-            }
-            csvWriter.newLine();
+    /**
+     * Returns the commodity with the currency code, loading it from the database the first time
+     */
+    private Commodity getCommodity(String currencyCode) {
+        Commodity commodity = mCommodities.get(currencyCode);
+        if (commodity == null) {
+            commodity = mCommoditiesDbAdapter.getCommodity(currencyCode);
+            mCommodities.put(currencyCode, commodity);
+        }
+        return commodity;
+    }
 
+    /**
+     * Returns the format for amounts in the currency, as used by {@link Money#formattedString()}
+     */
+    private NumberFormat getCurrencyFormat(String currencyCode) {
+        NumberFormat currencyFormat = mCurrencyFormats.get(currencyCode);
+        if (currencyFormat == null) {
+            Commodity commodity = getCommodity(currencyCode);
+            currencyFormat = NumberFormat.getCurrencyInstance(mLocale);
+            String symbol;
+            //if we want to show US Dollars for locales which also use Dollars, for example, Canada
+            if ("USD".equals(currencyCode) && !mLocale.equals(Locale.US)) {
+                symbol = "US$";
+            } else {
+                symbol = commodity.getSymbol();
+            }
+            DecimalFormatSymbols decimalFormatSymbols = ((DecimalFormat) currencyFormat).getDecimalFormatSymbols();
+            decimalFormatSymbols.setCurrencySymbol(symbol);
+            ((DecimalFormat) currencyFormat).setDecimalFormatSymbols(decimalFormatSymbols);
+            currencyFormat.setMinimumFractionDigits(commodity.getSmallestFractionDigits());
+            currencyFormat.setMaximumFractionDigits(commodity.getSmallestFractionDigits());
+            mCurrencyFormats.put(currencyCode, currencyFormat);
+        }
+        return currencyFormat;
+    }
 
-            Cursor cursor = mTransactionsDbAdapter.fetchTransactionsModifiedSince(mExportParams.getExportStartTime());
-            Log.d(LOG_TAG, String.format("Exporting %d transactions to CSV", cursor.getCount()));
-            while (cursor.moveToNext()){
-                Transaction transaction = mTransactionsDbAdapter.buildModelInstance(cursor);
-                Date date = new Date(transaction.getTimeMillis());
-                csvWriter.writeToken(dateFormat.format(date));
-                csvWriter.writeToken(transaction.getUID());
-                csvWriter.writeToken(null);  //Transaction number
+    /**
+     * Returns the amount with numerator {@code numerator} and denominator {@code denominator} as a double,
+     * in the same way as {@link Money#asDouble()}
+     */
+    private static double toDouble(long numerator, long denominator) {
+        if (isPowerOfTen(denominator) && Math.abs(numerator) < (1L << 53)) {
+            // both operands are exact, so the division is rounded correctly
+            return (double) numerator / denominator;
+        }
+        return Money.getBigDecimal(numerator, denominator).doubleValue();
+    }
 
-                csvWriter.writeToken(transaction.getDescription());
-                csvWriter.writeToken(transaction.getNote());
+    private static boolean isPowerOfTen(long value) {
+        if (value <= 0)
+            return false;
+        while (value % 10 == 0) {
+            value /= 10;
+        }
+        return value == 1;
+    }
 
-                csvWriter.writeToken("CURRENCY::" + transaction.getCurrencyCode());
-                csvWriter.writeToken(null); // Void Reason
-                csvWriter.writeToken(null); // Action
-                writeSplitsToCsv(transaction.getSplits(), csvWriter);
+    /**
+     * Appends the amount to the token buffer with two decimal places, in the same way as {@link Money#toLocaleString()}.
+     * <p>Amounts in hundredths or coarser are formatted with integer arithmetic</p>
+     */
+    private void appendDecimal(long numerator, long denominator) {
+        if (isPowerOfTen(denominator) && denominator <= 100 && mDecimalFormatSymbols.getZeroDigit() == '0'
+                && Math.abs(numerator) < Long.MAX_VALUE / 100) {
+            long hundredths = numerator * (100 / denominator);
+            if (hundredths < 0) {
+                mTokenBuffer.append('-');
+                hundredths = -hundredths;
             }
+            mTokenBuffer.append(hundredths / 100).append(mDecimalFormatSymbols.getDecimalSeparator());
+            long fraction = hundredths % 100;
+            if (fraction < 10)
+                mTokenBuffer.append('0');
+            mTokenBuffer.append(fraction);
+        } else {
+            mTokenBuffer.append(String.format(mLocale, "%.2f", toDouble(numerator, denominator)));
+        }
+    }
 
-            PreferencesHelper.setLastExportTime(TimestampHelper.getTimestampFromNow());
-        } catch (IOException e) {
-            Crashlytics.logException(e);
-            throw new ExporterException(mExportParams, e);
+    /**
+     * Appends the price of the split, which is its quantity divided by its value, to the token buffer.
+     * Nothing is appended if the value is zero.
+     */
+    private void appendPrice(String currencyCode, long quantityNum, long quantityDenom, long valueNum, long valueDenom) {
+        if (valueNum == 0)
+            return;
+
+        if (quantityNum == valueNum && quantityDenom == valueDenom) {
+            appendDecimal(1, 1);
+            return;
         }
+        int scale = getCommodity(currencyCode).getSmallestFractionDigits();
+        BigDecimal price = Money.getBigDecimal(quantityNum, quantityDenom)
+                .divide(Money.getBigDecimal(valueNum, valueDenom), scale, RoundingMode.HALF_EVEN);
+        mTokenBuffer.append(String.format(mLocale, "%.2f", price.doubleValue()));
     }
 }
@@ -25,19 +25,29 @@ import java.io.Writer;
 
 /**
  * Format data to be CSV-compatible
+ * <p>Tokens are escaped as specified by RFC 4180: tokens containing the separator, double quotes
+ * or line breaks are enclosed in double quotes, and double quotes inside them are doubled.
+ * Tokens are copied directly into the buffer of the writer, without building intermediate strings.</p>
  *
  * @author Semyannikov Gleb <nightdevgame@gmail.com>
  * @author Ngewi Fet <ngewif@gmail.com>
  */
 public class CsvWriter extends BufferedWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private String separator = ",";
 
+    /**
+     * Buffer used to copy tokens which are not strings
+     */
+    private char[] mTokenBuffer = new char[64];
+
     public CsvWriter(Writer writer){
-        super(writer);
+        super(writer, BUFFER_SIZE);
     }
 
     public CsvWriter(Writer writer, String separator){
-        super(writer);
+        super(writer, BUFFER_SIZE);
         this.separator = separator;
     }
 
@@ -49,45 +59,82 @@ public class CsvWriter extends BufferedWriter {
     /**
      * Writes a CSV token and the separator to the underlying output stream.
      *
-     * The token **MUST NOT** not contain the CSV separator. If the separator is found in the token, then
-     * the token will be escaped as specified by RFC 4180
-     * @param token Token to be written to file
+     * If the token contains the separator, double quotes or line breaks, it will be escaped
+     * as specified by RFC 4180
+     * @param token Token to be written to file, may be null
      * @throws IOException if the token could not be written to the underlying stream
      */
-    public void writeToken(String token) throws IOException {
-        if (token == null || token.isEmpty()){
-            write(separator);
-        } else {
-            token = escape(token);
-            write(token + separator);
+    public void writeToken(CharSequence token) throws IOException {
+        writeEscaped(token);
+        write(separator);
+    }
+
+    /**
+     * Writes the token, enclosing it in double quotes if required by RFC 4180
+     * @param token CSV token, may be null
+     */
+    private void writeEscaped(CharSequence token) throws IOException {
+        if (token == null) {
+            return;
+        }
+        int length = token.length();
+        if (length == 0) {
+            return;
+        }
+
+        if (!needsQuotes(token)) {
+            if (token instanceof String) {
+                write((String) token, 0, length);
+            } else {
+                if (mTokenBuffer.length < length) {
+                    mTokenBuffer = new char[Math.max(length, mTokenBuffer.length * 2)];
+                }
+                for (int i = 0; i < length; i++) {
+                    mTokenBuffer[i] = token.charAt(i);
+                }
+                write(mTokenBuffer, 0, length);
+            }
+            return;
         }
+
+        write('"');
+        for (int i = 0; i < length; i++) {
+            char c = token.charAt(i);
+            if (c == '"') {
+                write('"');
+            }
+            write(c);
+        }
+        write('"');
     }
 
     /**
-     * Escape any CSV separators by surrounding the token in double quotes
-     * @param token String token to be written to CSV
-     * @return Escaped CSV token
+     * Checks whether the token contains characters which require it to be enclosed in double quotes
+     * @param token CSV token
+     * @return {@code true} if the token has to be quoted, {@code false} otherwise
      */
-    @NonNull
-    private String escape(@NonNull String token) {
-        if (token.contains(separator)){
-            return "\"" + token + "\"";
+    private boolean needsQuotes(@NonNull CharSequence token) {
+        int length = token.length();
+        char separatorChar = separator.length() == 1 ? separator.charAt(0) : '"';
+        for (int i = 0; i < length; i++) {
+            char c = token.charAt(i);
+            if (c == '"' || c == '\n' || c == '\r' || c == separatorChar) {
+                return true;
+            }
         }
-        return token;
+        return separator.length() > 1 && token.toString().contains(separator);
     }
 
     /**
      * Writes a token to the CSV file and appends end of line to it.
      *
-     * The token **MUST NOT** not contain the CSV separator. If the separator is found in the token, then
-     * the token will be escaped as specified by RFC 4180
-     * @param token The token to be written to the file
+     * If the token contains the separator, double quotes or line breaks, it will be escaped
+     * as specified by RFC 4180
+     * @param token The token to be written to the file, may be null
      * @throws IOException if token could not be written to underlying writer
      */
-    public void writeEndToken(String token) throws IOException {
-        if (token != null && !token.isEmpty()) {
-            write(escape(token));
-        }
+    public void writeEndToken(CharSequence token) throws IOException {
+        writeEscaped(token);
         this.newLine();
     }
 
@@ -17,48 +17,43 @@
 
 package org.gnucash.android.export.ofx;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.preference.PreferenceManager;
-import android.util.Log;
 
 import com.crashlytics.android.Crashlytics;
 
 import org.gnucash.android.R;
 import org.gnucash.android.app.GnuCashApplication;
-import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
 import org.gnucash.android.export.ExportParams;
+import org.gnucash.android.export.ExportSink;
 import org.gnucash.android.export.Exporter;
 import org.gnucash.android.model.Account;
-import org.gnucash.android.model.Transaction;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.TransactionType;
 import org.gnucash.android.util.PreferencesHelper;
 import org.gnucash.android.util.TimestampHelper;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.ProcessingInstruction;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.StringWriter;
 import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
 /**
  * Exports the data in the database in OFX format
+ * <p>The document is written with a streaming XML serializer. The transactions of each account are
+ * read from a cursor and written as they are read, so the whole book is never held in memory.</p>
  * @author Ngewi Fet <ngewi.fet@gmail.com>
  * @author Yongxin Wang <fefe.wyx@gmail.com>
  */
@@ -70,7 +65,12 @@ public class OfxExporter extends Exporter{
 	private List<Account> mAccountsList;
 
     /**
-	 * Builds an XML representation of the {@link Account}s and {@link Transaction}s in the database
+     * Splits of the transaction being written, as rows of the cursor returned by {@link #fetchAccountSplits(String)}
+     */
+    private final List<SplitRow> mTransactionSplits = new ArrayList<>();
+
+    /**
+	 * Builds an XML representation of the {@link Account}s and {@link org.gnucash.android.model.Transaction}s in the database
 	 */
 	public OfxExporter(ExportParams params) {
         super(params, null);
@@ -88,81 +88,268 @@ public class OfxExporter extends Exporter{
     }
 
     /**
-	 * Converts all expenses into OFX XML format and adds them to the XML document
-	 * @param doc DOM document of the OFX expenses.
-	 * @param parent Parent node for all expenses in report
+     * Split of a transaction being exported
+     */
+    private static class SplitRow {
+        String accountUID;
+        AccountType accountType;
+        boolean debit;
+        long valueNum;
+        long valueDenom;
+        long quantityNum;
+        long quantityDenom;
+    }
+
+    /**
+	 * Converts all expenses into OFX XML format and writes them to the serializer
+	 * @param xmlSerializer Serializer positioned inside the OFX element
 	 */
-	private void generateOfx(Document doc, Element parent){
-		Element transactionUid = doc.createElement(OfxHelper.TAG_TRANSACTION_UID);
-		//unsolicited because the data exported is not as a result of a request
-		transactionUid.appendChild(doc.createTextNode(OfxHelper.UNSOLICITED_TRANSACTION_ID));
-
-		Element statementTransactionResponse = doc.createElement(OfxHelper.TAG_STATEMENT_TRANSACTION_RESPONSE);
-		statementTransactionResponse.appendChild(transactionUid);
-		
-		Element bankmsgs = doc.createElement(OfxHelper.TAG_BANK_MESSAGES_V1);
-		bankmsgs.appendChild(statementTransactionResponse);
-		
-		parent.appendChild(bankmsgs);		
-		
-		AccountsDbAdapter accountsDbAdapter = mAccountsDbAdapter;
-		for (Account account : mAccountsList) {		
-			if (account.getTransactionCount() == 0)
-				continue; 
+	private void generateOfx(XmlSerializer xmlSerializer) throws IOException {
+        xmlSerializer.startTag(null, OfxHelper.TAG_BANK_MESSAGES_V1);
+        xmlSerializer.startTag(null, OfxHelper.TAG_STATEMENT_TRANSACTION_RESPONSE);
+        //unsolicited because the data exported is not as a result of a request
+        writeElement(xmlSerializer, OfxHelper.TAG_TRANSACTION_UID, OfxHelper.UNSOLICITED_TRANSACTION_ID);
 
+		for (Account account : mAccountsList) {
             //do not export imbalance accounts for OFX transactions and double-entry disabled
             if (!GnuCashApplication.isDoubleEntryEnabled() && account.getName().contains(mContext.getString(R.string.imbalance_account_name)))
                 continue;
 
+			//add account details (transactions) to the XML document
+			if (!writeAccount(xmlSerializer, account))
+                continue;
 
-			//add account details (transactions) to the XML document			
-			account.toOfx(doc, statementTransactionResponse, mExportParams.getExportStartTime());
-			
 			//mark as exported
-			accountsDbAdapter.markAsExported(account.getUID());
-			
+			mAccountsDbAdapter.markAsExported(account.getUID());
 		}
+
+        xmlSerializer.endTag(null, OfxHelper.TAG_STATEMENT_TRANSACTION_RESPONSE);
+        xmlSerializer.endTag(null, OfxHelper.TAG_BANK_MESSAGES_V1);
 	}
 
     /**
-     * Generate OFX export file from the transactions in the database
-     * @return String containing OFX export
-     * @throws ExporterException
+     * Fetches the splits of all transactions which have a split in the account.
+     * <p>The transactions are ordered from the most recent, and the splits of a transaction are consecutive</p>
+     * @param accountUID GUID of the account
+     * @return Cursor over the splits
      */
-    private String generateOfxExport() throws ExporterException {
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory
-                .newInstance();
-        DocumentBuilder docBuilder;
+    private Cursor fetchAccountSplits(String accountUID) {
+        String sql = "SELECT "
+                + "t." + TransactionEntry.COLUMN_UID + ", "
+                + "t." + TransactionEntry.COLUMN_DESCRIPTION + ", "
+                + "t." + TransactionEntry.COLUMN_NOTES + ", "
+                + "t." + TransactionEntry.COLUMN_TIMESTAMP + ", "
+                + "t." + TransactionEntry.COLUMN_MODIFIED_AT + ", "
+                + "t." + TransactionEntry.COLUMN_CURRENCY + ", "
+                + "s." + SplitEntry.COLUMN_ACCOUNT_UID + ", "
+                + "s." + SplitEntry.COLUMN_TYPE + ", "
+                + "s." + SplitEntry.COLUMN_VALUE_NUM + ", "
+                + "s." + SplitEntry.COLUMN_VALUE_DENOM + ", "
+                + "s." + SplitEntry.COLUMN_QUANTITY_NUM + ", "
+                + "s." + SplitEntry.COLUMN_QUANTITY_DENOM + ", "
+                + "a." + AccountEntry.COLUMN_TYPE
+                + " FROM " + TransactionEntry.TABLE_NAME + " t"
+                + " INNER JOIN " + SplitEntry.TABLE_NAME + " s ON s." + SplitEntry.COLUMN_TRANSACTION_UID
+                + " = t." + TransactionEntry.COLUMN_UID
+                + " LEFT JOIN " + AccountEntry.TABLE_NAME + " a ON a." + AccountEntry.COLUMN_UID
+                + " = s." + SplitEntry.COLUMN_ACCOUNT_UID
+                + " WHERE t." + TransactionEntry.COLUMN_TEMPLATE + " = 0 AND t." + TransactionEntry.COLUMN_UID
+                + " IN (SELECT " + SplitEntry.COLUMN_TRANSACTION_UID + " FROM " + SplitEntry.TABLE_NAME
+                + " WHERE " + SplitEntry.COLUMN_ACCOUNT_UID + " = ?)"
+                + " ORDER BY t." + TransactionEntry.COLUMN_TIMESTAMP + " DESC, t." + TransactionEntry._ID
+                + " ASC, s." + SplitEntry._ID + " ASC";
+        return mDb.rawQuery(sql, new String[]{accountUID});
+    }
+
+    /**
+     * Writes the statement of an account, with its transactions modified since the start of the export
+     * @param xmlSerializer XML serializer
+     * @param account Account to write
+     * @return {@code false} if the account has no transactions and nothing was written, {@code true} otherwise
+     */
+    private boolean writeAccount(XmlSerializer xmlSerializer, Account account) throws IOException {
+        Cursor cursor = fetchAccountSplits(account.getUID());
         try {
-            docBuilder = docFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            throw new ExporterException(mExportParams, e);
+            if (!cursor.moveToFirst())
+                return false;
+
+            String currencyCode = account.getCommodity().getCurrencyCode();
+            int scale = account.getCommodity().getSmallestFractionDigits();
+            boolean debitNormalBalance = account.getAccountType().hasDebitNormalBalance();
+            String formattedCurrentTimeString = OfxHelper.getFormattedCurrentTime();
+            Timestamp exportStartTime = mExportParams.getExportStartTime();
+
+            xmlSerializer.startTag(null, OfxHelper.TAG_STATEMENT_TRANSACTIONS);
+            writeElement(xmlSerializer, OfxHelper.TAG_CURRENCY_DEF, currencyCode);
+
+            xmlSerializer.startTag(null, OfxHelper.TAG_BANK_ACCOUNT_FROM);
+            writeElement(xmlSerializer, OfxHelper.TAG_BANK_ID, OfxHelper.APP_ID);
+            writeElement(xmlSerializer, OfxHelper.TAG_ACCOUNT_ID, account.getUID());
+            writeElement(xmlSerializer, OfxHelper.TAG_ACCOUNT_TYPE,
+                    Account.convertToOfxAccountType(account.getAccountType()).toString());
+            xmlSerializer.endTag(null, OfxHelper.TAG_BANK_ACCOUNT_FROM);
+
+            xmlSerializer.startTag(null, OfxHelper.TAG_BANK_TRANSACTION_LIST);
+            writeElement(xmlSerializer, OfxHelper.TAG_DATE_START, formattedCurrentTimeString);
+            writeElement(xmlSerializer, OfxHelper.TAG_DATE_END, formattedCurrentTimeString);
+
+            // the ledger balance includes all transactions, also those which are not exported
+            BigDecimal accountBalance = BigDecimal.ZERO.setScale(scale);
+            boolean hasNext = true;
+            while (hasNext) {
+                String transactionUID = cursor.getString(0);
+                String description = cursor.getString(1);
+                String notes = cursor.getString(2);
+                long time = cursor.getLong(3);
+                String modifiedAt = cursor.getString(4);
+                boolean inAccountCurrency = currencyCode.equals(cursor.getString(5));
+
+                mTransactionSplits.clear();
+                do {
+                    SplitRow split = new SplitRow();
+                    split.accountUID = cursor.getString(6);
+                    split.debit = TransactionType.DEBIT.name().equals(cursor.getString(7));
+                    split.valueNum = cursor.getLong(8);
+                    split.valueDenom = cursor.getLong(9);
+                    split.quantityNum = cursor.getLong(10);
+                    split.quantityDenom = cursor.getLong(11);
+                    String accountType = cursor.getString(12);
+                    split.accountType = accountType == null ? null : AccountType.valueOf(accountType);
+                    mTransactionSplits.add(split);
+                    hasNext = cursor.moveToNext();
+                } while (hasNext && transactionUID.equals(cursor.getString(0)));
+
+                BigDecimal balance = computeBalance(account.getUID(), inAccountCurrency, debitNormalBalance, scale);
+                accountBalance = accountBalance.add(balance).setScale(scale, RoundingMode.HALF_EVEN);
+
+                if (TimestampHelper.getTimestampFromUtcString(modifiedAt).before(exportStartTime))
+                    continue;
+                writeTransaction(xmlSerializer, account.getUID(), transactionUID, description, notes, time, balance);
+            }
+
+            xmlSerializer.endTag(null, OfxHelper.TAG_BANK_TRANSACTION_LIST);
+
+            xmlSerializer.startTag(null, OfxHelper.TAG_LEDGER_BALANCE);
+            writeElement(xmlSerializer, OfxHelper.TAG_BALANCE_AMOUNT, accountBalance.toPlainString());
+            writeElement(xmlSerializer, OfxHelper.TAG_DATE_AS_OF, formattedCurrentTimeString);
+            xmlSerializer.endTag(null, OfxHelper.TAG_LEDGER_BALANCE);
+
+            xmlSerializer.endTag(null, OfxHelper.TAG_STATEMENT_TRANSACTIONS);
+            return true;
+        } finally {
+            cursor.close();
         }
+    }
 
-        Document document = docBuilder.newDocument();
-        Element root = document.createElement("OFX");
+    /**
+     * Computes the balance of the current transaction in the account, as
+     * {@link org.gnucash.android.model.Transaction#computeBalance(String, List)} does
+     * @param accountUID GUID of the account
+     * @param inAccountCurrency Whether the transaction is in the currency of the account.
+     *                          If not, the quantities of the splits are used instead of their values
+     * @param debitNormalBalance Whether the account has a debit normal balance
+     * @param scale Number of fraction digits of the account currency
+     * @return Balance of the transaction in the account
+     */
+    private BigDecimal computeBalance(String accountUID, boolean inAccountCurrency, boolean debitNormalBalance, int scale) {
+        BigDecimal balance = BigDecimal.ZERO.setScale(scale);
+        for (SplitRow split : mTransactionSplits) {
+            if (!accountUID.equals(split.accountUID))
+                continue;
+            BigDecimal amount = inAccountCurrency
+                    ? Money.getBigDecimal(split.valueNum, split.valueDenom)
+                    : Money.getBigDecimal(split.quantityNum, split.quantityDenom);
+            if (split.debit == debitNormalBalance) {
+                balance = balance.add(amount);
+            } else {
+                balance = balance.subtract(amount);
+            }
+            balance = balance.setScale(scale, RoundingMode.HALF_EVEN);
+        }
+        return balance;
+    }
+
+    /**
+     * Writes a statement transaction for the current transaction
+     */
+    private void writeTransaction(XmlSerializer xmlSerializer, String accountUID, String transactionUID,
+                                  String description, String notes, long time, BigDecimal balance)
+            throws IOException {
+        TransactionType transactionType = balance.signum() < 0 ? TransactionType.DEBIT : TransactionType.CREDIT;
+        String formattedTime = OfxHelper.getOfxFormattedTime(time);
+
+        xmlSerializer.startTag(null, OfxHelper.TAG_STATEMENT_TRANSACTION);
+        writeElement(xmlSerializer, OfxHelper.TAG_TRANSACTION_TYPE, transactionType.toString());
+        writeElement(xmlSerializer, OfxHelper.TAG_DATE_POSTED, formattedTime);
+        writeElement(xmlSerializer, OfxHelper.TAG_DATE_USER, formattedTime);
+        writeElement(xmlSerializer, OfxHelper.TAG_TRANSACTION_AMOUNT, balance.toPlainString());
+        writeElement(xmlSerializer, OfxHelper.TAG_TRANSACTION_FITID, transactionUID);
+        writeElement(xmlSerializer, OfxHelper.TAG_NAME, description);
+
+        if (notes != null && notes.length() > 0){
+            writeElement(xmlSerializer, OfxHelper.TAG_MEMO, notes);
+        }
+
+        if (mTransactionSplits.size() == 2){ //if we have exactly one other split, then treat it like a transfer
+            SplitRow transferSplit = mTransactionSplits.get(0);
+            for (SplitRow split : mTransactionSplits) {
+                if (!split.accountUID.equals(accountUID)){
+                    transferSplit = split;
+                    break;
+                }
+            }
+            xmlSerializer.startTag(null, OfxHelper.TAG_BANK_ACCOUNT_TO);
+            writeElement(xmlSerializer, OfxHelper.TAG_BANK_ID, OfxHelper.APP_ID);
+            writeElement(xmlSerializer, OfxHelper.TAG_ACCOUNT_ID, transferSplit.accountUID);
+            writeElement(xmlSerializer, OfxHelper.TAG_ACCOUNT_TYPE,
+                    Account.convertToOfxAccountType(transferSplit.accountType).toString());
+            xmlSerializer.endTag(null, OfxHelper.TAG_BANK_ACCOUNT_TO);
+        }
 
-        ProcessingInstruction pi = document.createProcessingInstruction("OFX", OfxHelper.OFX_HEADER);
-        document.appendChild(pi);
-        document.appendChild(root);
+        xmlSerializer.endTag(null, OfxHelper.TAG_STATEMENT_TRANSACTION);
+    }
 
-        generateOfx(document, root);
+    /**
+     * Writes an element containing only text
+     */
+    private static void writeElement(XmlSerializer xmlSerializer, String tag, String text) throws IOException {
+        xmlSerializer.startTag(null, tag);
+        xmlSerializer.text(text == null ? "" : text);
+        xmlSerializer.endTag(null, tag);
+    }
 
+    /**
+     * Generate OFX export file from the transactions in the database
+     * @param writer Writer for the export
+     * @throws ExporterException
+     */
+    private void generateOfxExport(Writer writer) throws IOException, XmlPullParserException {
         boolean useXmlHeader = PreferenceManager.getDefaultSharedPreferences(mContext)
                 .getBoolean(mContext.getString(R.string.key_xml_ofx_header), false);
 
-        PreferencesHelper.setLastExportTime(TimestampHelper.getTimestampFromNow());
+        XmlSerializer xmlSerializer = XmlPullParserFactory.newInstance().newSerializer();
+        try {
+            xmlSerializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+        } catch (IllegalStateException e) {
+            // Feature not supported. No problem
+        }
 
-        StringWriter stringWriter = new StringWriter();
-        //if we want SGML OFX headers, write first to string and then prepend header
+        //if we want SGML OFX headers, write them before the document
         if (useXmlHeader){
-            write(document, stringWriter, false);
-            return stringWriter.toString();
+            xmlSerializer.setOutput(writer);
+            xmlSerializer.startDocument("UTF-8", false);
+            xmlSerializer.processingInstruction("OFX " + OfxHelper.OFX_HEADER);
         } else {
-            Node ofxNode = document.getElementsByTagName("OFX").item(0);
-            write(ofxNode, stringWriter, true);
-            return OfxHelper.OFX_SGML_HEADER + '\n' + stringWriter.toString();
+            writer.write(OfxHelper.OFX_SGML_HEADER + '\n');
+            xmlSerializer.setOutput(writer);
         }
+
+        xmlSerializer.startTag(null, "OFX");
+        generateOfx(xmlSerializer);
+        xmlSerializer.endTag(null, "OFX");
+        xmlSerializer.endDocument();
+
+        PreferencesHelper.setLastExportTime(TimestampHelper.getTimestampFromNow());
     }
 
     @Override
@@ -171,15 +358,20 @@ public class OfxExporter extends Exporter{
         if (mAccountsList.isEmpty())
             return new ArrayList<>(); // Nothing to export, so no files generated
 
-        BufferedWriter writer = null;
-
+        ExportSink sink = ExportSink.toFile(new File(getExportCacheFilePath()), ExportSink.Compression.NONE);
+        Writer writer = null;
+        boolean success = false;
         try {
-            File file = new File(getExportCacheFilePath());
-            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
-            writer.write(generateOfxExport());
-        } catch (IOException e) {
+            writer = sink.openWriter();
+            generateOfxExport(writer);
+            success = true;
+        } catch (IOException | XmlPullParserException e) {
+            Crashlytics.logException(e);
             throw new ExporterException(mExportParams, e);
         } finally {
+            if (!success) {
+                sink.discard();
+            }
             if (writer != null) {
                 try {
                     writer.close();
@@ -195,33 +387,6 @@ public class OfxExporter extends Exporter{
         return exportedFiles;
     }
 
-    /**
-     * Writes out the document held in <code>node</code> to <code>outputWriter</code>
-     * @param node {@link Node} containing the OFX document structure. Usually the parent node
-     * @param outputWriter {@link java.io.Writer} to use in writing the file to stream
-     * @param omitXmlDeclaration Flag which causes the XML declaration to be omitted
-     */
-    private void write(Node node, Writer outputWriter, boolean omitXmlDeclaration){
-        try {
-            TransformerFactory transformerFactory = TransformerFactory
-                    .newInstance();
-            Transformer transformer = transformerFactory.newTransformer();
-            DOMSource source = new DOMSource(node);
-            StreamResult result = new StreamResult(outputWriter);
-
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            if (omitXmlDeclaration) {
-                transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-            }
-
-            transformer.transform(source, result);
-        } catch (TransformerException tfException) {
-            Log.e(LOG_TAG, tfException.getMessage());
-            Crashlytics.logException(tfException);
-        }
-    }
-
     /**
      * Returns the MIME type for this exporter.
      * @return MIME type as string
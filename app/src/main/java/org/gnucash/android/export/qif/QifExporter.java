@@ -19,30 +19,29 @@ package org.gnucash.android.export.qif;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.support.annotation.NonNull;
 
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
 import org.gnucash.android.export.ExportParams;
+import org.gnucash.android.export.ExportSink;
 import org.gnucash.android.export.Exporter;
 import org.gnucash.android.model.Commodity;
-import org.gnucash.android.util.FileUtils;
 import org.gnucash.android.util.PreferencesHelper;
 import org.gnucash.android.util.TimestampHelper;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.gnucash.android.db.DatabaseSchema.AccountEntry;
 import static org.gnucash.android.db.DatabaseSchema.SplitEntry;
@@ -114,17 +113,34 @@ public class QifExporter extends Exporter{
                    "acct1_currency ASC, trans_time ASC, trans_uid ASC"
                     );
 
-            File file = new File(getExportCacheFilePath());
-            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
-
+            QifFileWriter qifFileWriter = new QifFileWriter(getExportCacheFilePath());
+            List<String> exportedFiles;
             try {
+                final int transactionUIDIndex = cursor.getColumnIndexOrThrow("trans_uid");
+                final int timeIndex = cursor.getColumnIndexOrThrow("trans_time");
+                final int descriptionIndex = cursor.getColumnIndexOrThrow("trans_desc");
+                final int notesIndex = cursor.getColumnIndexOrThrow("trans_notes");
+                final int quantityNumIndex = cursor.getColumnIndexOrThrow("split_quantity_num");
+                final int quantityDenomIndex = cursor.getColumnIndexOrThrow("split_quantity_denom");
+                final int splitTypeIndex = cursor.getColumnIndexOrThrow("split_type");
+                final int splitMemoIndex = cursor.getColumnIndexOrThrow("split_memo");
+                final int balanceIndex = cursor.getColumnIndexOrThrow("trans_acct_balance");
+                final int splitCountIndex = cursor.getColumnIndexOrThrow("trans_split_count");
+                final int accountUIDIndex = cursor.getColumnIndexOrThrow("acct1_uid");
+                final int accountFullNameIndex = cursor.getColumnIndexOrThrow("acct1_full_name");
+                final int currencyIndex = cursor.getColumnIndexOrThrow("acct1_currency");
+                final int accountTypeIndex = cursor.getColumnIndexOrThrow("acct1_type");
+                final int transferAccountFullNameIndex = cursor.getColumnIndexOrThrow("acct2_full_name");
+
+                Writer writer = null;
                 String currentCurrencyCode = "";
                 String currentAccountUID = "";
                 String currentTransactionUID = "";
+                String imbalanceAccountName = null;
                 while (cursor.moveToNext()) {
-                    String currencyCode = cursor.getString(cursor.getColumnIndexOrThrow("acct1_currency"));
-                    String accountUID = cursor.getString(cursor.getColumnIndexOrThrow("acct1_uid"));
-                    String transactionUID = cursor.getString(cursor.getColumnIndexOrThrow("trans_uid"));
+                    String currencyCode = cursor.getString(currencyIndex);
+                    String accountUID = cursor.getString(accountUIDIndex);
+                    String transactionUID = cursor.getString(transactionUIDIndex);
                     if (!transactionUID.equals(currentTransactionUID)) {
                         if (!currentTransactionUID.equals("")) {
                             writer.append(QifHelper.ENTRY_TERMINATOR).append(newLine);
@@ -132,53 +148,52 @@ public class QifExporter extends Exporter{
                         }
                         if (!accountUID.equals(currentAccountUID)) {
                             // no need to end account
-                            //if (!currentAccountUID.equals("")) {
-                            //    // end last account
-                            //}
                             if (!currencyCode.equals(currentCurrencyCode)) {
+                                // each currency goes to its own file
                                 currentCurrencyCode = currencyCode;
-                                writer.append(QifHelper.INTERNAL_CURRENCY_PREFIX)
-                                        .append(currencyCode)
-                                        .append(newLine);
+                                imbalanceAccountName = null;
+                                writer = qifFileWriter.startFile(currencyCode);
                             }
                             // start new account
                             currentAccountUID = accountUID;
                             writer.append(QifHelper.ACCOUNT_HEADER).append(newLine);
                             writer.append(QifHelper.ACCOUNT_NAME_PREFIX)
-                                    .append(cursor.getString(cursor.getColumnIndexOrThrow("acct1_full_name")))
+                                    .append(cursor.getString(accountFullNameIndex))
                                     .append(newLine);
                             writer.append(QifHelper.ENTRY_TERMINATOR).append(newLine);
-                            writer.append(QifHelper.getQifHeader(cursor.getString(cursor.getColumnIndexOrThrow("acct1_type"))))
+                            writer.append(QifHelper.getQifHeader(cursor.getString(accountTypeIndex)))
                                     .append(newLine);
                         }
                         // start new transaction
                         currentTransactionUID = transactionUID;
                         writer.append(QifHelper.DATE_PREFIX)
-                                .append(QifHelper.formatDate(cursor.getLong(cursor.getColumnIndexOrThrow("trans_time"))))
+                                .append(QifHelper.formatDate(cursor.getLong(timeIndex)))
                                 .append(newLine);
                         // Payee / description
                         writer.append(QifHelper.PAYEE_PREFIX)
-                                .append(cursor.getString(cursor.getColumnIndexOrThrow("trans_desc")))
+                                .append(cursor.getString(descriptionIndex))
                                 .append(newLine);
                         // Notes, memo
                         writer.append(QifHelper.MEMO_PREFIX)
-                                .append(cursor.getString(cursor.getColumnIndexOrThrow("trans_notes")))
+                                .append(cursor.getString(notesIndex))
                                 .append(newLine);
                         // deal with imbalance first
-                        double imbalance = cursor.getDouble(cursor.getColumnIndexOrThrow("trans_acct_balance"));
+                        double imbalance = cursor.getDouble(balanceIndex);
                         BigDecimal decimalImbalance = BigDecimal.valueOf(imbalance).setScale(2, BigDecimal.ROUND_HALF_UP);
                         if (decimalImbalance.compareTo(BigDecimal.ZERO) != 0) {
+                            if (imbalanceAccountName == null) {
+                                imbalanceAccountName = AccountsDbAdapter.getImbalanceAccountName(
+                                        Commodity.getInstance(currencyCode));
+                            }
                             writer.append(QifHelper.SPLIT_CATEGORY_PREFIX)
-                                    .append(AccountsDbAdapter.getImbalanceAccountName(
-                                            Commodity.getInstance(cursor.getString(cursor.getColumnIndexOrThrow("acct1_currency")))
-                                    ))
+                                    .append(imbalanceAccountName)
                                     .append(newLine);
                             writer.append(QifHelper.SPLIT_AMOUNT_PREFIX)
                                     .append(decimalImbalance.toPlainString())
                                     .append(newLine);
                         }
                     }
-                    if (cursor.getInt(cursor.getColumnIndexOrThrow("trans_split_count")) == 1) {
+                    if (cursor.getInt(splitCountIndex) == 1) {
                         // No other splits should be recorded if this is the only split.
                         continue;
                     }
@@ -186,63 +201,30 @@ public class QifExporter extends Exporter{
                     // amount associated with the header account will not be exported.
                     // It can be auto balanced when importing to GnuCash
                     writer.append(QifHelper.SPLIT_CATEGORY_PREFIX)
-                            .append(cursor.getString(cursor.getColumnIndexOrThrow("acct2_full_name")))
+                            .append(cursor.getString(transferAccountFullNameIndex))
                             .append(newLine);
-                    String splitMemo = cursor.getString(cursor.getColumnIndexOrThrow("split_memo"));
+                    String splitMemo = cursor.getString(splitMemoIndex);
                     if (splitMemo != null && splitMemo.length() > 0) {
                         writer.append(QifHelper.SPLIT_MEMO_PREFIX)
                                 .append(splitMemo)
                                 .append(newLine);
                     }
-                    String splitType = cursor.getString(cursor.getColumnIndexOrThrow("split_type"));
-                    Double quantity_num = cursor.getDouble(cursor.getColumnIndexOrThrow("split_quantity_num"));
-                    int quantity_denom = cursor.getInt(cursor.getColumnIndexOrThrow("split_quantity_denom"));
-                    int precision = 0;
-                    switch (quantity_denom) {
-                        case 0: // will sometimes happen for zero values
-                            break;
-                        case 1:
-                            precision = 0;
-                            break;
-                        case 10:
-                            precision = 1;
-                            break;
-                        case 100:
-                            precision = 2;
-                            break;
-                        case 1000:
-                            precision = 3;
-                            break;
-                        case 10000:
-                            precision = 4;
-                            break;
-                        case 100000:
-                            precision = 5;
-                            break;
-                        case 1000000:
-                            precision = 6;
-                            break;
-                        default:
-                            throw new ExporterException(mExportParams, "split quantity has illegal denominator: "+ quantity_denom);
-                    }
-                    Double quantity = 0.0;
-                    if (quantity_denom != 0) {
-                        quantity = quantity_num / quantity_denom;
-                    }
-                    final Locale noLocale = null;
+                    String splitType = cursor.getString(splitTypeIndex);
                     writer.append(QifHelper.SPLIT_AMOUNT_PREFIX)
                             .append(splitType.equals("DEBIT") ? "-" : "")
-                            .append(String.format(noLocale, "%." + precision + "f", quantity))
+                            .append(formatQuantity(cursor.getLong(quantityNumIndex), cursor.getLong(quantityDenomIndex)))
                             .append(newLine);
                 }
                 if (!currentTransactionUID.equals("")) {
                     // end last transaction
                     writer.append(QifHelper.ENTRY_TERMINATOR).append(newLine);
                 }
-                writer.flush();
+                exportedFiles = qifFileWriter.finish();
+            } catch (IOException | RuntimeException e) {
+                qifFileWriter.abort();
+                throw e;
             } finally {
                 cursor.close();
-                writer.close();
             }
 
             ContentValues contentValues = new ContentValues();
@@ -252,63 +234,131 @@ public class QifExporter extends Exporter{
             /// export successful
             PreferencesHelper.setLastExportTime(TimestampHelper.getTimestampFromNow());
 
-            List<String> exportedFiles = splitQIF(file);
-            if (exportedFiles.isEmpty())
-                return Collections.emptyList();
-            else if (exportedFiles.size() > 1)
-                return zipQifs(exportedFiles);
-            else
-                return exportedFiles;
+            return exportedFiles;
         } catch (IOException e) {
             throw new ExporterException(mExportParams, e);
         }
     }
 
-    @NonNull
-    private List<String> zipQifs(List<String> exportedFiles) throws IOException {
-        String zipFileName = getExportCacheFilePath() + ".zip";
-        FileUtils.zipFiles(exportedFiles, zipFileName);
-        return Collections.singletonList(zipFileName);
+    /**
+     * Formats the quantity of a split exactly, with as many decimal places as the denominator has zeros
+     * @param quantityNum Numerator of the quantity
+     * @param quantityDenom Denominator of the quantity, a power of ten up to 10<sup>6</sup>.
+     *                      It may be 0 for zero quantities
+     * @return Quantity as plain decimal string
+     */
+    private String formatQuantity(long quantityNum, long quantityDenom) {
+        if (quantityDenom == 0) // will sometimes happen for zero values
+            return "0";
+        int precision = 0;
+        long denom = quantityDenom;
+        while (denom % 10 == 0) {
+            denom /= 10;
+            precision++;
+        }
+        if (denom != 1 || precision > 6)
+            throw new ExporterException(mExportParams, "split quantity has illegal denominator: " + quantityDenom);
+        return BigDecimal.valueOf(quantityNum, precision).toPlainString();
     }
 
     /**
-     * Splits a Qif file into several ones for each currency.
-     *
-     * @param file File object of the Qif file to split.
-     * @return a list of paths of the newly created Qif files.
-     * @throws IOException if something went wrong while splitting the file.
+     * Writes the QIF files of the export, one for each currency.
+     * <p>As long as the export has a single currency, it is written to a plain QIF file. When a second
+     * currency starts, the export becomes a zip archive and each further currency is written directly
+     * into its own entry. Only the file of the first currency has to be copied into the archive.</p>
      */
-    private List<String> splitQIF(File file) throws IOException {
-        // split only at the last dot
-        String[] pathParts = file.getPath().split("(?=\\.[^\\.]+$)");
-        ArrayList<String> splitFiles = new ArrayList<>();
-        String line;
-        BufferedReader in = new BufferedReader(new FileReader(file));
-        BufferedWriter out = null;
-        try {
-            while ((line = in.readLine()) != null) {
-                if (line.startsWith(QifHelper.INTERNAL_CURRENCY_PREFIX)) {
-                    String currencyCode = line.substring(1);
-                    if (out != null) {
-                        out.close();
-                    }
-                    String newFileName = pathParts[0] + "_" + currencyCode + pathParts[1];
-                    splitFiles.add(newFileName);
-                    out = new BufferedWriter(new FileWriter(newFileName));
-                } else {
-                    if (out == null) {
-                        throw new IllegalArgumentException(file.getPath() + " format is not correct");
+    private static class QifFileWriter {
+        private final String mBasePath;
+        private final String mExtension;
+        private final String mZipFilePath;
+
+        private File mFirstFile;
+        private ZipOutputStream mZipOutputStream;
+        private Writer mWriter;
+
+        /**
+         * @param exportFilePath Path of the export file. The currency code is appended to the file name
+         */
+        QifFileWriter(String exportFilePath) {
+            // split only at the last dot
+            String[] pathParts = exportFilePath.split("(?=\\.[^\\.]+$)");
+            mBasePath = pathParts[0];
+            mExtension = pathParts.length > 1 ? pathParts[1] : "";
+            mZipFilePath = exportFilePath + ".zip";
+        }
+
+        private File getCurrencyFile(String currencyCode) {
+            return new File(mBasePath + "_" + currencyCode + mExtension);
+        }
+
+        /**
+         * Starts the file for a currency, ending the file of the previous currency
+         * @param currencyCode Currency code
+         * @return Writer for the file
+         */
+        Writer startFile(String currencyCode) throws IOException {
+            if (mWriter == null) {
+                mFirstFile = getCurrencyFile(currencyCode);
+                mWriter = ExportSink.toFile(mFirstFile, ExportSink.Compression.NONE).openWriter();
+                return mWriter;
+            }
+
+            if (mZipOutputStream == null) {
+                mWriter.close();
+                mZipOutputStream = new ZipOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(mZipFilePath), ExportSink.BUFFER_SIZE));
+                mZipOutputStream.setLevel(ExportSink.COMPRESSION_LEVEL);
+                mWriter = new BufferedWriter(new OutputStreamWriter(mZipOutputStream, "UTF-8"), ExportSink.BUFFER_SIZE);
+
+                mZipOutputStream.putNextEntry(new ZipEntry(mFirstFile.getName()));
+                FileInputStream inputStream = new FileInputStream(mFirstFile);
+                try {
+                    byte[] buffer = new byte[ExportSink.BUFFER_SIZE];
+                    int length;
+                    while ((length = inputStream.read(buffer)) > 0) {
+                        mZipOutputStream.write(buffer, 0, length);
                     }
-                    out.append(line).append('\n');
+                } finally {
+                    inputStream.close();
                 }
+                mFirstFile.delete();
+            } else {
+                mWriter.flush();
             }
-        } finally {
-            in.close();
-            if (out != null) {
-                out.close();
+            mZipOutputStream.closeEntry();
+            mZipOutputStream.putNextEntry(new ZipEntry(getCurrencyFile(currencyCode).getName()));
+            return mWriter;
+        }
+
+        /**
+         * Completes the export
+         * @return Paths of the exported files, which is empty if nothing was written
+         */
+        List<String> finish() throws IOException {
+            if (mWriter == null)
+                return Collections.emptyList();
+            mWriter.close();
+            if (mZipOutputStream == null)
+                return Collections.singletonList(mFirstFile.getPath());
+            return Collections.singletonList(mZipFilePath);
+        }
+
+        /**
+         * Closes the files after an error and deletes them
+         */
+        void abort() {
+            if (mWriter != null) {
+                try {
+                    mWriter.close();
+                } catch (IOException ignored) {
+                    // the files are deleted anyway
+                }
             }
+            if (mFirstFile != null)
+                mFirstFile.delete();
+            if (mZipOutputStream != null)
+                new File(mZipFilePath).delete();
         }
-        return splitFiles;
     }
 
     /**
@@ -18,6 +18,7 @@
 package org.gnucash.android.export.xml;
 
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.util.Log;
@@ -27,11 +28,10 @@ import com.crashlytics.android.Crashlytics;
 import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.db.DatabaseSchema;
 import org.gnucash.android.db.adapter.BooksDbAdapter;
-import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
 import org.gnucash.android.db.adapter.RecurrenceDbAdapter;
-import org.gnucash.android.db.adapter.TransactionsDbAdapter;
 import org.gnucash.android.export.ExportFormat;
 import org.gnucash.android.export.ExportParams;
+import org.gnucash.android.export.ExportSink;
 import org.gnucash.android.export.Exporter;
 import org.gnucash.android.model.Account;
 import org.gnucash.android.model.AccountType;
@@ -47,22 +47,32 @@ import org.gnucash.android.model.ScheduledAction;
 import org.gnucash.android.model.TransactionType;
 import org.gnucash.android.util.BookUtils;
 import org.gnucash.android.util.TimestampHelper;
+import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmlpull.v1.XmlSerializer;
 
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.Writer;
 import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPOutputStream;
 
 import static org.gnucash.android.db.DatabaseSchema.ScheduledActionEntry;
@@ -83,6 +93,24 @@ public class GncXmlExporter extends Exporter{
     private Account mRootTemplateAccount;
     private Map<String, Account> mTransactionToTemplateAccountMap = new TreeMap<>();
 
+    /**
+     * Minimum number of transactions exported by each worker when the transactions are split between workers
+     */
+    private static final int MIN_TRANSACTIONS_PER_SECTION = 1000;
+
+    /**
+     * Number of worker threads used to serialize the sections of the book
+     */
+    private int mParallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Part of the book which is serialized independently of the others.
+     * <p>Sections are written one after the other as children of the book element</p>
+     */
+    private interface Section {
+        void export(GncXmlExporter exporter, XmlSerializer xmlSerializer) throws IOException;
+    }
+
     /**
      * Construct a new exporter with export parameters
      * @param params Parameters for the export
@@ -103,6 +131,25 @@ public class GncXmlExporter extends Exporter{
         LOG_TAG = "GncXmlExporter";
     }
 
+    /**
+     * Creates an exporter which serializes one section of a concurrent export.
+     * It must not purge the cache directory, since the export may be written there.
+     */
+    private GncXmlExporter(ExportParams params, SQLiteDatabase db, boolean purgeCache) {
+        super(params, db, purgeCache);
+        LOG_TAG = "GncXmlExporter";
+    }
+
+    /**
+     * Sets the number of threads used to serialize the book.
+     * <p>By default one thread per processor is used. With 1, the book is serialized on the calling thread.
+     * The output is the same in all cases.</p>
+     * @param parallelism Number of threads
+     */
+    public void setParallelism(int parallelism) {
+        mParallelism = Math.max(1, parallelism);
+    }
+
     private void exportSlots(XmlSerializer xmlSerializer,
                              List<String> slotKey,
                              List<String> slotType,
@@ -158,7 +205,7 @@ public class GncXmlExporter extends Exporter{
             xmlSerializer.endTag(null, GncXmlHelper.TAG_COMMODITY_ID);
             xmlSerializer.endTag(null, GncXmlHelper.TAG_ACCT_COMMODITY);
             // commodity scu
-            Commodity commodity = CommoditiesDbAdapter.getInstance().getCommodity(acctCurrencyCode);
+            Commodity commodity = mCommoditiesDbAdapter.getCommodity(acctCurrencyCode);
             xmlSerializer.startTag(null, GncXmlHelper.TAG_COMMODITY_SCU);
             xmlSerializer.text(Integer.toString(commodity.getSmallestFraction()));
             xmlSerializer.endTag(null, GncXmlHelper.TAG_COMMODITY_SCU);
@@ -270,10 +317,26 @@ public class GncXmlExporter extends Exporter{
      * @throws IOException if the XML serializer cannot be written to
      */
     private void exportTransactions(XmlSerializer xmlSerializer, boolean exportTemplates) throws IOException {
+        exportTransactions(xmlSerializer, exportTemplates, null, null);
+    }
+
+    /**
+     * Serializes a range of the transactions from the database to XML
+     * @param xmlSerializer XML serializer
+     * @param exportTemplates Flag whether to export templates or normal transactions
+     * @param rangeWhere Additional condition restricting the transactions to export, may be null
+     * @param rangeWhereArgs Arguments of {@code rangeWhere}
+     * @throws IOException if the XML serializer cannot be written to
+     */
+    private void exportTransactions(XmlSerializer xmlSerializer, boolean exportTemplates,
+                                    String rangeWhere, String[] rangeWhereArgs) throws IOException {
         String where = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + "=0";
         if (exportTemplates) {
             where = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + "=1";
         }
+        if (rangeWhere != null) {
+            where += " AND " + rangeWhere;
+        }
         Cursor cursor = mTransactionsDbAdapter.fetchTransactionsWithSplits(
                 new String[]{
                         TransactionEntry.TABLE_NAME+"."+ TransactionEntry.COLUMN_UID + " AS trans_uid",
@@ -291,7 +354,7 @@ public class GncXmlExporter extends Exporter{
                         SplitEntry.TABLE_NAME+"."+ SplitEntry.COLUMN_VALUE_DENOM + " AS split_value_denom",
                         SplitEntry.TABLE_NAME+"."+ SplitEntry.COLUMN_QUANTITY_NUM + " AS split_quantity_num",
                         SplitEntry.TABLE_NAME+"."+ SplitEntry.COLUMN_QUANTITY_DENOM + " AS split_quantity_denom",                        SplitEntry.TABLE_NAME+"."+ SplitEntry.COLUMN_ACCOUNT_UID + " AS split_acct_uid"},
-                        where, null,
+                        where, rangeWhereArgs,
                         TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP + " ASC , " +
                         TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " ASC ");
         String lastTrxUID = "";
@@ -336,7 +399,7 @@ public class GncXmlExporter extends Exporter{
                 xmlSerializer.endTag(null, GncXmlHelper.TAG_TRX_ID);
                 // currency
                 String currencyCode = cursor.getString(cursor.getColumnIndexOrThrow("trans_currency"));
-                trnCommodity = CommoditiesDbAdapter.getInstance().getCommodity(currencyCode);//Currency.getInstance(currencyCode);
+                trnCommodity = mCommoditiesDbAdapter.getCommodity(currencyCode);//Currency.getInstance(currencyCode);
                 xmlSerializer.startTag(null, GncXmlHelper.TAG_TRX_CURRENCY);
                 xmlSerializer.startTag(null, GncXmlHelper.TAG_COMMODITY_SPACE);
                 xmlSerializer.text("ISO4217");
@@ -412,21 +475,22 @@ public class GncXmlExporter extends Exporter{
             //todo: if split is reconciled, add reconciled date
             // value, in the transaction's currency
             String trxType = cursor.getString(cursor.getColumnIndexOrThrow("split_type"));
-            int splitValueNum = cursor.getInt(cursor.getColumnIndexOrThrow("split_value_num"));
-            int splitValueDenom = cursor.getInt(cursor.getColumnIndexOrThrow("split_value_denom"));
+            long splitValueNum = cursor.getLong(cursor.getColumnIndexOrThrow("split_value_num"));
+            long splitValueDenom = cursor.getLong(cursor.getColumnIndexOrThrow("split_value_denom"));
             BigDecimal splitAmount = Money.getBigDecimal(splitValueNum, splitValueDenom);
             String strValue = "0/" + denomString;
+            boolean isCredit = trxType.equals("CREDIT");
             if (!exportTemplates) { //when doing normal transaction export
-                strValue = (trxType.equals("CREDIT") ? "-" : "") + splitValueNum + "/" + splitValueDenom;
+                strValue = GncXmlValueCodec.formatAmount(splitValueNum, splitValueDenom, isCredit);
             }
             xmlSerializer.startTag(null, GncXmlHelper.TAG_SPLIT_VALUE);
             xmlSerializer.text(strValue);
             xmlSerializer.endTag(null, GncXmlHelper.TAG_SPLIT_VALUE);
             // quantity, in the split account's currency
-            String splitQuantityNum = cursor.getString(cursor.getColumnIndexOrThrow("split_quantity_num"));
-            String splitQuantityDenom = cursor.getString(cursor.getColumnIndexOrThrow("split_quantity_denom"));
+            long splitQuantityNum = cursor.getLong(cursor.getColumnIndexOrThrow("split_quantity_num"));
+            long splitQuantityDenom = cursor.getLong(cursor.getColumnIndexOrThrow("split_quantity_denom"));
             if (!exportTemplates) {
-                strValue = (trxType.equals("CREDIT") ? "-" : "") + splitQuantityNum + "/" + splitQuantityDenom;
+                strValue = GncXmlValueCodec.formatAmount(splitQuantityNum, splitQuantityDenom, isCredit);
             }
             xmlSerializer.startTag(null, GncXmlHelper.TAG_SPLIT_QUANTITY);
             xmlSerializer.text(strValue);
@@ -523,7 +587,7 @@ public class GncXmlExporter extends Exporter{
 
             ScheduledAction.ActionType actionType = scheduledAction.getActionType();
             if (actionType == ScheduledAction.ActionType.TRANSACTION) {
-                String description = TransactionsDbAdapter.getInstance().getAttribute(actionUID, TransactionEntry.COLUMN_DESCRIPTION);
+                String description = mTransactionsDbAdapter.getAttribute(actionUID, TransactionEntry.COLUMN_DESCRIPTION);
                 xmlSerializer.text(description);
             } else {
                 xmlSerializer.text(actionType.name());
@@ -684,8 +748,10 @@ public class GncXmlExporter extends Exporter{
                 }
                 // value
                 xmlSerializer.startTag(null, GncXmlHelper.TAG_PRICE_VALUE);
-                xmlSerializer.text(cursor.getLong(cursor.getColumnIndexOrThrow(DatabaseSchema.PriceEntry.COLUMN_VALUE_NUM))
-                                + "/" + cursor.getLong(cursor.getColumnIndexOrThrow(DatabaseSchema.PriceEntry.COLUMN_VALUE_DENOM)));
+                xmlSerializer.text(GncXmlValueCodec.formatAmount(
+                        cursor.getLong(cursor.getColumnIndexOrThrow(DatabaseSchema.PriceEntry.COLUMN_VALUE_NUM)),
+                        cursor.getLong(cursor.getColumnIndexOrThrow(DatabaseSchema.PriceEntry.COLUMN_VALUE_DENOM)),
+                        false));
                 xmlSerializer.endTag(null, GncXmlHelper.TAG_PRICE_VALUE);
                 xmlSerializer.endTag(null, GncXmlHelper.TAG_PRICE);
             }
@@ -776,18 +842,36 @@ public class GncXmlExporter extends Exporter{
 
     @Override
     public List<String> generateExport() throws ExporterException {
-        OutputStreamWriter writer = null;
         String outputFile = getExportCacheFilePath();
-        try {
-            FileOutputStream fileOutputStream = new FileOutputStream(outputFile);
-            BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(fileOutputStream);
-            writer = new OutputStreamWriter(bufferedOutputStream);
+        generateExport(ExportSink.toFile(new File(outputFile), ExportSink.Compression.NONE));
+
+        List<String> exportedFiles = new ArrayList<>();
+        exportedFiles.add(outputFile);
+
+        return exportedFiles;
+    }
 
+    /**
+     * Generates an XML export of the database and streams it directly into the {@code sink}.
+     * <p>Any compression configured for the sink is applied while the XML is being written</p>
+     * @param sink Destination of the export
+     * @throws ExporterException if the export could not be generated or written
+     */
+    public void generateExport(ExportSink sink) throws ExporterException {
+        Writer writer = null;
+        boolean success = false;
+        try {
+            writer = sink.openWriter();
             generateExport(writer);
+            success = true;
         } catch (IOException ex){
             Crashlytics.log("Error exporting XML");
             Crashlytics.logException(ex);
+            throw new ExporterException(mExportParams, ex);
         } finally {
+            if (!success) {
+                sink.discard();
+            }
             if (writer != null) {
                 try {
                     writer.close();
@@ -796,11 +880,273 @@ public class GncXmlExporter extends Exporter{
                 }
             }
         }
+    }
 
-        List<String> exportedFiles = new ArrayList<>();
-        exportedFiles.add(outputFile);
+    /**
+     * Creates the XML serializer used for the export
+     */
+    private static XmlSerializer newSerializer() throws XmlPullParserException {
+        XmlSerializer xmlSerializer = XmlPullParserFactory.newInstance().newSerializer();
+        try {
+            xmlSerializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+        } catch (IllegalStateException e) {
+            // Feature not supported. No problem
+        }
+        return xmlSerializer;
+    }
 
-        return exportedFiles;
+    /**
+     * Lists the sections of the book in the order in which they appear in the document.
+     * <p>If the export is done concurrently and the book is large, the transactions are split
+     * into several sections</p>
+     */
+    private List<Section> buildSections(final List<Commodity> commodities, long priceCount) {
+        List<Section> sections = new ArrayList<>();
+        sections.add(new Section() {
+            @Override
+            public void export(GncXmlExporter exporter, XmlSerializer xmlSerializer) throws IOException {
+                exporter.exportCommodities(xmlSerializer, commodities);
+            }
+        });
+        if (priceCount > 0) {
+            sections.add(new Section() {
+                @Override
+                public void export(GncXmlExporter exporter, XmlSerializer xmlSerializer) throws IOException {
+                    exporter.exportPrices(xmlSerializer);
+                }
+            });
+        }
+        sections.add(new Section() {
+            @Override
+            public void export(GncXmlExporter exporter, XmlSerializer xmlSerializer) throws IOException {
+                exporter.exportAccounts(xmlSerializer);
+            }
+        });
+        addTransactionSections(sections);
+        // template transactions and scheduled actions share the generated template accounts
+        sections.add(new Section() {
+            @Override
+            public void export(GncXmlExporter exporter, XmlSerializer xmlSerializer) throws IOException {
+                if (exporter.mTransactionsDbAdapter.getTemplateTransactionsCount() > 0) {
+                    xmlSerializer.startTag(null, GncXmlHelper.TAG_TEMPLATE_TRANSACTIONS);
+                    exporter.exportTransactions(xmlSerializer, true);
+                    xmlSerializer.endTag(null, GncXmlHelper.TAG_TEMPLATE_TRANSACTIONS);
+                }
+                exporter.exportScheduledTransactions(xmlSerializer);
+            }
+        });
+        sections.add(new Section() {
+            @Override
+            public void export(GncXmlExporter exporter, XmlSerializer xmlSerializer) throws IOException {
+                exporter.exportBudgets(xmlSerializer);
+            }
+        });
+        return sections;
+    }
+
+    /**
+     * Adds the sections for the (non-template) transactions.
+     * <p>The transactions are split into ranges of the export order (time stamp, then GUID),
+     * so that the ranges can be serialized by different workers</p>
+     */
+    private void addTransactionSections(List<Section> sections) {
+        String nonTemplate = TransactionEntry.COLUMN_TEMPLATE + "=0";
+        long transactionCount = DatabaseUtils.queryNumEntries(mDb, TransactionEntry.TABLE_NAME, nonTemplate);
+        int rangeCount = mParallelism > 1 ? (int) Math.min(mParallelism, transactionCount / MIN_TRANSACTIONS_PER_SECTION) : 1;
+        if (rangeCount <= 1) {
+            sections.add(new Section() {
+                @Override
+                public void export(GncXmlExporter exporter, XmlSerializer xmlSerializer) throws IOException {
+                    exporter.exportTransactions(xmlSerializer, false);
+                }
+            });
+            return;
+        }
+
+        String[] lowerBound = null;
+        for (int i = 1; i <= rangeCount; i++) {
+            String[] upperBound = null;
+            if (i < rangeCount) {
+                Cursor cursor = mDb.rawQuery("SELECT " + TransactionEntry.COLUMN_TIMESTAMP + ", " + TransactionEntry.COLUMN_UID
+                        + " FROM " + TransactionEntry.TABLE_NAME + " WHERE " + nonTemplate
+                        + " ORDER BY " + TransactionEntry.COLUMN_TIMESTAMP + " ASC, " + TransactionEntry.COLUMN_UID + " ASC"
+                        + " LIMIT 1 OFFSET " + (transactionCount * i / rangeCount), null);
+                try {
+                    if (cursor.moveToFirst()) {
+                        upperBound = new String[]{cursor.getString(0), cursor.getString(1)};
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            sections.add(createTransactionRangeSection(lowerBound, upperBound));
+            lowerBound = upperBound;
+        }
+    }
+
+    /**
+     * Creates a section with the transactions from {@code lowerBound} (inclusive) to {@code upperBound} (exclusive)
+     * @param lowerBound Time stamp and GUID of the first transaction, or null to start with the first transaction
+     * @param upperBound Time stamp and GUID of the first transaction after the range, or null to include the last transaction
+     */
+    private Section createTransactionRangeSection(String[] lowerBound, String[] upperBound) {
+        String timestamp = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP;
+        String uid = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID;
+        final StringBuilder where = new StringBuilder("1");
+        final List<String> whereArgs = new ArrayList<>();
+        if (lowerBound != null) {
+            where.append(" AND (").append(timestamp).append(" > ? OR (")
+                    .append(timestamp).append(" = ? AND ").append(uid).append(" >= ?))");
+            Collections.addAll(whereArgs, lowerBound[0], lowerBound[0], lowerBound[1]);
+        }
+        if (upperBound != null) {
+            where.append(" AND (").append(timestamp).append(" < ? OR (")
+                    .append(timestamp).append(" = ? AND ").append(uid).append(" < ?))");
+            Collections.addAll(whereArgs, upperBound[0], upperBound[0], upperBound[1]);
+        }
+        return new Section() {
+            @Override
+            public void export(GncXmlExporter exporter, XmlSerializer xmlSerializer) throws IOException {
+                exporter.exportTransactions(xmlSerializer, false, where.toString(),
+                        whereArgs.toArray(new String[whereArgs.size()]));
+            }
+        };
+    }
+
+    /**
+     * Checks if the sections can be serialized concurrently.
+     * This requires a database file, which the workers can open their own connections to.
+     */
+    private boolean canExportConcurrently(List<Section> sections) {
+        if (mParallelism <= 1 || sections.size() <= 1)
+            return false;
+        String path = mDb.getPath();
+        return path != null && new File(path).isFile();
+    }
+
+    /**
+     * Serializes the sections on a pool of workers and writes them to {@code writer} in order.
+     * <p>Each worker reads from its own database connection and writes its section to a temporary file
+     * in the cache. The sections are serialized with the same nesting as in the full document,
+     * so that the output is the same as when the sections are serialized one after the other.</p>
+     * @param xmlSerializer Serializer of the document, positioned inside the book element
+     * @param writer Output of the document
+     * @param sections Sections to serialize
+     * @throws IOException if a section could not be serialized or written
+     */
+    private void exportSectionsConcurrently(XmlSerializer xmlSerializer, Writer writer, List<Section> sections)
+            throws IOException {
+        // closes the start tag of the book, so that the sections can be appended directly to the writer
+        xmlSerializer.flush();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(mParallelism, sections.size()));
+        List<Future<File>> futures = new ArrayList<>();
+        try {
+            for (final Section section : sections) {
+                futures.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        return exportSectionToFile(section);
+                    }
+                }));
+            }
+
+            char[] buffer = new char[ExportSink.BUFFER_SIZE];
+            for (Future<File> future : futures) {
+                File sectionFile = future.get();
+                Reader reader = new InputStreamReader(new FileInputStream(sectionFile), "UTF-8");
+                try {
+                    int count;
+                    while ((count = reader.read(buffer)) != -1) {
+                        writer.write(buffer, 0, count);
+                    }
+                } finally {
+                    reader.close();
+                    sectionFile.delete();
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Error serializing the book concurrently", e);
+        } finally {
+            // cancel the sections which have not been started, and wait for the others to delete their files
+            for (Runnable pending : executor.shutdownNow()) {
+                ((Future<?>) pending).cancel(false);
+            }
+            for (Future<File> future : futures) {
+                try {
+                    future.get().delete();
+                } catch (InterruptedException | ExecutionException | CancellationException e) {
+                    // nothing to clean up
+                }
+            }
+        }
+    }
+
+    /**
+     * Serializes a section into a temporary file, reading from a new database connection
+     * @param section Section to serialize
+     * @return Temporary file containing the section, encoded in UTF-8
+     */
+    private File exportSectionToFile(Section section) throws IOException, XmlPullParserException {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(mDb.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        File sectionFile = File.createTempFile("section", ".xml", mContext.getCacheDir());
+        try {
+            SectionWriter sectionWriter = new SectionWriter(
+                    ExportSink.toFile(sectionFile, ExportSink.Compression.NONE).openWriter());
+            try {
+                XmlSerializer xmlSerializer = newSerializer();
+                xmlSerializer.setOutput(sectionWriter);
+                // nest the section as in the full document, so that it is indented the same way
+                xmlSerializer.startTag(null, GncXmlHelper.TAG_ROOT);
+                xmlSerializer.startTag(null, GncXmlHelper.TAG_BOOK);
+                xmlSerializer.flush();
+                sectionWriter.startSection();
+
+                section.export(new GncXmlExporter(mExportParams, db, false), xmlSerializer);
+                xmlSerializer.flush();
+            } finally {
+                sectionWriter.close();
+            }
+            return sectionFile;
+        } catch (Exception e) {
+            sectionFile.delete();
+            throw e;
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Writer which drops everything written before the start of the section
+     */
+    private static class SectionWriter extends FilterWriter {
+        private boolean mStarted;
+
+        SectionWriter(Writer out) {
+            super(out);
+        }
+
+        void startSection() {
+            mStarted = true;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (mStarted)
+                super.write(c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            if (mStarted)
+                super.write(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            if (mStarted)
+                super.write(str, off, len);
+        }
     }
 
     /**
@@ -812,12 +1158,7 @@ public class GncXmlExporter extends Exporter{
         try {
             String[] namespaces = new String[]{"gnc", "act", "book", "cd", "cmdty", "price", "slot",
                     "split", "trn", "ts", "sx", "bgt", "recurrence"};
-            XmlSerializer xmlSerializer = XmlPullParserFactory.newInstance().newSerializer();
-            try {
-                xmlSerializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
-            } catch (IllegalStateException e) {
-                // Feature not supported. No problem
-            }
+            XmlSerializer xmlSerializer = newSerializer();
             xmlSerializer.setOutput(writer);
             xmlSerializer.startDocument("utf-8", true);
             // root tag
@@ -867,28 +1208,14 @@ public class GncXmlExporter extends Exporter{
                 xmlSerializer.text(priceCount + "");
                 xmlSerializer.endTag(null, GncXmlHelper.TAG_COUNT_DATA);
             }
-            // export the commodities used in the DB
-            exportCommodities(xmlSerializer, commodities);
-            // prices
-            if (priceCount > 0) {
-                exportPrices(xmlSerializer);
-            }
-            // accounts.
-            exportAccounts(xmlSerializer);
-            // transactions.
-            exportTransactions(xmlSerializer, false);
-
-            //transaction templates
-            if (mTransactionsDbAdapter.getTemplateTransactionsCount() > 0) {
-                xmlSerializer.startTag(null, GncXmlHelper.TAG_TEMPLATE_TRANSACTIONS);
-                exportTransactions(xmlSerializer, true);
-                xmlSerializer.endTag(null, GncXmlHelper.TAG_TEMPLATE_TRANSACTIONS);
+            List<Section> sections = buildSections(commodities, priceCount);
+            if (canExportConcurrently(sections)) {
+                exportSectionsConcurrently(xmlSerializer, writer, sections);
+            } else {
+                for (Section section : sections) {
+                    section.export(this, xmlSerializer);
+                }
             }
-            //scheduled actions
-            exportScheduledTransactions(xmlSerializer);
-
-            //budgets
-            exportBudgets(xmlSerializer);
 
             xmlSerializer.endTag(null, GncXmlHelper.TAG_BOOK);
             xmlSerializer.endTag(null, GncXmlHelper.TAG_ROOT);
@@ -21,12 +21,11 @@ import org.gnucash.android.model.Commodity;
 import org.gnucash.android.ui.transaction.TransactionFormFragment;
 
 import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Locale;
+import java.util.TimeZone;
 
 /**
  * Collection of helper tags and methods for Gnc XML export
@@ -147,7 +146,11 @@ public abstract class GncXmlHelper {
 
     public static final String RECURRENCE_VERSION           = "1.0.0";
     public static final String BOOK_VERSION                 = "2.0.0";
-    public static final SimpleDateFormat TIME_FORMATTER     = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z", Locale.US);
+    /**
+     * Formatter for GnuCash XML timestamps.
+     * <p>Not thread-safe, use {@link #formatDate(long)} and {@link #parseDate(String)} instead</p>
+     */
+    public static final SimpleDateFormat TIME_FORMATTER     = new SimpleDateFormat(GncXmlValueCodec.DATE_PATTERN, Locale.US);
     public static final SimpleDateFormat DATE_FORMATTER     = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
 
     public static final String KEY_PLACEHOLDER              = "placeholder";
@@ -164,13 +167,18 @@ public abstract class GncXmlHelper {
     public static final String KEY_FROM_SCHED_ACTION        = "from-sched-xaction";
     public static final String KEY_DEFAULT_TRANSFER_ACCOUNT = "default_transfer_account";
 
+    /**
+     * Time zone in which timestamps are formatted, same as the one of {@link #TIME_FORMATTER}
+     */
+    private static final TimeZone TIME_ZONE = TIME_FORMATTER.getTimeZone();
+
 
     /**
      * Formats dates for the GnuCash XML format
      * @param milliseconds Milliseconds since epoch
      */
     public static String formatDate(long milliseconds){
-        return TIME_FORMATTER.format(new Date(milliseconds));
+        return GncXmlValueCodec.formatDate(milliseconds, TIME_ZONE);
     }
 
     /**
@@ -180,8 +188,7 @@ public abstract class GncXmlHelper {
      * @throws ParseException if the date string could not be parsed e.g. because of different format
      */
     public static long parseDate(String dateString) throws ParseException {
-        Date date = TIME_FORMATTER.parse(dateString);
-        return date.getTime();
+        return GncXmlValueCodec.parseDate(dateString, TIME_ZONE);
     }
 
     /**
@@ -192,18 +199,7 @@ public abstract class GncXmlHelper {
      * @throws ParseException if the amount could not be parsed
      */
     public static BigDecimal parseSplitAmount(String amountString) throws ParseException {
-        int pos = amountString.indexOf("/");
-        if (pos < 0)
-        {
-            throw new ParseException("Cannot parse money string : " + amountString, 0);
-        }
-
-        int scale = amountString.length() - pos - 2; //do this before, because we could modify the string
-        //String numerator = TransactionFormFragment.stripCurrencyFormatting(amountString.substring(0, pos));
-        String numerator = amountString.substring(0,pos);
-        numerator = TransactionFormFragment.stripCurrencyFormatting(numerator);
-        BigInteger numeratorInt = new BigInteger(numerator);
-        return new BigDecimal(numeratorInt, scale);
+        return GncXmlValueCodec.parseAmount(amountString);
     }
 
     /**
@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.export.xml;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Encodes and decodes the timestamps and amounts of GnuCash XML files.
+ * <p>Timestamps have the format {@code yyyy-MM-dd HH:mm:ss Z} and amounts the format {@code num/denom}.
+ * The methods work directly on character ranges, hold no shared mutable state and are therefore thread-safe.
+ * They produce the same results as {@link SimpleDateFormat} and the former amount parsing code,
+ * which they fall back to for unusual input.</p>
+ *
+ * @see GncXmlHelper#parseDate(String)
+ * @see GncXmlHelper#parseSplitAmount(String)
+ */
+public final class GncXmlValueCodec {
+
+    /**
+     * Pattern of timestamps in GnuCash XML
+     */
+    public static final String DATE_PATTERN = "yyyy-MM-dd HH:mm:ss Z";
+
+    /**
+     * Length of a timestamp formatted with {@link #DATE_PATTERN}, e.g. "2016-08-23 12:44:19 +0200"
+     */
+    static final int DATE_LENGTH = 25;
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+    private static final long MILLIS_PER_HOUR   = 60 * MILLIS_PER_MINUTE;
+    private static final long MILLIS_PER_DAY    = 24 * MILLIS_PER_HOUR;
+
+    /**
+     * Years handled by the fast paths. Earlier dates use the Julian calendar in {@link SimpleDateFormat}
+     * and later years do not have four digits
+     */
+    private static final int MIN_FAST_YEAR = 1600;
+    private static final int MAX_FAST_YEAR = 9999;
+
+    private static final long MIN_FAST_LOCAL_MILLIS = daysFromCivil(MIN_FAST_YEAR, 1, 1) * MILLIS_PER_DAY;
+    private static final long MAX_FAST_LOCAL_MILLIS = daysFromCivil(MAX_FAST_YEAR + 1, 1, 1) * MILLIS_PER_DAY;
+
+    /**
+     * Maximum number of digits which always fit into a {@code long}
+     */
+    private static final int MAX_LONG_DIGITS = 18;
+
+    private GncXmlValueCodec() {
+        //only static methods
+    }
+
+    /**
+     * Parses a timestamp in the format {@code yyyy-MM-dd HH:mm:ss Z}
+     * @param text Text containing the timestamp
+     * @param zone Time zone used when the text cannot be parsed by the fast path
+     * @return Time in milliseconds since epoch
+     * @throws ParseException if the timestamp could not be parsed
+     */
+    public static long parseDate(CharSequence text, TimeZone zone) throws ParseException {
+        return parseDate(text, 0, text.length(), zone);
+    }
+
+    /**
+     * Parses a timestamp in the format {@code yyyy-MM-dd HH:mm:ss Z} from a range of characters
+     * @param text Text containing the timestamp
+     * @param start Index of the first character of the timestamp
+     * @param end Index after the last character of the timestamp
+     * @param zone Time zone used when the text cannot be parsed by the fast path
+     * @return Time in milliseconds since epoch
+     * @throws ParseException if the timestamp could not be parsed
+     */
+    public static long parseDate(CharSequence text, int start, int end, TimeZone zone) throws ParseException {
+        if (end - start == DATE_LENGTH
+                && text.charAt(start + 4) == '-' && text.charAt(start + 7) == '-'
+                && text.charAt(start + 10) == ' ' && text.charAt(start + 13) == ':'
+                && text.charAt(start + 16) == ':' && text.charAt(start + 19) == ' ') {
+            int year    = parseDigits(text, start, 4);
+            int month   = parseDigits(text, start + 5, 2);
+            int day     = parseDigits(text, start + 8, 2);
+            int hour    = parseDigits(text, start + 11, 2);
+            int minute  = parseDigits(text, start + 14, 2);
+            int second  = parseDigits(text, start + 17, 2);
+            char sign   = text.charAt(start + 20);
+            int offsetHours   = parseDigits(text, start + 21, 2);
+            int offsetMinutes = parseDigits(text, start + 23, 2);
+            if (year >= MIN_FAST_YEAR && month >= 1 && month <= 12
+                    && day >= 1 && day <= daysInMonth(year, month)
+                    && hour >= 0 && hour < 24 && minute >= 0 && minute < 60 && second >= 0 && second < 60
+                    && (sign == '+' || sign == '-')
+                    && offsetHours >= 0 && offsetHours < 24 && offsetMinutes >= 0 && offsetMinutes < 60) {
+                long offset = offsetHours * MILLIS_PER_HOUR + offsetMinutes * MILLIS_PER_MINUTE;
+                long localMillis = daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                        + hour * MILLIS_PER_HOUR + minute * MILLIS_PER_MINUTE + second * MILLIS_PER_SECOND;
+                return sign == '+' ? localMillis - offset : localMillis + offset;
+            }
+        }
+        return createDateFormat(zone).parse(text.subSequence(start, end).toString()).getTime();
+    }
+
+    /**
+     * Formats a timestamp in the format {@code yyyy-MM-dd HH:mm:ss Z}
+     * @param millis Milliseconds since epoch
+     * @param zone Time zone in which the timestamp is formatted
+     * @return Formatted timestamp
+     */
+    public static String formatDate(long millis, TimeZone zone) {
+        char[] buffer = new char[DATE_LENGTH];
+        if (formatDate(millis, zone, buffer, 0)) {
+            return new String(buffer);
+        }
+        return createDateFormat(zone).format(new Date(millis));
+    }
+
+    /**
+     * Appends a timestamp in the format {@code yyyy-MM-dd HH:mm:ss Z} to a builder
+     * @param millis Milliseconds since epoch
+     * @param zone Time zone in which the timestamp is formatted
+     * @param out Builder to which the timestamp is appended
+     * @param buffer Scratch buffer with room for at least 25 characters, may be reused between calls
+     */
+    public static void appendDate(long millis, TimeZone zone, StringBuilder out, char[] buffer) {
+        if (formatDate(millis, zone, buffer, 0)) {
+            out.append(buffer, 0, DATE_LENGTH);
+        } else {
+            out.append(createDateFormat(zone).format(new Date(millis)));
+        }
+    }
+
+    /**
+     * Writes the formatted timestamp into a character buffer
+     * @return {@code true} if the timestamp was written,
+     * {@code false} if it is out of the range handled without {@link SimpleDateFormat}
+     */
+    private static boolean formatDate(long millis, TimeZone zone, char[] buffer, int pos) {
+        int offset = zone.getOffset(millis);
+        long localMillis = millis + offset;
+        if (localMillis < MIN_FAST_LOCAL_MILLIS || localMillis >= MAX_FAST_LOCAL_MILLIS) {
+            return false;
+        }
+        long days = floorDiv(localMillis, MILLIS_PER_DAY);
+        int millisOfDay = (int) (localMillis - days * MILLIS_PER_DAY);
+
+        // civil from days, see http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+        int secondOfDay = millisOfDay / 1000;
+        pos = writeDigits(buffer, pos, year, 4);
+        buffer[pos++] = '-';
+        pos = writeDigits(buffer, pos, month, 2);
+        buffer[pos++] = '-';
+        pos = writeDigits(buffer, pos, day, 2);
+        buffer[pos++] = ' ';
+        pos = writeDigits(buffer, pos, secondOfDay / 3600, 2);
+        buffer[pos++] = ':';
+        pos = writeDigits(buffer, pos, secondOfDay / 60 % 60, 2);
+        buffer[pos++] = ':';
+        pos = writeDigits(buffer, pos, secondOfDay % 60, 2);
+        buffer[pos++] = ' ';
+        // same as SimpleDateFormat: the offset is truncated to whole minutes
+        int offsetMinutes = offset / (int) MILLIS_PER_MINUTE;
+        if (offsetMinutes >= 0) {
+            buffer[pos++] = '+';
+        } else {
+            buffer[pos++] = '-';
+            offsetMinutes = -offsetMinutes;
+        }
+        writeDigits(buffer, pos, (offsetMinutes / 60) * 100 + offsetMinutes % 60, 4);
+        return true;
+    }
+
+    /**
+     * Parses an amount in the format {@code num/denom} into a decimal number.
+     * <p>The scale of the result is the number of digits of the denominator minus one,
+     * e.g. "12345/100" is parsed to 123.45. Any character of the numerator which is not a digit is ignored,
+     * except for a leading sign.</p>
+     * @param text Text containing the amount
+     * @return Decimal value of the amount
+     * @throws ParseException if the text does not contain '/'
+     * @throws NumberFormatException if the numerator has no digits
+     */
+    public static BigDecimal parseAmount(CharSequence text) throws ParseException {
+        return parseAmount(text, 0, text.length());
+    }
+
+    /**
+     * Parses an amount in the format {@code num/denom} from a range of characters
+     * @param text Text containing the amount
+     * @param start Index of the first character of the amount
+     * @param end Index after the last character of the amount
+     * @return Decimal value of the amount
+     * @throws ParseException if the range does not contain '/'
+     * @throws NumberFormatException if the numerator has no digits
+     * @see #parseAmount(CharSequence)
+     */
+    public static BigDecimal parseAmount(CharSequence text, int start, int end) throws ParseException {
+        int slash = indexOf(text, start, end, '/');
+        if (slash < 0) {
+            throw new ParseException("Cannot parse money string : " + text.subSequence(start, end), 0);
+        }
+        int scale = end - slash - 2;
+
+        int first = start;
+        while (first < slash && text.charAt(first) <= ' ') {
+            first++;
+        }
+        boolean negative = first < slash && text.charAt(first) == '-';
+
+        long unscaled = 0;
+        int digits = 0;
+        for (int i = first; i < slash; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > MAX_LONG_DIGITS) {
+                    return new BigDecimal(parseBigNumerator(text, first, slash, negative), scale);
+                }
+                unscaled = unscaled * 10 + (c - '0');
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("No digits in amount numerator: " + text.subSequence(start, end));
+        }
+        return BigDecimal.valueOf(negative ? -unscaled : unscaled, scale);
+    }
+
+    /**
+     * Parses the numerator of an amount which does not fit into a {@code long}
+     */
+    private static BigInteger parseBigNumerator(CharSequence text, int start, int end, boolean negative) {
+        StringBuilder digits = new StringBuilder(end - start + 1);
+        if (negative) {
+            digits.append('-');
+        }
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return new BigInteger(digits.toString());
+    }
+
+    /**
+     * Parses a signed decimal integer from a range of characters, without creating a substring
+     * @param text Text containing the number
+     * @param start Index of the first character of the number
+     * @param end Index after the last character of the number
+     * @return Parsed number
+     * @throws NumberFormatException if the range is not a valid {@code long}
+     */
+    public static long parseLong(CharSequence text, int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) {
+            negative = text.charAt(pos) == '-';
+            pos++;
+        }
+        if (pos == end || end - pos > MAX_LONG_DIGITS) {
+            // empty, or possibly too large for the fast path
+            return Long.parseLong(text.subSequence(start, end).toString());
+        }
+        long value = 0;
+        for (; pos < end; pos++) {
+            char c = text.charAt(pos);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("For input string: \"" + text.subSequence(start, end) + "\"");
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Formats an amount in the format {@code num/denom}
+     * @param numerator Numerator of the amount
+     * @param denominator Denominator of the amount
+     * @param negate If {@code true}, the amount is prefixed with '-'
+     * @return Formatted amount
+     */
+    public static String formatAmount(long numerator, long denominator, boolean negate) {
+        StringBuilder builder = new StringBuilder(24);
+        appendAmount(builder, numerator, denominator, negate);
+        return builder.toString();
+    }
+
+    /**
+     * Appends an amount in the format {@code num/denom} to a builder
+     * @param out Builder to which the amount is appended
+     * @param numerator Numerator of the amount
+     * @param denominator Denominator of the amount
+     * @param negate If {@code true}, the amount is prefixed with '-'
+     */
+    public static void appendAmount(StringBuilder out, long numerator, long denominator, boolean negate) {
+        if (negate) {
+            out.append('-');
+        }
+        out.append(numerator).append('/').append(denominator);
+    }
+
+    /**
+     * Creates a date format for the slow path. Instances are not shared because they are not thread-safe
+     */
+    private static SimpleDateFormat createDateFormat(TimeZone zone) {
+        SimpleDateFormat format = new SimpleDateFormat(DATE_PATTERN, Locale.US);
+        format.setTimeZone(zone);
+        return format;
+    }
+
+    /**
+     * Parses a fixed number of decimal digits
+     * @return Parsed value, or -1 if any of the characters is not a digit
+     */
+    private static int parseDigits(CharSequence text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Writes a non-negative value as a fixed number of zero-padded decimal digits
+     * @return Position after the written digits
+     */
+    private static int writeDigits(char[] buffer, int pos, int value, int count) {
+        for (int i = pos + count - 1; i >= pos; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + count;
+    }
+
+    private static int indexOf(CharSequence text, int start, int end, char c) {
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Returns the number of days since 1970-01-01 of a date in the proleptic Gregorian calendar
+     * @see <a href="http://howardhinnant.github.io/date_algorithms.html">Date algorithms</a>
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        int yearOfEra = (int) (year - era * 400);
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Floor division, since {@code Math.floorDiv} is not available before API level 24
+     */
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        if ((dividend % divisor != 0) && ((dividend < 0) != (divisor < 0))) {
+            quotient--;
+        }
+        return quotient;
+    }
+}
@@ -0,0 +1,577 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.importer;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.PriceEntry;
+import org.gnucash.android.db.DatabaseSchema.RecurrenceEntry;
+import org.gnucash.android.db.DatabaseSchema.ScheduledActionEntry;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.DatabaseAdapter;
+import org.gnucash.android.db.adapter.PricesDbAdapter;
+import org.gnucash.android.db.adapter.ScheduledActionDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Price;
+import org.gnucash.android.model.Recurrence;
+import org.gnucash.android.model.ScheduledAction;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges entities parsed from an imported file into an existing book database.
+ * <p>Entities are matched to database records by GUID. Only entities which do not exist yet are inserted,
+ * and only those whose content differs from the database record are updated.
+ * Records which are not present in the imported file can optionally be deleted,
+ * except for the accounts which the book needs (see {@link #deleteMissingAccounts()}).</p>
+ * <p>GnuCash XML files do not carry modification times for their entities, so changes are detected
+ * by comparing a fingerprint of the persisted attributes of each entity with the one of the database record.</p>
+ *
+ * @see GncXmlHandler#GncXmlHandler(String, boolean)
+ */
+class BookMerger {
+
+    private static final String LOG_TAG = "BookMerger";
+
+    /**
+     * Entity name used in the {@link MergeReport} for template transactions
+     */
+    static final String ENTITY_TEMPLATE_TRANSACTIONS = "template_transactions";
+
+    /**
+     * Separator between fields in a fingerprint. It should not appear in any field value
+     */
+    private static final char FIELD_SEPARATOR = '\u001f';
+
+    /**
+     * Maximum number of GUIDs in the IN clause of a single delete statement.
+     * SQLite limits the number of bound variables per statement to 999
+     */
+    private static final int DELETE_BATCH_SIZE = 500;
+
+    private final SQLiteDatabase mDb;
+    private final AccountsDbAdapter mAccountsDbAdapter;
+    private final TransactionsDbAdapter mTransactionsDbAdapter;
+    private final ScheduledActionDbAdapter mScheduledActionsDbAdapter;
+    private final PricesDbAdapter mPricesDbAdapter;
+    private final boolean mDeleteMissing;
+    private final MergeReport mReport = new MergeReport();
+
+    /**
+     * GUIDs of the accounts of the database which are not in the imported entities
+     */
+    private List<String> mMissingAccountUIDs = Collections.emptyList();
+
+    /**
+     * Parent GUIDs of the accounts of the database, by account GUID
+     */
+    private final Map<String, String> mAccountParents = new HashMap<>();
+
+    /**
+     * GUIDs of the accounts of the database which are never deleted: ROOT accounts,
+     * including the roots of templates, and top level imbalance accounts
+     */
+    private final Set<String> mProtectedAccountUIDs = new HashSet<>();
+
+    /**
+     * Create a merger for the book database
+     * @param db Database of the book into which to merge
+     * @param accountsDbAdapter Accounts adapter for the book database
+     * @param transactionsDbAdapter Transactions adapter for the book database
+     * @param scheduledActionsDbAdapter Scheduled actions adapter for the book database
+     * @param pricesDbAdapter Prices adapter for the book database
+     * @param deleteMissing If {@code true}, records which are not in the imported entities are deleted
+     */
+    BookMerger(SQLiteDatabase db, AccountsDbAdapter accountsDbAdapter,
+               TransactionsDbAdapter transactionsDbAdapter,
+               ScheduledActionDbAdapter scheduledActionsDbAdapter,
+               PricesDbAdapter pricesDbAdapter, boolean deleteMissing) {
+        mDb = db;
+        mAccountsDbAdapter = accountsDbAdapter;
+        mTransactionsDbAdapter = transactionsDbAdapter;
+        mScheduledActionsDbAdapter = scheduledActionsDbAdapter;
+        mPricesDbAdapter = pricesDbAdapter;
+        mDeleteMissing = deleteMissing;
+    }
+
+    /**
+     * Returns the report of the changes made by this merger so far
+     * @return Merge report
+     */
+    @NonNull MergeReport getReport() {
+        return mReport;
+    }
+
+    /**
+     * Merges the accounts into the database.
+     * <p>Accounts which are missing from {@code accounts} are only deleted by {@link #deleteMissingAccounts()},
+     * once the transactions have been merged</p>
+     * @param accounts Imported accounts, with full names already resolved
+     */
+    void mergeAccounts(@NonNull List<Account> accounts) {
+        MergeReport.EntityChanges changes = mReport.getChanges(AccountEntry.TABLE_NAME);
+        Map<String, String> existing = new HashMap<>();
+        Cursor cursor = mDb.query(AccountEntry.TABLE_NAME, new String[]{
+                AccountEntry.COLUMN_UID,
+                AccountEntry.COLUMN_NAME,
+                AccountEntry.COLUMN_DESCRIPTION,
+                AccountEntry.COLUMN_TYPE,
+                AccountEntry.COLUMN_CURRENCY,
+                AccountEntry.COLUMN_COMMODITY_UID,
+                AccountEntry.COLUMN_COLOR_CODE,
+                AccountEntry.COLUMN_FAVORITE,
+                AccountEntry.COLUMN_FULL_NAME,
+                AccountEntry.COLUMN_PLACEHOLDER,
+                AccountEntry.COLUMN_HIDDEN,
+                AccountEntry.COLUMN_PARENT_ACCOUNT_UID,
+                AccountEntry.COLUMN_DEFAULT_TRANSFER_ACCOUNT_UID
+        }, null, null, null, null, null);
+        String rootUID = mAccountsDbAdapter.getOrCreateGnuCashRootAccountUID();
+        String imbalancePrefix = AccountsDbAdapter.getImbalanceAccountPrefix();
+        try {
+            while (cursor.moveToNext()) {
+                String uid = cursor.getString(0);
+                String name = cursor.getString(1);
+                String description = cursor.getString(2);
+                String type = cursor.getString(3);
+                String parentUID = cursor.getString(11);
+                existing.put(uid, fingerprint(
+                        name, description == null ? "" : description,
+                        type, cursor.getString(4), cursor.getString(5),
+                        cursor.getString(6), cursor.getInt(7), cursor.getString(8),
+                        cursor.getInt(9), cursor.getInt(10), parentUID, cursor.getString(12)));
+                mAccountParents.put(uid, parentUID);
+                if (AccountType.ROOT.name().equals(type)
+                        || (rootUID.equals(parentUID) && name.startsWith(imbalancePrefix))) {
+                    mProtectedAccountUIDs.add(uid);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        List<Account> inserts = new ArrayList<>();
+        List<Account> updates = new ArrayList<>();
+        for (Account account : accounts) {
+            String dbFingerprint = existing.remove(account.getUID());
+            if (dbFingerprint == null) {
+                inserts.add(account);
+            } else if (!dbFingerprint.equals(fingerprint(account))) {
+                updates.add(account);
+            } else {
+                changes.mUnchanged++;
+            }
+        }
+
+        changes.mInserted += mAccountsDbAdapter.bulkAddRecords(inserts, DatabaseAdapter.UpdateMethod.insert);
+        changes.mUpdated += mAccountsDbAdapter.bulkAddRecords(updates, DatabaseAdapter.UpdateMethod.update);
+        if (mDeleteMissing) {
+            mMissingAccountUIDs = new ArrayList<>(existing.keySet());
+        }
+        Log.i(LOG_TAG, "Merged accounts: " + changes);
+    }
+
+    /**
+     * Deletes the accounts of the database which were missing from the merged accounts,
+     * if this merger deletes missing records.
+     * <p>This must be called after merging the transactions, so that imported transactions have
+     * already been moved out of the deleted accounts. Transactions which still have splits in a deleted
+     * account are deleted entirely, to leave no unbalanced transactions behind.</p>
+     * <p>ROOT accounts, top level imbalance accounts, accounts used by templates of scheduled transactions
+     * and the ancestors of all of them are never deleted</p>
+     */
+    void deleteMissingAccounts() {
+        if (mMissingAccountUIDs.isEmpty()) {
+            return;
+        }
+        Set<String> keptUIDs = new HashSet<>(mProtectedAccountUIDs);
+        keptUIDs.addAll(queryStrings("SELECT " + ScheduledActionEntry.COLUMN_TEMPLATE_ACCT_UID
+                + " FROM " + ScheduledActionEntry.TABLE_NAME, null));
+        keptUIDs.addAll(queryStrings("SELECT DISTINCT s." + SplitEntry.COLUMN_ACCOUNT_UID
+                + " FROM " + SplitEntry.TABLE_NAME + " s INNER JOIN " + TransactionEntry.TABLE_NAME + " t"
+                + " ON s." + SplitEntry.COLUMN_TRANSACTION_UID + " = t." + TransactionEntry.COLUMN_UID
+                + " WHERE t." + TransactionEntry.COLUMN_TEMPLATE + " = 1", null));
+        for (String uid : new ArrayList<>(keptUIDs)) {
+            String parentUID = mAccountParents.get(uid);
+            while (parentUID != null && keptUIDs.add(parentUID)) {
+                parentUID = mAccountParents.get(parentUID);
+            }
+        }
+        List<String> deletedUIDs = new ArrayList<>(mMissingAccountUIDs);
+        deletedUIDs.removeAll(keptUIDs);
+
+        Set<String> transactionUIDs = new HashSet<>();
+        for (int start = 0; start < deletedUIDs.size(); start += DELETE_BATCH_SIZE) {
+            List<String> batch = deletedUIDs.subList(start, Math.min(start + DELETE_BATCH_SIZE, deletedUIDs.size()));
+            transactionUIDs.addAll(queryStrings("SELECT DISTINCT " + SplitEntry.COLUMN_TRANSACTION_UID
+                    + " FROM " + SplitEntry.TABLE_NAME + " WHERE " + SplitEntry.COLUMN_ACCOUNT_UID
+                    + " IN ( " + TextUtils.join(" , ", Collections.nCopies(batch.size(), "?")) + " )",
+                    batch.toArray(new String[batch.size()])));
+        }
+        if (!transactionUIDs.isEmpty()) {
+            List<String> uids = new ArrayList<>(transactionUIDs);
+            deleteWhereIn(SplitEntry.TABLE_NAME, SplitEntry.COLUMN_TRANSACTION_UID, uids);
+            mReport.getChanges(TransactionEntry.TABLE_NAME).mDeleted +=
+                    deleteWhereIn(TransactionEntry.TABLE_NAME, TransactionEntry.COLUMN_UID, uids);
+        }
+        MergeReport.EntityChanges changes = mReport.getChanges(AccountEntry.TABLE_NAME);
+        changes.mDeleted += deleteWhereIn(AccountEntry.TABLE_NAME, AccountEntry.COLUMN_UID, deletedUIDs);
+        mMissingAccountUIDs = Collections.emptyList();
+        Log.i(LOG_TAG, String.format("Deleted %d accounts and %d transactions in them",
+                changes.mDeleted, transactionUIDs.size()));
+    }
+
+    /**
+     * Merges the scheduled actions and their recurrences into the database.
+     * <p>Scheduled actions which are updated keep the GUIDs of their recurrence and template account
+     * from the database, since those are generated anew each time a file is parsed</p>
+     * @param scheduledActions Imported scheduled actions
+     */
+    void mergeScheduledActions(@NonNull List<ScheduledAction> scheduledActions) {
+        MergeReport.EntityChanges changes = mReport.getChanges(ScheduledActionEntry.TABLE_NAME);
+        Map<String, String> existing = new HashMap<>();
+        Map<String, String[]> existingRefs = new HashMap<>();
+        Cursor cursor = mDb.rawQuery("SELECT "
+                + "sx." + ScheduledActionEntry.COLUMN_UID + " , "
+                + "sx." + ScheduledActionEntry.COLUMN_ACTION_UID + " , "
+                + "sx." + ScheduledActionEntry.COLUMN_TYPE + " , "
+                + "sx." + ScheduledActionEntry.COLUMN_START_TIME + " , "
+                + "sx." + ScheduledActionEntry.COLUMN_END_TIME + " , "
+                + "sx." + ScheduledActionEntry.COLUMN_LAST_RUN + " , "
+                + "sx." + ScheduledActionEntry.COLUMN_ENABLED + " , "
+                + "sx." + ScheduledActionEntry.COLUMN_AUTO_CREATE + " , "
+                + "sx." + ScheduledActionEntry.COLUMN_TOTAL_FREQUENCY + " , "
+                + "sx." + ScheduledActionEntry.COLUMN_EXECUTION_COUNT + " , "
+                + "sx." + ScheduledActionEntry.COLUMN_TAG + " , "
+                + "r." + RecurrenceEntry.COLUMN_MULTIPLIER + " , "
+                + "r." + RecurrenceEntry.COLUMN_PERIOD_TYPE + " , "
+                + "r." + RecurrenceEntry.COLUMN_PERIOD_START + " , "
+                + "sx." + ScheduledActionEntry.COLUMN_RECURRENCE_UID + " , "
+                + "sx." + ScheduledActionEntry.COLUMN_TEMPLATE_ACCT_UID
+                + " FROM " + ScheduledActionEntry.TABLE_NAME + " sx LEFT JOIN " + RecurrenceEntry.TABLE_NAME + " r"
+                + " ON sx." + ScheduledActionEntry.COLUMN_RECURRENCE_UID + " = r." + RecurrenceEntry.COLUMN_UID, null);
+        try {
+            while (cursor.moveToNext()) {
+                String uid = cursor.getString(0);
+                existing.put(uid, fingerprint(cursor.getString(1), cursor.getString(2),
+                        cursor.getLong(3), cursor.getLong(4), cursor.getLong(5), cursor.getInt(6),
+                        cursor.getInt(7), cursor.getInt(8), cursor.getInt(9), cursor.getString(10),
+                        cursor.getInt(11), cursor.getString(12), cursor.getString(13)));
+                existingRefs.put(uid, new String[]{cursor.getString(14), cursor.getString(15)});
+            }
+        } finally {
+            cursor.close();
+        }
+
+        List<ScheduledAction> inserts = new ArrayList<>();
+        List<ScheduledAction> updates = new ArrayList<>();
+        for (ScheduledAction scheduledAction : scheduledActions) {
+            String dbFingerprint = existing.remove(scheduledAction.getUID());
+            if (dbFingerprint == null) {
+                inserts.add(scheduledAction);
+            } else if (!dbFingerprint.equals(fingerprint(scheduledAction))) {
+                String[] refs = existingRefs.get(scheduledAction.getUID());
+                scheduledAction.getRecurrence().setUID(refs[0]);
+                scheduledAction.setTemplateAccountUID(refs[1]);
+                updates.add(scheduledAction);
+            } else {
+                changes.mUnchanged++;
+            }
+        }
+
+        changes.mInserted += mScheduledActionsDbAdapter.bulkAddRecords(inserts, DatabaseAdapter.UpdateMethod.insert);
+        changes.mUpdated += mScheduledActionsDbAdapter.bulkAddRecords(updates, DatabaseAdapter.UpdateMethod.update);
+        if (mDeleteMissing && !existing.isEmpty()) {
+            List<String> deletedUIDs = new ArrayList<>(existing.keySet());
+            List<String> recurrenceUIDs = new ArrayList<>(deletedUIDs.size());
+            for (String uid : deletedUIDs) {
+                recurrenceUIDs.add(existingRefs.get(uid)[0]);
+            }
+            changes.mDeleted += deleteWhereIn(ScheduledActionEntry.TABLE_NAME,
+                    ScheduledActionEntry.COLUMN_UID, deletedUIDs);
+            deleteWhereIn(RecurrenceEntry.TABLE_NAME, RecurrenceEntry.COLUMN_UID, recurrenceUIDs);
+        }
+        Log.i(LOG_TAG, "Merged scheduled actions: " + changes);
+    }
+
+    /**
+     * Merges the transactions and their splits into the database.
+     * <p>Regular and template transactions are merged separately, so that deleting missing records
+     * of one kind never touches records of the other kind.</p>
+     * @param transactions Imported transactions, with the accounts of balancing splits already resolved
+     * @param template {@code true} if the list contains template transactions, {@code false} otherwise
+     */
+    void mergeTransactions(@NonNull List<Transaction> transactions, boolean template) {
+        MergeReport.EntityChanges changes = mReport.getChanges(
+                template ? ENTITY_TEMPLATE_TRANSACTIONS : TransactionEntry.TABLE_NAME);
+        Map<String, String> existing = loadTransactionFingerprints(template);
+
+        List<Transaction> inserts = new ArrayList<>();
+        List<Transaction> updates = new ArrayList<>();
+        List<String> updatedUIDs = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            String dbFingerprint = existing.remove(transaction.getUID());
+            if (dbFingerprint == null) {
+                inserts.add(transaction);
+            } else if (!dbFingerprint.equals(fingerprint(transaction))) {
+                updates.add(transaction);
+                updatedUIDs.add(transaction.getUID());
+            } else {
+                changes.mUnchanged++;
+            }
+        }
+
+        changes.mInserted += mTransactionsDbAdapter.bulkAddRecords(inserts, DatabaseAdapter.UpdateMethod.insert);
+        // the splits of a changed transaction may have been added or removed, so they are all replaced
+        deleteWhereIn(SplitEntry.TABLE_NAME, SplitEntry.COLUMN_TRANSACTION_UID, updatedUIDs);
+        changes.mUpdated += mTransactionsDbAdapter.bulkAddRecords(updates, DatabaseAdapter.UpdateMethod.replace);
+        if (mDeleteMissing && !existing.isEmpty()) {
+            List<String> deletedUIDs = new ArrayList<>(existing.keySet());
+            deleteWhereIn(SplitEntry.TABLE_NAME, SplitEntry.COLUMN_TRANSACTION_UID, deletedUIDs);
+            changes.mDeleted += deleteWhereIn(TransactionEntry.TABLE_NAME, TransactionEntry.COLUMN_UID, deletedUIDs);
+        }
+        Log.i(LOG_TAG, "Merged " + (template ? "template " : "") + "transactions: " + changes);
+    }
+
+    /**
+     * Merges the prices into the database
+     * @param prices Imported prices
+     */
+    void mergePrices(@NonNull List<Price> prices) {
+        MergeReport.EntityChanges changes = mReport.getChanges(PriceEntry.TABLE_NAME);
+        Map<String, String> existing = new HashMap<>();
+        Cursor cursor = mDb.query(PriceEntry.TABLE_NAME, new String[]{
+                PriceEntry.COLUMN_UID,
+                PriceEntry.COLUMN_COMMODITY_UID,
+                PriceEntry.COLUMN_CURRENCY_UID,
+                PriceEntry.COLUMN_DATE,
+                PriceEntry.COLUMN_SOURCE,
+                PriceEntry.COLUMN_TYPE,
+                PriceEntry.COLUMN_VALUE_NUM,
+                PriceEntry.COLUMN_VALUE_DENOM
+        }, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                existing.put(cursor.getString(0), fingerprint(cursor.getString(1), cursor.getString(2),
+                        cursor.getString(3), cursor.getString(4), cursor.getString(5),
+                        cursor.getLong(6), cursor.getLong(7)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        List<Price> inserts = new ArrayList<>();
+        List<Price> updates = new ArrayList<>();
+        for (Price price : prices) {
+            String dbFingerprint = existing.remove(price.getUID());
+            if (dbFingerprint == null) {
+                inserts.add(price);
+            } else if (!dbFingerprint.equals(fingerprint(price))) {
+                updates.add(price);
+            } else {
+                changes.mUnchanged++;
+            }
+        }
+
+        changes.mInserted += mPricesDbAdapter.bulkAddRecords(inserts, DatabaseAdapter.UpdateMethod.insert);
+        changes.mUpdated += mPricesDbAdapter.bulkAddRecords(updates, DatabaseAdapter.UpdateMethod.update);
+        if (mDeleteMissing && !existing.isEmpty()) {
+            changes.mDeleted += deleteWhereIn(PriceEntry.TABLE_NAME, PriceEntry.COLUMN_UID,
+                    new ArrayList<>(existing.keySet()));
+        }
+        Log.i(LOG_TAG, "Merged prices: " + changes);
+    }
+
+    /**
+     * Loads the fingerprints of all transactions in the database, including their splits.
+     * <p>This uses a single query ordered by transaction, instead of one split query per transaction</p>
+     * @param template Load template transactions if {@code true}, regular ones otherwise
+     * @return Map of transaction GUIDs to fingerprints
+     */
+    private Map<String, String> loadTransactionFingerprints(boolean template) {
+        Map<String, String> fingerprints = new HashMap<>();
+        Cursor cursor = mDb.rawQuery("SELECT "
+                + "t." + TransactionEntry.COLUMN_UID + " , "
+                + "t." + TransactionEntry.COLUMN_DESCRIPTION + " , "
+                + "t." + TransactionEntry.COLUMN_NOTES + " , "
+                + "t." + TransactionEntry.COLUMN_TIMESTAMP + " , "
+                + "t." + TransactionEntry.COLUMN_CURRENCY + " , "
+                + "t." + TransactionEntry.COLUMN_SCHEDX_ACTION_UID + " , "
+                + "s." + SplitEntry.COLUMN_TYPE + " , "
+                + "s." + SplitEntry.COLUMN_VALUE_NUM + " , "
+                + "s." + SplitEntry.COLUMN_VALUE_DENOM + " , "
+                + "s." + SplitEntry.COLUMN_QUANTITY_NUM + " , "
+                + "s." + SplitEntry.COLUMN_QUANTITY_DENOM + " , "
+                + "s." + SplitEntry.COLUMN_MEMO + " , "
+                + "s." + SplitEntry.COLUMN_ACCOUNT_UID
+                + " FROM " + TransactionEntry.TABLE_NAME + " t LEFT JOIN " + SplitEntry.TABLE_NAME + " s"
+                + " ON t." + TransactionEntry.COLUMN_UID + " = s." + SplitEntry.COLUMN_TRANSACTION_UID
+                + " WHERE t." + TransactionEntry.COLUMN_TEMPLATE + " = ?"
+                + " ORDER BY t." + TransactionEntry.COLUMN_UID, new String[]{template ? "1" : "0"});
+        try {
+            String currentUID = null;
+            String transactionFields = null;
+            List<String> splitFingerprints = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                String uid = cursor.getString(0);
+                if (!uid.equals(currentUID)) {
+                    if (currentUID != null) {
+                        fingerprints.put(currentUID, joinTransactionFingerprint(transactionFields, splitFingerprints));
+                    }
+                    currentUID = uid;
+                    transactionFields = fingerprint(cursor.getString(1), cursor.getString(2),
+                            cursor.getLong(3), cursor.getString(4), cursor.getString(5));
+                    splitFingerprints.clear();
+                }
+                if (!cursor.isNull(6)) {
+                    splitFingerprints.add(fingerprint(cursor.getString(6), cursor.getLong(7), cursor.getLong(8),
+                            cursor.getLong(9), cursor.getLong(10), cursor.getString(11), cursor.getString(12)));
+                }
+            }
+            if (currentUID != null) {
+                fingerprints.put(currentUID, joinTransactionFingerprint(transactionFields, splitFingerprints));
+            }
+        } finally {
+            cursor.close();
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Returns the values of the first column of a query
+     * @param sql SQL query
+     * @param selectionArgs Arguments of the query
+     * @return Values of the first column, which may contain {@code null}
+     */
+    private List<String> queryStrings(String sql, String[] selectionArgs) {
+        List<String> values = new ArrayList<>();
+        Cursor cursor = mDb.rawQuery(sql, selectionArgs);
+        try {
+            while (cursor.moveToNext()) {
+                values.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return values;
+    }
+
+    /**
+     * Deletes all records of a table whose column value is in the list
+     * @param tableName Name of the table
+     * @param column Column to match
+     * @param values Values to match
+     * @return Number of deleted records
+     */
+    private int deleteWhereIn(String tableName, String column, List<String> values) {
+        int deleted = 0;
+        for (int start = 0; start < values.size(); start += DELETE_BATCH_SIZE) {
+            List<String> batch = values.subList(start, Math.min(start + DELETE_BATCH_SIZE, values.size()));
+            String placeholders = TextUtils.join(" , ", Collections.nCopies(batch.size(), "?"));
+            deleted += mDb.delete(tableName, column + " IN ( " + placeholders + " )",
+                    batch.toArray(new String[batch.size()]));
+        }
+        return deleted;
+    }
+
+    /**
+     * Computes the fingerprint of an imported account.
+     * <p>Must produce the same result as the fingerprint computed from the database record in {@link #mergeAccounts(List)}</p>
+     */
+    private static String fingerprint(Account account) {
+        String color = account.getColor() != Account.DEFAULT_COLOR ? account.getColorHexString() : null;
+        String parentUID = account.getAccountType() == AccountType.ROOT ? null : account.getParentUID();
+        return fingerprint(account.getName(), account.getDescription() == null ? "" : account.getDescription(),
+                account.getAccountType().name(), account.getCommodity().getCurrencyCode(),
+                account.getCommodity().getUID(), color, account.isFavorite() ? 1 : 0, account.getFullName(),
+                account.isPlaceholderAccount() ? 1 : 0, account.isHidden() ? 1 : 0, parentUID,
+                account.getDefaultTransferAccountUID());
+    }
+
+    /**
+     * Computes the fingerprint of an imported scheduled action, including its recurrence
+     */
+    private static String fingerprint(ScheduledAction scheduledAction) {
+        Recurrence recurrence = scheduledAction.getRecurrence();
+        return fingerprint(scheduledAction.getActionUID(), scheduledAction.getActionType().name(),
+                scheduledAction.getStartTime(), scheduledAction.getEndTime(), scheduledAction.getLastRunTime(),
+                scheduledAction.isEnabled() ? 1 : 0, scheduledAction.shouldAutoCreate() ? 1 : 0,
+                scheduledAction.getTotalPlannedExecutionCount(), scheduledAction.getExecutionCount(),
+                scheduledAction.getTag(), recurrence.getMultiplier(), recurrence.getPeriodType().name(),
+                recurrence.getPeriodStart().toString());
+    }
+
+    /**
+     * Computes the fingerprint of an imported transaction, including its splits.
+     * <p>Split GUIDs are not part of the fingerprint because balancing splits get new GUIDs on every import</p>
+     */
+    private static String fingerprint(Transaction transaction) {
+        List<String> splitFingerprints = new ArrayList<>(transaction.getSplits().size());
+        for (Split split : transaction.getSplits()) {
+            splitFingerprints.add(fingerprint(split.getType().name(),
+                    split.getValue().getNumerator(), split.getValue().getDenominator(),
+                    split.getQuantity().getNumerator(), split.getQuantity().getDenominator(),
+                    split.getMemo(), split.getAccountUID()));
+        }
+        String transactionFields = fingerprint(transaction.getDescription(), transaction.getNote(),
+                transaction.getTimeMillis(), transaction.getCurrencyCode(), transaction.getScheduledActionUID());
+        return joinTransactionFingerprint(transactionFields, splitFingerprints);
+    }
+
+    /**
+     * Computes the fingerprint of an imported price
+     */
+    private static String fingerprint(Price price) {
+        return fingerprint(price.getCommodityUID(), price.getCurrencyUID(), price.getDate().toString(),
+                price.getSource(), price.getType(), price.getValueNum(), price.getValueDenom());
+    }
+
+    private static String joinTransactionFingerprint(String transactionFields, List<String> splitFingerprints) {
+        //the order of splits is not significant
+        Collections.sort(splitFingerprints);
+        StringBuilder builder = new StringBuilder(transactionFields);
+        for (String splitFingerprint : splitFingerprints) {
+            builder.append(FIELD_SEPARATOR).append(FIELD_SEPARATOR).append(splitFingerprint);
+        }
+        return builder.toString();
+    }
+
+    private static String fingerprint(Object... fields) {
+        StringBuilder builder = new StringBuilder();
+        for (Object field : fields) {
+            //empty and null strings are stored interchangeably, so do not distinguish them
+            builder.append(field == null ? "" : field).append(FIELD_SEPARATOR);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,552 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.importer;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.BudgetAmountEntry;
+import org.gnucash.android.db.DatabaseSchema.BudgetEntry;
+import org.gnucash.android.db.DatabaseSchema.CommodityEntry;
+import org.gnucash.android.db.DatabaseSchema.PriceEntry;
+import org.gnucash.android.db.DatabaseSchema.RecurrenceEntry;
+import org.gnucash.android.db.DatabaseSchema.ScheduledActionEntry;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.db.adapter.DatabaseAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Book;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.ScheduledAction;
+import org.gnucash.android.util.PreferencesHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Importer for books saved by GnuCash desktop in the SQLite3 format.
+ * <p>The desktop database is attached to the database of a new book and its contents are copied
+ * with set-based {@code INSERT ... SELECT} statements, instead of parsing every entity into a model object
+ * as the XML import does. The result is the same as exporting the book to XML and importing that.</p>
+ * <p>Desktop commodities are mapped to the ISO 4217 currencies of the app, as the XML import does.
+ * Other commodities (e.g. stocks) are mapped to the "XXX" (no currency) commodity.</p>
+ *
+ * @see GncXmlImporter
+ */
+public class GncSqliteImporter {
+
+    private static final String LOG_TAG = "GncSqliteImporter";
+
+    /**
+     * Header at the start of every SQLite 3 database file
+     */
+    private static final byte[] SQLITE_HEADER = "SQLite format 3\u0000".getBytes();
+
+    /**
+     * Name of the schema under which the desktop database is attached
+     */
+    private static final String GNC = "gnc";
+
+    /**
+     * Currency code used by the app for non-currency commodities
+     */
+    private static final String NO_CURRENCY_CODE = "XXX";
+
+    private static final String COMMODITY_MAP_TABLE     = "temp.gnc_commodity_map";
+    private static final String RECURRENCE_MAP_TABLE    = "temp.gnc_recurrence_map";
+    private static final String TEMPLATE_ACCOUNTS_TABLE = "temp.gnc_template_accounts";
+    private static final String TEMPLATE_TRANS_TABLE    = "temp.gnc_template_transactions";
+
+    /**
+     * Checks if the stream starts with the header of a SQLite 3 database.
+     * <p>The stream must support {@link InputStream#mark(int)}. It is reset to its start before returning</p>
+     * @param inputStream Input stream to check
+     * @return {@code true} if the stream contains a SQLite database, {@code false} otherwise
+     * @throws IOException if the stream could not be read
+     */
+    public static boolean isSqliteDatabase(@NonNull InputStream inputStream) throws IOException {
+        byte[] header = new byte[SQLITE_HEADER.length];
+        inputStream.mark(header.length);
+        try {
+            int read = 0;
+            while (read < header.length) {
+                int count = inputStream.read(header, read, header.length - read);
+                if (count < 0) {
+                    return false;
+                }
+                read += count;
+            }
+            return Arrays.equals(header, SQLITE_HEADER);
+        } finally {
+            inputStream.reset();
+        }
+    }
+
+    /**
+     * Imports a GnuCash desktop SQLite book into a new book
+     * @param gncDatabaseFile File of the desktop book
+     * @return GUID of the book into which the file was imported
+     * @throws IllegalArgumentException if the file is not a GnuCash book
+     */
+    public static String parse(@NonNull File gncDatabaseFile) {
+        Book book = new Book();
+        DatabaseHelper databaseHelper = new DatabaseHelper(GnuCashApplication.getAppContext(), book.getUID());
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        long startTime = System.nanoTime();
+        try {
+            db.execSQL("ATTACH DATABASE ? AS " + GNC, new Object[]{gncDatabaseFile.getAbsolutePath()});
+            try {
+                readRootAccounts(db, book);
+                // PRAGMA foreign_keys has no effect inside a transaction
+                db.execSQL("PRAGMA foreign_keys=OFF");
+                db.beginTransaction();
+                try {
+                    createMappingTables(db);
+                    importAccounts(db, book);
+                    importRecurrences(db);
+                    importScheduledActions(db);
+                    importTransactions(db);
+                    importSplits(db);
+                    importPrices(db);
+                    importBudgets(db);
+                    dropMappingTables(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    db.execSQL("PRAGMA foreign_keys=ON");
+                }
+            } finally {
+                db.execSQL("DETACH DATABASE " + GNC);
+            }
+            setDefaultCurrency(db);
+            PreferencesHelper.setLastExportTime(
+                    new TransactionsDbAdapter(db, new SplitsDbAdapter(db)).getTimestampOfLastModification(),
+                    book.getUID());
+        } catch (RuntimeException e) {
+            db.close();
+            GnuCashApplication.getAppContext().deleteDatabase(book.getUID());
+            throw e;
+        }
+        db.close();
+
+        BooksDbAdapter booksDbAdapter = BooksDbAdapter.getInstance();
+        book.setDisplayName(booksDbAdapter.generateDefaultBookName());
+        //we on purpose do not set the book active. Only import. Caller should handle activation
+        booksDbAdapter.addRecord(book, DatabaseAdapter.UpdateMethod.insert);
+        Log.d(LOG_TAG, String.format("%d ns spent on importing the database", System.nanoTime() - startTime));
+        return book.getUID();
+    }
+
+    /**
+     * Reads the GUIDs of the root account and the template root account of the desktop book
+     */
+    private static void readRootAccounts(SQLiteDatabase db, Book book) {
+        Cursor cursor;
+        try {
+            cursor = db.rawQuery("SELECT root_account_guid, root_template_guid FROM " + GNC + ".book", null);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("The database is not a GnuCash book", e);
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                throw new IllegalArgumentException("The GnuCash database contains no book");
+            }
+            book.setRootAccountUID(cursor.getString(0));
+            book.setRootTemplateUID(cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Creates temporary tables mapping desktop entities to the entities of the app
+     */
+    private static void createMappingTables(SQLiteDatabase db) {
+        // currencies unknown to the app (e.g. obsolete ISO codes) are added to the commodities table
+        db.execSQL("INSERT INTO " + CommodityEntry.TABLE_NAME + " ( "
+                + CommodityEntry.COLUMN_UID + " , "
+                + CommodityEntry.COLUMN_NAMESPACE + " , "
+                + CommodityEntry.COLUMN_FULLNAME + " , "
+                + CommodityEntry.COLUMN_MNEMONIC + " , "
+                + CommodityEntry.COLUMN_CUSIP + " , "
+                + CommodityEntry.COLUMN_SMALLEST_FRACTION + " , "
+                + CommodityEntry.COLUMN_QUOTE_FLAG + " ) "
+                + "SELECT guid, '" + Commodity.Namespace.ISO4217.name() + "', COALESCE(fullname, mnemonic), "
+                + "mnemonic, cusip, fraction, quote_flag FROM " + GNC + ".commodities "
+                + "WHERE " + isCurrency("namespace") + " AND mnemonic NOT IN "
+                + "(SELECT " + CommodityEntry.COLUMN_MNEMONIC + " FROM main." + CommodityEntry.TABLE_NAME + ")");
+
+        db.execSQL("CREATE TABLE " + COMMODITY_MAP_TABLE + " AS "
+                + "SELECT m.gnc_guid AS gnc_guid, m.code AS code, c." + CommodityEntry.COLUMN_UID + " AS uid "
+                + "FROM (SELECT guid AS gnc_guid, "
+                + "CASE WHEN " + isCurrency("namespace") + " THEN mnemonic ELSE '" + NO_CURRENCY_CODE + "' END AS code "
+                + "FROM " + GNC + ".commodities) m "
+                + "JOIN main." + CommodityEntry.TABLE_NAME + " c ON c." + CommodityEntry.COLUMN_MNEMONIC + " = m.code");
+
+        db.execSQL("CREATE TABLE " + TEMPLATE_ACCOUNTS_TABLE + " AS "
+                + "SELECT guid FROM " + GNC + ".accounts "
+                + "WHERE guid IN (SELECT root_template_guid FROM " + GNC + ".book) "
+                + "OR parent_guid IN (SELECT root_template_guid FROM " + GNC + ".book)");
+
+        db.execSQL("CREATE TABLE " + TEMPLATE_TRANS_TABLE + " AS "
+                + "SELECT DISTINCT tx_guid AS guid FROM " + GNC + ".splits "
+                + "WHERE account_guid IN (SELECT guid FROM " + TEMPLATE_ACCOUNTS_TABLE + ")");
+
+        // a new GUID for the recurrence of each scheduled action and budget
+        db.execSQL("CREATE TABLE " + RECURRENCE_MAP_TABLE + " AS "
+                + "SELECT obj_guid, lower(hex(randomblob(16))) AS uid, recurrence_mult AS multiplier, "
+                + periodType("recurrence_period_type") + " AS period_type, "
+                + gncDate("recurrence_period_start") + " AS period_start "
+                + "FROM " + GNC + ".recurrences WHERE " + periodType("recurrence_period_type") + " IS NOT NULL "
+                + "GROUP BY obj_guid");
+    }
+
+    private static void dropMappingTables(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE " + COMMODITY_MAP_TABLE);
+        db.execSQL("DROP TABLE " + TEMPLATE_ACCOUNTS_TABLE);
+        db.execSQL("DROP TABLE " + TEMPLATE_TRANS_TABLE);
+        db.execSQL("DROP TABLE " + RECURRENCE_MAP_TABLE);
+    }
+
+    /**
+     * Copies the accounts, without the template accounts of scheduled transactions, and computes their full names
+     */
+    private static void importAccounts(SQLiteDatabase db, Book book) {
+        String color = slot("a.guid", "color", "string_val");
+        db.execSQL("INSERT INTO " + AccountEntry.TABLE_NAME + " ( "
+                + AccountEntry.COLUMN_UID + " , "
+                + AccountEntry.COLUMN_NAME + " , "
+                + AccountEntry.COLUMN_DESCRIPTION + " , "
+                + AccountEntry.COLUMN_TYPE + " , "
+                + AccountEntry.COLUMN_CURRENCY + " , "
+                + AccountEntry.COLUMN_COMMODITY_UID + " , "
+                + AccountEntry.COLUMN_COLOR_CODE + " , "
+                + AccountEntry.COLUMN_FAVORITE + " , "
+                + AccountEntry.COLUMN_HIDDEN + " , "
+                + AccountEntry.COLUMN_PLACEHOLDER + " , "
+                + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " , "
+                + AccountEntry.COLUMN_DEFAULT_TRANSFER_ACCOUNT_UID + " ) "
+                + "SELECT a.guid, a.name, a.description, " + accountType("a.account_type") + ", cm.code, cm.uid, "
+                // GTK stores colors as #rrrrggggbbbb, the app only supports #rrggbb
+                + "CASE WHEN length(" + color + ") = 7 AND substr(" + color + ", 1, 1) = '#' THEN upper(" + color + ") "
+                + "WHEN length(" + color + ") = 13 AND substr(" + color + ", 1, 1) = '#' THEN upper('#' || substr("
+                + color + ", 2, 2) || substr(" + color + ", 6, 2) || substr(" + color + ", 10, 2)) END, "
+                + "COALESCE(" + slot("a.guid", "favorite", "string_val") + " = 'true', 0), "
+                + "CASE WHEN a.account_type = '" + AccountType.ROOT.name() + "' THEN 1 ELSE COALESCE(a.hidden, 0) END, "
+                + "COALESCE(a.placeholder, 0) OR COALESCE(" + slot("a.guid", "placeholder", "string_val") + " = 'true', 0), "
+                + "a.parent_guid, "
+                + "COALESCE(" + slot("a.guid", "default_transfer_account", "guid_val") + ", "
+                + slot("a.guid", "default_transfer_account", "string_val") + ") "
+                + "FROM " + GNC + ".accounts a JOIN " + COMMODITY_MAP_TABLE + " cm ON cm.gnc_guid = a.commodity_guid "
+                + "WHERE a.guid NOT IN (SELECT guid FROM " + TEMPLATE_ACCOUNTS_TABLE + ")");
+
+        // accounts without parent are attached to the ROOT, like in the XML import
+        db.execSQL("UPDATE " + AccountEntry.TABLE_NAME + " SET " + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " = ? "
+                        + "WHERE " + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " IS NULL "
+                        + "AND " + AccountEntry.COLUMN_TYPE + " != '" + AccountType.ROOT.name() + "'",
+                new Object[]{book.getRootAccountUID()});
+
+        // full names are computed one level of the hierarchy at a time,
+        // since recursive common table expressions are not supported by SQLite before API level 21
+        db.execSQL("UPDATE " + AccountEntry.TABLE_NAME + " SET " + AccountEntry.COLUMN_FULL_NAME + " = ? "
+                        + "WHERE " + AccountEntry.COLUMN_TYPE + " = '" + AccountType.ROOT.name() + "'",
+                new Object[]{AccountsDbAdapter.ROOT_ACCOUNT_FULL_NAME});
+        db.execSQL("UPDATE " + AccountEntry.TABLE_NAME + " SET " + AccountEntry.COLUMN_FULL_NAME + " = "
+                + AccountEntry.COLUMN_NAME + " WHERE " + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + " IN "
+                + "(SELECT " + AccountEntry.COLUMN_UID + " FROM " + AccountEntry.TABLE_NAME
+                + " WHERE " + AccountEntry.COLUMN_TYPE + " = '" + AccountType.ROOT.name() + "')");
+        SQLiteStatement fullNameStatement = db.compileStatement("UPDATE " + AccountEntry.TABLE_NAME + " SET "
+                + AccountEntry.COLUMN_FULL_NAME + " = (SELECT p." + AccountEntry.COLUMN_FULL_NAME
+                + " FROM " + AccountEntry.TABLE_NAME + " p WHERE p." + AccountEntry.COLUMN_UID + " = "
+                + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_PARENT_ACCOUNT_UID + ") || '"
+                + AccountsDbAdapter.ACCOUNT_NAME_SEPARATOR + "' || " + AccountEntry.COLUMN_NAME
+                + " WHERE " + AccountEntry.COLUMN_FULL_NAME + " IS NULL AND " + AccountEntry.COLUMN_PARENT_ACCOUNT_UID
+                + " IN (SELECT " + AccountEntry.COLUMN_UID + " FROM " + AccountEntry.TABLE_NAME
+                + " WHERE " + AccountEntry.COLUMN_FULL_NAME + " IS NOT NULL)");
+        try {
+            int depth = 1;
+            while (fullNameStatement.executeUpdateDelete() > 0) {
+                depth++;
+            }
+            Log.d(LOG_TAG, "Depth of account hierarchy: " + depth);
+        } finally {
+            fullNameStatement.close();
+        }
+    }
+
+    /**
+     * Copies the recurrences of scheduled actions and budgets which have a supported period type
+     */
+    private static void importRecurrences(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + RecurrenceEntry.TABLE_NAME + " ( "
+                + RecurrenceEntry.COLUMN_UID + " , "
+                + RecurrenceEntry.COLUMN_MULTIPLIER + " , "
+                + RecurrenceEntry.COLUMN_PERIOD_TYPE + " , "
+                + RecurrenceEntry.COLUMN_BYDAY + " , "
+                + RecurrenceEntry.COLUMN_PERIOD_START + " ) "
+                + "SELECT uid, multiplier, period_type, "
+                // weekly recurrences happen on the week day of the start date, like in the XML import
+                + "CASE WHEN period_type = 'WEEK' THEN CASE strftime('%w', period_start) "
+                + "WHEN '0' THEN 'SU' WHEN '1' THEN 'MO' WHEN '2' THEN 'TU' WHEN '3' THEN 'WE' "
+                + "WHEN '4' THEN 'TH' WHEN '5' THEN 'FR' ELSE 'SA' END END, "
+                + "period_start || ' 00:00:00.0' "
+                + "FROM " + RECURRENCE_MAP_TABLE);
+    }
+
+    /**
+     * Copies the scheduled transactions which have a recurrence and a template transaction
+     */
+    private static void importScheduledActions(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + ScheduledActionEntry.TABLE_NAME + " ( "
+                + ScheduledActionEntry.COLUMN_UID + " , "
+                + ScheduledActionEntry.COLUMN_ACTION_UID + " , "
+                + ScheduledActionEntry.COLUMN_TYPE + " , "
+                + ScheduledActionEntry.COLUMN_RECURRENCE_UID + " , "
+                + ScheduledActionEntry.COLUMN_TEMPLATE_ACCT_UID + " , "
+                + ScheduledActionEntry.COLUMN_LAST_RUN + " , "
+                + ScheduledActionEntry.COLUMN_START_TIME + " , "
+                + ScheduledActionEntry.COLUMN_END_TIME + " , "
+                + ScheduledActionEntry.COLUMN_ENABLED + " , "
+                + ScheduledActionEntry.COLUMN_AUTO_CREATE + " , "
+                + ScheduledActionEntry.COLUMN_AUTO_NOTIFY + " , "
+                + ScheduledActionEntry.COLUMN_ADVANCE_CREATION + " , "
+                + ScheduledActionEntry.COLUMN_ADVANCE_NOTIFY + " , "
+                + ScheduledActionEntry.COLUMN_TOTAL_FREQUENCY + " , "
+                + ScheduledActionEntry.COLUMN_EXECUTION_COUNT + " ) "
+                + "SELECT sx.guid, MIN(s.tx_guid), '" + ScheduledAction.ActionType.TRANSACTION.name() + "', rm.uid, "
+                + "sx.template_act_guid, "
+                + "COALESCE(" + localMillis(gncDate("sx.last_occur")) + ", 0), "
+                + "COALESCE(" + localMillis(gncDate("sx.start_date")) + ", 0), "
+                + "COALESCE(" + localMillis(gncDate("sx.end_date")) + ", 0), "
+                + "sx.enabled, sx.auto_create, sx.auto_notify, sx.adv_creation, sx.adv_notify, "
+                + "sx.num_occur, sx.instance_count "
+                + "FROM " + GNC + ".schedxactions sx "
+                + "JOIN " + RECURRENCE_MAP_TABLE + " rm ON rm.obj_guid = sx.guid "
+                + "JOIN " + GNC + ".splits s ON s.account_guid = sx.template_act_guid "
+                + "GROUP BY sx.guid");
+    }
+
+    /**
+     * Copies the transactions, including the template transactions of scheduled actions
+     */
+    private static void importTransactions(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + TransactionEntry.TABLE_NAME + " ( "
+                + TransactionEntry.COLUMN_UID + " , "
+                + TransactionEntry.COLUMN_DESCRIPTION + " , "
+                + TransactionEntry.COLUMN_NOTES + " , "
+                + TransactionEntry.COLUMN_TIMESTAMP + " , "
+                + TransactionEntry.COLUMN_EXPORTED + " , "
+                + TransactionEntry.COLUMN_TEMPLATE + " , "
+                + TransactionEntry.COLUMN_CURRENCY + " , "
+                + TransactionEntry.COLUMN_COMMODITY_UID + " , "
+                + TransactionEntry.COLUMN_SCHEDX_ACTION_UID + " ) "
+                + "SELECT t.guid, COALESCE(t.description, ''), " + slot("t.guid", "notes", "string_val") + ", "
+                + "COALESCE(" + utcMillis(gncDateTime("t.post_date")) + ", 0), "
+                // imported transactions count as exported, like in the XML import
+                + "1, t.guid IN (SELECT guid FROM " + TEMPLATE_TRANS_TABLE + "), cm.code, cm.uid, "
+                + "(SELECT " + ScheduledActionEntry.COLUMN_UID + " FROM " + ScheduledActionEntry.TABLE_NAME
+                + " WHERE " + ScheduledActionEntry.COLUMN_UID + " = " + slot("t.guid", "from-sched-xaction", "guid_val") + ") "
+                + "FROM " + GNC + ".transactions t JOIN " + COMMODITY_MAP_TABLE + " cm ON cm.gnc_guid = t.currency_guid");
+    }
+
+    /**
+     * Copies the splits. Split amounts are stored as absolute values with a type in the app.
+     * <p>The type comes from the sign of the value, like in the XML import. The sign of the quantity
+     * may differ from it, e.g. for splits which only record a price and have a zero quantity</p>
+     * <p>Splits of template transactions get their account and amount from the scheduled transaction slots</p>
+     */
+    private static void importSplits(SQLiteDatabase db) {
+        String insert = "INSERT INTO " + SplitEntry.TABLE_NAME + " ( "
+                + SplitEntry.COLUMN_UID + " , "
+                + SplitEntry.COLUMN_MEMO + " , "
+                + SplitEntry.COLUMN_TYPE + " , "
+                + SplitEntry.COLUMN_VALUE_NUM + " , "
+                + SplitEntry.COLUMN_VALUE_DENOM + " , "
+                + SplitEntry.COLUMN_QUANTITY_NUM + " , "
+                + SplitEntry.COLUMN_QUANTITY_DENOM + " , "
+                + SplitEntry.COLUMN_ACCOUNT_UID + " , "
+                + SplitEntry.COLUMN_TRANSACTION_UID + " , "
+                + SplitEntry.COLUMN_RECONCILE_STATE + " ) ";
+
+        db.execSQL(insert
+                + "SELECT s.guid, s.memo, CASE WHEN s.value_num < 0 THEN 'CREDIT' ELSE 'DEBIT' END, "
+                + "abs(s.value_num), s.value_denom, abs(s.quantity_num), s.quantity_denom, "
+                + "s.account_guid, s.tx_guid, COALESCE(s.reconcile_state, 'n') "
+                + "FROM " + GNC + ".splits s "
+                + "WHERE s.tx_guid NOT IN (SELECT guid FROM " + TEMPLATE_TRANS_TABLE + ")");
+
+        // slots of frames are stored with the GUID of the frame as object GUID
+        db.execSQL(insert
+                + "SELECT s.guid, s.memo, "
+                + "CASE WHEN COALESCE(cr.numeric_val_num, 0) != 0 THEN 'CREDIT' ELSE 'DEBIT' END, "
+                + "abs(COALESCE(NULLIF(cr.numeric_val_num, 0), dr.numeric_val_num, 0)), "
+                + "COALESCE(CASE WHEN cr.numeric_val_num != 0 THEN cr.numeric_val_denom END, dr.numeric_val_denom, 1), "
+                + "abs(COALESCE(NULLIF(cr.numeric_val_num, 0), dr.numeric_val_num, 0)), "
+                + "COALESCE(CASE WHEN cr.numeric_val_num != 0 THEN cr.numeric_val_denom END, dr.numeric_val_denom, 1), "
+                + "acct.guid_val, s.tx_guid, 'n' "
+                + "FROM " + GNC + ".splits s "
+                + "JOIN " + GNC + ".slots f ON f.obj_guid = s.guid AND f.name = 'sched-xaction' "
+                + "JOIN " + GNC + ".slots acct ON acct.obj_guid = f.guid_val AND acct.name = 'sched-xaction/account' "
+                + "LEFT JOIN " + GNC + ".slots cr ON cr.obj_guid = f.guid_val AND cr.name = 'sched-xaction/credit-numeric' "
+                + "LEFT JOIN " + GNC + ".slots dr ON dr.obj_guid = f.guid_val AND dr.name = 'sched-xaction/debit-numeric' "
+                + "WHERE s.tx_guid IN (SELECT guid FROM " + TEMPLATE_TRANS_TABLE + ")");
+
+        // like TransactionsDbAdapter#bulkAddRecords, do not keep transactions without splits
+        db.execSQL("DELETE FROM " + TransactionEntry.TABLE_NAME + " WHERE " + TransactionEntry.COLUMN_UID
+                + " NOT IN (SELECT DISTINCT " + SplitEntry.COLUMN_TRANSACTION_UID + " FROM " + SplitEntry.TABLE_NAME + ")");
+    }
+
+    /**
+     * Copies the prices between currencies.
+     * <p>The app keeps only one price per commodity pair, so prices are inserted in date order to keep the latest</p>
+     */
+    private static void importPrices(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + PriceEntry.TABLE_NAME + " ( "
+                + PriceEntry.COLUMN_UID + " , "
+                + PriceEntry.COLUMN_COMMODITY_UID + " , "
+                + PriceEntry.COLUMN_CURRENCY_UID + " , "
+                + PriceEntry.COLUMN_DATE + " , "
+                + PriceEntry.COLUMN_SOURCE + " , "
+                + PriceEntry.COLUMN_TYPE + " , "
+                + PriceEntry.COLUMN_VALUE_NUM + " , "
+                + PriceEntry.COLUMN_VALUE_DENOM + " ) "
+                + "SELECT p.guid, cm.uid, um.uid, "
+                + "strftime('%Y-%m-%d %H:%M:%S', " + gncDateTime("p.date") + ", 'localtime') || '.0', "
+                + "p.source, p.type, p.value_num, p.value_denom "
+                + "FROM " + GNC + ".prices p "
+                + "JOIN " + COMMODITY_MAP_TABLE + " cm ON cm.gnc_guid = p.commodity_guid "
+                + "JOIN " + COMMODITY_MAP_TABLE + " um ON um.gnc_guid = p.currency_guid "
+                + "WHERE cm.code != '" + NO_CURRENCY_CODE + "' AND um.code != '" + NO_CURRENCY_CODE + "' "
+                + "ORDER BY " + gncDateTime("p.date"));
+    }
+
+    /**
+     * Copies the budgets which have a supported recurrence, and their amounts
+     */
+    private static void importBudgets(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + BudgetEntry.TABLE_NAME + " ( "
+                + BudgetEntry.COLUMN_UID + " , "
+                + BudgetEntry.COLUMN_NAME + " , "
+                + BudgetEntry.COLUMN_DESCRIPTION + " , "
+                + BudgetEntry.COLUMN_RECURRENCE_UID + " , "
+                + BudgetEntry.COLUMN_NUM_PERIODS + " ) "
+                + "SELECT b.guid, b.name, b.description, rm.uid, b.num_periods "
+                + "FROM " + GNC + ".budgets b JOIN " + RECURRENCE_MAP_TABLE + " rm ON rm.obj_guid = b.guid");
+
+        db.execSQL("INSERT INTO " + BudgetAmountEntry.TABLE_NAME + " ( "
+                + BudgetAmountEntry.COLUMN_UID + " , "
+                + BudgetAmountEntry.COLUMN_BUDGET_UID + " , "
+                + BudgetAmountEntry.COLUMN_ACCOUNT_UID + " , "
+                + BudgetAmountEntry.COLUMN_AMOUNT_NUM + " , "
+                + BudgetAmountEntry.COLUMN_AMOUNT_DENOM + " , "
+                + BudgetAmountEntry.COLUMN_PERIOD_NUM + " ) "
+                + "SELECT lower(hex(randomblob(16))), ba.budget_guid, ba.account_guid, "
+                + "ba.amount_num, ba.amount_denom, ba.period_num "
+                + "FROM " + GNC + ".budget_amounts ba "
+                + "WHERE ba.budget_guid IN (SELECT " + BudgetEntry.COLUMN_UID + " FROM " + BudgetEntry.TABLE_NAME + ") "
+                + "AND ba.account_guid IN (SELECT " + AccountEntry.COLUMN_UID + " FROM " + AccountEntry.TABLE_NAME + ")");
+    }
+
+    /**
+     * Sets the currency used by most accounts as default currency, like the XML import does
+     */
+    private static void setDefaultCurrency(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT " + AccountEntry.COLUMN_CURRENCY + " FROM " + AccountEntry.TABLE_NAME
+                + " GROUP BY " + AccountEntry.COLUMN_CURRENCY + " ORDER BY COUNT(*) DESC LIMIT 1", null);
+        try {
+            if (cursor.moveToFirst()) {
+                GnuCashApplication.setDefaultCurrencyCode(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String isCurrency(String namespaceColumn) {
+        return namespaceColumn + " IN ('ISO4217', 'CURRENCY')";
+    }
+
+    /**
+     * Returns an expression for a value of a slot of an object
+     */
+    private static String slot(String objectGuid, String name, String valueColumn) {
+        return "(SELECT " + valueColumn + " FROM " + GNC + ".slots WHERE obj_guid = " + objectGuid
+                + " AND name = '" + name + "')";
+    }
+
+    /**
+     * Returns an expression mapping desktop account types to {@link AccountType} names
+     */
+    private static String accountType(String column) {
+        return "CASE " + column + " WHEN 'CHECKING' THEN 'BANK' WHEN 'SAVINGS' THEN 'BANK' "
+                + "WHEN 'MONEYMRKT' THEN 'BANK' WHEN 'CREDITLINE' THEN 'CREDIT' WHEN 'NONE' THEN 'ASSET' "
+                + "ELSE " + column + " END";
+    }
+
+    /**
+     * Returns an expression mapping desktop recurrence period types to {@link org.gnucash.android.model.PeriodType}
+     * names, or NULL for the period types which are not supported, like in the XML import
+     */
+    private static String periodType(String column) {
+        return "CASE " + column + " WHEN 'day' THEN 'DAY' WHEN 'week' THEN 'WEEK' "
+                + "WHEN 'month' THEN 'MONTH' WHEN 'year' THEN 'YEAR' END";
+    }
+
+    /**
+     * Returns an expression normalizing a desktop date, stored as YYYYMMDD or YYYY-MM-DD, to YYYY-MM-DD
+     */
+    private static String gncDate(String column) {
+        return "(CASE WHEN length(" + column + ") = 8 THEN substr(" + column + ", 1, 4) || '-' || substr("
+                + column + ", 5, 2) || '-' || substr(" + column + ", 7, 2) ELSE substr(" + column + ", 1, 10) END)";
+    }
+
+    /**
+     * Returns an expression normalizing a desktop UTC timestamp, stored as YYYYMMDDHHMMSS by GnuCash 2.6
+     * or YYYY-MM-DD HH:MM:SS by later versions, to YYYY-MM-DD HH:MM:SS
+     */
+    private static String gncDateTime(String column) {
+        return "(CASE WHEN length(" + column + ") = 14 THEN substr(" + column + ", 1, 4) || '-' || substr("
+                + column + ", 5, 2) || '-' || substr(" + column + ", 7, 2) || ' ' || substr(" + column
+                + ", 9, 2) || ':' || substr(" + column + ", 11, 2) || ':' || substr(" + column + ", 13, 2) "
+                + "ELSE " + column + " END)";
+    }
+
+    /**
+     * Returns an expression converting a UTC date and time to milliseconds since epoch
+     */
+    private static String utcMillis(String dateTime) {
+        return "(CAST(strftime('%s', " + dateTime + ") AS INTEGER) * 1000)";
+    }
+
+    /**
+     * Returns an expression converting a date to the milliseconds since epoch of its start in local time
+     */
+    private static String localMillis(String date) {
+        return "(CAST(strftime('%s', " + date + ", 'utc') AS INTEGER) * 1000)";
+    }
+}
@@ -25,6 +25,11 @@ import com.crashlytics.android.Crashlytics;
 
 import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.BudgetEntry;
+import org.gnucash.android.db.DatabaseSchema.PriceEntry;
+import org.gnucash.android.db.DatabaseSchema.ScheduledActionEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.db.adapter.BooksDbAdapter;
 import org.gnucash.android.db.adapter.BudgetAmountsDbAdapter;
@@ -37,6 +42,7 @@ import org.gnucash.android.db.adapter.ScheduledActionDbAdapter;
 import org.gnucash.android.db.adapter.SplitsDbAdapter;
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
 import org.gnucash.android.export.xml.GncXmlHelper;
+import org.gnucash.android.export.xml.GncXmlValueCodec;
 import org.gnucash.android.model.Account;
 import org.gnucash.android.model.AccountType;
 import org.gnucash.android.model.BaseModel;
@@ -64,6 +70,7 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -88,6 +95,16 @@ public class GncXmlHandler extends DefaultHandler {
      */
     private static final String LOG_TAG = "GnuCashAccountImporter";
 
+    /**
+     * Number of transactions generated from scheduled actions which are inserted at once
+     */
+    private static final int SCHEDULED_TRANSACTIONS_BATCH_SIZE = 500;
+
+    /**
+     * Number of bytes read from the file between two progress updates
+     */
+    private static final int PROGRESS_STEP_BYTES = 64 * 1024;
+
     /*
         ^             anchor for start of string
         #             the literal #
@@ -161,6 +178,17 @@ public class GncXmlHandler extends DefaultHandler {
      */
     List<Transaction> mTemplateTransactions;
 
+    /**
+     * Template transactions indexed by their GUID, which is the action UID of the scheduled actions
+     */
+    Map<String, Transaction> mTemplateTransactionMap;
+
+    /**
+     * Due times of the missed runs of the scheduled actions, indexed by the scheduled action.
+     * <p>The transactions are only generated when saving, so they are not kept in memory all at once</p>
+     */
+    Map<ScheduledAction, List<Long>> mMissedScheduledRuns;
+
     /**
      * Accumulate attributes of splits found in this object
      */
@@ -284,18 +312,64 @@ public class GncXmlHandler extends DefaultHandler {
     private Book mBook;
     private SQLiteDatabase mainDb;
 
+    /**
+     * Flag indicating that the parsed entities are merged into an existing book instead of a new one
+     */
+    private final boolean mMergeMode;
+
+    /**
+     * Flag indicating that records missing from the XML are deleted when merging
+     */
+    private final boolean mDeleteMissing;
+
+    /**
+     * Report of the changes made when merging, or {@code null} when importing into a new book
+     */
+    private MergeReport mMergeReport;
+
+    /**
+     * Progress of the import, which also carries the cancellation flag
+     */
+    private ImportProgress mProgress = new ImportProgress(null);
+
+    /**
+     * Bytes read when the progress was last published
+     */
+    private long mLastPublishedBytes;
+
+    /**
+     * Start time of the current phase of the import, in nanoseconds
+     */
+    private long mPhaseStartTime;
+
     /**
      * Creates a handler for handling XML stream events when parsing the XML backup file
      */
     public GncXmlHandler() {
-        init();
+        mMergeMode = false;
+        mDeleteMissing = false;
+        init(new Book());
+    }
+
+    /**
+     * Creates a handler which merges the parsed XML into an existing book.
+     * <p>Entities are matched by GUID. New entities are inserted and changed entities updated,
+     * all other records are left untouched.</p>
+     * @param bookUID GUID of the existing book
+     * @param deleteMissing If {@code true}, records which are not present in the XML are deleted from the book
+     */
+    public GncXmlHandler(@NonNull String bookUID, boolean deleteMissing) {
+        mMergeMode = true;
+        mDeleteMissing = deleteMissing;
+        init(BooksDbAdapter.getInstance().getRecord(bookUID));
     }
 
     /**
      * Initialize the GnuCash XML handler
+     * @param book Book into which the data will be saved
      */
-    private void init() {
-        mBook = new Book();
+    private void init(@NonNull Book book) {
+        mBook = book;
 
         DatabaseHelper databaseHelper = new DatabaseHelper(GnuCashApplication.getAppContext(), mBook.getUID());
         mainDb = databaseHelper.getWritableDatabase();
@@ -318,6 +392,8 @@ public class GncXmlHandler extends DefaultHandler {
 
         mTemplatAccountList = new ArrayList<>();
         mTemplateTransactions = new ArrayList<>();
+        mTemplateTransactionMap = new HashMap<>();
+        mMissedScheduledRuns = new LinkedHashMap<>();
         mTemplateAccountToTransactionMap = new HashMap<>();
 
         mAutoBalanceSplits = new ArrayList<>();
@@ -326,6 +402,34 @@ public class GncXmlHandler extends DefaultHandler {
         mCurrencyCount = new HashMap<>();
     }
 
+    /**
+     * Sets the object to which the progress of the import is reported.
+     * <p>The import stops with an {@link ImportCancelledException} if the progress is cancelled</p>
+     * @param progress Import progress
+     */
+    void setImportProgress(@NonNull ImportProgress progress) {
+        mProgress = progress;
+    }
+
+    /**
+     * Closes the database of the book after an aborted import.
+     * <p>When importing into a new book, the database of the book is deleted</p>
+     */
+    void discardImport() {
+        if (mainDb.isOpen()) {
+            mainDb.close();
+        }
+        if (!mMergeMode) {
+            GnuCashApplication.getAppContext().deleteDatabase(mBook.getUID());
+        }
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        super.startDocument();
+        mPhaseStartTime = System.nanoTime();
+    }
+
     @Override
     public void startElement(String uri, String localName,
                              String qualifiedName, Attributes attributes) throws SAXException {
@@ -333,11 +437,13 @@ public class GncXmlHandler extends DefaultHandler {
             case GncXmlHelper.TAG_ACCOUNT:
                 mAccount = new Account(""); // dummy name, will be replaced when we find name tag
                 mISO4217Currency = false;
+                mProgress.countEntity(AccountEntry.TABLE_NAME);
                 break;
             case GncXmlHelper.TAG_TRANSACTION:
                 mTransaction = new Transaction(""); // dummy name will be replaced
                 mTransaction.setExported(true);     // default to exported when import transactions
                 mISO4217Currency = false;
+                mProgress.countEntity(mInTemplates ? BookMerger.ENTITY_TEMPLATE_TRANSACTIONS : TransactionEntry.TABLE_NAME);
                 break;
             case GncXmlHelper.TAG_TRN_SPLIT:
                 mSplit = new Split(Money.getZeroInstance(), "");
@@ -354,6 +460,7 @@ public class GncXmlHandler extends DefaultHandler {
             case GncXmlHelper.TAG_SCHEDULED_ACTION:
                 //default to transaction type, will be changed during parsing
                 mScheduledAction = new ScheduledAction(ScheduledAction.ActionType.TRANSACTION);
+                mProgress.countEntity(ScheduledActionEntry.TABLE_NAME);
                 break;
             case GncXmlHelper.TAG_SX_START:
                 mIsScheduledStart = true;
@@ -369,6 +476,7 @@ public class GncXmlHandler extends DefaultHandler {
                 break;
             case GncXmlHelper.TAG_PRICE:
                 mPrice = new Price();
+                mProgress.countEntity(PriceEntry.TABLE_NAME);
                 break;
             case GncXmlHelper.TAG_PRICE_CURRENCY:
                 mPriceCurrency = true;
@@ -383,6 +491,7 @@ public class GncXmlHandler extends DefaultHandler {
 
             case GncXmlHelper.TAG_BUDGET:
                 mBudget = new Budget();
+                mProgress.countEntity(BudgetEntry.TABLE_NAME);
                 break;
 
             case GncXmlHelper.TAG_GNC_RECURRENCE:
@@ -407,6 +516,11 @@ public class GncXmlHandler extends DefaultHandler {
     @Override
     public void endElement(String uri, String localName, String qualifiedName) throws SAXException {
         // FIXME: 22.10.2015 First parse the number of accounts/transactions and use the numer to init the array lists
+        if (mProgress.getBytesRead() - mLastPublishedBytes >= PROGRESS_STEP_BYTES) {
+            mProgress.checkCancelled();
+            mLastPublishedBytes = mProgress.getBytesRead();
+            mProgress.publish();
+        }
         String characterString = mContent.toString().trim();
 
         if (mIgnoreElement != null) {
@@ -696,8 +810,10 @@ public class GncXmlHandler extends DefaultHandler {
                     mAutoBalanceSplits.add(imbSplit);
                 }
                 if (mInTemplates){
-                    if (!mIgnoreTemplateTransaction)
+                    if (!mIgnoreTemplateTransaction) {
                         mTemplateTransactions.add(mTransaction);
+                        mTemplateTransactionMap.put(mTransaction.getUID(), mTransaction);
+                    }
                 } else {
                     mTransactionList.add(mTransaction);
                 }
@@ -799,8 +915,12 @@ public class GncXmlHandler extends DefaultHandler {
                         setMinimalScheduledActionByDays();
                     }
                     mScheduledActionsList.add(mScheduledAction);
-                    int count = generateMissedScheduledTransactions(mScheduledAction);
-                    Log.i(LOG_TAG, String.format("Generated %d transactions from scheduled action", count));
+                    // when merging, the generated transactions would get new GUIDs on every import and be duplicated.
+                    // The scheduled action service catches up on missed transactions for the book instead
+                    if (!mMergeMode) {
+                        int count = scheduleMissedRuns(mScheduledAction);
+                        Log.i(LOG_TAG, String.format("Scheduled %d missed runs of scheduled action", count));
+                    }
                 }
                 mIgnoreScheduledAction = false;
                 break;
@@ -815,15 +935,15 @@ public class GncXmlHandler extends DefaultHandler {
                 break;
             case GncXmlHelper.TAG_PRICE_VALUE:
                 if (mPrice != null) {
-                    String[] parts = characterString.split("/");
-                    if (parts.length != 2) {
+                    int slash = characterString.indexOf('/');
+                    if (slash < 0 || slash != characterString.lastIndexOf('/') || slash == characterString.length() - 1) {
                         String message = "Illegal price - " + characterString;
                         Log.e(LOG_TAG, message);
                         Crashlytics.log(message);
                         throw new SAXException(message);
                     } else {
-                        mPrice.setValueNum(Long.valueOf(parts[0]));
-                        mPrice.setValueDenom(Long.valueOf(parts[1]));
+                        mPrice.setValueNum(GncXmlValueCodec.parseLong(characterString, 0, slash));
+                        mPrice.setValueDenom(GncXmlValueCodec.parseLong(characterString, slash + 1, characterString.length()));
                         Log.d(getClass().getName(), "price " + characterString +
                         " .. " + mPrice.getValueNum() + "/" + mPrice.getValueDenom());
                     }
@@ -876,9 +996,15 @@ public class GncXmlHandler extends DefaultHandler {
     @Override
     public void endDocument() throws SAXException {
         super.endDocument();
+        endPhase("parse");
+        mProgress.checkCancelled();
         HashMap<String, String> mapFullName = new HashMap<>(mAccountList.size());
         HashMap<String, Account> mapImbalanceAccount = new HashMap<>();
 
+        if (mMergeMode) {
+            useExistingRootAccount();
+        }
+
         // The XML has no ROOT, create one
         if (mRootAccount == null) {
             mRootAccount = new Account("ROOT");
@@ -909,6 +1035,12 @@ public class GncXmlHandler extends DefaultHandler {
             // XXX: yes, getAccountUID() returns a currency code in this case (see Transaction.createAutoBalanceSplit())
             String currencyCode = split.getAccountUID();
             Account imbAccount = mapImbalanceAccount.get(currencyCode);
+            if (imbAccount == null && mMergeMode) {
+                imbAccount = getExistingImbalanceAccount(currencyCode);
+                if (imbAccount != null) {
+                    mapImbalanceAccount.put(currencyCode, imbAccount);
+                }
+            }
             if (imbAccount == null) {
                 imbAccount = new Account(imbalancePrefix + currencyCode, mCommoditiesDbAdapter.getCommodity(currencyCode));
                 imbAccount.setParentUID(mRootAccount.getUID());
@@ -967,18 +1099,85 @@ public class GncXmlHandler extends DefaultHandler {
                 mostAppearedCurrency = entry.getKey();
             }
         }
-        if (mostCurrencyAppearance > 0) {
+        // a merged book keeps the default currency chosen by the user
+        if (mostCurrencyAppearance > 0 && !mMergeMode) {
             GnuCashApplication.setDefaultCurrencyCode(mostAppearedCurrency);
         }
 
-        saveToDatabase();
+        endPhase("resolve accounts");
+
+        if (mMergeMode) {
+            mergeIntoDatabase();
+        } else {
+            saveToDatabase();
+        }
+        mProgress.publish();
+        Log.i(LOG_TAG, "Import complete\n" + mProgress);
+    }
+
+    /**
+     * Records the time spent since the start of the previous phase of the import and publishes the progress.
+     * <p>This keeps the progress moving while the database is written, after the whole file was read</p>
+     * @param phase Name of the phase which just ended
+     */
+    private void endPhase(String phase) {
+        long now = System.nanoTime();
+        mProgress.addPhaseTiming(phase, now - mPhaseStartTime);
+        mPhaseStartTime = now;
+        mProgress.publish();
+    }
+
+    /**
+     * Makes the parsed accounts hang from the ROOT account of the existing book when merging.
+     * <p>The XML may have no ROOT account, or one with a different GUID if it was created by another application.
+     * Either way, the book must keep its ROOT account.</p>
+     */
+    private void useExistingRootAccount() {
+        String rootUID = mAccountsDbAdapter.getOrCreateGnuCashRootAccountUID();
+        if (mRootAccount != null && mRootAccount.getUID().equals(rootUID)) {
+            return;
+        }
+
+        Account existingRoot = mAccountsDbAdapter.getRecord(rootUID);
+        if (mRootAccount != null) {
+            String xmlRootUID = mRootAccount.getUID();
+            mAccountList.remove(mRootAccount);
+            mAccountMap.remove(xmlRootUID);
+            for (Account account : mAccountList) {
+                if (xmlRootUID.equals(account.getParentUID())) {
+                    account.setParentUID(rootUID);
+                }
+            }
+        }
+        mRootAccount = existingRoot;
+        mAccountList.add(mRootAccount);
+        mAccountMap.put(rootUID, mRootAccount);
+    }
+
+    /**
+     * Returns the imbalance account of the existing book for the currency, if there is one.
+     * <p>This avoids creating a second imbalance account for each merge of a file with unbalanced transactions</p>
+     * @param currencyCode ISO 4217 currency code
+     * @return Imbalance account or {@code null} if the book has none for the currency
+     */
+    private Account getExistingImbalanceAccount(String currencyCode) {
+        String imbalanceUID = mAccountsDbAdapter.getImbalanceAccountUID(mCommoditiesDbAdapter.getCommodity(currencyCode));
+        if (imbalanceUID == null) {
+            return null;
+        }
+        Account imbalanceAccount = mAccountsDbAdapter.getRecord(imbalanceUID);
+        if (!mAccountMap.containsKey(imbalanceUID)) {
+            mAccountList.add(imbalanceAccount);
+            mAccountMap.put(imbalanceUID, imbalanceAccount);
+        }
+        return imbalanceAccount;
     }
 
     /**
      * Saves the imported data to the database
      * @return GUID of the newly created book, or null if not successful
      */
-    private void saveToDatabase() {
+    private void saveToDatabase() throws SAXException {
         BooksDbAdapter booksDbAdapter = BooksDbAdapter.getInstance();
         mBook.setRootAccountUID(mRootAccount.getUID());
         mBook.setDisplayName(booksDbAdapter.generateDefaultBookName());
@@ -994,21 +1193,35 @@ public class GncXmlHandler extends DefaultHandler {
             Log.d(getClass().getSimpleName(), "before clean up db");
             mAccountsDbAdapter.deleteAllRecords();
             Log.d(getClass().getSimpleName(), String.format("deb clean up done %d ns", System.nanoTime()-startTime));
+            endPhase("clean up");
             long nAccounts = mAccountsDbAdapter.bulkAddRecords(mAccountList, DatabaseAdapter.UpdateMethod.insert);
             Log.d("Handler:", String.format("%d accounts inserted", nAccounts));
+            endPhase("insert accounts");
+            mProgress.checkCancelled();
             //We need to add scheduled actions first because there is a foreign key constraint on transactions
             //which are generated from scheduled actions (we do auto-create some transactions during import)
             long nSchedActions = mScheduledActionsDbAdapter.bulkAddRecords(mScheduledActionsList, DatabaseAdapter.UpdateMethod.insert);
             Log.d("Handler:", String.format("%d scheduled actions inserted", nSchedActions));
+            endPhase("insert scheduled actions");
 
             long nTempTransactions = mTransactionsDbAdapter.bulkAddRecords(mTemplateTransactions, DatabaseAdapter.UpdateMethod.insert);
             Log.d("Handler:", String.format("%d template transactions inserted", nTempTransactions));
+            endPhase("insert template transactions");
+            mProgress.checkCancelled();
 
             long nTransactions = mTransactionsDbAdapter.bulkAddRecords(mTransactionList, DatabaseAdapter.UpdateMethod.insert);
             Log.d("Handler:", String.format("%d transactions inserted", nTransactions));
+            endPhase("insert transactions");
+            mProgress.checkCancelled();
+
+            long nGeneratedTransactions = insertMissedScheduledTransactions();
+            Log.d("Handler:", String.format("%d scheduled transactions generated", nGeneratedTransactions));
+            endPhase("insert scheduled transactions");
+            mProgress.checkCancelled();
 
             long nPrices = mPricesDbAdapter.bulkAddRecords(mPriceList, DatabaseAdapter.UpdateMethod.insert);
             Log.d(getClass().getSimpleName(), String.format("%d prices inserted", nPrices));
+            endPhase("insert prices");
 
             //// TODO: 01.06.2016 Re-enable import of Budget stuff when the UI is complete
 //            long nBudgets = mBudgetsDbAdapter.bulkAddRecords(mBudgetList, DatabaseAdapter.UpdateMethod.insert);
@@ -1018,6 +1231,7 @@ public class GncXmlHandler extends DefaultHandler {
             Log.d(getClass().getSimpleName(), String.format("bulk insert time: %d", endTime - startTime));
 
             //if all of the import went smoothly, then add the book to the book db
+            mProgress.checkCancelled();
             booksDbAdapter.addRecord(mBook, DatabaseAdapter.UpdateMethod.insert);
             mAccountsDbAdapter.setTransactionSuccessful();
         } finally {
@@ -1027,6 +1241,49 @@ public class GncXmlHandler extends DefaultHandler {
         }
     }
 
+    /**
+     * Merges the imported data into the database of the existing book.
+     * <p>All changes are made in one database transaction, so a failed merge leaves the book untouched</p>
+     */
+    private void mergeIntoDatabase() throws SAXException {
+        BookMerger merger = new BookMerger(mainDb, mAccountsDbAdapter, mTransactionsDbAdapter,
+                mScheduledActionsDbAdapter, mPricesDbAdapter, mDeleteMissing);
+
+        long startTime = System.nanoTime();
+        mAccountsDbAdapter.beginTransaction();
+        try {
+            // foreign keys are disabled because the merge order cannot satisfy them in every case,
+            // e.g. an updated account referencing a parent which is inserted later in the same batch
+            mAccountsDbAdapter.enableForeignKey(false);
+            merger.mergeAccounts(mAccountList);
+            //scheduled actions before transactions, see saveToDatabase()
+            merger.mergeScheduledActions(mScheduledActionsList);
+            merger.mergeTransactions(mTemplateTransactions, true);
+            merger.mergeTransactions(mTransactionList, false);
+            merger.deleteMissingAccounts();
+            merger.mergePrices(mPriceList);
+            mProgress.checkCancelled();
+            mAccountsDbAdapter.setTransactionSuccessful();
+        } finally {
+            mAccountsDbAdapter.enableForeignKey(true);
+            mAccountsDbAdapter.endTransaction();
+            mainDb.close();
+        }
+        mMergeReport = merger.getReport();
+        endPhase("merge");
+        Log.d(LOG_TAG, String.format("merge time: %d ns", System.nanoTime() - startTime));
+        Log.i(LOG_TAG, "Merge complete\n" + mMergeReport);
+    }
+
+    /**
+     * Returns the report of the changes made when merging into an existing book
+     * @return Merge report, or {@code null} if this handler imported into a new book
+     * @see #GncXmlHandler(String, boolean)
+     */
+    public MergeReport getMergeReport() {
+        return mMergeReport;
+    }
+
     /**
      * Returns the unique identifier of the just-imported book
      * @return GUID of the newly imported book
@@ -1081,46 +1338,70 @@ public class GncXmlHandler extends DefaultHandler {
     }
 
     /**
-     * Generates the runs of the scheduled action which have been missed since the file was last opened.
+     * Computes the runs of the scheduled action which have been missed since the file was last opened.
+     * <p>The due times follow the calendar of the {@link Recurrence} of the scheduled action.
+     * The transactions themselves are generated by {@link #insertMissedScheduledTransactions()}</p>
      * @param scheduledAction Scheduled action for transaction
-     * @return Number of transaction instances generated
+     * @return Number of missed runs
      */
-    private int generateMissedScheduledTransactions(ScheduledAction scheduledAction){
+    private int scheduleMissedRuns(ScheduledAction scheduledAction){
         //if this scheduled action should not be run for any reason, return immediately
         if (scheduledAction.getActionType() != ScheduledAction.ActionType.TRANSACTION
                 || !scheduledAction.isEnabled() || !scheduledAction.shouldAutoCreate()
                 || (scheduledAction.getEndTime() > 0 && scheduledAction.getEndTime() > System.currentTimeMillis())
-                || (scheduledAction.getTotalPlannedExecutionCount() > 0 && scheduledAction.getExecutionCount() >= scheduledAction.getTotalPlannedExecutionCount())){
+                || (scheduledAction.getTotalPlannedExecutionCount() > 0 && scheduledAction.getExecutionCount() >= scheduledAction.getTotalPlannedExecutionCount())
+                || !mTemplateTransactionMap.containsKey(scheduledAction.getActionUID())){
             return 0;
         }
 
-        long lastRuntime = scheduledAction.getStartTime();
-        if (scheduledAction.getLastRunTime() > 0){
-            lastRuntime = scheduledAction.getLastRunTime();
+        long now = System.currentTimeMillis();
+        long endTime = scheduledAction.getEndTime() > 0 ? Math.min(scheduledAction.getEndTime(), now) : now;
+        int totalPlannedExecutions = scheduledAction.getTotalPlannedExecutionCount();
+        List<Long> runTimes = new ArrayList<>();
+        long runTime = scheduledAction.computeNextTimeBasedScheduledExecutionTime();
+        while (runTime <= endTime && runTime > scheduledAction.getLastRunTime()) {
+            runTimes.add(runTime);
+            scheduledAction.setLastRun(runTime);
+            scheduledAction.setExecutionCount(scheduledAction.getExecutionCount() + 1);
+            if (totalPlannedExecutions > 0 && scheduledAction.getExecutionCount() >= totalPlannedExecutions)
+                break;
+            runTime = scheduledAction.computeNextTimeBasedScheduledExecutionTime();
         }
 
-        int generatedTransactionCount = 0;
-        long period = scheduledAction.getPeriod();
-        final String actionUID = scheduledAction.getActionUID();
-        while ((lastRuntime = lastRuntime + period) <= System.currentTimeMillis()){
-            for (Transaction templateTransaction : mTemplateTransactions) {
-                if (templateTransaction.getUID().equals(actionUID)){
-                    Transaction transaction = new Transaction(templateTransaction, true);
-                    transaction.setTime(lastRuntime);
-                    transaction.setScheduledActionUID(scheduledAction.getUID());
-                    mTransactionList.add(transaction);
-                    //autobalance splits are generated with the currency of the transactions as the GUID
-                    //so we add them to the mAutoBalanceSplits which will be updated to real GUIDs before saving
-                    List<Split> autoBalanceSplits = transaction.getSplits(transaction.getCurrencyCode());
-                    mAutoBalanceSplits.addAll(autoBalanceSplits);
-                    scheduledAction.setExecutionCount(scheduledAction.getExecutionCount() + 1);
-                    ++generatedTransactionCount;
-                    break;
+        if (!runTimes.isEmpty()) {
+            mMissedScheduledRuns.put(scheduledAction, runTimes);
+        }
+        return runTimes.size();
+    }
+
+    /**
+     * Generates the transactions of the missed runs of the scheduled actions and inserts them in batches
+     * <p>Must be called after the template transactions have been inserted and their auto-balance
+     * splits assigned to the imbalance accounts</p>
+     * @return Number of transactions inserted
+     */
+    private long insertMissedScheduledTransactions() {
+        long count = 0;
+        List<Transaction> batch = new ArrayList<>(SCHEDULED_TRANSACTIONS_BATCH_SIZE);
+        for (Map.Entry<ScheduledAction, List<Long>> entry : mMissedScheduledRuns.entrySet()) {
+            ScheduledAction scheduledAction = entry.getKey();
+            Transaction templateTransaction = mTemplateTransactionMap.get(scheduledAction.getActionUID());
+            for (long runTime : entry.getValue()) {
+                Transaction transaction = new Transaction(templateTransaction, true);
+                transaction.setTime(runTime);
+                transaction.setScheduledActionUID(scheduledAction.getUID());
+                batch.add(transaction);
+                if (batch.size() == SCHEDULED_TRANSACTIONS_BATCH_SIZE) {
+                    count += mTransactionsDbAdapter.bulkAddRecords(batch, DatabaseAdapter.UpdateMethod.insert);
+                    batch.clear();
                 }
             }
         }
-        scheduledAction.setLastRun(lastRuntime);
-        return generatedTransactionCount;
+        if (!batch.isEmpty()) {
+            count += mTransactionsDbAdapter.bulkAddRecords(batch, DatabaseAdapter.UpdateMethod.insert);
+        }
+        mMissedScheduledRuns.clear();
+        return count;
     }
 
     /**
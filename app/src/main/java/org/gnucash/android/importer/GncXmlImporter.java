@@ -25,6 +25,7 @@ import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 
 import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PushbackInputStream;
@@ -47,10 +48,76 @@ public class GncXmlImporter {
      * @return GUID of the book into which the XML was imported
      */
     public static String parse(InputStream gncXmlInputStream) throws ParserConfigurationException, SAXException, IOException {
+        return parse(gncXmlInputStream, null);
+    }
+
+    /**
+     * Parse GnuCash XML input and populates the database, reporting the progress of the import
+     * @param gncXmlInputStream InputStream source of the GnuCash XML file
+     * @param progress Progress to update while importing, may be null
+     * @return GUID of the book into which the XML was imported
+     * @throws ImportCancelledException if the import was cancelled. No book is created in this case
+     */
+    public static String parse(InputStream gncXmlInputStream, ImportProgress progress)
+            throws ParserConfigurationException, SAXException, IOException {
+        GncXmlHandler handler = new GncXmlHandler();
+        parse(gncXmlInputStream, handler, progress);
+
+        String bookUID = handler.getBookUID();
+        PreferencesHelper.setLastExportTime(
+                TransactionsDbAdapter.getInstance().getTimestampOfLastModification(),
+                bookUID
+        );
+
+        return bookUID;
+    }
+
+    /**
+     * Parse GnuCash XML input and merges it into an existing book.
+     * <p>Entities are matched to the records in the book by GUID. Only new or changed entities are written,
+     * so re-importing a slightly modified file is much cheaper than importing it into a new book.</p>
+     * @param gncXmlInputStream InputStream source of the GnuCash XML file
+     * @param bookUID GUID of the book into which to merge
+     * @param deleteMissing If {@code true}, records which are not in the XML file are deleted from the book
+     * @return Report of the changes made to the book
+     */
+    public static MergeReport merge(InputStream gncXmlInputStream, String bookUID, boolean deleteMissing)
+            throws ParserConfigurationException, SAXException, IOException {
+        return merge(gncXmlInputStream, bookUID, deleteMissing, null);
+    }
+
+    /**
+     * Parse GnuCash XML input and merges it into an existing book, reporting the progress of the import
+     * @param progress Progress to update while importing, may be null
+     * @throws ImportCancelledException if the import was cancelled. The book is left unchanged in this case
+     * @see #merge(InputStream, String, boolean)
+     */
+    public static MergeReport merge(InputStream gncXmlInputStream, String bookUID, boolean deleteMissing,
+                                    ImportProgress progress)
+            throws ParserConfigurationException, SAXException, IOException {
+        GncXmlHandler handler = new GncXmlHandler(bookUID, deleteMissing);
+        parse(gncXmlInputStream, handler, progress);
+        return handler.getMergeReport();
+    }
+
+    /**
+     * Parses the possibly gzipped GnuCash XML input with the handler
+     * @param gncXmlInputStream InputStream source of the GnuCash XML file
+     * @param handler Handler which saves the parsed data
+     * @param progress Progress to update while importing, may be null
+     */
+    private static void parse(InputStream gncXmlInputStream, GncXmlHandler handler, ImportProgress progress)
+            throws ParserConfigurationException, SAXException, IOException {
         SAXParserFactory spf = SAXParserFactory.newInstance();
         SAXParser sp = spf.newSAXParser();
         XMLReader xr = sp.getXMLReader();
 
+        if (progress != null) {
+            handler.setImportProgress(progress);
+            //count the bytes of the file itself, so that they can be compared to the file size
+            gncXmlInputStream = new ProgressInputStream(gncXmlInputStream, progress);
+        }
+
         BufferedInputStream bos;
         PushbackInputStream pb = new PushbackInputStream( gncXmlInputStream, 2 ); //we need a pushbackstream to look ahead
         byte [] signature = new byte[2];
@@ -63,19 +130,57 @@ public class GncXmlImporter {
 
         //TODO: Set an error handler which can log errors
         Log.d(GncXmlImporter.class.getSimpleName(), "Start import");
-        GncXmlHandler handler = new GncXmlHandler();
         xr.setContentHandler(handler);
         long startTime = System.nanoTime();
-        xr.parse(new InputSource(bos));
+        try {
+            xr.parse(new InputSource(bos));
+        } catch (SAXException e) {
+            //the parser may wrap the exception thrown by the handler
+            if (progress != null && progress.isCancelled()) {
+                Log.i(GncXmlImporter.class.getSimpleName(), "Import cancelled");
+                handler.discardImport();
+                throw new ImportCancelledException();
+            }
+            throw e;
+        }
         long endTime = System.nanoTime();
         Log.d(GncXmlImporter.class.getSimpleName(), String.format("%d ns spent on importing the file", endTime-startTime));
+    }
 
-        String bookUID = handler.getBookUID();
-        PreferencesHelper.setLastExportTime(
-                TransactionsDbAdapter.getInstance().getTimestampOfLastModification(),
-                bookUID
-        );
+    /**
+     * Input stream which adds the number of bytes read to the import progress
+     */
+    private static class ProgressInputStream extends FilterInputStream {
+        private final ImportProgress mProgress;
 
-        return bookUID;
+        ProgressInputStream(InputStream inputStream, ImportProgress progress) {
+            super(inputStream);
+            mProgress = progress;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                mProgress.addBytesRead(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mProgress.addBytesRead(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            mProgress.addBytesRead(skipped);
+            return skipped;
+        }
     }
 }
@@ -18,14 +18,18 @@ package org.gnucash.android.importer;
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.ProgressDialog;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.DialogInterface;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.provider.OpenableColumns;
+import android.support.annotation.NonNull;
 import android.util.Log;
+import android.view.View;
 import android.widget.Toast;
 
 import com.crashlytics.android.Crashlytics;
@@ -35,20 +39,44 @@ import org.gnucash.android.db.DatabaseSchema;
 import org.gnucash.android.db.adapter.BooksDbAdapter;
 import org.gnucash.android.ui.util.TaskDelegate;
 import org.gnucash.android.util.BookUtils;
+import org.gnucash.android.util.FileUtils;
+import org.gnucash.android.util.IncrementalBackup;
+import org.gnucash.android.util.SnapshotBackup;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.NumberFormat;
 
 /**
  * Imports a GnuCash (desktop) account file and displays a progress dialog.
  * The AccountsActivity is opened when importing is done.
  */
-public class ImportAsyncTask extends AsyncTask<Uri, Void, Boolean> {
+public class ImportAsyncTask extends AsyncTask<Uri, Integer, Boolean> {
     private final Activity mContext;
     private TaskDelegate mDelegate;
     private ProgressDialog mProgressDialog;
 
+    /**
+     * Progress of the XML import, also used to cancel it
+     */
+    private final ImportProgress mImportProgress = new ImportProgress(new ImportProgress.Listener() {
+        @Override
+        public void onProgressUpdate(@NonNull ImportProgress progress) {
+            publishProgress(progress.getPercentage());
+        }
+    });
+
     private String mImportedBookUID;
 
+    /**
+     * GUID of the book into which the file is merged, or {@code null} to import into a new book
+     */
+    private String mMergeBookUID;
+
     public ImportAsyncTask(Activity context){
         this.mContext = context;
     }
@@ -58,6 +86,20 @@ public class ImportAsyncTask extends AsyncTask<Uri, Void, Boolean> {
         this.mDelegate = delegate;
     }
 
+    /**
+     * Creates a task which merges the file into an existing book instead of creating a new book.
+     * <p>Only new and changed entities are written to the book. Records which are not in the file are kept.</p>
+     * @param context Activity in which to show the progress dialog
+     * @param delegate Delegate called when the task is complete, may be null
+     * @param mergeBookUID GUID of the book into which to merge
+     * @see GncXmlImporter#merge(InputStream, String, boolean)
+     */
+    public ImportAsyncTask(Activity context, TaskDelegate delegate, String mergeBookUID){
+        this.mContext = context;
+        this.mDelegate = delegate;
+        this.mMergeBookUID = mergeBookUID;
+    }
+
     @Override
     protected void onPreExecute() {
         super.onPreExecute();
@@ -65,21 +107,64 @@ public class ImportAsyncTask extends AsyncTask<Uri, Void, Boolean> {
         mProgressDialog.setTitle(R.string.title_progress_importing_accounts);
         mProgressDialog.setIndeterminate(true);
         mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mProgressDialog.setCancelable(false);
+        mProgressDialog.setButton(DialogInterface.BUTTON_NEGATIVE, mContext.getString(R.string.btn_cancel),
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        //the import stops at the next check and is rolled back
+                        mImportProgress.cancel();
+                    }
+                });
         mProgressDialog.show();
 
         //these methods must be called after progressDialog.show()
         mProgressDialog.setProgressNumberFormat(null);
         mProgressDialog.setProgressPercentFormat(null);
+        //only XML imports can be cancelled, the button is shown once the format is known
+        mProgressDialog.getButton(DialogInterface.BUTTON_NEGATIVE).setVisibility(View.GONE);
 
 
     }
 
     @Override
     protected Boolean doInBackground(Uri... uris) {
+        mImportProgress.setTotalBytes(getFileSize(uris[0]));
         try {
-            InputStream accountInputStream = mContext.getContentResolver().openInputStream(uris[0]);
-            mImportedBookUID = GncXmlImporter.parse(accountInputStream);
+            InputStream accountInputStream = new BufferedInputStream(
+                    mContext.getContentResolver().openInputStream(uris[0]));
+            if (mMergeBookUID != null) {
+                //the other formats are only imported into new books
+                if (SnapshotBackup.isSnapshot(accountInputStream)
+                        || GncSqliteImporter.isSqliteDatabase(accountInputStream)) {
+                    accountInputStream.close();
+                    throw new IllegalArgumentException(mContext.getString(R.string.error_merge_unsupported_format));
+                }
+                showCancelButton();
+                MergeReport report = GncXmlImporter.merge(accountInputStream, mMergeBookUID, false, mImportProgress);
+                Log.i(ImportAsyncTask.class.getName(), "Merged into book " + mMergeBookUID + "\n" + report);
+                mImportedBookUID = mMergeBookUID;
+                //the book keeps its name and preferences
+                return true;
+            }
+            if (ContentResolver.SCHEME_FILE.equals(uris[0].getScheme())
+                    && IncrementalBackup.isDeltaBackup(uris[0].getPath())) {
+                accountInputStream.close();
+                //replays the chain of backups the delta belongs to
+                mImportedBookUID = IncrementalBackup.restore(new File(uris[0].getPath()), mImportProgress);
+            } else if (SnapshotBackup.isSnapshot(accountInputStream)) {
+                mImportedBookUID = SnapshotBackup.restore(accountInputStream);
+            } else if (GncSqliteImporter.isSqliteDatabase(accountInputStream)) {
+                mImportedBookUID = importSqliteDatabase(accountInputStream);
+            } else {
+                showCancelButton();
+                mImportedBookUID = GncXmlImporter.parse(accountInputStream, mImportProgress);
+            }
 
+        } catch (ImportCancelledException exception) {
+            Log.i(ImportAsyncTask.class.getName(), "Import cancelled\n" + mImportProgress);
+            mImportedBookUID = null;
+            return false;
         } catch (Exception exception){
             Log.e(ImportAsyncTask.class.getName(), "" + exception.getMessage());
             Crashlytics.log("Could not open: " + uris[0].toString());
@@ -121,6 +206,73 @@ public class ImportAsyncTask extends AsyncTask<Uri, Void, Boolean> {
         return true;
     }
 
+    /**
+     * Shows the button which cancels the import, for the formats which check {@link #mImportProgress}
+     */
+    private void showCancelButton() {
+        mContext.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mProgressDialog != null)
+                    mProgressDialog.getButton(DialogInterface.BUTTON_NEGATIVE).setVisibility(View.VISIBLE);
+            }
+        });
+    }
+
+    /**
+     * Returns the size of the file to import
+     * @param uri URI of the file
+     * @return Size in bytes, or -1 if it is unknown
+     */
+    private long getFileSize(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        if (cursor == null)
+            return -1;
+        try {
+            int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+            if (sizeIndex < 0 || !cursor.moveToFirst() || cursor.isNull(sizeIndex))
+                return -1;
+            return cursor.getLong(sizeIndex);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        if (mProgressDialog == null || values[0] < 0)
+            return;
+        if (mProgressDialog.isIndeterminate()) {
+            mProgressDialog.setIndeterminate(false);
+            mProgressDialog.setMax(100);
+            mProgressDialog.setProgressPercentFormat(NumberFormat.getPercentInstance());
+        }
+        mProgressDialog.setProgress(values[0]);
+    }
+
+    /**
+     * Imports a GnuCash desktop SQLite book.
+     * <p>SQLite needs a file to attach, so the content is first copied to the cache directory</p>
+     * @param inputStream Stream of the SQLite database
+     * @return GUID of the newly created book
+     */
+    private String importSqliteDatabase(InputStream inputStream) throws IOException {
+        File databaseFile = File.createTempFile("import", ".gnucash", mContext.getCacheDir());
+        try {
+            OutputStream outputStream = new FileOutputStream(databaseFile);
+            try {
+                FileUtils.copyToStream(inputStream, outputStream);
+            } finally {
+                outputStream.close();
+                inputStream.close();
+            }
+            return GncSqliteImporter.parse(databaseFile);
+        } finally {
+            if (!databaseFile.delete())
+                Log.w(ImportAsyncTask.class.getName(), "Could not delete " + databaseFile.getPath());
+        }
+    }
+
     @Override
     protected void onPostExecute(Boolean importSuccess) {
         try {
@@ -134,9 +286,13 @@ public class ImportAsyncTask extends AsyncTask<Uri, Void, Boolean> {
         }
 
         int message = importSuccess ? R.string.toast_success_importing_accounts : R.string.toast_error_importing_accounts;
+        if (mImportProgress.isCancelled() && !importSuccess)
+            message = R.string.toast_import_cancelled;
         Toast.makeText(mContext, message, Toast.LENGTH_SHORT).show();
 
-        if (mImportedBookUID != null)
+        //a merged book is only reloaded if it is open, otherwise we stay in the book manager
+        if (mImportedBookUID != null && (mMergeBookUID == null
+                || BooksDbAdapter.getInstance().getActiveBookUID().equals(mMergeBookUID)))
             BookUtils.loadBook(mImportedBookUID);
 
         if (mDelegate != null)
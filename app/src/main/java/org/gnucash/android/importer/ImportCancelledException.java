@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.importer;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Thrown when an import is stopped with {@link ImportProgress#cancel()}.
+ * <p>It extends {@link SAXException} so that it aborts the XML parser</p>
+ */
+public class ImportCancelledException extends SAXException {
+
+    public ImportCancelledException() {
+        super("Import cancelled");
+    }
+}
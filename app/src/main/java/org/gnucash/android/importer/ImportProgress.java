@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.importer;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Progress of an import of a GnuCash XML file.
+ * <p>Progress is measured in bytes read from the input file and in entities parsed. The time spent in each
+ * phase of the import is recorded, so that it can be seen where the time goes for large files.</p>
+ * <p>The import can be cancelled from another thread with {@link #cancel()}. The importer checks the flag
+ * regularly and stops with an {@link ImportCancelledException}, leaving the database as it was before.</p>
+ *
+ * @see GncXmlImporter#parse(java.io.InputStream, ImportProgress)
+ */
+public class ImportProgress {
+
+    /**
+     * Listener notified on the import thread when the import has made progress
+     */
+    public interface Listener {
+        void onProgressUpdate(@NonNull ImportProgress progress);
+    }
+
+    private final Listener mListener;
+
+    private volatile long mTotalBytes = -1;
+    private volatile long mBytesRead;
+    private volatile boolean mCancelled;
+
+    private final Map<String, Integer> mEntityCounts = new LinkedHashMap<>();
+    private final Map<String, Long> mPhaseTimings = new LinkedHashMap<>();
+
+    /**
+     * Creates a progress tracker
+     * @param listener Listener to notify of progress, may be null
+     */
+    public ImportProgress(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Returns the size of the input file
+     * @return Size in bytes, or -1 if unknown
+     */
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * Sets the size of the input file, if it is known
+     * @param totalBytes Size in bytes, or -1 if unknown
+     */
+    public void setTotalBytes(long totalBytes) {
+        mTotalBytes = totalBytes;
+    }
+
+    /**
+     * Returns the number of bytes consumed from the input file.
+     * <p>For compressed files these are compressed bytes, so they can be compared to {@link #getTotalBytes()}</p>
+     * @return Number of bytes read
+     */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    void addBytesRead(long count) {
+        mBytesRead += count;
+    }
+
+    /**
+     * Returns the percentage of the input file which has been read
+     * @return Percentage from 0 to 100, or -1 if the size of the file is unknown
+     */
+    public int getPercentage() {
+        long totalBytes = mTotalBytes;
+        if (totalBytes <= 0) {
+            return -1;
+        }
+        return (int) Math.min(100, mBytesRead * 100 / totalBytes);
+    }
+
+    /**
+     * Requests the import to stop. The import is rolled back
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Throws an {@link ImportCancelledException} if the import has been cancelled
+     */
+    void checkCancelled() throws ImportCancelledException {
+        if (mCancelled) {
+            throw new ImportCancelledException();
+        }
+    }
+
+    /**
+     * Returns the number of entities parsed so far
+     * @return Map of entity names, as in {@link org.gnucash.android.db.DatabaseSchema}, to their count
+     */
+    public Map<String, Integer> getEntityCounts() {
+        return Collections.unmodifiableMap(mEntityCounts);
+    }
+
+    void countEntity(@NonNull String entity) {
+        Integer count = mEntityCounts.get(entity);
+        mEntityCounts.put(entity, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Returns the time spent in each phase of the import, in the order in which they were run
+     * @return Map of phase names to time in nanoseconds
+     */
+    public Map<String, Long> getPhaseTimings() {
+        return Collections.unmodifiableMap(mPhaseTimings);
+    }
+
+    void addPhaseTiming(@NonNull String phase, long nanos) {
+        Long time = mPhaseTimings.get(phase);
+        mPhaseTimings.put(phase, time == null ? nanos : time + nanos);
+    }
+
+    /**
+     * Notifies the listener, if any
+     */
+    void publish() {
+        if (mListener != null) {
+            mListener.onProgressUpdate(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "%d of %d bytes read\n", mBytesRead, mTotalBytes));
+        for (Map.Entry<String, Integer> entry : mEntityCounts.entrySet()) {
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        }
+        for (Map.Entry<String, Long> entry : mPhaseTimings.entrySet()) {
+            builder.append(String.format(Locale.US, "%s: %d ms\n", entry.getKey(), entry.getValue() / 1000000));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.importer;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Summary of the changes made to a book by a merge import.
+ * <p>Changes are counted separately for each kind of entity (accounts, transactions, prices...)</p>
+ *
+ * @see GncXmlImporter#merge(java.io.InputStream, String, boolean)
+ */
+public class MergeReport {
+
+    /**
+     * Number of records inserted, updated, left unchanged or deleted for one kind of entity
+     */
+    public static class EntityChanges {
+        int mInserted;
+        int mUpdated;
+        int mUnchanged;
+        int mDeleted;
+
+        public int getInserted() {
+            return mInserted;
+        }
+
+        public int getUpdated() {
+            return mUpdated;
+        }
+
+        public int getUnchanged() {
+            return mUnchanged;
+        }
+
+        public int getDeleted() {
+            return mDeleted;
+        }
+
+        /**
+         * Returns the number of records which were written to or deleted from the database
+         * @return Number of records touched
+         */
+        public int getChangedCount() {
+            return mInserted + mUpdated + mDeleted;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d inserted, %d updated, %d unchanged, %d deleted",
+                    mInserted, mUpdated, mUnchanged, mDeleted);
+        }
+    }
+
+    private final Map<String, EntityChanges> mChanges = new LinkedHashMap<>();
+
+    /**
+     * Returns the changes for the entity, creating an empty entry if there is none yet
+     * @param entity Name of the entity, usually the table name from {@link org.gnucash.android.db.DatabaseSchema}
+     * @return Changes for the entity
+     */
+    public @NonNull EntityChanges getChanges(@NonNull String entity) {
+        EntityChanges changes = mChanges.get(entity);
+        if (changes == null) {
+            changes = new EntityChanges();
+            mChanges.put(entity, changes);
+        }
+        return changes;
+    }
+
+    /**
+     * Returns the changes for all entities in the order in which they were merged
+     * @return Map of entity names to changes
+     */
+    public Map<String, EntityChanges> getAllChanges() {
+        return Collections.unmodifiableMap(mChanges);
+    }
+
+    /**
+     * Returns the total number of records written to or deleted from the database
+     * @return Number of changed records
+     */
+    public int getTotalChangedCount() {
+        int total = 0;
+        for (EntityChanges changes : mChanges.values()) {
+            total += changes.getChangedCount();
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, EntityChanges> entry : mChanges.entrySet()) {
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        }
+        return builder.toString();
+    }
+}
@@ -21,11 +21,7 @@ import android.graphics.Color;
 import android.support.annotation.NonNull;
 
 import org.gnucash.android.BuildConfig;
-import org.gnucash.android.export.ofx.OfxHelper;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
-import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -449,83 +445,4 @@ public class Account extends BaseModel {
                 return OfxAccountType.CHECKING;
         }
     }
-
-    /**
-     * Converts this account's transactions into XML and adds them to the DOM document
-     * @param doc             XML DOM document for the OFX data
-     * @param parent          Parent node to which to add this account's transactions in XML
-     * @param exportStartTime Time from which to export transactions which are created/modified after
-     */
-    public void toOfx(Document doc, Element parent, Timestamp exportStartTime) {
-        Element currency = doc.createElement(OfxHelper.TAG_CURRENCY_DEF);
-        currency.appendChild(doc.createTextNode(mCommodity.getCurrencyCode()));
-
-        //================= BEGIN BANK ACCOUNT INFO (BANKACCTFROM) =================================
-
-        Element bankId = doc.createElement(OfxHelper.TAG_BANK_ID);
-        bankId.appendChild(doc.createTextNode(OfxHelper.APP_ID));
-
-        Element acctId = doc.createElement(OfxHelper.TAG_ACCOUNT_ID);
-        acctId.appendChild(doc.createTextNode(getUID()));
-
-        Element accttype = doc.createElement(OfxHelper.TAG_ACCOUNT_TYPE);
-        String ofxAccountType = convertToOfxAccountType(mAccountType).toString();
-        accttype.appendChild(doc.createTextNode(ofxAccountType));
-
-        Element bankFrom = doc.createElement(OfxHelper.TAG_BANK_ACCOUNT_FROM);
-        bankFrom.appendChild(bankId);
-        bankFrom.appendChild(acctId);
-        bankFrom.appendChild(accttype);
-
-        //================= END BANK ACCOUNT INFO ============================================
-
-
-        //================= BEGIN ACCOUNT BALANCE INFO =================================
-        String balance = getBalance().toPlainString();
-        String formattedCurrentTimeString = OfxHelper.getFormattedCurrentTime();
-
-        Element balanceAmount = doc.createElement(OfxHelper.TAG_BALANCE_AMOUNT);
-        balanceAmount.appendChild(doc.createTextNode(balance));
-        Element dtasof = doc.createElement(OfxHelper.TAG_DATE_AS_OF);
-        dtasof.appendChild(doc.createTextNode(formattedCurrentTimeString));
-
-        Element ledgerBalance = doc.createElement(OfxHelper.TAG_LEDGER_BALANCE);
-        ledgerBalance.appendChild(balanceAmount);
-        ledgerBalance.appendChild(dtasof);
-
-        //================= END ACCOUNT BALANCE INFO =================================
-
-
-        //================= BEGIN TIME PERIOD INFO =================================
-
-        Element dtstart = doc.createElement(OfxHelper.TAG_DATE_START);
-        dtstart.appendChild(doc.createTextNode(formattedCurrentTimeString));
-
-        Element dtend = doc.createElement(OfxHelper.TAG_DATE_END);
-        dtend.appendChild(doc.createTextNode(formattedCurrentTimeString));
-
-        //================= END TIME PERIOD INFO =================================
-
-
-        //================= BEGIN TRANSACTIONS LIST =================================
-        Element bankTransactionsList = doc.createElement(OfxHelper.TAG_BANK_TRANSACTION_LIST);
-        bankTransactionsList.appendChild(dtstart);
-        bankTransactionsList.appendChild(dtend);
-
-        for (Transaction transaction : mTransactionsList) {
-            if (transaction.getModifiedTimestamp().before(exportStartTime))
-                continue;
-            bankTransactionsList.appendChild(transaction.toOFX(doc, getUID()));
-        }
-        //================= END TRANSACTIONS LIST =================================
-
-        Element statementTransactions = doc.createElement(OfxHelper.TAG_STATEMENT_TRANSACTIONS);
-        statementTransactions.appendChild(currency);
-        statementTransactions.appendChild(bankFrom);
-        statementTransactions.appendChild(bankTransactionsList);
-        statementTransactions.appendChild(ledgerBalance);
-
-        parent.appendChild(statementTransactions);
-
-    }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.model;
+
+import android.support.annotation.NonNull;
+import android.util.Pair;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * History of the prices of commodity pairs, for converting amounts at the price which was valid at a time.
+ * <p>The prices of each pair are kept sorted by date in arrays, and looked up with a binary search.
+ * Every price is also stored for the inverse pair, so that it can be used in both directions.</p>
+ * <p>Price series are loaded with {@link org.gnucash.android.db.adapter.PricesDbAdapter#getPriceSeries()}</p>
+ */
+public class PriceSeries {
+    private static final Pair<Long, Long> NO_PRICE = new Pair<>(0L, 0L);
+    private static final Pair<Long, Long> SAME_COMMODITY = new Pair<>(1L, 1L);
+
+    private final Map<String, Series> mSeries = new HashMap<>();
+
+    /**
+     * Prices of one commodity pair, sorted by time
+     */
+    private static class Series {
+        long[] mTimes = new long[4];
+        long[] mNums = new long[4];
+        long[] mDenoms = new long[4];
+        int mSize;
+
+        void add(long time, long num, long denom) {
+            if (mSize == mTimes.length) {
+                mTimes = Arrays.copyOf(mTimes, mSize * 2);
+                mNums = Arrays.copyOf(mNums, mSize * 2);
+                mDenoms = Arrays.copyOf(mDenoms, mSize * 2);
+            }
+            // prices are usually added in order, so this rarely moves anything
+            int index = mSize;
+            while (index > 0 && mTimes[index - 1] > time) {
+                index--;
+            }
+            System.arraycopy(mTimes, index, mTimes, index + 1, mSize - index);
+            System.arraycopy(mNums, index, mNums, index + 1, mSize - index);
+            System.arraycopy(mDenoms, index, mDenoms, index + 1, mSize - index);
+            mTimes[index] = time;
+            mNums[index] = num;
+            mDenoms[index] = denom;
+            mSize++;
+        }
+
+        /**
+         * Returns the index of the latest price at or before a time, or of the earliest price if there is none
+         */
+        int indexAt(long time) {
+            int index = Arrays.binarySearch(mTimes, 0, mSize, time);
+            if (index >= 0) {
+                // the last of several prices at the same time
+                while (index + 1 < mSize && mTimes[index + 1] == time) {
+                    index++;
+                }
+                return index;
+            }
+            int insertionPoint = -index - 1;
+            return insertionPoint == 0 ? 0 : insertionPoint - 1;
+        }
+    }
+
+    /**
+     * Adds a price to the series. Prices are best added in chronological order
+     * @param commodityUID GUID of the commodity which is converted
+     * @param currencyUID GUID of the commodity it is converted to
+     * @param time Time of the price in milliseconds
+     * @param valueNum Numerator of the price
+     * @param valueDenom Denominator of the price
+     */
+    public void add(@NonNull String commodityUID, @NonNull String currencyUID, long time, long valueNum, long valueDenom) {
+        if (valueNum <= 0 || valueDenom <= 0)
+            return;
+        getSeries(commodityUID, currencyUID).add(time, valueNum, valueDenom);
+        getSeries(currencyUID, commodityUID).add(time, valueDenom, valueNum);
+    }
+
+    private Series getSeries(String commodityUID, String currencyUID) {
+        String key = commodityUID + "/" + currencyUID;
+        Series series = mSeries.get(key);
+        if (series == null) {
+            series = new Series();
+            mSeries.put(key, series);
+        }
+        return series;
+    }
+
+    /**
+     * Returns the price of a commodity pair which was valid at a time.
+     * <p>This is the latest price at or before the time. If there is none, the earliest price is used</p>
+     * @param commodityUID GUID of the commodity which is converted
+     * @param currencyUID GUID of the commodity it is converted to
+     * @param time Time in milliseconds, {@link Long#MAX_VALUE} for the latest price
+     * @return Numerator and denominator of the price, which are both 0 if there is no price for the pair
+     * @see org.gnucash.android.db.adapter.PricesDbAdapter#getPrice(String, String)
+     */
+    @NonNull
+    public Pair<Long, Long> getPrice(@NonNull String commodityUID, @NonNull String currencyUID, long time) {
+        if (commodityUID.equals(currencyUID))
+            return SAME_COMMODITY;
+        Series series = mSeries.get(commodityUID + "/" + currencyUID);
+        if (series == null)
+            return NO_PRICE;
+        int index = series.indexAt(time);
+        return new Pair<>(series.mNums[index], series.mDenoms[index]);
+    }
+
+    /**
+     * Returns the number of prices in the series, not counting the inverse prices
+     */
+    public int size() {
+        int size = 0;
+        for (Series series : mSeries.values()) {
+            size += series.mSize;
+        }
+        return size / 2;
+    }
+}
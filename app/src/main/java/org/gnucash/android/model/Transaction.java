@@ -21,10 +21,6 @@ import android.support.annotation.NonNull;
 
 import org.gnucash.android.BuildConfig;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
-import org.gnucash.android.export.ofx.OfxHelper;
-import org.gnucash.android.model.Account.OfxAccountType;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
 import java.util.ArrayList;
 import java.util.Date;
@@ -464,79 +460,6 @@ public class Transaction extends BaseModel{
         mIsTemplate = isTemplate;
     }
 
-    /**
-	 * Converts transaction to XML DOM corresponding to OFX Statement transaction and
-	 * returns the element node for the transaction.
-	 * The Unique ID of the account is needed in order to properly export double entry transactions
-     * @param doc XML document to which transaction should be added
-     * @param accountUID Unique Identifier of the account which called the method.  @return Element in DOM corresponding to transaction
-     */
-	public Element toOFX(Document doc, String accountUID){
-        Money balance = getBalance(accountUID);
-        TransactionType transactionType = balance.isNegative() ? TransactionType.DEBIT : TransactionType.CREDIT;
-
-        Element transactionNode = doc.createElement(OfxHelper.TAG_STATEMENT_TRANSACTION);
-        Element typeNode = doc.createElement(OfxHelper.TAG_TRANSACTION_TYPE);
-        typeNode.appendChild(doc.createTextNode(transactionType.toString()));
-        transactionNode.appendChild(typeNode);
-
-        Element datePosted = doc.createElement(OfxHelper.TAG_DATE_POSTED);
-        datePosted.appendChild(doc.createTextNode(OfxHelper.getOfxFormattedTime(mTimestamp)));
-        transactionNode.appendChild(datePosted);
-
-        Element dateUser = doc.createElement(OfxHelper.TAG_DATE_USER);
-        dateUser.appendChild(doc.createTextNode(
-                OfxHelper.getOfxFormattedTime(mTimestamp)));
-        transactionNode.appendChild(dateUser);
-
-        Element amount = doc.createElement(OfxHelper.TAG_TRANSACTION_AMOUNT);
-        amount.appendChild(doc.createTextNode(balance.toPlainString()));
-        transactionNode.appendChild(amount);
-
-        Element transID = doc.createElement(OfxHelper.TAG_TRANSACTION_FITID);
-        transID.appendChild(doc.createTextNode(getUID()));
-        transactionNode.appendChild(transID);
-
-        Element name = doc.createElement(OfxHelper.TAG_NAME);
-        name.appendChild(doc.createTextNode(mDescription));
-        transactionNode.appendChild(name);
-
-        if (mNotes != null && mNotes.length() > 0){
-            Element memo = doc.createElement(OfxHelper.TAG_MEMO);
-            memo.appendChild(doc.createTextNode(mNotes));
-            transactionNode.appendChild(memo);
-        }
-
-        if (mSplitList.size() == 2){ //if we have exactly one other split, then treat it like a transfer
-            String transferAccountUID = accountUID;
-            for (Split split : mSplitList) {
-                if (!split.getAccountUID().equals(accountUID)){
-                    transferAccountUID = split.getAccountUID();
-                    break;
-                }
-            }
-            Element bankId = doc.createElement(OfxHelper.TAG_BANK_ID);
-            bankId.appendChild(doc.createTextNode(OfxHelper.APP_ID));
-
-            Element acctId = doc.createElement(OfxHelper.TAG_ACCOUNT_ID);
-            acctId.appendChild(doc.createTextNode(transferAccountUID));
-
-            Element accttype = doc.createElement(OfxHelper.TAG_ACCOUNT_TYPE);
-            AccountsDbAdapter acctDbAdapter = AccountsDbAdapter.getInstance();
-            OfxAccountType ofxAccountType = Account.convertToOfxAccountType(acctDbAdapter.getAccountType(transferAccountUID));
-            accttype.appendChild(doc.createTextNode(ofxAccountType.toString()));
-
-            Element bankAccountTo = doc.createElement(OfxHelper.TAG_BANK_ACCOUNT_TO);
-            bankAccountTo.appendChild(bankId);
-            bankAccountTo.appendChild(acctId);
-            bankAccountTo.appendChild(accttype);
-
-            transactionNode.appendChild(bankAccountTo);
-        }
-
-        return transactionNode;
-	}
-
     /**
      * Returns the GUID of the {@link org.gnucash.android.model.ScheduledAction} which created this transaction
      * @return GUID of scheduled action
@@ -105,7 +105,7 @@ public class TransactionRecorder extends BroadcastReceiver {
 
 		TransactionsDbAdapter.getInstance().addRecord(transaction, DatabaseAdapter.UpdateMethod.insert);
 		
-		WidgetConfigurationActivity.updateAllWidgets(context);
+		WidgetConfigurationActivity.updateChangedWidgets(context);
 	}
 
 }
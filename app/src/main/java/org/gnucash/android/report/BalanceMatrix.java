@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.report;
+
+import android.support.annotation.NonNull;
+
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.ui.report.ReportsActivity.GroupInterval;
+import org.joda.time.LocalDate;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Net amounts of accounts per period, as computed by {@link ReportAggregator}.
+ * <p>The matrix is dense: it has a row for every account with activity in the range,
+ * and a column for every period of the range, including periods without any activity.</p>
+ * <p>Only the properties of the accounts needed by the charts are kept, so that the matrix
+ * can be stored in the {@link ReportCache}</p>
+ */
+public class BalanceMatrix implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final GroupInterval mInterval;
+    private final LocalDate mFirstPeriodStart;
+    private final int mPeriodCount;
+    private final String[] mAccountUIDs;
+    private final String[] mAccountNames;
+    private final int[] mAccountColors;
+    private final AccountType[] mAccountTypes;
+    private final double[][] mAmounts;
+
+    BalanceMatrix(@NonNull GroupInterval interval, @NonNull LocalDate firstPeriodStart, int periodCount,
+                  @NonNull List<Account> accounts, @NonNull double[][] amounts) {
+        mInterval = interval;
+        mFirstPeriodStart = firstPeriodStart;
+        mPeriodCount = periodCount;
+        mAccountUIDs = new String[accounts.size()];
+        mAccountNames = new String[accounts.size()];
+        mAccountColors = new int[accounts.size()];
+        mAccountTypes = new AccountType[accounts.size()];
+        for (int row = 0; row < accounts.size(); row++) {
+            Account account = accounts.get(row);
+            mAccountUIDs[row] = account.getUID();
+            mAccountNames[row] = account.getName();
+            mAccountColors[row] = account.getColor();
+            mAccountTypes[row] = account.getAccountType();
+        }
+        mAmounts = amounts;
+    }
+
+    public GroupInterval getInterval() {
+        return mInterval;
+    }
+
+    /**
+     * Returns the number of periods in the range
+     */
+    public int getPeriodCount() {
+        return mPeriodCount;
+    }
+
+    /**
+     * Returns the first day of a period
+     * @param period Index of the period, starting with 0
+     * @return Date of the first day of the period
+     */
+    public LocalDate getPeriodStart(int period) {
+        return ReportAggregator.plusPeriods(mFirstPeriodStart, mInterval, period);
+    }
+
+    /**
+     * Returns the number of rows. The rows are ordered by the full name of their account
+     */
+    public int getAccountCount() {
+        return mAccountUIDs.length;
+    }
+
+    public String getAccountUID(int row) {
+        return mAccountUIDs[row];
+    }
+
+    public String getAccountName(int row) {
+        return mAccountNames[row];
+    }
+
+    /**
+     * Returns the color of the account of a row, which is {@link Account#DEFAULT_COLOR} if it has none
+     */
+    public int getAccountColor(int row) {
+        return mAccountColors[row];
+    }
+
+    public AccountType getAccountType(int row) {
+        return mAccountTypes[row];
+    }
+
+    /**
+     * Returns the net amounts of an account in each period.
+     * <p>The amounts have the sign of the normal balance of the account type</p>
+     * @param row Index of the account, less than {@link #getAccountCount()}
+     * @return Amounts per period, the array must not be modified
+     */
+    public double[] getRow(int row) {
+        return mAmounts[row];
+    }
+
+    public double get(int row, int period) {
+        return mAmounts[row][period];
+    }
+
+    /**
+     * Returns the total net amounts of all accounts of a type in each period
+     * @param accountType Type of the accounts to add up
+     * @return Amounts per period
+     */
+    public double[] getTotals(@NonNull AccountType accountType) {
+        double[] totals = new double[getPeriodCount()];
+        for (int row = 0; row < mAccountTypes.length; row++) {
+            if (mAccountTypes[row] != accountType)
+                continue;
+            for (int period = 0; period < totals.length; period++) {
+                totals[period] += mAmounts[row][period];
+            }
+        }
+        return totals;
+    }
+}
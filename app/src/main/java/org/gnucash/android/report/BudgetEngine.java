@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.report;
+
+import android.support.annotation.NonNull;
+import android.util.LruCache;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.model.Budget;
+import org.gnucash.android.model.BudgetAmount;
+import org.gnucash.android.model.Money;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes the actual amounts of the budgeted accounts, for comparison with the budget.
+ * <p>The amounts of all accounts of a budget, in the current period and in each period of the
+ * budget, are computed with a single query by {@link AccountsDbAdapter#getAccountBalances(java.util.Collection, long[], long[])}.
+ * The periods are those of {@link Budget#getStartofCurrentPeriod()}, {@link Budget#getStartOfPeriod(int)}
+ * and {@link Budget#getEndOfPeriod(int)}.</p>
+ * <p>The results are cached per budget until the next modification of the book,
+ * which is detected with the data version of {@link ReportCache#getDataVersion(android.database.sqlite.SQLiteDatabase)}</p>
+ */
+public class BudgetEngine {
+    private static final int CACHE_SIZE = 16;
+
+    private static BudgetEngine sInstance;
+
+    private final LruCache<String, Actuals> mCache = new LruCache<>(CACHE_SIZE);
+
+    /**
+     * Actual amounts of the accounts of a budget
+     */
+    public static class Actuals {
+        private final long mVersion;
+        private final long[] mStartTimestamps;
+        private final long[] mEndTimestamps;
+        private final List<BudgetAmount> mBudgetAmounts;
+        private final Map<String, Money[]> mBalances;
+
+        private Actuals(long version, long[] startTimestamps, long[] endTimestamps,
+                        List<BudgetAmount> budgetAmounts, Map<String, Money[]> balances) {
+            mVersion = version;
+            mStartTimestamps = startTimestamps;
+            mEndTimestamps = endTimestamps;
+            mBudgetAmounts = budgetAmounts;
+            mBalances = balances;
+        }
+
+        /**
+         * Returns the compacted budget amounts of the budget
+         * @see Budget#getCompactedBudgetAmounts()
+         */
+        public List<BudgetAmount> getBudgetAmounts() {
+            return mBudgetAmounts;
+        }
+
+        /**
+         * Returns the number of periods of the budget, which are numbered from 1
+         */
+        public int getPeriodCount() {
+            return mStartTimestamps.length - 1;
+        }
+
+        /**
+         * Returns the balance of an account in the current period of the budget, including sub-accounts
+         * @param accountUID GUID of a budgeted account
+         * @return Balance in the currency of the account
+         */
+        public Money getCurrentPeriodBalance(@NonNull String accountUID) {
+            return getPeriodBalance(accountUID, 0);
+        }
+
+        /**
+         * Returns the balance of an account in a period of the budget, including sub-accounts
+         * @param accountUID GUID of a budgeted account
+         * @param periodNum Number of the period, from 1 to {@link #getPeriodCount()}
+         * @return Balance in the currency of the account
+         */
+        public Money getPeriodBalance(@NonNull String accountUID, int periodNum) {
+            Money[] balances = mBalances.get(accountUID);
+            return balances == null ? Money.getZeroInstance() : balances[periodNum];
+        }
+
+        /**
+         * Returns the sum of the balances of the budget amounts in the current period
+         * <p>Accounts in other currencies are added up without conversion</p>
+         */
+        public BigDecimal getCurrentPeriodTotal() {
+            BigDecimal total = BigDecimal.ZERO;
+            for (BudgetAmount budgetAmount : mBudgetAmounts) {
+                total = total.add(getCurrentPeriodBalance(budgetAmount.getAccountUID()).asBigDecimal());
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Returns the engine of the app
+     */
+    public static synchronized BudgetEngine getInstance() {
+        if (sInstance == null) {
+            sInstance = new BudgetEngine();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the actual amounts of the accounts of a budget, computing them if the book has changed
+     * @param budget Budget with its budget amounts
+     * @return Actual amounts of the budget
+     */
+    public Actuals getActuals(@NonNull Budget budget) {
+        return getActuals(budget, ReportCache.getDataVersion(GnuCashApplication.getActiveDb()));
+    }
+
+    /**
+     * Returns the actual amounts of the accounts of a budget, computing them if the book has changed
+     * <p>Callers which get the actuals of several budgets at once, like lists, can read the data version
+     * once for all of them</p>
+     * @param budget Budget with its budget amounts
+     * @param version Data version of the active book, as returned by {@link ReportCache#getDataVersion(android.database.sqlite.SQLiteDatabase)}
+     * @return Actual amounts of the budget
+     */
+    public Actuals getActuals(@NonNull Budget budget, long version) {
+        int budgetPeriods = (int) budget.getNumberOfPeriods();
+        budgetPeriods = budgetPeriods == 0 ? 12 : budgetPeriods;
+        int periods = Math.max(budget.getRecurrence().getNumberOfPeriods(budgetPeriods), 0);
+
+        // the current period comes first, followed by the periods of the budget
+        long[] startTimestamps = new long[periods + 1];
+        long[] endTimestamps = new long[periods + 1];
+        startTimestamps[0] = budget.getStartofCurrentPeriod();
+        endTimestamps[0] = budget.getEndOfCurrentPeriod();
+        for (int periodNum = 1; periodNum <= periods; periodNum++) {
+            startTimestamps[periodNum] = budget.getStartOfPeriod(periodNum);
+            endTimestamps[periodNum] = budget.getEndOfPeriod(periodNum);
+        }
+
+        Actuals actuals = mCache.get(budget.getUID());
+        if (actuals != null && version != -1 && actuals.mVersion == version
+                && Arrays.equals(actuals.mStartTimestamps, startTimestamps)
+                && Arrays.equals(actuals.mEndTimestamps, endTimestamps)) {
+            return actuals;
+        }
+
+        List<BudgetAmount> budgetAmounts = budget.getCompactedBudgetAmounts();
+        Set<String> accountUIDs = new HashSet<>();
+        for (BudgetAmount budgetAmount : budgetAmounts) {
+            accountUIDs.add(budgetAmount.getAccountUID());
+        }
+        Map<String, Money[]> balances = AccountsDbAdapter.getInstance()
+                .getAccountBalances(accountUIDs, startTimestamps, endTimestamps);
+        actuals = new Actuals(version, startTimestamps, endTimestamps, budgetAmounts, balances);
+        if (version != -1)
+            mCache.put(budget.getUID(), actuals);
+        return actuals;
+    }
+}
@@ -0,0 +1,618 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.report;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.model.TransactionType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Columnar copy of the splits of a book in memory, for computing reports without querying the database.
+ * <p>The snapshot is built with a single query, and keeps the splits sorted by the time of their
+ * transaction in primitive arrays: the quantity with the sign of debits, its denominator, the index
+ * of the account, the time and the index of the commodity of the account. An index of the splits of
+ * each account is built when it is first needed.</p>
+ * <p>The snapshot is tagged with the data version of the database, see {@link ReportCache#getDataVersion(SQLiteDatabase)},
+ * and rebuilt when the book has been modified otherwise, including edits and deletions of splits.
+ * There is no snapshot of a database in write-ahead logging mode, which has no data version. New transactions are appended to it by
+ * {@link org.gnucash.android.db.adapter.TransactionsDbAdapter}, so that adding a transaction does not
+ * require a rebuild.</p>
+ * <p>Large scans are split across a thread per core. Template transactions are not included.</p>
+ */
+public class LedgerSnapshot {
+    private static final String LOG_TAG = "LedgerSnapshot";
+
+    /**
+     * Minimum number of splits for which a scan is split across threads
+     */
+    private static final int PARALLEL_THRESHOLD = 16 * 1024;
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private static final Object sLock = new Object();
+    private static LedgerSnapshot sInstance;
+    private static ExecutorService sExecutor;
+
+    private final String mDatabasePath;
+    private long mVersion;
+
+    private final Map<String, Integer> mAccountIndexes = new HashMap<>();
+    private final List<String> mAccountUIDs = new ArrayList<>();
+    private final List<AccountType> mAccountTypes = new ArrayList<>();
+    private short[] mAccountCommodities = new short[16];
+    /**
+     * Denominator of most quantities of each account, 0 if the account has no splits
+     */
+    private long[] mAccountDenoms = new long[16];
+    private final Map<String, Short> mCommodityIndexes = new HashMap<>();
+    private final List<String> mCommodityUIDs = new ArrayList<>();
+
+    private int mSize;
+    private long[] mTimes = new long[1024];
+    private long[] mNums = new long[1024];
+    private long[] mDenoms = new long[1024];
+    private int[] mAccounts = new int[1024];
+    private short[] mCommodities = new short[1024];
+
+    /**
+     * Splits of each account, in the order of the snapshot: those of account {@code a} are from
+     * {@code mAccountOffsets[a]} to {@code mAccountOffsets[a + 1]}. {@code null} until it is needed
+     */
+    private int[] mAccountOffsets;
+    private int[] mAccountSplits;
+
+    /**
+     * Computes a partial result from a range of splits
+     */
+    private interface Scan<T> {
+        T compute(int from, int to);
+
+        T merge(T left, T right);
+    }
+
+    /**
+     * Sums of the quantities per account and bucket. Quantities with the usual denominator of the
+     * account are added up exactly, the others as floating point numbers
+     */
+    private static class Sums {
+        final long[] mNums;
+        final double[] mRemainders;
+
+        Sums(int size) {
+            mNums = new long[size];
+            mRemainders = new double[size];
+        }
+
+        Sums add(Sums other) {
+            for (int i = 0; i < mNums.length; i++) {
+                mNums[i] += other.mNums[i];
+                mRemainders[i] += other.mRemainders[i];
+            }
+            return this;
+        }
+    }
+
+    private LedgerSnapshot(String databasePath, long version) {
+        mDatabasePath = databasePath;
+        mVersion = version;
+    }
+
+    /**
+     * Returns the snapshot of a book, building it if the book has been modified since it was built
+     * <p>This method may take long, so it should not be called on the main thread</p>
+     * @param db Database of the book
+     * @return Snapshot of the book, or {@code null} if the data version of the database is not available
+     * or a transaction of the database is in progress
+     */
+    @Nullable
+    public static LedgerSnapshot get(@NonNull SQLiteDatabase db) {
+        // changes which have not been committed yet are not counted in the data version
+        long version = db.inTransaction() ? -1 : ReportCache.getDataVersion(db);
+        if (version == -1)
+            return null;
+        synchronized (sLock) {
+            if (sInstance != null && sInstance.mDatabasePath.equals(db.getPath()) && sInstance.mVersion == version)
+                return sInstance;
+        }
+        LedgerSnapshot snapshot = build(db, version);
+        // the snapshot may include a modification committed while building it, which could be appended twice
+        if (ReportCache.getDataVersion(db) != version)
+            return snapshot;
+        synchronized (sLock) {
+            sInstance = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns {@code true} if a snapshot of a book is in memory, so that new transactions should be appended to it
+     * @param db Database of the book
+     */
+    public static boolean isLoaded(@NonNull SQLiteDatabase db) {
+        synchronized (sLock) {
+            return sInstance != null && sInstance.mDatabasePath.equals(db.getPath());
+        }
+    }
+
+    /**
+     * Appends a new transaction to the snapshot of its book, after it has been committed.
+     * <p>The snapshot is only kept if the transaction is the only modification of the book since
+     * the snapshot was built, otherwise it is rebuilt the next time it is needed</p>
+     * @param db Database of the book
+     * @param transaction Transaction which did not exist before it was committed
+     */
+    public static void append(@NonNull SQLiteDatabase db, @NonNull Transaction transaction) {
+        synchronized (sLock) {
+            if (sInstance == null || !sInstance.mDatabasePath.equals(db.getPath()))
+                return;
+            // the data version is incremented once by each committed transaction of the database,
+            // since the books are kept in rollback journal mode. Without it, the snapshot is discarded
+            long version = db.inTransaction() ? -1 : ReportCache.getDataVersion(db);
+            if (version == -1 || version != sInstance.mVersion + 1 || !sInstance.appendSplits(transaction)) {
+                Log.d(LOG_TAG, "Discarding the snapshot, which is out of sync");
+                sInstance = null;
+                return;
+            }
+            sInstance.mVersion = version;
+        }
+    }
+
+    private static LedgerSnapshot build(SQLiteDatabase db, long version) {
+        long startTime = System.nanoTime();
+        LedgerSnapshot snapshot = new LedgerSnapshot(db.getPath(), version);
+        Cursor cursor = db.query(AccountEntry.TABLE_NAME,
+                new String[]{AccountEntry.COLUMN_UID, AccountEntry.COLUMN_TYPE, AccountEntry.COLUMN_COMMODITY_UID},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                snapshot.addAccount(cursor.getString(0), AccountType.valueOf(cursor.getString(1)), cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        cursor = db.rawQuery("SELECT " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP + ", "
+                + "CASE WHEN " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " ELSE - "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " END, "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM + ", "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID
+                + " FROM " + SplitEntry.TABLE_NAME
+                + " INNER JOIN " + TransactionEntry.TABLE_NAME + " ON "
+                + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " = "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID
+                + " WHERE " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0"
+                + " ORDER BY " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP, null);
+        try {
+            while (cursor.moveToNext()) {
+                Integer account = snapshot.mAccountIndexes.get(cursor.getString(3));
+                if (account != null)
+                    snapshot.insertSplit(snapshot.mSize, cursor.getLong(0), cursor.getLong(1), cursor.getLong(2), account);
+            }
+        } finally {
+            cursor.close();
+        }
+        Log.d(LOG_TAG, String.format("Built snapshot of %d splits of %d accounts in %d ms", snapshot.mSize,
+                snapshot.mAccountUIDs.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+        return snapshot;
+    }
+
+    private void addAccount(String accountUID, AccountType accountType, String commodityUID) {
+        Short commodity = mCommodityIndexes.get(commodityUID);
+        if (commodity == null) {
+            commodity = (short) mCommodityUIDs.size();
+            mCommodityIndexes.put(commodityUID, commodity);
+            mCommodityUIDs.add(commodityUID);
+        }
+        int account = mAccountUIDs.size();
+        if (account == mAccountCommodities.length) {
+            mAccountCommodities = Arrays.copyOf(mAccountCommodities, account * 2);
+            mAccountDenoms = Arrays.copyOf(mAccountDenoms, account * 2);
+        }
+        mAccountIndexes.put(accountUID, account);
+        mAccountUIDs.add(accountUID);
+        mAccountTypes.add(accountType);
+        mAccountCommodities[account] = commodity;
+    }
+
+    /**
+     * Inserts a split at a position, which keeps the splits sorted by time
+     */
+    private void insertSplit(int index, long time, long num, long denom, int account) {
+        if (mSize == mTimes.length) {
+            int capacity = mSize * 2;
+            mTimes = Arrays.copyOf(mTimes, capacity);
+            mNums = Arrays.copyOf(mNums, capacity);
+            mDenoms = Arrays.copyOf(mDenoms, capacity);
+            mAccounts = Arrays.copyOf(mAccounts, capacity);
+            mCommodities = Arrays.copyOf(mCommodities, capacity);
+        }
+        if (index < mSize) {
+            System.arraycopy(mTimes, index, mTimes, index + 1, mSize - index);
+            System.arraycopy(mNums, index, mNums, index + 1, mSize - index);
+            System.arraycopy(mDenoms, index, mDenoms, index + 1, mSize - index);
+            System.arraycopy(mAccounts, index, mAccounts, index + 1, mSize - index);
+            System.arraycopy(mCommodities, index, mCommodities, index + 1, mSize - index);
+        }
+        mTimes[index] = time;
+        mNums[index] = num;
+        mDenoms[index] = denom;
+        mAccounts[index] = account;
+        mCommodities[index] = mAccountCommodities[account];
+        if (mAccountDenoms[account] == 0)
+            mAccountDenoms[account] = denom;
+        mSize++;
+        mAccountOffsets = null;
+    }
+
+    /**
+     * Inserts the splits of a transaction after the splits with the same time
+     * @return {@code false} if an account of the splits is not in the snapshot
+     */
+    private synchronized boolean appendSplits(Transaction transaction) {
+        if (transaction.isTemplate())
+            return true;
+        for (Split split : transaction.getSplits()) {
+            if (!mAccountIndexes.containsKey(split.getAccountUID()))
+                return false;
+        }
+        long time = transaction.getTimeMillis();
+        int index = lowerBound(time == Long.MAX_VALUE ? time : time + 1);
+        for (Split split : transaction.getSplits()) {
+            long num = split.getQuantity().getNumerator();
+            insertSplit(index++, time, split.getType() == TransactionType.DEBIT ? num : -num,
+                    split.getQuantity().getDenominator(), mAccountIndexes.get(split.getAccountUID()));
+        }
+        return true;
+    }
+
+    /**
+     * Returns the index of the first split at or after a time
+     */
+    private int lowerBound(long time) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mTimes[middle] < time)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    public int getSplitCount() {
+        return mSize;
+    }
+
+    /**
+     * Returns the time of the earliest split, or -1 if there are no splits
+     */
+    public synchronized long getFirstTime() {
+        return mSize == 0 ? -1 : mTimes[0];
+    }
+
+    /**
+     * Returns the time of the latest split, or -1 if there are no splits
+     */
+    public synchronized long getLastTime() {
+        return mSize == 0 ? -1 : mTimes[mSize - 1];
+    }
+
+    public int getAccountCount() {
+        return mAccountUIDs.size();
+    }
+
+    /**
+     * Returns the index of an account in the results of the snapshot
+     * @return Index of the account, or -1 if it is not in the snapshot
+     */
+    public int getAccountIndex(@NonNull String accountUID) {
+        Integer index = mAccountIndexes.get(accountUID);
+        return index == null ? -1 : index;
+    }
+
+    public String getAccountUID(int account) {
+        return mAccountUIDs.get(account);
+    }
+
+    public AccountType getAccountType(int account) {
+        return mAccountTypes.get(account);
+    }
+
+    /**
+     * Returns the GUID of the commodity of an account
+     */
+    public String getAccountCommodityUID(int account) {
+        return mCommodityUIDs.get(mAccountCommodities[account]);
+    }
+
+    public int getCommodityCount() {
+        return mCommodityUIDs.size();
+    }
+
+    public String getCommodityUID(int commodity) {
+        return mCommodityUIDs.get(commodity);
+    }
+
+    /**
+     * Adds up the quantities of the splits per account and time bucket
+     * @param accountFilter Accounts to include by index, or {@code null} for all accounts
+     * @param boundaries Bounds of the buckets in ascending order: bucket {@code i} contains the
+     *                   splits from {@code boundaries[i]} inclusive to {@code boundaries[i + 1]} exclusive
+     * @return Sums by account index and bucket, with the sign of debits and in the commodity of the account
+     */
+    public synchronized double[][] sumByBucket(@Nullable final boolean[] accountFilter, @NonNull final long[] boundaries) {
+        final int bucketCount = boundaries.length - 1;
+        final int accountCount = getAccountCount();
+        double[][] result = new double[accountCount][Math.max(bucketCount, 0)];
+        if (bucketCount <= 0)
+            return result;
+
+        final long[] times = mTimes;
+        final long[] nums = mNums;
+        final long[] denoms = mDenoms;
+        final int[] accounts = mAccounts;
+        final long[] accountDenoms = mAccountDenoms;
+        Sums sums = scan(lowerBound(boundaries[0]), lowerBound(boundaries[bucketCount]), new Scan<Sums>() {
+            @Override
+            public Sums compute(int from, int to) {
+                Sums sums = new Sums(accountCount * bucketCount);
+                int bucket = 0;
+                for (int i = from; i < to; i++) {
+                    while (times[i] >= boundaries[bucket + 1]) {
+                        bucket++;
+                    }
+                    int account = accounts[i];
+                    if (accountFilter != null && !accountFilter[account])
+                        continue;
+                    int cell = account * bucketCount + bucket;
+                    if (denoms[i] == accountDenoms[account])
+                        sums.mNums[cell] += nums[i];
+                    else
+                        sums.mRemainders[cell] += (double) nums[i] / denoms[i];
+                }
+                return sums;
+            }
+
+            @Override
+            public Sums merge(Sums left, Sums right) {
+                return left.add(right);
+            }
+        });
+        for (int account = 0; account < accountCount; account++) {
+            for (int bucket = 0; bucket < bucketCount; bucket++) {
+                int cell = account * bucketCount + bucket;
+                if (sums.mNums[cell] != 0)
+                    result[account][bucket] = (double) sums.mNums[cell] / accountDenoms[account];
+                result[account][bucket] += sums.mRemainders[cell];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds up the quantities of the splits of each account in a time range
+     * @param accountFilter Accounts to include by index, or {@code null} for all accounts
+     * @param startTime Start of the range, inclusive
+     * @param endTime End of the range, exclusive
+     * @return Sums by account index, with the sign of debits and in the commodity of the account
+     */
+    public double[] sumByAccount(@Nullable boolean[] accountFilter, long startTime, long endTime) {
+        double[][] sums = sumByBucket(accountFilter, new long[]{startTime, endTime});
+        double[] totals = new double[sums.length];
+        for (int account = 0; account < sums.length; account++) {
+            totals[account] = sums[account][0];
+        }
+        return totals;
+    }
+
+    /**
+     * Adds up the quantities of the splits in a time range per commodity
+     * @param accountFilter Accounts to include by index, or {@code null} for all accounts
+     * @param startTime Start of the range, inclusive
+     * @param endTime End of the range, exclusive
+     * @return Sums by commodity index, with the sign of debits
+     */
+    public synchronized double[] sumByCommodity(@Nullable final boolean[] accountFilter, long startTime, long endTime) {
+        final int commodityCount = getCommodityCount();
+        final long[] nums = mNums;
+        final long[] denoms = mDenoms;
+        final int[] accounts = mAccounts;
+        final short[] commodities = mCommodities;
+        return scan(lowerBound(startTime), lowerBound(endTime), new Scan<double[]>() {
+            @Override
+            public double[] compute(int from, int to) {
+                double[] sums = new double[commodityCount];
+                for (int i = from; i < to; i++) {
+                    if (accountFilter == null || accountFilter[accounts[i]])
+                        sums[commodities[i]] += (double) nums[i] / denoms[i];
+                }
+                return sums;
+            }
+
+            @Override
+            public double[] merge(double[] left, double[] right) {
+                for (int i = 0; i < left.length; i++) {
+                    left[i] += right[i];
+                }
+                return left;
+            }
+        });
+    }
+
+    /**
+     * Returns the accounts with the largest amounts in a time range
+     * @param accountFilter Accounts to include by index, or {@code null} for all accounts
+     * @param startTime Start of the range, inclusive
+     * @param endTime End of the range, exclusive
+     * @param count Maximum number of accounts to return
+     * @return Indexes of the accounts with non-zero amounts, by decreasing absolute amount
+     */
+    public int[] getTopAccounts(@Nullable boolean[] accountFilter, long startTime, long endTime, int count) {
+        final double[] totals = sumByAccount(accountFilter, startTime, endTime);
+        List<Integer> accounts = new ArrayList<>();
+        for (int account = 0; account < totals.length; account++) {
+            if (totals[account] != 0)
+                accounts.add(account);
+        }
+        Collections.sort(accounts, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return Double.compare(Math.abs(totals[rhs]), Math.abs(totals[lhs]));
+            }
+        });
+        int[] top = new int[Math.min(count, accounts.size())];
+        for (int i = 0; i < top.length; i++) {
+            top[i] = accounts.get(i);
+        }
+        return top;
+    }
+
+    /**
+     * Adds up the quantities of the splits of a single account in a time range, using the index of the account
+     * @param account Index of the account
+     * @param startTime Start of the range, inclusive
+     * @param endTime End of the range, exclusive
+     * @return Sum with the sign of debits, in the commodity of the account
+     */
+    public synchronized double getAccountTotal(int account, long startTime, long endTime) {
+        buildAccountIndex();
+        int from = mAccountOffsets[account];
+        int to = mAccountOffsets[account + 1];
+        // the splits of the account are sorted by time as well
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mTimes[mAccountSplits[middle]] < startTime)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        long num = 0;
+        double remainder = 0;
+        for (int i = low; i < to && mTimes[mAccountSplits[i]] < endTime; i++) {
+            int split = mAccountSplits[i];
+            if (mDenoms[split] == mAccountDenoms[account])
+                num += mNums[split];
+            else
+                remainder += (double) mNums[split] / mDenoms[split];
+        }
+        return num == 0 ? remainder : (double) num / mAccountDenoms[account] + remainder;
+    }
+
+    private void buildAccountIndex() {
+        if (mAccountOffsets != null)
+            return;
+        int accountCount = getAccountCount();
+        int[] offsets = new int[accountCount + 1];
+        for (int i = 0; i < mSize; i++) {
+            offsets[mAccounts[i] + 1]++;
+        }
+        for (int account = 0; account < accountCount; account++) {
+            offsets[account + 1] += offsets[account];
+        }
+        int[] next = Arrays.copyOf(offsets, accountCount);
+        int[] splits = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            splits[next[mAccounts[i]]++] = i;
+        }
+        mAccountSplits = splits;
+        mAccountOffsets = offsets;
+    }
+
+    /**
+     * Computes a result over a range of splits, split across threads if the range is large
+     */
+    private static <T> T scan(int from, int to, final Scan<T> scan) {
+        int count = to - from;
+        if (count < PARALLEL_THRESHOLD || PARALLELISM < 2)
+            return scan.compute(from, to);
+
+        int chunkSize = (count + PARALLELISM - 1) / PARALLELISM;
+        List<Callable<T>> tasks = new ArrayList<>(PARALLELISM);
+        for (int chunkStart = from; chunkStart < to; chunkStart += chunkSize) {
+            final int start = chunkStart;
+            final int end = Math.min(chunkStart + chunkSize, to);
+            tasks.add(new Callable<T>() {
+                @Override
+                public T call() {
+                    return scan.compute(start, end);
+                }
+            });
+        }
+        try {
+            T result = null;
+            for (Future<T> future : getExecutor().invokeAll(tasks)) {
+                result = result == null ? future.get() : scan.merge(result, future.get());
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newFixedThreadPool(PARALLELISM, new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull final Runnable runnable) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "LedgerScan");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.report;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.crashlytics.android.Crashlytics;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Money;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregates of a book persisted in the files directory of the app, so that the first balances
+ * and reports after a restart of the process do not have to add up all the splits again.
+ * <p>The file contains the account tree with the balance of each account including its
+ * sub-accounts, and the net amount of each account per month. It is memory-mapped when it is
+ * first needed, and the monthly amounts are read from the mapping as they are accessed.</p>
+ * <p>The file is versioned by the time of the last modification of a transaction, see
+ * {@link TransactionsDbAdapter#getTimestampOfLastModification()}, and by the data version of the
+ * database, see {@link ReportCache#getDataVersion(SQLiteDatabase)}, since deleting a transaction does
+ * not change the time of the last modification. It is discarded by the first modification of the book,
+ * and saved again after the balances have been computed from the database. Without a data version,
+ * when the database uses write-ahead logging, the file is neither used nor saved.</p>
+ */
+public class LedgerSnapshotFile {
+    private static final String LOG_TAG = "LedgerSnapshotFile";
+
+    /**
+     * Identifies the files, "GCLS" in ASCII
+     */
+    private static final int MAGIC = 0x47434c53;
+    private static final int FORMAT_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Object sLock = new Object();
+    private static LedgerSnapshotFile sInstance;
+    private static ExecutorService sExecutor;
+
+    private final String mDatabasePath;
+    private final long mDataVersion;
+    private final String mTimeZoneID;
+    private final int mFirstMonth;
+    private final int mMonthCount;
+
+    private final Map<String, Integer> mAccountIndexes = new HashMap<>();
+    private final List<String> mAccountUIDs = new ArrayList<>();
+    private final int[] mParentIndexes;
+    private final AccountType[] mAccountTypes;
+    private final String[] mCurrencyCodes;
+    private final BigDecimal[] mBalances;
+
+    /**
+     * Mapping of the file, positioned at the monthly amounts
+     */
+    private final ByteBuffer mMonthlyAmounts;
+
+    private LedgerSnapshotFile(String databasePath, MappedByteBuffer buffer) {
+        mDatabasePath = databasePath;
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION)
+            throw new IllegalArgumentException("Unsupported snapshot file");
+        buffer.getLong(); // time of the last modification, checked by load()
+        mDataVersion = buffer.getLong();
+        mTimeZoneID = readString(buffer);
+        mFirstMonth = buffer.getInt();
+        mMonthCount = buffer.getInt();
+
+        int accountCount = buffer.getInt();
+        mParentIndexes = new int[accountCount];
+        mAccountTypes = new AccountType[accountCount];
+        mCurrencyCodes = new String[accountCount];
+        mBalances = new BigDecimal[accountCount];
+        for (int account = 0; account < accountCount; account++) {
+            String accountUID = readString(buffer);
+            mAccountIndexes.put(accountUID, account);
+            mAccountUIDs.add(accountUID);
+            mParentIndexes[account] = buffer.getInt();
+            mAccountTypes[account] = AccountType.valueOf(readString(buffer));
+            mCurrencyCodes[account] = readString(buffer);
+            long unscaledBalance = buffer.getLong();
+            mBalances[account] = BigDecimal.valueOf(unscaledBalance, buffer.getInt());
+        }
+        mMonthlyAmounts = buffer.slice();
+        if (mMonthlyAmounts.remaining() != (long) accountCount * mMonthCount * 8)
+            throw new IllegalArgumentException("Truncated snapshot file");
+    }
+
+    /**
+     * Returns the persisted aggregates of a book, if they are up to date.
+     * <p>The file is mapped the first time, and checked against the time of the last modification.
+     * Afterwards, it is used until the data version of the database changes</p>
+     * @param db Database of the book
+     * @return Aggregates of the book, or {@code null} if there is no file or the book has been modified since
+     */
+    @Nullable
+    public static LedgerSnapshotFile get(@NonNull SQLiteDatabase db) {
+        // changes which have not been committed yet are not counted in the data version
+        long version = db.inTransaction() ? -1 : ReportCache.getDataVersion(db);
+        if (version == -1)
+            return null;
+        synchronized (sLock) {
+            if (sInstance != null && sInstance.mDatabasePath.equals(db.getPath())) {
+                if (sInstance.mDataVersion == version)
+                    return sInstance;
+                Log.d(LOG_TAG, "Discarding the snapshot file, the book has been modified");
+                sInstance = null;
+                getFile(db).delete();
+                return null;
+            }
+            sInstance = load(db, version);
+            return sInstance;
+        }
+    }
+
+    @Nullable
+    private static LedgerSnapshotFile load(SQLiteDatabase db, long version) {
+        File file = getFile(db);
+        if (!file.exists())
+            return null;
+        long startTime = System.nanoTime();
+        try {
+            MappedByteBuffer buffer;
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                // the mapping remains valid after closing the file
+                buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+            } finally {
+                randomAccessFile.close();
+            }
+            long lastModification = buffer.getLong(8);
+            LedgerSnapshotFile snapshotFile = new LedgerSnapshotFile(db.getPath(), buffer);
+            if (snapshotFile.mDataVersion != version || lastModification != getLastModification(db)) {
+                Log.d(LOG_TAG, "Discarding the snapshot file, the book has been modified");
+                file.delete();
+                return null;
+            }
+            Log.d(LOG_TAG, String.format("Mapped snapshot file of %d accounts in %d ms", snapshotFile.mAccountUIDs.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+            return snapshotFile;
+        } catch (IOException | RuntimeException e) {
+            Log.e(LOG_TAG, "Could not read the snapshot file: " + e.getMessage());
+            Crashlytics.logException(e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Saves the aggregates of a book in the background, unless they are already saved
+     * @param db Database of the book
+     */
+    public static void saveAsync(@NonNull final SQLiteDatabase db) {
+        synchronized (sLock) {
+            if (sInstance != null && sInstance.mDatabasePath.equals(db.getPath()))
+                return;
+            if (sExecutor == null)
+                sExecutor = Executors.newSingleThreadExecutor();
+        }
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    save(db);
+                } catch (IOException | RuntimeException e) {
+                    Log.e(LOG_TAG, "Could not save the snapshot file: " + e.getMessage());
+                    Crashlytics.logException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Computes the aggregates of a book and saves them on the calling thread, unless they are already
+     * saved or the book is modified meanwhile
+     * @param db Database of the book
+     */
+    public static void save(@NonNull SQLiteDatabase db) throws IOException {
+        long version = db.inTransaction() ? -1 : ReportCache.getDataVersion(db);
+        if (version == -1 || get(db) != null)
+            return;
+        long startTime = System.nanoTime();
+        long lastModification = getLastModification(db);
+        Map<String, Money> balances = new AccountsDbAdapter(db).getAccountBalances(-1, -1);
+        LedgerSnapshot snapshot = LedgerSnapshot.get(db);
+        if (snapshot == null)
+            return;
+
+        DateTimeZone timeZone = DateTimeZone.getDefault();
+        int firstMonth = 0;
+        int monthCount = 0;
+        double[][] monthlyAmounts = new double[snapshot.getAccountCount()][0];
+        if (snapshot.getSplitCount() > 0) {
+            LocalDate firstMonthStart = new LocalDate(snapshot.getFirstTime(), timeZone).withDayOfMonth(1);
+            firstMonth = getMonth(firstMonthStart);
+            monthCount = getMonth(new LocalDate(snapshot.getLastTime(), timeZone)) - firstMonth + 1;
+            long[] boundaries = new long[monthCount + 1];
+            for (int month = 0; month <= monthCount; month++) {
+                boundaries[month] = firstMonthStart.plusMonths(month).toDateTimeAtStartOfDay(timeZone).getMillis();
+            }
+            monthlyAmounts = snapshot.sumByBucket(null, boundaries);
+        }
+
+        Map<String, Integer> accountIndexes = new HashMap<>();
+        List<String> accountUIDs = new ArrayList<>();
+        List<String> parentUIDs = new ArrayList<>();
+        List<String> accountTypes = new ArrayList<>();
+        List<String> currencyCodes = new ArrayList<>();
+        Cursor cursor = db.query(AccountEntry.TABLE_NAME,
+                new String[]{AccountEntry.COLUMN_UID, AccountEntry.COLUMN_PARENT_ACCOUNT_UID,
+                        AccountEntry.COLUMN_TYPE, AccountEntry.COLUMN_CURRENCY},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                accountIndexes.put(cursor.getString(0), accountUIDs.size());
+                accountUIDs.add(cursor.getString(0));
+                parentUIDs.add(cursor.getString(1));
+                accountTypes.add(cursor.getString(2));
+                currencyCodes.add(cursor.getString(3));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        File file = getFile(db);
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeLong(lastModification);
+            output.writeLong(version);
+            writeString(output, timeZone.getID());
+            output.writeInt(firstMonth);
+            output.writeInt(monthCount);
+            output.writeInt(accountUIDs.size());
+            for (int account = 0; account < accountUIDs.size(); account++) {
+                writeString(output, accountUIDs.get(account));
+                Integer parentIndex = parentUIDs.get(account) == null ? null : accountIndexes.get(parentUIDs.get(account));
+                output.writeInt(parentIndex == null ? -1 : parentIndex);
+                writeString(output, accountTypes.get(account));
+                writeString(output, currencyCodes.get(account));
+                Money balance = balances.get(accountUIDs.get(account));
+                BigDecimal amount = balance == null ? BigDecimal.ZERO : balance.asBigDecimal();
+                BigInteger unscaledAmount = amount.unscaledValue();
+                if (unscaledAmount.bitLength() > 63)
+                    throw new IOException("Balance out of range: " + amount);
+                output.writeLong(unscaledAmount.longValue());
+                output.writeInt(amount.scale());
+            }
+            for (int account = 0; account < accountUIDs.size(); account++) {
+                int index = snapshot.getAccountIndex(accountUIDs.get(account));
+                for (int month = 0; month < monthCount; month++) {
+                    output.writeDouble(index == -1 ? 0 : monthlyAmounts[index][month]);
+                }
+            }
+        } finally {
+            output.close();
+        }
+
+        // the aggregates are discarded if the book has been modified while computing them
+        if (ReportCache.getDataVersion(db) != version || !tempFile.renameTo(file)) {
+            tempFile.delete();
+            return;
+        }
+        Log.d(LOG_TAG, String.format("Saved snapshot file of %d accounts and %d months in %d ms", accountUIDs.size(),
+                monthCount, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+    }
+
+    private static File getFile(SQLiteDatabase db) {
+        // the database of each book is named after the book
+        return new File(GnuCashApplication.getAppContext().getFilesDir(),
+                new File(db.getPath()).getName() + ".snapshot");
+    }
+
+    private static long getLastModification(SQLiteDatabase db) {
+        return new TransactionsDbAdapter(db, new SplitsDbAdapter(db)).getTimestampOfLastModification().getTime();
+    }
+
+    /**
+     * Returns a number identifying the month of a date. The months are numbered consecutively
+     */
+    private static int getMonth(LocalDate date) {
+        return date.getYear() * 12 + date.getMonthOfYear() - 1;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Returns the data version of the book the aggregates were computed from
+     */
+    public long getDataVersion() {
+        return mDataVersion;
+    }
+
+    /**
+     * Returns the ID of the time zone the months were computed in
+     */
+    public String getTimeZoneID() {
+        return mTimeZoneID;
+    }
+
+    /**
+     * Returns the index of an account in the file
+     * @return Index of the account, or -1 if it is not in the file
+     */
+    public int getAccountIndex(@NonNull String accountUID) {
+        Integer index = mAccountIndexes.get(accountUID);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the GUID of the parent of an account, or {@code null} for the root account
+     */
+    @Nullable
+    public String getParentAccountUID(int account) {
+        int parentIndex = mParentIndexes[account];
+        return parentIndex == -1 ? null : mAccountUIDs.get(parentIndex);
+    }
+
+    public AccountType getAccountType(int account) {
+        return mAccountTypes[account];
+    }
+
+    /**
+     * Returns the net amount of the splits of an account in a month
+     * @param account Index of the account
+     * @param date Date in the month, in the time zone of the file
+     * @return Amount with the sign of debits, in the commodity of the account
+     */
+    public double getMonthlyAmount(int account, @NonNull LocalDate date) {
+        int month = getMonth(date) - mFirstMonth;
+        if (month < 0 || month >= mMonthCount)
+            return 0;
+        return mMonthlyAmounts.getDouble((account * mMonthCount + month) * 8);
+    }
+
+    /**
+     * Returns the balances of all accounts, as computed by {@link AccountsDbAdapter#getAccountBalances(long, long)}
+     * @param db Database of the book, to look up the currencies of the accounts
+     * @return Balances of all accounts including their sub-accounts by GUID, each in the currency of the account
+     */
+    public Map<String, Money> getAccountBalances(@NonNull SQLiteDatabase db) {
+        CommoditiesDbAdapter commoditiesDbAdapter = new CommoditiesDbAdapter(db);
+        Map<String, Commodity> commodities = new HashMap<>();
+        Map<String, Money> balances = new HashMap<>();
+        for (int account = 0; account < mAccountUIDs.size(); account++) {
+            Commodity commodity = commodities.get(mCurrencyCodes[account]);
+            if (commodity == null) {
+                commodity = commoditiesDbAdapter.getCommodity(mCurrencyCodes[account]);
+                commodities.put(mCurrencyCodes[account], commodity);
+            }
+            balances.put(mAccountUIDs.get(account), new Money(mBalances[account], commodity));
+        }
+        return balances;
+    }
+}
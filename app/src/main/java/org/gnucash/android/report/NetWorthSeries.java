@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.report;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.Pair;
+
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.CommodityEntry;
+import org.gnucash.android.db.DatabaseSchema.NetWorthCheckpointEntry;
+import org.gnucash.android.db.DatabaseSchema.NetWorthStateEntry;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.db.adapter.PricesDbAdapter;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.PriceSeries;
+import org.joda.time.LocalDate;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Daily balances of the account types, for the net worth over time.
+ * <p>The balances are persisted as checkpoints in the {@link NetWorthCheckpointEntry} table: for each
+ * day with transactions, the balance at the end of the day of each account type and commodity which
+ * changed on that day. The balance at any day is that of the latest checkpoint at or before it.</p>
+ * <p>Triggers record the earliest time of the transactions modified since the checkpoints were
+ * computed in the {@link NetWorthStateEntry} table. Before the balances are read, the checkpoints are
+ * recomputed from the day of that time onward. So new transactions only extend the series, and
+ * a back-dated edit only recomputes the days after it.</p>
+ * <p>The checkpoints have the sign of debits, and are converted with the prices valid at the end of
+ * each day when they are read, since prices change without any transaction</p>
+ */
+public class NetWorthSeries {
+    private static final String LOG_TAG = "NetWorthSeries";
+
+    /**
+     * Account types of the assets in the net worth
+     */
+    public static final List<AccountType> ASSET_TYPES = Collections.unmodifiableList(
+            Arrays.asList(AccountType.ASSET, AccountType.CASH, AccountType.BANK));
+
+    /**
+     * Account types of the liabilities in the net worth
+     */
+    public static final List<AccountType> LIABILITY_TYPES = Collections.unmodifiableList(
+            Arrays.asList(AccountType.LIABILITY, AccountType.CREDIT));
+
+    /**
+     * Maximum number of decimals of the stored balances
+     */
+    private static final int MAX_SCALE = 9;
+
+    private final SQLiteDatabase mDb;
+
+    /**
+     * Balance of an account type in a commodity
+     */
+    private static class Balance {
+        final AccountType mAccountType;
+        final String mCommodityUID;
+        BigDecimal mAmount = BigDecimal.ZERO;
+
+        Balance(AccountType accountType, String commodityUID) {
+            mAccountType = accountType;
+            mCommodityUID = commodityUID;
+        }
+    }
+
+    /**
+     * Creates the series of a book
+     * @param db Database of the book
+     */
+    public NetWorthSeries(@NonNull SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Recomputes the checkpoints from the earliest transaction modified since they were last computed.
+     * <p>This is done by the methods which read the balances, so it only needs to be called to prepare the checkpoints in advance</p>
+     */
+    public void update() {
+        mDb.beginTransaction();
+        try {
+            Long dirtyFrom = getDirtyFrom();
+            if (dirtyFrom != null) {
+                long startTime = System.nanoTime();
+                LocalDate fromDay = new LocalDate(dirtyFrom);
+                mDb.delete(NetWorthCheckpointEntry.TABLE_NAME, NetWorthCheckpointEntry.COLUMN_DATE + " >= ?",
+                        new String[]{fromDay.toString()});
+                int count = computeCheckpoints(fromDay.toDateTimeAtStartOfDay().getMillis(), loadLastBalances());
+
+                ContentValues values = new ContentValues();
+                values.putNull(NetWorthStateEntry.COLUMN_DIRTY_FROM);
+                mDb.update(NetWorthStateEntry.TABLE_NAME, values, null, null);
+                Log.d(LOG_TAG, String.format("Computed %d net worth checkpoints from %s in %d ms", count, fromDay,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @Nullable
+    private Long getDirtyFrom() {
+        Cursor cursor = mDb.query(NetWorthStateEntry.TABLE_NAME, new String[]{NetWorthStateEntry.COLUMN_DIRTY_FROM},
+                null, null, null, null, null);
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the latest checkpoint of each account type and commodity
+     */
+    private Map<String, Balance> loadLastBalances() {
+        Map<String, Balance> balances = new HashMap<>();
+        Cursor cursor = mDb.rawQuery("SELECT " + NetWorthCheckpointEntry.COLUMN_ACCOUNT_TYPE + ", "
+                + NetWorthCheckpointEntry.COLUMN_COMMODITY_UID + ", "
+                + NetWorthCheckpointEntry.COLUMN_BALANCE_NUM + ", " + NetWorthCheckpointEntry.COLUMN_BALANCE_DENOM
+                + " FROM " + NetWorthCheckpointEntry.TABLE_NAME + " c"
+                + " WHERE " + NetWorthCheckpointEntry.COLUMN_DATE + " = (SELECT MAX(" + NetWorthCheckpointEntry.COLUMN_DATE + ")"
+                + " FROM " + NetWorthCheckpointEntry.TABLE_NAME
+                + " WHERE " + NetWorthCheckpointEntry.COLUMN_ACCOUNT_TYPE + " = c." + NetWorthCheckpointEntry.COLUMN_ACCOUNT_TYPE
+                + " AND " + NetWorthCheckpointEntry.COLUMN_COMMODITY_UID + " = c." + NetWorthCheckpointEntry.COLUMN_COMMODITY_UID + ")",
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                getBalance(balances, cursor.getString(0), cursor.getString(1)).mAmount =
+                        toBigDecimal(cursor.getLong(2), cursor.getLong(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        return balances;
+    }
+
+    /**
+     * Adds up the splits from a time onward, and inserts a checkpoint for each day and each balance which changed on it
+     * @param fromTime Start of the first day to compute
+     * @param balances Balances before that day, which are updated
+     * @return Number of checkpoints inserted
+     */
+    private int computeCheckpoints(long fromTime, Map<String, Balance> balances) {
+        Cursor cursor = mDb.rawQuery("SELECT t." + TransactionEntry.COLUMN_TIMESTAMP + ", a." + AccountEntry.COLUMN_TYPE
+                + ", a." + AccountEntry.COLUMN_COMMODITY_UID + ", SUM(CASE WHEN s." + SplitEntry.COLUMN_TYPE + " = 'DEBIT'"
+                + " THEN s." + SplitEntry.COLUMN_QUANTITY_NUM + " ELSE - s." + SplitEntry.COLUMN_QUANTITY_NUM + " END)"
+                + ", s." + SplitEntry.COLUMN_QUANTITY_DENOM
+                + " FROM " + SplitEntry.TABLE_NAME + " s"
+                + " INNER JOIN " + TransactionEntry.TABLE_NAME + " t"
+                + " ON s." + SplitEntry.COLUMN_TRANSACTION_UID + " = t." + TransactionEntry.COLUMN_UID
+                + " INNER JOIN " + AccountEntry.TABLE_NAME + " a"
+                + " ON s." + SplitEntry.COLUMN_ACCOUNT_UID + " = a." + AccountEntry.COLUMN_UID
+                + " WHERE t." + TransactionEntry.COLUMN_TEMPLATE + " = 0"
+                + " AND t." + TransactionEntry.COLUMN_TIMESTAMP + " >= ?"
+                + " GROUP BY t." + TransactionEntry.COLUMN_TIMESTAMP + ", a." + AccountEntry.COLUMN_TYPE
+                + ", a." + AccountEntry.COLUMN_COMMODITY_UID + ", s." + SplitEntry.COLUMN_QUANTITY_DENOM
+                + " ORDER BY t." + TransactionEntry.COLUMN_TIMESTAMP,
+                new String[]{String.valueOf(fromTime)});
+        SQLiteStatement insert = mDb.compileStatement("INSERT INTO " + NetWorthCheckpointEntry.TABLE_NAME + " ("
+                + NetWorthCheckpointEntry.COLUMN_DATE + ", " + NetWorthCheckpointEntry.COLUMN_ACCOUNT_TYPE + ", "
+                + NetWorthCheckpointEntry.COLUMN_COMMODITY_UID + ", " + NetWorthCheckpointEntry.COLUMN_BALANCE_NUM + ", "
+                + NetWorthCheckpointEntry.COLUMN_BALANCE_DENOM + ") VALUES (?, ?, ?, ?, ?)");
+        Set<Balance> changed = new LinkedHashSet<>();
+        String date = null;
+        long nextDayStart = Long.MIN_VALUE;
+        int count = 0;
+        try {
+            while (cursor.moveToNext()) {
+                long timestamp = cursor.getLong(0);
+                if (timestamp >= nextDayStart) {
+                    count += insertCheckpoints(insert, date, changed);
+                    LocalDate day = new LocalDate(timestamp);
+                    date = day.toString();
+                    nextDayStart = day.plusDays(1).toDateTimeAtStartOfDay().getMillis();
+                }
+                long amountNum = cursor.getLong(3);
+                long amountDenom = cursor.getLong(4);
+                if (amountNum == 0 || amountDenom == 0)
+                    continue;
+                Balance balance = getBalance(balances, cursor.getString(1), cursor.getString(2));
+                balance.mAmount = balance.mAmount.add(toBigDecimal(amountNum, amountDenom));
+                changed.add(balance);
+            }
+            count += insertCheckpoints(insert, date, changed);
+        } finally {
+            cursor.close();
+            insert.close();
+        }
+        return count;
+    }
+
+    private static int insertCheckpoints(SQLiteStatement insert, String date, Set<Balance> changed) {
+        int count = changed.size();
+        for (Balance balance : changed) {
+            BigDecimal amount = balance.mAmount.stripTrailingZeros();
+            int scale = Math.min(Math.max(amount.scale(), 0), MAX_SCALE);
+            amount = amount.setScale(scale, RoundingMode.HALF_EVEN);
+            insert.clearBindings();
+            insert.bindString(1, date);
+            insert.bindString(2, balance.mAccountType.name());
+            insert.bindString(3, balance.mCommodityUID);
+            insert.bindLong(4, amount.unscaledValue().longValue());
+            insert.bindLong(5, BigInteger.TEN.pow(scale).longValue());
+            insert.executeInsert();
+        }
+        changed.clear();
+        return count;
+    }
+
+    private static Balance getBalance(Map<String, Balance> balances, String accountType, String commodityUID) {
+        String key = accountType + "/" + commodityUID;
+        Balance balance = balances.get(key);
+        if (balance == null) {
+            balance = new Balance(AccountType.valueOf(accountType), commodityUID);
+            balances.put(key, balance);
+        }
+        return balance;
+    }
+
+    private static BigDecimal toBigDecimal(long num, long denom) {
+        return BigDecimal.valueOf(num).divide(BigDecimal.valueOf(denom), MathContext.DECIMAL128);
+    }
+
+    /**
+     * Returns the first day with a balance, after updating the checkpoints
+     * @return First day, or {@code null} if there are no transactions
+     */
+    @Nullable
+    public LocalDate getFirstDate() {
+        update();
+        Cursor cursor = mDb.query(NetWorthCheckpointEntry.TABLE_NAME,
+                new String[]{"MIN(" + NetWorthCheckpointEntry.COLUMN_DATE + ")"}, null, null, null, null, null);
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? LocalDate.parse(cursor.getString(0)) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the total balance of some account types at the end of the day of a time
+     * @see #getBalances(List, Commodity, long[])
+     */
+    @NonNull
+    public Money getBalance(@NonNull List<AccountType> accountTypes, @NonNull Commodity currency, long time) {
+        return getBalances(accountTypes, currency, new long[]{time})[0];
+    }
+
+    /**
+     * Returns the total balance of some account types at the end of several days, after updating the checkpoints.
+     * <p>The balance of each account type has the sign of its normal balance, as with
+     * {@link org.gnucash.android.db.adapter.AccountsDbAdapter#getAccountBalance(List, long, long)}.
+     * It is converted to the currency with the prices valid at the end of the day.
+     * Balances in the custom currency, or without a price for the currency, are ignored</p>
+     * @param accountTypes Account types to add up
+     * @param currency Currency of the balances
+     * @param times Times in ascending order
+     * @return Balances at the end of the day of each time
+     */
+    @NonNull
+    public Money[] getBalances(@NonNull List<AccountType> accountTypes, @NonNull Commodity currency, @NonNull long[] times) {
+        update();
+        Money[] totals = new Money[times.length];
+        if (times.length == 0)
+            return totals;
+
+        PriceSeries priceSeries = new PricesDbAdapter(mDb).getPriceSeries();
+        Map<String, Balance> balances = new HashMap<>();
+        Cursor cursor = mDb.query(NetWorthCheckpointEntry.TABLE_NAME,
+                new String[]{NetWorthCheckpointEntry.COLUMN_DATE, NetWorthCheckpointEntry.COLUMN_ACCOUNT_TYPE,
+                        NetWorthCheckpointEntry.COLUMN_COMMODITY_UID, NetWorthCheckpointEntry.COLUMN_BALANCE_NUM,
+                        NetWorthCheckpointEntry.COLUMN_BALANCE_DENOM},
+                NetWorthCheckpointEntry.COLUMN_ACCOUNT_TYPE + " IN ( '" + TextUtils.join("' , '", accountTypes) + "' )"
+                        + " AND " + NetWorthCheckpointEntry.COLUMN_DATE + " <= ?"
+                        + " AND " + NetWorthCheckpointEntry.COLUMN_COMMODITY_UID + " NOT IN (SELECT "
+                        + CommodityEntry.COLUMN_UID + " FROM " + CommodityEntry.TABLE_NAME
+                        + " WHERE " + CommodityEntry.COLUMN_MNEMONIC + " = 'XXX')",
+                new String[]{new LocalDate(times[times.length - 1]).toString()},
+                null, null, NetWorthCheckpointEntry.COLUMN_DATE + " ASC");
+        try {
+            boolean hasRow = cursor.moveToNext();
+            for (int i = 0; i < times.length; i++) {
+                LocalDate day = new LocalDate(times[i]);
+                String date = day.toString();
+                while (hasRow && cursor.getString(0).compareTo(date) <= 0) {
+                    getBalance(balances, cursor.getString(1), cursor.getString(2)).mAmount =
+                            toBigDecimal(cursor.getLong(3), cursor.getLong(4));
+                    hasRow = cursor.moveToNext();
+                }
+                long dayEnd = day.plusDays(1).toDateTimeAtStartOfDay().getMillis() - 1;
+                totals[i] = new Money(getTotal(balances, currency, priceSeries, dayEnd), currency);
+            }
+        } finally {
+            cursor.close();
+        }
+        return totals;
+    }
+
+    private static BigDecimal getTotal(Map<String, Balance> balances, Commodity currency,
+                                       PriceSeries priceSeries, long time) {
+        BigDecimal total = BigDecimal.ZERO;
+        for (Balance balance : balances.values()) {
+            Pair<Long, Long> price = priceSeries.getPrice(balance.mCommodityUID, currency.getUID(), time);
+            if (price.first <= 0 || price.second <= 0)
+                continue;
+            BigDecimal amount = balance.mAmount.multiply(BigDecimal.valueOf(price.first))
+                    .divide(BigDecimal.valueOf(price.second), MathContext.DECIMAL128);
+            total = balance.mAccountType.hasDebitNormalBalance() ? total.add(amount) : total.subtract(amount);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,505 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.report;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.Pair;
+
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
+import org.gnucash.android.db.adapter.PricesDbAdapter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.PriceSeries;
+import org.gnucash.android.ui.report.ReportsActivity.GroupInterval;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the net amounts of accounts per period for the charts of the reports.
+ * <p>All periods of a range are computed with a single query, which groups the splits by account
+ * and period, or with one query per chunk of periods when partial results are shown. The period
+ * of a split is computed in SQL from the local date of its transaction, in the time zone of the
+ * device, which is also the time zone the reports are displayed in.</p>
+ * <p>Amounts of accounts in other currencies than the report are converted per period,
+ * at the price which was valid at the end of the period.</p>
+ * <p>When the book is loaded in a {@link LedgerSnapshot}, the periods are added up from the
+ * snapshot instead of querying the database. After a restart, the periods are added up from the
+ * monthly amounts of the {@link LedgerSnapshotFile} until the book is modified.</p>
+ * <p>The intervals {@link GroupInterval#MONTH}, {@link GroupInterval#QUARTER} and
+ * {@link GroupInterval#YEAR} are supported, as well as {@link GroupInterval#ALL} which computes
+ * the totals of a range as a single period</p>
+ */
+public class ReportAggregator {
+    private static final String LOG_TAG = "ReportAggregator";
+
+    private final SQLiteDatabase mDb;
+    private final DateTimeZone mTimeZone;
+    private PriceSeries mPriceSeries;
+
+    /**
+     * Creates an aggregator using the default time zone
+     * @param db Database of the book
+     */
+    public ReportAggregator(@NonNull SQLiteDatabase db) {
+        this(db, DateTimeZone.getDefault());
+    }
+
+    /**
+     * Creates an aggregator
+     * @param db Database of the book
+     * @param timeZone Time zone which determines the period of the transactions
+     */
+    public ReportAggregator(@NonNull SQLiteDatabase db, @NonNull DateTimeZone timeZone) {
+        mDb = db;
+        mTimeZone = timeZone;
+    }
+
+    /**
+     * Receives the amounts of the periods which have been aggregated so far
+     */
+    public interface PartialResultListener {
+        /**
+         * Called after each chunk of periods, except the last one
+         * @param matrix Amounts of all periods, those which have not been aggregated yet are zero
+         * @return {@code true} to continue, {@code false} to stop aggregating
+         */
+        boolean onPartialResult(@NonNull BalanceMatrix matrix);
+    }
+
+    /**
+     * Computes the net amount of each account per period.
+     * <p>Placeholder accounts and template transactions are excluded. Accounts in other currencies are
+     * converted at the price valid at the end of each period, and excluded if there is no price.
+     * The range is extended to whole periods.</p>
+     * <p>With {@link GroupInterval#ALL}, the range is not extended and both of its bounds are inclusive.
+     * Either bound can be -1 to leave the range open on that side</p>
+     * @param accountTypes Types of the accounts to include
+     * @param currencyCode Currency of the report
+     * @param interval Length of the periods
+     * @param startTime Time in the first period of the range, in milliseconds
+     * @param endTime Time in the last period of the range, in milliseconds
+     * @return Dense matrix of the amounts, with a row for each account with splits in the range
+     */
+    public BalanceMatrix aggregate(@NonNull List<AccountType> accountTypes, @NonNull String currencyCode,
+                                   @NonNull GroupInterval interval, long startTime, long endTime) {
+        return aggregate(accountTypes, currencyCode, interval, startTime, endTime, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Computes the net amount of each account per period, in chunks of periods.
+     * <p>Each chunk is aggregated with its own query, oldest first, and the amounts computed so far
+     * are passed to the listener after each chunk, so that they can be shown before the whole range
+     * has been aggregated.</p>
+     * @param accountTypes Types of the accounts to include
+     * @param currencyCode Currency of the report
+     * @param interval Length of the periods
+     * @param startTime Time in the first period of the range, in milliseconds
+     * @param endTime Time in the last period of the range, in milliseconds
+     * @param chunkPeriods Number of periods aggregated by each query
+     * @param listener Listener for the partial results, or {@code null}
+     * @return Dense matrix of the amounts, or {@code null} if the listener stopped the aggregation
+     * @see #aggregate(List, String, GroupInterval, long, long)
+     */
+    @Nullable
+    public BalanceMatrix aggregate(@NonNull List<AccountType> accountTypes, @NonNull String currencyCode,
+                                   @NonNull GroupInterval interval, long startTime, long endTime,
+                                   int chunkPeriods, @Nullable PartialResultListener listener) {
+        long queryStart = System.nanoTime();
+        LocalDate firstPeriod;
+        int firstPeriodKey;
+        int periodCount;
+        long rangeStart;
+        long rangeEnd;
+        if (interval == GroupInterval.ALL) {
+            firstPeriod = new LocalDate(startTime == -1 ? 0 : startTime, mTimeZone);
+            firstPeriodKey = 0;
+            periodCount = 1;
+            rangeStart = startTime == -1 ? Long.MIN_VALUE : startTime;
+            rangeEnd = endTime == -1 ? Long.MAX_VALUE : endTime + 1;
+        } else {
+            firstPeriod = getPeriodStart(new LocalDate(startTime, mTimeZone), interval);
+            LocalDate lastPeriod = getPeriodStart(new LocalDate(Math.max(startTime, endTime), mTimeZone), interval);
+            firstPeriodKey = getPeriodKey(firstPeriod, interval);
+            periodCount = getPeriodKey(lastPeriod, interval) - firstPeriodKey + 1;
+            rangeStart = firstPeriod.toDateTimeAtStartOfDay(mTimeZone).getMillis();
+            rangeEnd = plusPeriods(firstPeriod, interval, periodCount).toDateTimeAtStartOfDay(mTimeZone).getMillis();
+        }
+
+        if (accountTypes.isEmpty())
+            return new BalanceMatrix(interval, firstPeriod, periodCount, new ArrayList<Account>(), new double[0][]);
+
+        StringBuilder typeList = new StringBuilder();
+        for (AccountType accountType : accountTypes) {
+            typeList.append(typeList.length() == 0 ? "'" : ", '").append(accountType.name()).append("'");
+        }
+        String accountSelection = AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_TYPE + " IN (" + typeList + ")"
+                + " AND " + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_PLACEHOLDER + " = 0";
+        List<Account> candidates = new AccountsDbAdapter(mDb).getSimpleAccountList(
+                accountSelection, null, AccountEntry.COLUMN_FULL_NAME + " ASC");
+        Map<String, Account> accountsByUID = new HashMap<>();
+        for (Account account : candidates) {
+            accountsByUID.put(account.getUID(), account);
+        }
+        Rates rates = new Rates(new CommoditiesDbAdapter(mDb).getCommodityUID(currencyCode),
+                interval, firstPeriod, periodCount, rangeEnd);
+
+        // the persisted monthly amounts or the snapshot of the book are used if they are available,
+        // instead of querying the splits
+        LedgerSnapshotFile snapshotFile = interval == GroupInterval.ALL ? null : LedgerSnapshotFile.get(mDb);
+        if (snapshotFile != null && !snapshotFile.getTimeZoneID().equals(mTimeZone.getID()))
+            snapshotFile = null;
+        LedgerSnapshot snapshot = snapshotFile == null ? LedgerSnapshot.get(mDb) : null;
+        Account[] snapshotAccounts = null;
+        boolean[] snapshotFilter = null;
+        if (snapshot != null) {
+            snapshotAccounts = new Account[snapshot.getAccountCount()];
+            snapshotFilter = new boolean[snapshot.getAccountCount()];
+            for (Account account : candidates) {
+                int index = snapshot.getAccountIndex(account.getUID());
+                if (index != -1) {
+                    snapshotAccounts[index] = account;
+                    snapshotFilter[index] = true;
+                }
+            }
+        }
+
+        Map<String, double[]> amountsByAccount = new HashMap<>();
+        for (int chunkStart = 0; chunkStart < periodCount; chunkStart += chunkPeriods) {
+            int chunkEnd = (int) Math.min((long) chunkStart + chunkPeriods, periodCount);
+            if (chunkStart > 0 && listener != null
+                    && !listener.onPartialResult(buildMatrix(interval, firstPeriod, periodCount,
+                            candidates, amountsByAccount, true)))
+                return null;
+            long chunkRangeStart = chunkStart == 0 ? rangeStart
+                    : plusPeriods(firstPeriod, interval, chunkStart).toDateTimeAtStartOfDay(mTimeZone).getMillis();
+            long chunkRangeEnd = chunkEnd == periodCount ? rangeEnd
+                    : plusPeriods(firstPeriod, interval, chunkEnd).toDateTimeAtStartOfDay(mTimeZone).getMillis();
+            if (snapshotFile != null) {
+                aggregateChunk(snapshotFile, candidates, interval, firstPeriod, chunkStart, chunkEnd, periodCount,
+                        rates, amountsByAccount);
+            } else if (snapshot != null) {
+                long[] boundaries = new long[chunkEnd - chunkStart + 1];
+                boundaries[0] = chunkRangeStart;
+                for (int period = chunkStart + 1; period < chunkEnd; period++) {
+                    boundaries[period - chunkStart] = plusPeriods(firstPeriod, interval, period)
+                            .toDateTimeAtStartOfDay(mTimeZone).getMillis();
+                }
+                boundaries[boundaries.length - 1] = chunkRangeEnd;
+                aggregateChunk(snapshot, snapshotAccounts, snapshotFilter, chunkStart, periodCount,
+                        boundaries, rates, amountsByAccount);
+            } else {
+                aggregateChunk(accountSelection, interval, firstPeriodKey, periodCount,
+                        chunkRangeStart, chunkRangeEnd, accountsByUID, rates, amountsByAccount);
+            }
+        }
+
+        BalanceMatrix matrix = buildMatrix(interval, firstPeriod, periodCount, candidates, amountsByAccount, false);
+        Log.d(LOG_TAG, String.format("%d ns spent on aggregating %d periods of %d accounts",
+                System.nanoTime() - queryStart, periodCount, matrix.getAccountCount()));
+        return matrix;
+    }
+
+    /**
+     * Conversion rates of the commodities to the currency of the report, per period
+     */
+    private class Rates {
+        final String mCurrencyUID;
+        final GroupInterval mInterval;
+        final LocalDate mFirstPeriod;
+        final int mPeriodCount;
+        final long mRangeEnd;
+        final Map<String, double[]> mRates = new HashMap<>();
+
+        Rates(String currencyUID, GroupInterval interval, LocalDate firstPeriod, int periodCount, long rangeEnd) {
+            mCurrencyUID = currencyUID;
+            mInterval = interval;
+            mFirstPeriod = firstPeriod;
+            mPeriodCount = periodCount;
+            mRangeEnd = rangeEnd;
+        }
+
+        /**
+         * Returns the rate of a commodity at the end of a period
+         * @return Rate, or {@link Double#NaN} if there is no price
+         */
+        double get(String commodityUID, int period) {
+            if (commodityUID.equals(mCurrencyUID))
+                return 1;
+            double[] rates = mRates.get(commodityUID);
+            if (rates == null) {
+                if (mPriceSeries == null)
+                    mPriceSeries = new PricesDbAdapter(mDb).getPriceSeries();
+                rates = new double[mPeriodCount];
+                for (int i = 0; i < mPeriodCount; i++) {
+                    long periodEnd = mInterval == GroupInterval.ALL || i == mPeriodCount - 1 ? mRangeEnd
+                            : plusPeriods(mFirstPeriod, mInterval, i + 1).toDateTimeAtStartOfDay(mTimeZone).getMillis();
+                    Pair<Long, Long> price = mPriceSeries.getPrice(commodityUID, mCurrencyUID, periodEnd - 1);
+                    rates[i] = price.first <= 0 || price.second <= 0 ? Double.NaN : (double) price.first / price.second;
+                }
+                mRates.put(commodityUID, rates);
+            }
+            return rates[period];
+        }
+    }
+
+    /**
+     * Adds the amounts of the splits in a time range to the amounts of the accounts
+     * @param amountsByAccount Amounts of the accounts per period, with the sign of their normal balance
+     *                         and in the currency of the report
+     */
+    private void aggregateChunk(String accountSelection, GroupInterval interval,
+                                int firstPeriodKey, int periodCount, long rangeStart, long rangeEnd,
+                                Map<String, Account> accountsByUID, Rates rates,
+                                Map<String, double[]> amountsByAccount) {
+        String timestamp = TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TIMESTAMP;
+        // the local time only matters to tell the periods apart
+        String offset = interval == GroupInterval.ALL ? "0" : getOffsetSql(timestamp, rangeStart, rangeEnd);
+        String sql = "SELECT account_uid, " + getPeriodKeySql("local_time", interval) + " AS period, "
+                + "denom, SUM(amount) FROM (SELECT "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID + " AS account_uid, "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_DENOM + " AS denom, "
+                + "CASE WHEN " + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TYPE + " = 'DEBIT' THEN "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " ELSE - "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_QUANTITY_NUM + " END AS amount, "
+                + "(" + timestamp + " + " + offset + ") / 1000 AS local_time"
+                + " FROM " + SplitEntry.TABLE_NAME
+                + " INNER JOIN " + TransactionEntry.TABLE_NAME + " ON "
+                + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_UID + " = "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_TRANSACTION_UID
+                + " INNER JOIN " + AccountEntry.TABLE_NAME + " ON "
+                + AccountEntry.TABLE_NAME + "." + AccountEntry.COLUMN_UID + " = "
+                + SplitEntry.TABLE_NAME + "." + SplitEntry.COLUMN_ACCOUNT_UID
+                + " WHERE " + TransactionEntry.TABLE_NAME + "." + TransactionEntry.COLUMN_TEMPLATE + " = 0"
+                + " AND " + timestamp + " >= ? AND " + timestamp + " < ?"
+                + " AND " + accountSelection
+                + ") GROUP BY account_uid, period, denom";
+
+        // amounts with different denominators cannot be added up in SQL
+        Cursor cursor = mDb.rawQuery(sql, new String[]{
+                Long.toString(rangeStart), Long.toString(rangeEnd)});
+        try {
+            while (cursor.moveToNext()) {
+                Account account = accountsByUID.get(cursor.getString(0));
+                int period = cursor.getInt(1) - firstPeriodKey;
+                long denom = cursor.getLong(2);
+                long amount = cursor.getLong(3);
+                if (account == null || amount == 0 || period < 0 || period >= periodCount)
+                    continue;
+                addAmount(account, period, periodCount, (double) amount / denom, rates, amountsByAccount);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Adds the amounts of the splits in the periods of a chunk from the snapshot of the book
+     * @param accounts Accounts to include, by their index in the snapshot
+     * @param accountFilter Whether to include each account of the snapshot
+     * @param firstPeriod Index of the first period of the chunk
+     * @param boundaries Bounds of the periods of the chunk
+     * @see #aggregateChunk(String, GroupInterval, int, int, long, long, Map, Rates, Map)
+     */
+    private void aggregateChunk(LedgerSnapshot snapshot, Account[] accounts, boolean[] accountFilter,
+                                int firstPeriod, int periodCount, long[] boundaries, Rates rates,
+                                Map<String, double[]> amountsByAccount) {
+        double[][] sums = snapshot.sumByBucket(accountFilter, boundaries);
+        for (int index = 0; index < accounts.length; index++) {
+            Account account = accounts[index];
+            if (account == null)
+                continue;
+            for (int bucket = 0; bucket < boundaries.length - 1; bucket++) {
+                double amount = sums[index][bucket];
+                if (amount != 0)
+                    addAmount(account, firstPeriod + bucket, periodCount, amount, rates, amountsByAccount);
+            }
+        }
+    }
+
+    /**
+     * Adds the amounts of the periods of a chunk from the monthly amounts persisted for the book
+     * @param firstPeriod Index of the first period of the chunk
+     * @param endPeriod Index of the period after the chunk
+     * @see #aggregateChunk(String, GroupInterval, int, int, long, long, Map, Rates, Map)
+     */
+    private void aggregateChunk(LedgerSnapshotFile snapshotFile, List<Account> accounts, GroupInterval interval,
+                                LocalDate firstPeriodStart, int firstPeriod, int endPeriod, int periodCount,
+                                Rates rates, Map<String, double[]> amountsByAccount) {
+        int months = interval == GroupInterval.YEAR ? 12 : interval == GroupInterval.QUARTER ? 3 : 1;
+        for (Account account : accounts) {
+            int index = snapshotFile.getAccountIndex(account.getUID());
+            if (index == -1)
+                continue;
+            for (int period = firstPeriod; period < endPeriod; period++) {
+                LocalDate periodStart = plusPeriods(firstPeriodStart, interval, period);
+                double amount = 0;
+                for (int month = 0; month < months; month++) {
+                    amount += snapshotFile.getMonthlyAmount(index, periodStart.plusMonths(month));
+                }
+                if (amount != 0)
+                    addAmount(account, period, periodCount, amount, rates, amountsByAccount);
+            }
+        }
+    }
+
+    /**
+     * Converts the amount of an account in a period and adds it with the sign of the normal balance of the account
+     * @param amount Amount with the sign of debits, in the commodity of the account
+     */
+    private static void addAmount(Account account, int period, int periodCount, double amount, Rates rates,
+                                  Map<String, double[]> amountsByAccount) {
+        double rate = rates.get(account.getCommodity().getUID(), period);
+        if (Double.isNaN(rate))
+            return;
+        double[] amounts = amountsByAccount.get(account.getUID());
+        if (amounts == null) {
+            amounts = new double[periodCount];
+            amountsByAccount.put(account.getUID(), amounts);
+        }
+        double value = amount * rate;
+        amounts[period] += account.getAccountType().hasDebitNormalBalance() ? value : -value;
+    }
+
+    /**
+     * Builds the matrix of the accounts with amounts, in the order of the candidates
+     * @param copy Whether to copy the amounts, which are still being added to
+     */
+    private static BalanceMatrix buildMatrix(GroupInterval interval, LocalDate firstPeriod, int periodCount,
+                                             List<Account> candidates, Map<String, double[]> amountsByAccount,
+                                             boolean copy) {
+        List<Account> accounts = new ArrayList<>();
+        List<double[]> rows = new ArrayList<>();
+        for (Account account : candidates) {
+            double[] amounts = amountsByAccount.get(account.getUID());
+            if (amounts == null)
+                continue;
+            accounts.add(account);
+            rows.add(copy ? amounts.clone() : amounts);
+        }
+        return new BalanceMatrix(interval, firstPeriod, periodCount, accounts, rows.toArray(new double[rows.size()][]));
+    }
+
+    /**
+     * Returns the first day of the period containing a date
+     */
+    public static LocalDate getPeriodStart(LocalDate date, GroupInterval interval) {
+        switch (interval) {
+            case MONTH:
+                return date.withDayOfMonth(1);
+            case QUARTER:
+                return date.withDayOfMonth(1).withMonthOfYear((date.getMonthOfYear() - 1) / 3 * 3 + 1);
+            case YEAR:
+                return date.withDayOfYear(1);
+            case ALL:
+                return date;
+            default:
+                throw new IllegalArgumentException("Unsupported interval " + interval);
+        }
+    }
+
+    /**
+     * Returns the date which is a number of periods after another
+     */
+    public static LocalDate plusPeriods(LocalDate date, GroupInterval interval, int periods) {
+        switch (interval) {
+            case MONTH:
+                return date.plusMonths(periods);
+            case QUARTER:
+                return date.plusMonths(periods * 3);
+            case YEAR:
+                return date.plusYears(periods);
+            case ALL:
+                return date;
+            default:
+                throw new IllegalArgumentException("Unsupported interval " + interval);
+        }
+    }
+
+    /**
+     * Returns a number identifying the period of a date. The periods are numbered consecutively
+     * @see #getPeriodKeySql(String, GroupInterval)
+     */
+    private static int getPeriodKey(LocalDate date, GroupInterval interval) {
+        switch (interval) {
+            case MONTH:
+                return date.getYear() * 12 + date.getMonthOfYear() - 1;
+            case QUARTER:
+                return date.getYear() * 4 + (date.getMonthOfYear() - 1) / 3;
+            case YEAR:
+                return date.getYear();
+            case ALL:
+                return 0;
+            default:
+                throw new IllegalArgumentException("Unsupported interval " + interval);
+        }
+    }
+
+    /**
+     * Returns the SQL expression of {@link #getPeriodKey(LocalDate, GroupInterval)}
+     * @param localTime Expression of the local time in seconds since the epoch
+     */
+    private static String getPeriodKeySql(String localTime, GroupInterval interval) {
+        String year = "CAST(strftime('%Y', " + localTime + ", 'unixepoch') AS INTEGER)";
+        String month = "CAST(strftime('%m', " + localTime + ", 'unixepoch') AS INTEGER)";
+        switch (interval) {
+            case MONTH:
+                return year + " * 12 + " + month + " - 1";
+            case QUARTER:
+                return year + " * 4 + (" + month + " - 1) / 3";
+            case YEAR:
+                return year;
+            case ALL:
+                return "0";
+            default:
+                throw new IllegalArgumentException("Unsupported interval " + interval);
+        }
+    }
+
+    /**
+     * Returns the SQL expression of the offset of the time zone in milliseconds at a time.
+     * <p>The offset changes with daylight saving time, so it is chosen among the offsets in effect
+     * during the range</p>
+     * @param time Expression of the time in milliseconds since the epoch
+     * @param rangeStart Start of the range
+     * @param rangeEnd End of the range
+     */
+    private String getOffsetSql(String time, long rangeStart, long rangeEnd) {
+        StringBuilder sql = new StringBuilder("CASE");
+        long instant = rangeStart;
+        long transition = mTimeZone.nextTransition(instant);
+        while (transition > instant && transition < rangeEnd) {
+            sql.append(" WHEN ").append(time).append(" < ").append(transition)
+                    .append(" THEN ").append(mTimeZone.getOffset(instant));
+            instant = transition;
+            transition = mTimeZone.nextTransition(instant);
+        }
+        return sql.append(" ELSE ").append(mTimeZone.getOffset(instant)).append(" END").toString();
+    }
+}
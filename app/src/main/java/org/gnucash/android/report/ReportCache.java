@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.report;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.LruCache;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.ui.report.ReportType;
+import org.gnucash.android.ui.report.ReportsActivity.GroupInterval;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Cache of the computed results of the reports, shared by all report fragments.
+ * <p>Results are tagged with the data version of the book they were computed from, and are only
+ * returned while the book has not been modified since. The most recently used results are kept in
+ * memory, and all results are also written to the cache directory of the app, so that they survive
+ * a restart of the app.</p>
+ * <p>The data version is the file change counter of the SQLite database, which SQLite increments
+ * whenever a transaction modifying the database is committed. It is only maintained in rollback
+ * journal mode, which {@link DatabaseHelper} keeps the books in; no version is available in
+ * write-ahead logging mode, and results are then not cached.</p>
+ */
+public class ReportCache {
+    private static final String LOG_TAG = "ReportCache";
+
+    private static final int MEMORY_CACHE_SIZE = 32;
+    private static final int DISK_CACHE_SIZE = 64;
+    private static final String CACHE_DIRECTORY = "reports";
+
+    /**
+     * Offset of the file change counter in the header of a SQLite database
+     */
+    private static final int SQLITE_CHANGE_COUNTER_OFFSET = 24;
+
+    private static ReportCache sInstance;
+
+    private final LruCache<Key, Entry> mMemoryCache = new LruCache<>(MEMORY_CACHE_SIZE);
+    private final File mDirectory;
+
+    /**
+     * Computes a result of a report which is not in the cache
+     */
+    public interface Loader<T extends Serializable> {
+        @Nullable
+        T load();
+    }
+
+    /**
+     * Identifies a result of a report by the options it was computed with
+     */
+    public static class Key {
+        private final String mId;
+
+        /**
+         * Creates a key for a result
+         * @param bookUID GUID of the book
+         * @param reportType Type of the report
+         * @param name Name of the result, to tell several results of a report apart
+         * @param accountType Account type of the report, or {@code null} if it does not have one
+         * @param currencyCode Currency of the report
+         * @param start Start time of the range of the report, or -1
+         * @param end End time of the range of the report, or -1
+         * @param interval Grouping of the report, or {@code null} if it does not group by period
+         */
+        public Key(@NonNull String bookUID, @NonNull ReportType reportType, @NonNull String name,
+                   @Nullable AccountType accountType, @NonNull String currencyCode,
+                   long start, long end, @Nullable GroupInterval interval) {
+            mId = bookUID + "/" + reportType + "/" + name + "/" + accountType + "/" + currencyCode
+                    + "/" + start + "/" + end + "/" + interval;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && mId.equals(((Key) o).mId);
+        }
+
+        @Override
+        public int hashCode() {
+            return mId.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return mId;
+        }
+    }
+
+    /**
+     * Result with the data version it was computed from
+     */
+    private static class Entry {
+        final long mVersion;
+        final Serializable mValue;
+
+        Entry(long version, Serializable value) {
+            mVersion = version;
+            mValue = value;
+        }
+    }
+
+    /**
+     * Creates a cache
+     * @param directory Directory in which the results are persisted, or {@code null} to only keep them in memory
+     */
+    public ReportCache(@Nullable File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Returns the cache of the app
+     */
+    public static synchronized ReportCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new ReportCache(new File(GnuCashApplication.getAppContext().getCacheDir(), CACHE_DIRECTORY));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the current data version of a database.
+     * <p>The version changes whenever a modification of the database is committed</p>
+     * @param db Database of the book
+     * @return Data version, or -1 if it is not available, in which case results must not be cached
+     */
+    public static long getDataVersion(@NonNull SQLiteDatabase db) {
+        // the counter is not updated with write-ahead logging, which DatabaseHelper disables
+        if (DatabaseHelper.isWriteAheadLogging(db)) {
+            Log.w(LOG_TAG, "No data version for " + db.getPath() + ", which uses write-ahead logging");
+            return -1;
+        }
+        try {
+            RandomAccessFile file = new RandomAccessFile(db.getPath(), "r");
+            try {
+                file.seek(SQLITE_CHANGE_COUNTER_OFFSET);
+                return file.readInt() & 0xffffffffL;
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Could not read the data version of " + db.getPath() + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Returns a result from the cache, or computes and caches it if the database has been modified since
+     * <p>This method may read from disk and call the loader, so it should not be called on the main thread</p>
+     * @param key Key of the result
+     * @param db Database of the book the result is computed from
+     * @param loader Computes the result if it is not cached. It may return {@code null} if it was cancelled
+     * @return Result of the report, or {@code null} if the loader was cancelled
+     */
+    public <T extends Serializable> T get(@NonNull Key key, @NonNull SQLiteDatabase db, @NonNull Loader<T> loader) {
+        // the version is read before loading, so a result which includes a concurrent modification
+        // gets the older version, and is recomputed the next time
+        long version = getDataVersion(db);
+        T value = get(key, version);
+        if (value == null) {
+            value = loader.load();
+            if (value != null)
+                put(key, version, value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns a result from the cache
+     * @param key Key of the result
+     * @param version Current data version of the book
+     * @return Result computed from that version of the book, or {@code null} if there is none
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public <T extends Serializable> T get(@NonNull Key key, long version) {
+        if (version < 0)
+            return null;
+        Entry entry = mMemoryCache.get(key);
+        if (entry == null) {
+            entry = read(key);
+            if (entry == null)
+                return null;
+            mMemoryCache.put(key, entry);
+        }
+        if (entry.mVersion != version) {
+            Log.d(LOG_TAG, "Stale result of " + key);
+            return null;
+        }
+        return (T) entry.mValue;
+    }
+
+    /**
+     * Stores a result in the cache
+     * @param key Key of the result
+     * @param version Data version of the book the result was computed from
+     * @param value Result of the report
+     */
+    public void put(@NonNull Key key, long version, @NonNull Serializable value) {
+        if (version < 0)
+            return;
+        Entry entry = new Entry(version, value);
+        mMemoryCache.put(key, entry);
+        write(key, entry);
+    }
+
+    /**
+     * Removes all results, also from disk
+     */
+    public synchronized void clear() {
+        mMemoryCache.evictAll();
+        File[] files = mDirectory == null ? null : mDirectory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private File getFile(Key key) {
+        // the hash code only picks the file, the full key is stored in it
+        return new File(mDirectory, String.format("%08x", key.hashCode()));
+    }
+
+    @Nullable
+    private synchronized Entry read(Key key) {
+        if (mDirectory == null)
+            return null;
+        File file = getFile(key);
+        if (!file.exists())
+            return null;
+        try {
+            ObjectInputStream inputStream = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (!key.toString().equals(inputStream.readUTF()))
+                    return null;
+                long version = inputStream.readLong();
+                Entry entry = new Entry(version, (Serializable) inputStream.readObject());
+                file.setLastModified(System.currentTimeMillis());
+                return entry;
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // written by another version of the app
+            Log.w(LOG_TAG, "Discarding cached result of " + key + ": " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    private synchronized void write(Key key, Entry entry) {
+        if (mDirectory == null || !(mDirectory.isDirectory() || mDirectory.mkdirs()))
+            return;
+        File file = getFile(key);
+        try {
+            ObjectOutputStream outputStream = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                outputStream.writeUTF(key.toString());
+                outputStream.writeLong(entry.mVersion);
+                outputStream.writeObject(entry.mValue);
+            } finally {
+                outputStream.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Could not write the cached result of " + key + ": " + e.getMessage());
+            file.delete();
+            return;
+        }
+        trim();
+    }
+
+    /**
+     * Deletes the least recently used files, once there are more than {@link #DISK_CACHE_SIZE}
+     */
+    private void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= DISK_CACHE_SIZE)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(lhs.lastModified(), rhs.lastModified());
+            }
+        });
+        for (int i = 0; i < files.length - DISK_CACHE_SIZE; i++) {
+            files[i].delete();
+        }
+    }
+}
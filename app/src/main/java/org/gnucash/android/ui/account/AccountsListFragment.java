@@ -23,6 +23,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.res.Configuration;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Color;
 import android.os.AsyncTask;
 import android.os.Build;
@@ -58,15 +59,21 @@ import org.gnucash.android.db.adapter.BudgetsDbAdapter;
 import org.gnucash.android.model.Account;
 import org.gnucash.android.model.Budget;
 import org.gnucash.android.model.Money;
+import org.gnucash.android.report.BudgetEngine;
+import org.gnucash.android.report.LedgerSnapshotFile;
+import org.gnucash.android.report.ReportCache;
 import org.gnucash.android.ui.common.FormActivity;
 import org.gnucash.android.ui.common.Refreshable;
 import org.gnucash.android.ui.common.UxArgument;
+import org.gnucash.android.ui.transaction.TransactionsActivity;
 import org.gnucash.android.ui.util.AccountBalanceTask;
 import org.gnucash.android.ui.util.CursorRecyclerAdapter;
 import org.gnucash.android.ui.util.widget.EmptyRecyclerView;
 import org.gnucash.android.util.BackupManager;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -100,6 +107,16 @@ public class AccountsListFragment extends Fragment implements
      */
     private DisplayMode mDisplayMode = DisplayMode.TOP_LEVEL;
 
+    /**
+     * Balances of all accounts including their sub-accounts, as computed by the loader
+     */
+    private Map<String, Money> mAccountBalances = Collections.emptyMap();
+
+    /**
+     * Data version of the book when the accounts were loaded, for the budget actuals of the rows
+     */
+    private long mDataVersion = -1;
+
     /**
      * Logging tag
      */
@@ -355,6 +372,8 @@ public class AccountsListFragment extends Fragment implements
     @Override
     public void onLoadFinished(Loader<Cursor> loaderCursor, Cursor cursor) {
         Log.d(TAG, "Accounts loader finished. Swapping in cursor");
+        mAccountBalances = ((AccountsCursorLoader) loaderCursor).getAccountBalances();
+        mDataVersion = ((AccountsCursorLoader) loaderCursor).getDataVersion();
         mAccountRecyclerAdapter.swapCursor(cursor);
         mAccountRecyclerAdapter.notifyDataSetChanged();
     }
@@ -406,6 +425,8 @@ public class AccountsListFragment extends Fragment implements
         private String mParentAccountUID = null;
         private String mFilter;
         private DisplayMode mDisplayMode = DisplayMode.TOP_LEVEL;
+        private Map<String, Money> mAccountBalances = Collections.emptyMap();
+        private long mDataVersion = -1;
 
         /**
          * Initializes the loader to load accounts from the database.
@@ -461,10 +482,36 @@ public class AccountsListFragment extends Fragment implements
 
             }
 
-            if (cursor != null)
+            if (cursor != null) {
                 registerContentObserver(cursor);
+                // the balances of all accounts are rolled up at once, instead of once for each row
+                SQLiteDatabase db = GnuCashApplication.getActiveDb();
+                mDataVersion = ReportCache.getDataVersion(db);
+                LedgerSnapshotFile snapshotFile = LedgerSnapshotFile.get(db);
+                // the book may have been modified since the version was read
+                if (snapshotFile != null && snapshotFile.getDataVersion() == mDataVersion) {
+                    mAccountBalances = snapshotFile.getAccountBalances(db);
+                } else {
+                    mAccountBalances = ((AccountsDbAdapter) mDatabaseAdapter).getAccountBalances(-1, -1);
+                    LedgerSnapshotFile.saveAsync(db);
+                }
+            }
             return cursor;
         }
+
+        /**
+         * Returns the balances of all accounts including their sub-accounts, by account GUID
+         */
+        public Map<String, Money> getAccountBalances() {
+            return mAccountBalances;
+        }
+
+        /**
+         * Returns the data version of the book read while loading, or -1 if it is unknown
+         */
+        public long getDataVersion() {
+            return mDataVersion;
+        }
     }
 
 
@@ -498,9 +545,13 @@ public class AccountsListFragment extends Fragment implements
                 holder.description.setVisibility(View.GONE);
 
             // add a summary of transactions to the account view
-
+            Money accountBalance = mAccountBalances.get(accountUID);
+            if (accountBalance != null) {
+                TransactionsActivity.displayBalance(holder.accountBalance, accountBalance);
+            } else {
                 // Make sure the balance task is truly multithread
-            new AccountBalanceTask(holder.accountBalance).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, accountUID);
+                new AccountBalanceTask(holder.accountBalance).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, accountUID);
+            }
 
             String accountColor = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.AccountEntry.COLUMN_COLOR_CODE));
             int colorCode = accountColor == null ? Color.TRANSPARENT : Color.parseColor(accountColor);
@@ -527,7 +578,8 @@ public class AccountsListFragment extends Fragment implements
             //TODO: include fetch only active budgets
             if (budgets.size() == 1){
                 Budget budget = budgets.get(0);
-                Money balance = mAccountsDbAdapter.getAccountBalance(accountUID, budget.getStartofCurrentPeriod(), budget.getEndOfCurrentPeriod());
+                Money balance = BudgetEngine.getInstance().getActuals(budget, mDataVersion)
+                        .getCurrentPeriodBalance(accountUID);
                 double budgetProgress = balance.divide(budget.getAmount(accountUID)).asBigDecimal().doubleValue() * 100;
 
                 holder.budgetIndicator.setVisibility(View.VISIBLE);
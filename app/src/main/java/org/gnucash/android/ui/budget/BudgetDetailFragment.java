@@ -50,6 +50,7 @@ import org.gnucash.android.db.adapter.BudgetsDbAdapter;
 import org.gnucash.android.model.Budget;
 import org.gnucash.android.model.BudgetAmount;
 import org.gnucash.android.model.Money;
+import org.gnucash.android.report.BudgetEngine;
 import org.gnucash.android.ui.common.FormActivity;
 import org.gnucash.android.ui.common.Refreshable;
 import org.gnucash.android.ui.common.UxArgument;
@@ -188,10 +189,12 @@ public class BudgetDetailFragment extends Fragment implements Refreshable {
     public class BudgetAmountAdapter extends RecyclerView.Adapter<BudgetAmountAdapter.BudgetAmountViewHolder>{
         private List<BudgetAmount> mBudgetAmounts;
         private Budget mBudget;
+        private BudgetEngine.Actuals mActuals;
 
         public BudgetAmountAdapter(){
             mBudget = mBudgetsDbAdapter.getRecord(mBudgetUID);
-            mBudgetAmounts = mBudget.getCompactedBudgetAmounts();
+            mActuals = BudgetEngine.getInstance().getActuals(mBudget);
+            mBudgetAmounts = mActuals.getBudgetAmounts();
         }
 
         @Override
@@ -209,8 +212,7 @@ public class BudgetDetailFragment extends Fragment implements Refreshable {
             holder.budgetAccount.setText(accountsDbAdapter.getAccountFullName(budgetAmount.getAccountUID()));
             holder.budgetAmount.setText(projectedAmount.formattedString());
 
-            Money spentAmount = accountsDbAdapter.getAccountBalance(budgetAmount.getAccountUID(),
-                    mBudget.getStartofCurrentPeriod(), mBudget.getEndOfCurrentPeriod());
+            Money spentAmount = mActuals.getCurrentPeriodBalance(budgetAmount.getAccountUID());
 
             holder.budgetSpent.setText(spentAmount.abs().formattedString());
             holder.budgetLeft.setText(projectedAmount.subtract(spentAmount.abs()).formattedString());
@@ -251,14 +253,9 @@ public class BudgetDetailFragment extends Fragment implements Refreshable {
             List<BarEntry> barEntries = new ArrayList<>();
             List<String> xVals = new ArrayList<>();
 
-            //todo: refactor getNumberOfPeriods into budget
-            int budgetPeriods = (int) mBudget.getNumberOfPeriods();
-            budgetPeriods = budgetPeriods == 0 ? 12 : budgetPeriods;
-            int periods = mBudget.getRecurrence().getNumberOfPeriods(budgetPeriods); //// FIXME: 15.08.2016 why do we need number of periods
-
+            int periods = mActuals.getPeriodCount();
             for (int periodNum = 1; periodNum <= periods; periodNum++) {
-                BigDecimal amount = accountsDbAdapter.getAccountBalance(budgetAmount.getAccountUID(),
-                        mBudget.getStartOfPeriod(periodNum), mBudget.getEndOfPeriod(periodNum))
+                BigDecimal amount = mActuals.getPeriodBalance(budgetAmount.getAccountUID(), periodNum)
                         .asBigDecimal();
 
                 if (amount.equals(BigDecimal.ZERO))
@@ -27,6 +27,7 @@ import android.content.SharedPreferences.Editor;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.os.Bundle;
+import android.support.annotation.NonNull;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.widget.SimpleCursorAdapter;
 import android.support.v7.preference.PreferenceManager;
@@ -41,7 +42,9 @@ import android.widget.Spinner;
 import android.widget.Toast;
 
 import org.gnucash.android.R;
+import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.db.BookDbHelper;
+import org.gnucash.android.db.ChangeLog;
 import org.gnucash.android.db.DatabaseHelper;
 import org.gnucash.android.db.DatabaseSchema;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
@@ -57,7 +60,10 @@ import org.gnucash.android.ui.settings.PreferenceActivity;
 import org.gnucash.android.ui.transaction.TransactionsActivity;
 import org.gnucash.android.util.QualifiedAccountNameCursorAdapter;
 
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.prefs.Preferences;
 
 import butterknife.BindView;
@@ -242,6 +248,8 @@ public class WidgetConfigurationActivity extends Activity {
 		}
 	}
 
+	private static final AccountChanges sAccountChanges = new AccountChanges();
+
 	/**
 	 * Updates the widget with id <code>appWidgetId</code> with information from the 
 	 * account with record ID <code>accountId</code>
@@ -331,6 +339,94 @@ public class WidgetConfigurationActivity extends Activity {
 		appWidgetManager.updateAppWidget(appWidgetId, views);
 	}
 
+	/**
+	 * Updates the widgets whose balances may have been changed by the latest modifications of the active book.
+	 * <p>The widgets of other books are always updated, as well as all widgets the first time.
+	 * Use {@link #updateAllWidgets(Context)} when the widgets have to be drawn again</p>
+	 * @param context Application context
+	 */
+	public static void updateChangedWidgets(final Context context){
+		AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
+		ComponentName componentName = new ComponentName(context, TransactionAppWidgetProvider.class);
+		final int[] appWidgetIds = widgetManager.getAppWidgetIds(componentName);
+		if (appWidgetIds.length == 0)
+			return;
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				String activeBookUID = BooksDbAdapter.getInstance().getActiveBookUID();
+				Set<String> affectedAccountUIDs = sAccountChanges.takeAffectedAccountUIDs(
+						activeBookUID, GnuCashApplication.getActiveDb());
+				for (final int widgetId : appWidgetIds) {
+					SharedPreferences preferences = context.getSharedPreferences("widget:" + widgetId, MODE_PRIVATE);
+					String accountUID = preferences.getString(UxArgument.SELECTED_ACCOUNT_UID, null);
+					if (affectedAccountUIDs != null && accountUID != null
+							&& activeBookUID.equals(preferences.getString(UxArgument.BOOK_UID, null))
+							&& !affectedAccountUIDs.contains(accountUID)) {
+						continue;
+					}
+					updateWidget(context, widgetId);
+				}
+			}
+		}).start();
+	}
+
+	/**
+	 * Collects the accounts of the active book modified since the widgets were last updated
+	 */
+	private static class AccountChanges implements ChangeLog.Subscriber {
+		private ChangeLog mChangeLog;
+		private String mBookUID;
+		private final Set<String> mAccountUIDs = new HashSet<>();
+		private boolean mChangesLost;
+
+		/**
+		 * Returns the accounts whose balances may have changed since the last call, and clears them
+		 * @return GUIDs of the accounts, or {@code null} if the balances of all accounts may have changed
+		 */
+		synchronized Set<String> takeAffectedAccountUIDs(String bookUID, SQLiteDatabase db) {
+			if (!bookUID.equals(mBookUID)) {
+				if (mChangeLog != null)
+					mChangeLog.unsubscribe(this);
+				mChangeLog = ChangeLog.getInstance(db);
+				mChangeLog.subscribe(this);
+				mBookUID = bookUID;
+				mAccountUIDs.clear();
+				mChangesLost = false;
+				return null;
+			}
+			mChangeLog.dispatch();
+			if (mChangesLost) {
+				mAccountUIDs.clear();
+				mChangesLost = false;
+				return null;
+			}
+			// the balances of the ancestors include those of the modified accounts
+			AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(db);
+			Set<String> affectedAccountUIDs = new HashSet<>();
+			for (String accountUID : mAccountUIDs) {
+				while (accountUID != null && affectedAccountUIDs.add(accountUID)) {
+					accountUID = accountsDbAdapter.getParentAccountUID(accountUID);
+				}
+			}
+			mAccountUIDs.clear();
+			return affectedAccountUIDs;
+		}
+
+		@Override
+		public synchronized void onChanges(@NonNull List<ChangeLog.Change> changes) {
+			for (ChangeLog.Change change : changes) {
+				mAccountUIDs.addAll(change.getAccountUIDs());
+			}
+		}
+
+		@Override
+		public synchronized void onChangesLost() {
+			mChangesLost = true;
+		}
+	}
+
 	/**
 	 * Updates all widgets belonging to the application
 	 * @param context Application context
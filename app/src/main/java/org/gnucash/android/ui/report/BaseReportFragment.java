@@ -17,7 +17,6 @@ package org.gnucash.android.ui.report;
 
 import android.content.Context;
 import android.graphics.Color;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.LayoutRes;
 import android.support.annotation.Nullable;
@@ -38,14 +37,18 @@ import com.github.mikephil.charting.listener.OnChartValueSelectedListener;
 
 import org.gnucash.android.R;
 import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.adapter.BooksDbAdapter;
 import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
 import org.gnucash.android.model.AccountType;
 import org.gnucash.android.model.Commodity;
+import org.gnucash.android.report.ReportCache;
 import org.gnucash.android.ui.common.Refreshable;
 import org.joda.time.LocalDateTime;
 import org.joda.time.Months;
 import org.joda.time.Years;
 
+import java.io.Serializable;
+
 import butterknife.BindView;
 import butterknife.ButterKnife;
 
@@ -60,6 +63,8 @@ import butterknife.ButterKnife;
  * <p>Any custom information to be initialized for the report should be done in {@link #onActivityCreated(Bundle)} in implementing classes.
  * The report is then generated in {@link #onStart()}
  * </p>
+ * <p>Results which are expensive to compute should be obtained with {@link #getCachedResult(String, ReportCache.Loader)},
+ * so that they are not computed again when the report is shown again and the book has not changed.</p>
  * @author Ngewi Fet <ngewif@gmail.com>
  */
 public abstract class BaseReportFragment extends Fragment implements
@@ -105,7 +110,7 @@ public abstract class BaseReportFragment extends Fragment implements
 
     @Nullable @BindView(R.id.selected_chart_slice) protected TextView mSelectedValueTextView;
 
-    private AsyncTask<Void, Void, Void> mReportGenerator;
+    private ReportExecutor.Run mReportRun;
 
     /**
      * Return the title of this report
@@ -146,8 +151,11 @@ public abstract class BaseReportFragment extends Fragment implements
     /**
      * Generates the data for the report
      * <p>This method should not call any methods which modify the UI as it will be run in a background thread
-     * <br>Put any code to update the UI in {@link #displayReport()}
+     * <br>Put any code to update the UI in {@link #displayReport()}, or in {@link #publishPartialReport(Runnable)}
+     * to show results before the whole report has been generated
      * </p>
+     * <p>The generation is cancelled when the report is refreshed again before it has finished.
+     * Long running reports should check {@link #isGenerationCancelled()} and return early</p>
      */
     protected abstract void generateReport();
 
@@ -215,8 +223,8 @@ public abstract class BaseReportFragment extends Fragment implements
     @Override
     public void onDetach() {
         super.onDetach();
-        if (mReportGenerator != null)
-            mReportGenerator.cancel(true);
+        if (mReportRun != null)
+            mReportRun.cancel();
     }
 
     private void toggleBaseReportingOptionsVisibility() {
@@ -265,6 +273,55 @@ public abstract class BaseReportFragment extends Fragment implements
     }
 
 
+    /**
+     * Returns a result of this report from the {@link ReportCache}, computing it if the book has changed.
+     * <p>The result is cached for the current options of the report. The time range is only part of
+     * the options if the report {@link #requiresTimeRangeOptions()}</p>
+     * @param name Name of the result, to tell several results of the report apart
+     * @param loader Computes the result. It is called on the thread of {@link #generateReport()}
+     * @return Result of the report
+     */
+    protected <T extends Serializable> T getCachedResult(String name, ReportCache.Loader<T> loader) {
+        boolean hasTimeRange = requiresTimeRangeOptions();
+        return getCachedResult(name, hasTimeRange ? mReportPeriodStart : -1, hasTimeRange ? mReportPeriodEnd : -1, loader);
+    }
+
+    /**
+     * Returns a result of this report for a specific time range from the {@link ReportCache},
+     * computing it if the book has changed
+     * @param name Name of the result, to tell several results of the report apart
+     * @param start Start time of the range of the result, or -1
+     * @param end End time of the range of the result, or -1
+     * @param loader Computes the result. It is called on the thread of {@link #generateReport()}
+     * @return Result of the report
+     */
+    protected <T extends Serializable> T getCachedResult(String name, long start, long end, ReportCache.Loader<T> loader) {
+        ReportCache.Key key = new ReportCache.Key(BooksDbAdapter.getInstance().getActiveBookUID(),
+                getReportType(), name, requiresAccountTypeOptions() ? mAccountType : null,
+                mCommodity.getCurrencyCode(), start, end, mGroupInterval);
+        return ReportCache.getInstance().get(key, GnuCashApplication.getActiveDb(), loader);
+    }
+
+    /**
+     * Returns {@code true} if the report being generated on the current thread has been cancelled,
+     * because the report was refreshed again or closed
+     */
+    protected boolean isGenerationCancelled() {
+        return ReportExecutor.isCurrentRunCancelled();
+    }
+
+    /**
+     * Shows a partial result while the report is being generated.
+     * <p>Must be called from {@link #generateReport()}. The update is run on the main thread,
+     * unless the generation has been cancelled by then</p>
+     * @param update Updates the views with the partial result
+     */
+    protected void publishPartialReport(Runnable update) {
+        ReportExecutor.Run run = ReportExecutor.getCurrentRun();
+        if (run != null)
+            run.post(update);
+    }
+
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.chart_actions, menu);
@@ -272,29 +329,29 @@ public abstract class BaseReportFragment extends Fragment implements
 
     @Override
     public void refresh() {
-        if (mReportGenerator != null)
-            mReportGenerator.cancel(true);
-
-        mReportGenerator = new AsyncTask<Void, Void, Void>() {
-
-            @Override
-            protected void onPreExecute() {
-                mReportsActivity.getProgressBar().setVisibility(View.VISIBLE);
-            }
+        // the previous run is superseded by the new options
+        if (mReportRun != null)
+            mReportRun.cancel();
 
+        mReportsActivity.getProgressBar().setVisibility(View.VISIBLE);
+        mReportRun = ReportExecutor.getInstance().submit(getReportType(), new Runnable() {
             @Override
-            protected Void doInBackground(Void... params) {
+            public void run() {
                 generateReport();
-                return null;
             }
-
+        }, new Runnable() {
             @Override
-            protected void onPostExecute(Void aVoid) {
+            public void run() {
                 displayReport();
                 mReportsActivity.getProgressBar().setVisibility(View.GONE);
             }
-        };
-        mReportGenerator.execute();
+        }, new Runnable() {
+            @Override
+            public void run() {
+                // the report stays as it was, the error has been logged by the executor
+                mReportsActivity.getProgressBar().setVisibility(View.GONE);
+            }
+        });
     }
 
     /**
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.ui.report;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.crashlytics.android.Crashlytics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates the reports in the background, one at a time.
+ * <p>Reports are generated on a single thread with background priority, since the database
+ * only has a single connection anyway. At most {@link #QUEUE_CAPACITY} runs wait to be generated;
+ * when more are submitted, the oldest waiting run is dropped and its failure callback is called,
+ * so that its owner does not wait for it.</p>
+ * <p>Runs can be cancelled at any time, for example when the options of the report change before
+ * it has been generated. The generation of a report should check {@link #isCurrentRunCancelled()}
+ * between expensive steps, and the callbacks of a cancelled run are not called.</p>
+ * <p>The time taken to generate each type of report is recorded, see {@link #getGenerationTime(ReportType)}</p>
+ */
+public class ReportExecutor {
+    private static final String LOG_TAG = "ReportExecutor";
+
+    private static final int QUEUE_CAPACITY = 4;
+
+    private static ReportExecutor sInstance;
+
+    private static final ThreadLocal<Run> sCurrentRun = new ThreadLocal<>();
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Map<ReportType, GenerationTime> mGenerationTimes = new EnumMap<>(ReportType.class);
+
+    /**
+     * Time taken to generate a type of report, in milliseconds
+     */
+    public static class GenerationTime {
+        private int mCount;
+        private long mTotal;
+        private long mMax;
+        private long mLast;
+
+        private GenerationTime() {
+            //only created by the executor
+        }
+
+        private GenerationTime(GenerationTime other) {
+            mCount = other.mCount;
+            mTotal = other.mTotal;
+            mMax = other.mMax;
+            mLast = other.mLast;
+        }
+
+        private void add(long millis) {
+            mCount++;
+            mTotal += millis;
+            mMax = Math.max(mMax, millis);
+            mLast = millis;
+        }
+
+        /**
+         * Returns the number of reports which were generated completely
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+        public long getAverage() {
+            return mCount == 0 ? 0 : mTotal / mCount;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public long getLast() {
+            return mLast;
+        }
+    }
+
+    /**
+     * Generation of a report which has been submitted to the executor
+     */
+    public class Run implements Runnable {
+        private final ReportType mReportType;
+        private final Runnable mGenerator;
+        private final Runnable mOnFinished;
+        private final Runnable mOnFailed;
+        private volatile boolean mCancelled;
+
+        private Run(ReportType reportType, Runnable generator, Runnable onFinished, Runnable onFailed) {
+            mReportType = reportType;
+            mGenerator = generator;
+            mOnFinished = onFinished;
+            mOnFailed = onFailed;
+        }
+
+        /**
+         * Cancels the run. If it has not started yet, it is removed from the queue,
+         * otherwise its generation should stop at its next check
+         */
+        public void cancel() {
+            mCancelled = true;
+            mExecutor.remove(this);
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * Drops the run, which has been removed from a full queue.
+         * Its failure callback is called, since it will never be generated
+         */
+        private void drop() {
+            mCancelled = true;
+            Log.w(LOG_TAG, "Dropped report " + mReportType + " from the full queue");
+            if (mOnFailed != null)
+                mMainHandler.post(mOnFailed);
+        }
+
+        /**
+         * Runs a callback on the main thread, unless the run is cancelled by then
+         */
+        void post(final Runnable callback) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled)
+                        callback.run();
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled)
+                return;
+            sCurrentRun.set(this);
+            long start = System.nanoTime();
+            try {
+                mGenerator.run();
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Error generating report " + mReportType, e);
+                Crashlytics.logException(e);
+                if (mOnFailed != null)
+                    post(mOnFailed);
+                return;
+            } finally {
+                sCurrentRun.remove();
+            }
+            if (mCancelled) {
+                Log.d(LOG_TAG, "Cancelled report " + mReportType);
+                return;
+            }
+            recordGenerationTime(mReportType, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            post(mOnFinished);
+        }
+    }
+
+    private ReportExecutor() {
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "ReportGenerator");
+                    }
+                },
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                        Runnable oldest = executor.getQueue().poll();
+                        if (oldest instanceof Run)
+                            ((Run) oldest).drop();
+                        executor.execute(runnable);
+                    }
+                });
+    }
+
+    /**
+     * Returns the executor of the app
+     */
+    public static synchronized ReportExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new ReportExecutor();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Submits a report to be generated
+     * @param reportType Type of the report, for recording the generation time
+     * @param generator Generates the report in the background
+     * @param onFinished Called on the main thread after the report has been generated, unless it was cancelled
+     * @return Run of the report, which can be cancelled
+     */
+    public Run submit(@NonNull ReportType reportType, @NonNull Runnable generator, @NonNull Runnable onFinished) {
+        return submit(reportType, generator, onFinished, null);
+    }
+
+    /**
+     * Submits a report to be generated
+     * @param reportType Type of the report, for recording the generation time
+     * @param generator Generates the report in the background
+     * @param onFinished Called on the main thread after the report has been generated, unless it was cancelled
+     * @param onFailed Called on the main thread if the generation threw an exception, unless the run was cancelled,
+     *                 or if the run was dropped from the full queue
+     * @return Run of the report, which can be cancelled
+     */
+    public Run submit(@NonNull ReportType reportType, @NonNull Runnable generator, @NonNull Runnable onFinished,
+                      @Nullable Runnable onFailed) {
+        Run run = new Run(reportType, generator, onFinished, onFailed);
+        mExecutor.execute(run);
+        return run;
+    }
+
+    /**
+     * Returns the run being generated on the current thread
+     * @return Run, or {@code null} if the current thread is not generating a report
+     */
+    @Nullable
+    public static Run getCurrentRun() {
+        return sCurrentRun.get();
+    }
+
+    /**
+     * Returns {@code true} if the run being generated on the current thread has been cancelled
+     */
+    public static boolean isCurrentRunCancelled() {
+        Run run = sCurrentRun.get();
+        return run != null && run.isCancelled();
+    }
+
+    /**
+     * Returns the time taken to generate a type of report since the app was started
+     * @param reportType Type of the report
+     * @return Generation times, or {@code null} if no report of this type has been generated
+     */
+    @Nullable
+    public synchronized GenerationTime getGenerationTime(@NonNull ReportType reportType) {
+        GenerationTime generationTime = mGenerationTimes.get(reportType);
+        return generationTime == null ? null : new GenerationTime(generationTime);
+    }
+
+    private synchronized void recordGenerationTime(ReportType reportType, long millis) {
+        GenerationTime generationTime = mGenerationTimes.get(reportType);
+        if (generationTime == null) {
+            generationTime = new GenerationTime();
+            mGenerationTimes.put(reportType, generationTime);
+        }
+        generationTime.add(millis);
+        Log.d(LOG_TAG, String.format("Generated report %s in %d ms (average %d ms, max %d ms over %d reports)",
+                reportType, millis, generationTime.getAverage(), generationTime.getMax(), generationTime.getCount()));
+    }
+}
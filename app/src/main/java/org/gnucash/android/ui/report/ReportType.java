@@ -23,11 +23,12 @@ import org.gnucash.android.R;
 import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.ui.report.barchart.StackedBarChartFragment;
 import org.gnucash.android.ui.report.linechart.CashFlowLineChartFragment;
+import org.gnucash.android.ui.report.linechart.NetWorthLineChartFragment;
 import org.gnucash.android.ui.report.piechart.PieChartFragment;
 import org.gnucash.android.ui.report.sheet.BalanceSheetFragment;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -39,7 +40,7 @@ import java.util.Map;
 public enum ReportType {
     PIE_CHART(0), BAR_CHART(1), LINE_CHART(2), TEXT(3), NONE(4);
 
-    Map<String, Class> mReportTypeMap = new HashMap<>();
+    Map<String, Class> mReportTypeMap = new LinkedHashMap<>();
     int mValue = 4;
 
     ReportType(int index){
@@ -54,6 +55,7 @@ public enum ReportType {
                 break;
             case 2:
                 mReportTypeMap.put(context.getString(R.string.title_cash_flow_report), CashFlowLineChartFragment.class);
+                mReportTypeMap.put(context.getString(R.string.title_net_worth_report), NetWorthLineChartFragment.class);
                 break;
             case 3:
                 mReportTypeMap.put(context.getString(R.string.title_balance_sheet_report), BalanceSheetFragment.class);
@@ -36,10 +36,14 @@ import com.github.mikephil.charting.data.PieData;
 import com.github.mikephil.charting.data.PieDataSet;
 
 import org.gnucash.android.R;
-import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.model.Account;
 import org.gnucash.android.model.AccountType;
 import org.gnucash.android.model.Money;
+import org.gnucash.android.report.BalanceMatrix;
+import org.gnucash.android.report.NetWorthSeries;
+import org.gnucash.android.report.ReportAggregator;
+import org.gnucash.android.report.ReportCache;
 import org.gnucash.android.ui.report.barchart.StackedBarChartFragment;
 import org.gnucash.android.ui.report.linechart.CashFlowLineChartFragment;
 import org.gnucash.android.ui.report.piechart.PieChartFragment;
@@ -47,6 +51,7 @@ import org.gnucash.android.ui.report.sheet.BalanceSheetFragment;
 import org.gnucash.android.ui.transaction.TransactionsActivity;
 import org.joda.time.LocalDate;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -74,18 +79,11 @@ public class ReportsOverviewFragment extends BaseReportFragment {
     @BindView(R.id.total_liabilities) TextView mTotalLiabilities;
     @BindView(R.id.net_worth) TextView mNetWorth;
 
-    private AccountsDbAdapter mAccountsDbAdapter;
     private Money mAssetsBalance;
     private Money mLiabilitiesBalance;
 
     private boolean mChartHasData = false;
 
-    @Override
-    public void onCreate(@Nullable Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        mAccountsDbAdapter = AccountsDbAdapter.getInstance();
-    }
-
     @Override
     public int getLayoutResource() {
         return R.layout.fragment_report_summary;
@@ -159,16 +157,20 @@ public class ReportsOverviewFragment extends BaseReportFragment {
             mChartHasData = false;
         }
 
-        List<AccountType> accountTypes = new ArrayList<>();
-        accountTypes.add(AccountType.ASSET);
-        accountTypes.add(AccountType.CASH);
-        accountTypes.add(AccountType.BANK);
-        mAssetsBalance = mAccountsDbAdapter.getAccountBalance(accountTypes, -1, System.currentTimeMillis());
-
-        accountTypes.clear();
-        accountTypes.add(AccountType.LIABILITY);
-        accountTypes.add(AccountType.CREDIT);
-        mLiabilitiesBalance = mAccountsDbAdapter.getAccountBalance(accountTypes, -1, System.currentTimeMillis());
+        // the balances are up to now, so they are cached for the day
+        long today = new LocalDate().toDate().getTime();
+        BigDecimal[] balances = getCachedResult("net_worth", -1, today, new ReportCache.Loader<BigDecimal[]>() {
+            @Override
+            public BigDecimal[] load() {
+                NetWorthSeries series = new NetWorthSeries(GnuCashApplication.getActiveDb());
+                long now = System.currentTimeMillis();
+                Money assetsBalance = series.getBalance(NetWorthSeries.ASSET_TYPES, mCommodity, now);
+                Money liabilitiesBalance = series.getBalance(NetWorthSeries.LIABILITY_TYPES, mCommodity, now);
+                return new BigDecimal[]{assetsBalance.asBigDecimal(), liabilitiesBalance.asBigDecimal()};
+            }
+        });
+        mAssetsBalance = new Money(balances[0], mCommodity);
+        mLiabilitiesBalance = new Money(balances[1], mCommodity);
     }
 
     /**
@@ -179,22 +181,24 @@ public class ReportsOverviewFragment extends BaseReportFragment {
         PieDataSet dataSet = new PieDataSet(null, "");
         List<String> labels = new ArrayList<>();
         List<Integer> colors = new ArrayList<>();
-        for (Account account : mAccountsDbAdapter.getSimpleAccountList()) {
-            if (account.getAccountType() == AccountType.EXPENSE
-                    && !account.isPlaceholderAccount()
-                    && account.getCommodity().equals(mCommodity)) {
-
-                long start = new LocalDate().minusMonths(2).dayOfMonth().withMinimumValue().toDate().getTime();
-                long end = new LocalDate().plusDays(1).toDate().getTime();
-                double balance = mAccountsDbAdapter.getAccountsBalance(
-                        Collections.singletonList(account.getUID()), start, end).asDouble();
-                if (balance > 0) {
-                    dataSet.addEntry(new Entry((float) balance, dataSet.getEntryCount()));
-                    colors.add(account.getColor() != Account.DEFAULT_COLOR
-                            ? account.getColor()
-                            : ReportsActivity.COLORS[(dataSet.getEntryCount() - 1) % ReportsActivity.COLORS.length]);
-                    labels.add(account.getName());
-                }
+        final long start = new LocalDate().minusMonths(2).dayOfMonth().withMinimumValue().toDate().getTime();
+        final long end = new LocalDate().plusDays(1).toDate().getTime();
+        BalanceMatrix matrix = getCachedResult("expenses", start, end, new ReportCache.Loader<BalanceMatrix>() {
+            @Override
+            public BalanceMatrix load() {
+                return new ReportAggregator(GnuCashApplication.getActiveDb()).aggregate(
+                        Collections.singletonList(AccountType.EXPENSE), mCommodity.getCurrencyCode(),
+                        ReportsActivity.GroupInterval.ALL, start, end);
+            }
+        });
+        for (int row = 0; row < matrix.getAccountCount(); row++) {
+            double balance = matrix.get(row, 0);
+            if (balance > 0) {
+                dataSet.addEntry(new Entry((float) balance, dataSet.getEntryCount()));
+                colors.add(matrix.getAccountColor(row) != Account.DEFAULT_COLOR
+                        ? matrix.getAccountColor(row)
+                        : ReportsActivity.COLORS[(dataSet.getEntryCount() - 1) % ReportsActivity.COLORS.length]);
+                labels.add(matrix.getAccountName(row));
             }
         }
         dataSet.setColors(colors);
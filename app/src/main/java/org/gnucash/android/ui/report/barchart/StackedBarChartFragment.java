@@ -19,6 +19,7 @@ package org.gnucash.android.ui.report.barchart;
 
 import android.os.Bundle;
 import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 import android.view.Menu;
@@ -35,14 +36,17 @@ import com.github.mikephil.charting.highlight.Highlight;
 import com.github.mikephil.charting.utils.LargeValueFormatter;
 
 import org.gnucash.android.R;
-import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
 import org.gnucash.android.model.Account;
 import org.gnucash.android.model.AccountType;
+import org.gnucash.android.report.BalanceMatrix;
+import org.gnucash.android.report.ReportAggregator;
+import org.gnucash.android.report.ReportCache;
 import org.gnucash.android.ui.report.BaseReportFragment;
 import org.gnucash.android.ui.report.ReportType;
 import org.joda.time.LocalDate;
-import org.joda.time.LocalDateTime;
+import org.joda.time.LocalTime;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -71,13 +75,17 @@ public class StackedBarChartFragment extends BaseReportFragment {
     private static final int ANIMATION_DURATION = 2000;
     private static final int NO_DATA_BAR_COUNTS = 3;
 
-    private AccountsDbAdapter mAccountsDbAdapter = AccountsDbAdapter.getInstance();
+    /**
+     * Number of bars aggregated before the chart is updated with the partial result
+     */
+    private static final int PERIODS_PER_UPDATE = 12;
 
     @BindView(R.id.bar_chart) BarChart mChart;
 
     private boolean mUseAccountColor = true;
     private boolean mTotalPercentageMode = true;
     private boolean mChartDataPresent = true;
+    private BarData mData;
 
     @Override
     public int getTitle() {
@@ -119,84 +127,103 @@ public class StackedBarChartFragment extends BaseReportFragment {
 
     /**
      * Returns a data object that represents a user data of the specified account types
-     * @return a {@code BarData} instance that represents a user data
+     * <p>While the amounts are aggregated, the chart is updated with the bars computed so far</p>
+     * @return a {@code BarData} instance that represents a user data, or {@code null} if the generation was cancelled
      */
+    @Nullable
     protected BarData getData() {
+        BalanceMatrix matrix = getCachedResult("amounts", new ReportCache.Loader<BalanceMatrix>() {
+            @Override
+            public BalanceMatrix load() {
+                return new ReportAggregator(GnuCashApplication.getActiveDb()).aggregate(
+                        Collections.singletonList(mAccountType), mCommodity.getCurrencyCode(), mGroupInterval,
+                        getStartDate(mAccountType).toDate().getTime(), getEndDate(mAccountType).toDate().getTime(),
+                        PERIODS_PER_UPDATE, new ReportAggregator.PartialResultListener() {
+                            @Override
+                            public boolean onPartialResult(@NonNull BalanceMatrix matrix) {
+                                if (isGenerationCancelled())
+                                    return false;
+                                final BarData data = getData(matrix);
+                                if (data != null) {
+                                    publishPartialReport(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            mChart.setData(data);
+                                            mChart.invalidate();
+                                        }
+                                    });
+                                }
+                                return true;
+                            }
+                        });
+            }
+        });
+        if (matrix == null)
+            return null;
+        BarData data = getData(matrix);
+        mChartDataPresent = data != null;
+        return mChartDataPresent ? data : getEmptyData();
+    }
+
+    /**
+     * Returns the bars of the amounts of the accounts
+     * @param matrix Amounts of the accounts per period
+     * @return Data of the chart, or {@code null} if all amounts are zero
+     */
+    @Nullable
+    private BarData getData(BalanceMatrix matrix) {
         List<BarEntry> values = new ArrayList<>();
         List<String> labels = new ArrayList<>();
         List<Integer> colors = new ArrayList<>();
         Map<String, Integer> accountToColorMap = new LinkedHashMap<>();
         List<String> xValues = new ArrayList<>();
-        LocalDateTime tmpDate = new LocalDateTime(getStartDate(mAccountType).toDate().getTime());
-        int count = getDateDiff(new LocalDateTime(getStartDate(mAccountType).toDate().getTime()),
-                new LocalDateTime(getEndDate(mAccountType).toDate().getTime()));
-        for (int i = 0; i <= count; i++) {
-            long start = 0;
-            long end = 0;
+        for (int i = 0; i < matrix.getPeriodCount(); i++) {
+            LocalDate periodStart = matrix.getPeriodStart(i);
             switch (mGroupInterval) {
                 case MONTH:
-                    start = tmpDate.dayOfMonth().withMinimumValue().millisOfDay().withMinimumValue().toDate().getTime();
-                    end = tmpDate.dayOfMonth().withMaximumValue().millisOfDay().withMaximumValue().toDate().getTime();
-
-                    xValues.add(tmpDate.toString(X_AXIS_MONTH_PATTERN));
-                    tmpDate = tmpDate.plusMonths(1);
+                    xValues.add(periodStart.toString(X_AXIS_MONTH_PATTERN));
                     break;
                 case QUARTER:
-                    int quarter = getQuarter(tmpDate);
-                    start = tmpDate.withMonthOfYear(quarter * 3 - 2).dayOfMonth().withMinimumValue().millisOfDay().withMinimumValue().toDate().getTime();
-                    end = tmpDate.withMonthOfYear(quarter * 3).dayOfMonth().withMaximumValue().millisOfDay().withMaximumValue().toDate().getTime();
-
-                    xValues.add(String.format(X_AXIS_QUARTER_PATTERN, quarter, tmpDate.toString(" YY")));
-                    tmpDate = tmpDate.plusMonths(3);
+                    int quarter = getQuarter(periodStart.toLocalDateTime(LocalTime.MIDNIGHT));
+                    xValues.add(String.format(X_AXIS_QUARTER_PATTERN, quarter, periodStart.toString(" YY")));
                     break;
                 case YEAR:
-                    start = tmpDate.dayOfYear().withMinimumValue().millisOfDay().withMinimumValue().toDate().getTime();
-                    end = tmpDate.dayOfYear().withMaximumValue().millisOfDay().withMaximumValue().toDate().getTime();
-
-                    xValues.add(tmpDate.toString(X_AXIS_YEAR_PATTERN));
-                    tmpDate = tmpDate.plusYears(1);
+                    xValues.add(periodStart.toString(X_AXIS_YEAR_PATTERN));
                     break;
             }
             List<Float> stack = new ArrayList<>();
-            for (Account account : mAccountsDbAdapter.getSimpleAccountList()) {
-                if (account.getAccountType() == mAccountType
-                        && !account.isPlaceholderAccount()
-                        && account.getCommodity().equals(mCommodity)) {
-
-                    double balance = mAccountsDbAdapter.getAccountsBalance(
-                            Collections.singletonList(account.getUID()), start, end).asDouble();
-                    if (balance != 0) {
-                        stack.add((float) balance);
-
-                        String accountName = account.getName();
-                        while (labels.contains(accountName)) {
-                            if (!accountToColorMap.containsKey(account.getUID())) {
-                                for (String label : labels) {
-                                    if (label.equals(accountName)) {
-                                        accountName += " ";
-                                    }
+            for (int row = 0; row < matrix.getAccountCount(); row++) {
+                String accountUID = matrix.getAccountUID(row);
+                double balance = matrix.get(row, i);
+                if (balance != 0) {
+                    stack.add((float) balance);
+
+                    String accountName = matrix.getAccountName(row);
+                    while (labels.contains(accountName)) {
+                        if (!accountToColorMap.containsKey(accountUID)) {
+                            for (String label : labels) {
+                                if (label.equals(accountName)) {
+                                    accountName += " ";
                                 }
-                            } else {
-                                break;
                             }
+                        } else {
+                            break;
                         }
-                        labels.add(accountName);
-
-                        if (!accountToColorMap.containsKey(account.getUID())) {
-                            Integer color;
-                            if (mUseAccountColor) {
-                                color = (account.getColor() != Account.DEFAULT_COLOR)
-                                        ? account.getColor()
-                                        : COLORS[accountToColorMap.size() % COLORS.length];
-                            } else {
-                                color = COLORS[accountToColorMap.size() % COLORS.length];
-                            }
-                            accountToColorMap.put(account.getUID(), color);
+                    }
+                    labels.add(accountName);
+
+                    if (!accountToColorMap.containsKey(accountUID)) {
+                        Integer color;
+                        if (mUseAccountColor) {
+                            color = (matrix.getAccountColor(row) != Account.DEFAULT_COLOR)
+                                    ? matrix.getAccountColor(row)
+                                    : COLORS[accountToColorMap.size() % COLORS.length];
+                        } else {
+                            color = COLORS[accountToColorMap.size() % COLORS.length];
                         }
-                        colors.add(accountToColorMap.get(account.getUID()));
-
-                        Log.d(TAG, mAccountType + tmpDate.toString(" MMMM yyyy ") + account.getName() + " = " + stack.get(stack.size() - 1));
+                        accountToColorMap.put(accountUID, color);
                     }
+                    colors.add(accountToColorMap.get(accountUID));
                 }
             }
 
@@ -209,11 +236,8 @@ public class StackedBarChartFragment extends BaseReportFragment {
         set.setStackLabels(labels.toArray(new String[labels.size()]));
         set.setColors(colors);
 
-        if (set.getYValueSum() == 0) {
-            mChartDataPresent = false;
-            return getEmptyData();
-        }
-        mChartDataPresent = true;
+        if (set.getYValueSum() == 0)
+            return null;
         return new BarData(xValues, set);
     }
 
@@ -289,16 +313,19 @@ public class StackedBarChartFragment extends BaseReportFragment {
 
     @Override
     public void generateReport() {
-        mChart.setData(getData());
+        mData = getData();
+    }
+
+    @Override
+    protected void displayReport() {
+        // the chart is only modified on the main thread, where the partial results are shown
+        mChart.setData(mData);
         setCustomLegend();
 
         mChart.getAxisLeft().setDrawLabels(mChartDataPresent);
         mChart.getXAxis().setDrawLabels(mChartDataPresent);
         mChart.setTouchEnabled(mChartDataPresent);
-    }
 
-    @Override
-    protected void displayReport() {
         mChart.notifyDataSetChanged();
         mChart.highlightValues(null);
         if (mChartDataPresent) {
@@ -19,7 +19,8 @@ package org.gnucash.android.ui.report.linechart;
 
 import android.graphics.Color;
 import android.os.Bundle;
-import android.util.Log;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.view.Menu;
 import android.view.MenuItem;
 
@@ -33,13 +34,14 @@ import com.github.mikephil.charting.highlight.Highlight;
 import com.github.mikephil.charting.utils.LargeValueFormatter;
 
 import org.gnucash.android.R;
-import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
-import org.gnucash.android.model.Account;
 import org.gnucash.android.model.AccountType;
+import org.gnucash.android.report.BalanceMatrix;
+import org.gnucash.android.report.ReportAggregator;
+import org.gnucash.android.report.ReportCache;
 import org.gnucash.android.ui.report.BaseReportFragment;
 import org.gnucash.android.ui.report.ReportType;
-import org.gnucash.android.ui.report.ReportsActivity.GroupInterval;
 import org.joda.time.LocalDate;
 import org.joda.time.LocalDateTime;
 
@@ -64,6 +66,11 @@ public class CashFlowLineChartFragment extends BaseReportFragment {
     private static final String X_AXIS_PATTERN = "MMM YY";
     private static final int ANIMATION_DURATION = 3000;
     private static final int NO_DATA_BAR_COUNTS = 5;
+
+    /**
+     * Number of periods aggregated before the chart is updated with the partial result
+     */
+    private static final int PERIODS_PER_UPDATE = 12;
     private static final int[] COLORS = {
             Color.parseColor("#68F1AF"), Color.parseColor("#cc1f09"), Color.parseColor("#EE8600"),
             Color.parseColor("#1469EB"), Color.parseColor("#B304AD"),
@@ -73,12 +80,12 @@ public class CashFlowLineChartFragment extends BaseReportFragment {
             Color.parseColor("#0065FF"), Color.parseColor("#8F038A"),
     };
 
-    private AccountsDbAdapter mAccountsDbAdapter = AccountsDbAdapter.getInstance();
     private Map<AccountType, Long> mEarliestTimestampsMap = new HashMap<>();
     private Map<AccountType, Long> mLatestTimestampsMap = new HashMap<>();
     private long mEarliestTransactionTimestamp;
     private long mLatestTransactionTimestamp;
     private boolean mChartDataPresent = true;
+    private LineData mData;
 
     @BindView(R.id.line_chart) LineChart mChart;
 
@@ -117,15 +124,16 @@ public class CashFlowLineChartFragment extends BaseReportFragment {
 
     /**
      * Returns a data object that represents a user data of the specified account types
+     * <p>While the amounts are aggregated, the chart is updated with the periods computed so far</p>
      * @param accountTypeList account's types which will be displayed
-     * @return a {@code LineData} instance that represents a user data
+     * @return a {@code LineData} instance that represents a user data, or {@code null} if the generation was cancelled
      */
-    private LineData getData(List<AccountType> accountTypeList) {
-        Log.w(TAG, "getData");
+    @Nullable
+    private LineData getData(final List<AccountType> accountTypeList) {
         calculateEarliestAndLatestTimestamps(accountTypeList);
         // LocalDateTime?
-        LocalDate startDate;
-        LocalDate endDate;
+        final LocalDate startDate;
+        final LocalDate endDate;
         if (mReportPeriodStart == -1 && mReportPeriodEnd == -1) {
             startDate = new LocalDate(mEarliestTransactionTimestamp).withDayOfMonth(1);
             endDate = new LocalDate(mLatestTransactionTimestamp).withDayOfMonth(1);
@@ -134,34 +142,67 @@ public class CashFlowLineChartFragment extends BaseReportFragment {
             endDate = new LocalDate(mReportPeriodEnd).withDayOfMonth(1);
         }
 
-        int count = getDateDiff(new LocalDateTime(startDate.toDate().getTime()), new LocalDateTime(endDate.toDate().getTime()));
-        Log.d(TAG, "X-axis count" + count);
+        BalanceMatrix matrix = getCachedResult("amounts", new ReportCache.Loader<BalanceMatrix>() {
+            @Override
+            public BalanceMatrix load() {
+                return new ReportAggregator(GnuCashApplication.getActiveDb()).aggregate(
+                        accountTypeList, mCommodity.getCurrencyCode(), mGroupInterval,
+                        startDate.toDate().getTime(), endDate.toDate().getTime(),
+                        PERIODS_PER_UPDATE, new ReportAggregator.PartialResultListener() {
+                            @Override
+                            public boolean onPartialResult(@NonNull BalanceMatrix matrix) {
+                                if (isGenerationCancelled())
+                                    return false;
+                                final LineData data = getData(accountTypeList, matrix);
+                                if (data != null) {
+                                    publishPartialReport(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            mChart.setData(data);
+                                            mChart.invalidate();
+                                        }
+                                    });
+                                }
+                                return true;
+                            }
+                        });
+            }
+        });
+        if (matrix == null)
+            return null;
+        LineData lineData = getData(accountTypeList, matrix);
+        mChartDataPresent = lineData != null;
+        return mChartDataPresent ? lineData : getEmptyData();
+    }
+
+    /**
+     * Returns the lines of the totals of the account types
+     * @param accountTypeList account's types which will be displayed
+     * @param matrix amounts of the accounts per period of the chart
+     * @return Data of the chart, or {@code null} if all amounts are zero
+     */
+    @Nullable
+    private LineData getData(List<AccountType> accountTypeList, BalanceMatrix matrix) {
         List<String> xValues = new ArrayList<>();
-        for (int i = 0; i <= count; i++) {
+        for (int i = 0; i < matrix.getPeriodCount(); i++) {
+            LocalDate periodStart = matrix.getPeriodStart(i);
             switch (mGroupInterval) {
                 case MONTH:
-                    xValues.add(startDate.toString(X_AXIS_PATTERN));
-                    Log.d(TAG, "X-axis " + startDate.toString("MM yy"));
-                    startDate = startDate.plusMonths(1);
+                    xValues.add(periodStart.toString(X_AXIS_PATTERN));
                     break;
                 case QUARTER:
-                    int quarter = getQuarter(new LocalDateTime(startDate.toDate().getTime()));
-                    xValues.add("Q" + quarter + startDate.toString(" yy"));
-                    Log.d(TAG, "X-axis " + "Q" + quarter + startDate.toString(" MM yy"));
-                    startDate = startDate.plusMonths(3);
+                    int quarter = getQuarter(new LocalDateTime(periodStart.toDate().getTime()));
+                    xValues.add("Q" + quarter + periodStart.toString(" yy"));
                     break;
                 case YEAR:
-                    xValues.add(startDate.toString("yyyy"));
-                    Log.d(TAG, "X-axis " + startDate.toString("yyyy"));
-                    startDate = startDate.plusYears(1);
+                    xValues.add(periodStart.toString("yyyy"));
                     break;
-//                default:
             }
         }
 
         List<LineDataSet> dataSets = new ArrayList<>();
         for (AccountType accountType : accountTypeList) {
-            LineDataSet set = new LineDataSet(getEntryList(accountType), accountType.toString());
+            LineDataSet set = new LineDataSet(getEntryList(accountType, matrix), accountType.toString());
             set.setDrawFilled(true);
             set.setLineWidth(2);
             set.setColor(COLORS[dataSets.size()]);
@@ -171,10 +212,8 @@ public class CashFlowLineChartFragment extends BaseReportFragment {
         }
 
         LineData lineData = new LineData(xValues, dataSets);
-        if (lineData.getYValueSum() == 0) {
-            mChartDataPresent = false;
-            return getEmptyData();
-        }
+        if (lineData.getYValueSum() == 0)
+            return null;
         return lineData;
     }
 
@@ -201,18 +240,10 @@ public class CashFlowLineChartFragment extends BaseReportFragment {
     /**
      * Returns entries which represent a user data of the specified account type
      * @param accountType account's type which user data will be processed
+     * @param matrix amounts of the accounts per period of the chart
      * @return entries which represent a user data
      */
-    private List<Entry> getEntryList(AccountType accountType) {
-        List<String> accountUIDList = new ArrayList<>();
-        for (Account account : mAccountsDbAdapter.getSimpleAccountList()) {
-            if (account.getAccountType() == accountType
-                    && !account.isPlaceholderAccount()
-                    && account.getCommodity().equals(mCommodity)) {
-                accountUIDList.add(account.getUID());
-            }
-        }
-
+    private List<Entry> getEntryList(AccountType accountType, BalanceMatrix matrix) {
         LocalDateTime earliest;
         LocalDateTime latest;
         if (mReportPeriodStart == -1 && mReportPeriodEnd == -1) {
@@ -222,40 +253,14 @@ public class CashFlowLineChartFragment extends BaseReportFragment {
             earliest = new LocalDateTime(mReportPeriodStart);
             latest = new LocalDateTime(mReportPeriodEnd);
         }
-        Log.d(TAG, "Earliest " + accountType + " date " + earliest.toString("dd MM yyyy"));
-        Log.d(TAG, "Latest " + accountType + " date " + latest.toString("dd MM yyyy"));
 
         int xAxisOffset = getDateDiff(new LocalDateTime(mEarliestTransactionTimestamp), earliest);
-        int count = getDateDiff(earliest, latest);
+        int count = Math.min(getDateDiff(earliest, latest), matrix.getPeriodCount() - 1 - xAxisOffset);
+        double[] totals = matrix.getTotals(accountType);
         List<Entry> values = new ArrayList<>(count + 1);
         for (int i = 0; i <= count; i++) {
-            long start = 0;
-            long end = 0;
-            switch (mGroupInterval) {
-                case QUARTER:
-                    int quarter = getQuarter(earliest);
-                    start = earliest.withMonthOfYear(quarter * 3 - 2).dayOfMonth().withMinimumValue().millisOfDay().withMinimumValue().toDate().getTime();
-                    end = earliest.withMonthOfYear(quarter * 3).dayOfMonth().withMaximumValue().millisOfDay().withMaximumValue().toDate().getTime();
-
-                    earliest = earliest.plusMonths(3);
-                    break;
-                case MONTH:
-                    start = earliest.dayOfMonth().withMinimumValue().millisOfDay().withMinimumValue().toDate().getTime();
-                    end = earliest.dayOfMonth().withMaximumValue().millisOfDay().withMaximumValue().toDate().getTime();
-
-                    earliest = earliest.plusMonths(1);
-                    break;
-                case YEAR:
-                    start = earliest.dayOfYear().withMinimumValue().millisOfDay().withMinimumValue().toDate().getTime();
-                    end = earliest.dayOfYear().withMaximumValue().millisOfDay().withMaximumValue().toDate().getTime();
-
-                    earliest = earliest.plusYears(1);
-                    break;
-            }
-            float balance = (float) mAccountsDbAdapter.getAccountsBalance(accountUIDList, start, end).asDouble();
+            float balance = (float) totals[i + xAxisOffset];
             values.add(new Entry(balance, i + xAxisOffset));
-            Log.d(TAG, accountType + earliest.toString(" MMM yyyy") + ", balance = " + balance);
-
         }
 
         return values;
@@ -272,14 +277,29 @@ public class CashFlowLineChartFragment extends BaseReportFragment {
             return;
         }
 
-        TransactionsDbAdapter dbAdapter = TransactionsDbAdapter.getInstance();
+        final List<AccountType> accountTypes = new ArrayList<>(accountTypeList);
+        HashMap<AccountType, long[]> timestamps = getCachedResult("timestamps", -1, -1,
+                new ReportCache.Loader<HashMap<AccountType, long[]>>() {
+            @Override
+            public HashMap<AccountType, long[]> load() {
+                TransactionsDbAdapter dbAdapter = TransactionsDbAdapter.getInstance();
+                HashMap<AccountType, long[]> timestamps = new HashMap<>();
+                for (AccountType type : accountTypes) {
+                    long earliest = dbAdapter.getTimestampOfEarliestTransaction(type, mCommodity.getCurrencyCode());
+                    long latest = dbAdapter.getTimestampOfLatestTransaction(type, mCommodity.getCurrencyCode());
+                    if (earliest > 0 && latest > 0) {
+                        timestamps.put(type, new long[]{earliest, latest});
+                    }
+                }
+                return timestamps;
+            }
+        });
         for (Iterator<AccountType> iter = accountTypeList.iterator(); iter.hasNext();) {
             AccountType type = iter.next();
-            long earliest = dbAdapter.getTimestampOfEarliestTransaction(type, mCommodity.getCurrencyCode());
-            long latest = dbAdapter.getTimestampOfLatestTransaction(type, mCommodity.getCurrencyCode());
-            if (earliest > 0 && latest > 0) {
-                mEarliestTimestampsMap.put(type, earliest);
-                mLatestTimestampsMap.put(type, latest);
+            long[] range = timestamps.get(type);
+            if (range != null) {
+                mEarliestTimestampsMap.put(type, range[0]);
+                mLatestTimestampsMap.put(type, range[1]);
             } else {
                 iter.remove();
             }
@@ -303,17 +323,13 @@ public class CashFlowLineChartFragment extends BaseReportFragment {
 
     @Override
     protected void generateReport() {
-        LineData lineData = getData(new ArrayList<>(Arrays.asList(AccountType.INCOME, AccountType.EXPENSE)));
-        if (lineData != null) {
-            mChart.setData(lineData);
-            mChartDataPresent = true;
-        } else {
-            mChartDataPresent = false;
-        }
+        mData = getData(new ArrayList<>(Arrays.asList(AccountType.INCOME, AccountType.EXPENSE)));
     }
 
     @Override
     protected void displayReport() {
+        // the chart is only modified on the main thread, where the partial results are shown
+        mChart.setData(mData);
         if (!mChartDataPresent) {
             mChart.getAxisLeft().setAxisMaxValue(10);
             mChart.getAxisLeft().setDrawLabels(false);
@@ -326,25 +342,6 @@ public class CashFlowLineChartFragment extends BaseReportFragment {
         mChart.invalidate();
     }
 
-    @Override
-    public void onTimeRangeUpdated(long start, long end) {
-        if (mReportPeriodStart != start || mReportPeriodEnd != end) {
-            mReportPeriodStart = start;
-            mReportPeriodEnd = end;
-            mChart.setData(getData(new ArrayList<>(Arrays.asList(AccountType.INCOME, AccountType.EXPENSE))));
-            mChart.invalidate();
-        }
-    }
-
-    @Override
-    public void onGroupingUpdated(GroupInterval groupInterval) {
-        if (mGroupInterval != groupInterval) {
-            mGroupInterval = groupInterval;
-            mChart.setData(getData(new ArrayList<>(Arrays.asList(AccountType.INCOME, AccountType.EXPENSE))));
-            mChart.invalidate();
-        }
-    }
-
     @Override
     public void onPrepareOptionsMenu(Menu menu) {
         menu.findItem(R.id.menu_toggle_average_lines).setVisible(mChartDataPresent);
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.ui.report.linechart;
+
+import android.graphics.Color;
+import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
+
+import com.github.mikephil.charting.charts.LineChart;
+import com.github.mikephil.charting.components.Legend;
+import com.github.mikephil.charting.data.Entry;
+import com.github.mikephil.charting.data.LineData;
+import com.github.mikephil.charting.data.LineDataSet;
+import com.github.mikephil.charting.highlight.Highlight;
+import com.github.mikephil.charting.utils.LargeValueFormatter;
+
+import org.gnucash.android.R;
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.report.NetWorthSeries;
+import org.gnucash.android.report.ReportAggregator;
+import org.gnucash.android.ui.report.BaseReportFragment;
+import org.gnucash.android.ui.report.ReportType;
+import org.gnucash.android.ui.report.ReportsActivity.GroupInterval;
+import org.joda.time.LocalDate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import butterknife.BindView;
+
+/**
+ * Line chart of the assets, liabilities and net worth at the end of each period.
+ * <p>The balances are read from the daily checkpoints of {@link NetWorthSeries},
+ * instead of adding up all the splits up to each period</p>
+ */
+public class NetWorthLineChartFragment extends BaseReportFragment {
+
+    private static final String X_AXIS_PATTERN = "MMM YY";
+    private static final int ANIMATION_DURATION = 3000;
+    private static final int NO_DATA_BAR_COUNTS = 5;
+    private static final int[] COLORS = {
+            Color.parseColor("#68F1AF"), Color.parseColor("#cc1f09"), Color.parseColor("#1469EB"),
+    };
+
+    private boolean mChartDataPresent = true;
+    private LineData mData;
+
+    @BindView(R.id.line_chart) LineChart mChart;
+
+    @Override
+    public int getLayoutResource() {
+        return R.layout.fragment_line_chart;
+    }
+
+    @Override
+    public int getTitle() {
+        return R.string.title_net_worth_report;
+    }
+
+    @Override
+    public ReportType getReportType() {
+        return ReportType.LINE_CHART;
+    }
+
+    @Override
+    public boolean requiresAccountTypeOptions() {
+        return false;
+    }
+
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+
+        mChart.setOnChartValueSelectedListener(this);
+        mChart.setDescription("");
+        mChart.getXAxis().setDrawGridLines(false);
+        mChart.getAxisRight().setEnabled(false);
+        mChart.getAxisLeft().enableGridDashedLine(4.0f, 4.0f, 0);
+        mChart.getAxisLeft().setValueFormatter(new LargeValueFormatter(mCommodity.getSymbol()));
+
+        Legend legend = mChart.getLegend();
+        legend.setPosition(Legend.LegendPosition.BELOW_CHART_CENTER);
+        legend.setTextSize(16);
+        legend.setForm(Legend.LegendForm.CIRCLE);
+    }
+
+    /**
+     * Returns the lines of the assets, liabilities and net worth in the time range of the report
+     * @return Data of the chart, or the placeholder data if there are no transactions
+     */
+    private LineData getData() {
+        NetWorthSeries series = new NetWorthSeries(GnuCashApplication.getActiveDb());
+        // the balances are at the end of each period, so weeks and the whole range are shown by month
+        GroupInterval interval = mGroupInterval == GroupInterval.QUARTER || mGroupInterval == GroupInterval.YEAR
+                ? mGroupInterval : GroupInterval.MONTH;
+        LocalDate start = mReportPeriodStart == -1 ? series.getFirstDate() : new LocalDate(mReportPeriodStart);
+        LocalDate end = mReportPeriodEnd == -1 ? new LocalDate() : new LocalDate(mReportPeriodEnd - 1);
+        if (start == null || start.isAfter(end)) {
+            mChartDataPresent = false;
+            return getEmptyData();
+        }
+
+        List<String> xValues = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        for (LocalDate periodStart = ReportAggregator.getPeriodStart(start, interval); !periodStart.isAfter(end);
+             periodStart = ReportAggregator.plusPeriods(periodStart, interval, 1)) {
+            LocalDate periodEnd = ReportAggregator.plusPeriods(periodStart, interval, 1).minusDays(1);
+            times.add((periodEnd.isAfter(end) ? end : periodEnd).toDateTimeAtStartOfDay().getMillis());
+            switch (interval) {
+                case QUARTER:
+                    xValues.add("Q" + ((periodStart.getMonthOfYear() - 1) / 3 + 1) + periodStart.toString(" yy"));
+                    break;
+                case YEAR:
+                    xValues.add(periodStart.toString("yyyy"));
+                    break;
+                default:
+                    xValues.add(periodStart.toString(X_AXIS_PATTERN));
+                    break;
+            }
+        }
+        long[] periodEnds = new long[times.size()];
+        for (int i = 0; i < periodEnds.length; i++) {
+            periodEnds[i] = times.get(i);
+        }
+
+        Money[] assets = series.getBalances(NetWorthSeries.ASSET_TYPES, mCommodity, periodEnds);
+        Money[] liabilities = series.getBalances(NetWorthSeries.LIABILITY_TYPES, mCommodity, periodEnds);
+        List<Entry> assetEntries = new ArrayList<>();
+        List<Entry> liabilityEntries = new ArrayList<>();
+        List<Entry> netWorthEntries = new ArrayList<>();
+        for (int i = 0; i < periodEnds.length; i++) {
+            assetEntries.add(new Entry(assets[i].asBigDecimal().floatValue(), i));
+            liabilityEntries.add(new Entry(liabilities[i].asBigDecimal().floatValue(), i));
+            netWorthEntries.add(new Entry(assets[i].subtract(liabilities[i]).asBigDecimal().floatValue(), i));
+        }
+
+        List<LineDataSet> dataSets = new ArrayList<>();
+        dataSets.add(createDataSet(assetEntries, getString(R.string.label_assets), COLORS[0]));
+        dataSets.add(createDataSet(liabilityEntries, getString(R.string.label_liabilities), COLORS[1]));
+        LineDataSet netWorthSet = createDataSet(netWorthEntries, getString(R.string.label_net_worth), COLORS[2]);
+        netWorthSet.setLineWidth(3);
+        dataSets.add(netWorthSet);
+        mChartDataPresent = true;
+        return new LineData(xValues, dataSets);
+    }
+
+    private static LineDataSet createDataSet(List<Entry> entries, String label, int color) {
+        LineDataSet set = new LineDataSet(entries, label);
+        set.setLineWidth(2);
+        set.setColor(color);
+        set.setCircleColor(color);
+        set.setDrawValues(false);
+        return set;
+    }
+
+    /**
+     * Returns a data object that represents situation when no user data available
+     * @return a {@code LineData} instance for situation when no user data available
+     */
+    private LineData getEmptyData() {
+        List<String> xValues = new ArrayList<>();
+        List<Entry> yValues = new ArrayList<>();
+        for (int i = 0; i < NO_DATA_BAR_COUNTS; i++) {
+            xValues.add("");
+            yValues.add(new Entry(i % 2 == 0 ? 5f : 4.5f, i));
+        }
+        LineDataSet set = new LineDataSet(yValues, getResources().getString(R.string.label_chart_no_data));
+        set.setDrawFilled(true);
+        set.setDrawValues(false);
+        set.setColor(NO_DATA_COLOR);
+        set.setFillColor(NO_DATA_COLOR);
+
+        return new LineData(xValues, Collections.singletonList(set));
+    }
+
+    @Override
+    protected void generateReport() {
+        mData = getData();
+    }
+
+    @Override
+    protected void displayReport() {
+        mChart.setData(mData);
+        if (!mChartDataPresent) {
+            mChart.getAxisLeft().setAxisMaxValue(10);
+            mChart.getAxisLeft().setDrawLabels(false);
+            mChart.getXAxis().setDrawLabels(false);
+            mChart.setTouchEnabled(false);
+            mSelectedValueTextView.setText(getResources().getString(R.string.label_chart_no_data));
+        } else {
+            mChart.getAxisLeft().resetAxisMaxValue();
+            mChart.getAxisLeft().setDrawLabels(true);
+            mChart.getXAxis().setDrawLabels(true);
+            mChart.setTouchEnabled(true);
+            mChart.animateX(ANIMATION_DURATION);
+        }
+        mChart.invalidate();
+    }
+
+    @Override
+    public void onPrepareOptionsMenu(Menu menu) {
+        // hide pie/bar chart specific menu items
+        menu.findItem(R.id.menu_toggle_average_lines).setVisible(false);
+        menu.findItem(R.id.menu_order_by_size).setVisible(false);
+        menu.findItem(R.id.menu_toggle_labels).setVisible(false);
+        menu.findItem(R.id.menu_percentage_mode).setVisible(false);
+        menu.findItem(R.id.menu_group_other_slice).setVisible(false);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.isCheckable())
+            item.setChecked(!item.isChecked());
+        switch (item.getItemId()) {
+            case R.id.menu_toggle_legend:
+                mChart.getLegend().setEnabled(!mChart.getLegend().isEnabled());
+                mChart.invalidate();
+                return true;
+
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    @Override
+    public void onValueSelected(Entry e, int dataSetIndex, Highlight h) {
+        if (e == null) return;
+        String label = mChart.getData().getXVals().get(e.getXIndex());
+        String dataSetLabel = mChart.getData().getDataSetByIndex(dataSetIndex).getLabel();
+        mSelectedValueTextView.setText(String.format("%s - %s: %.2f %s", label, dataSetLabel, e.getVal(), mCommodity.getSymbol()));
+    }
+}
@@ -32,11 +32,15 @@ import com.github.mikephil.charting.data.PieDataSet;
 import com.github.mikephil.charting.highlight.Highlight;
 
 import org.gnucash.android.R;
-import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.model.Account;
+import org.gnucash.android.report.BalanceMatrix;
+import org.gnucash.android.report.ReportAggregator;
+import org.gnucash.android.report.ReportCache;
 import org.gnucash.android.ui.report.BaseReportFragment;
 import org.gnucash.android.ui.report.ReportType;
 import org.gnucash.android.ui.report.ReportsActivity;
+import org.gnucash.android.ui.report.ReportsActivity.GroupInterval;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -69,8 +73,6 @@ public class PieChartFragment extends BaseReportFragment {
 
     @BindView(R.id.pie_chart) PieChart mChart;
 
-    private AccountsDbAdapter mAccountsDbAdapter;
-
     private boolean mChartDataPresent = true;
 
     private boolean mUseAccountColor = true;
@@ -84,9 +86,6 @@ public class PieChartFragment extends BaseReportFragment {
         mUseAccountColor = PreferenceManager.getDefaultSharedPreferences(getActivity())
                 .getBoolean(getString(R.string.key_use_account_color), false);
 
-        mAccountsDbAdapter = AccountsDbAdapter.getInstance();
-
-
         mChart.setCenterTextSize(CENTER_TEXT_SIZE);
         mChart.setDescription("");
         mChart.setOnChartValueSelectedListener(this);
@@ -148,26 +147,28 @@ public class PieChartFragment extends BaseReportFragment {
         PieDataSet dataSet = new PieDataSet(null, "");
         List<String> labels = new ArrayList<>();
         List<Integer> colors = new ArrayList<>();
-        for (Account account : mAccountsDbAdapter.getSimpleAccountList()) {
-            if (account.getAccountType() == mAccountType
-                    && !account.isPlaceholderAccount()
-                    && account.getCommodity().equals(mCommodity)) {
-
-                double balance = mAccountsDbAdapter.getAccountsBalance(Collections.singletonList(account.getUID()),
-                        mReportPeriodStart, mReportPeriodEnd).asDouble();
-                if (balance > 0) {
-                    dataSet.addEntry(new Entry((float) balance, dataSet.getEntryCount()));
-                    int color;
-                    if (mUseAccountColor) {
-                        color = (account.getColor() != Account.DEFAULT_COLOR)
-                                ? account.getColor()
-                                : ReportsActivity.COLORS[(dataSet.getEntryCount() - 1) % ReportsActivity.COLORS.length];
-                    } else {
-                        color = ReportsActivity.COLORS[(dataSet.getEntryCount() - 1) % ReportsActivity.COLORS.length];
-                    }
-                    colors.add(color);
-                    labels.add(account.getName());
+        BalanceMatrix matrix = getCachedResult("balances", new ReportCache.Loader<BalanceMatrix>() {
+            @Override
+            public BalanceMatrix load() {
+                return new ReportAggregator(GnuCashApplication.getActiveDb()).aggregate(
+                        Collections.singletonList(mAccountType), mCommodity.getCurrencyCode(),
+                        GroupInterval.ALL, mReportPeriodStart, mReportPeriodEnd);
+            }
+        });
+        for (int row = 0; row < matrix.getAccountCount(); row++) {
+            double balance = matrix.get(row, 0);
+            if (balance > 0) {
+                dataSet.addEntry(new Entry((float) balance, dataSet.getEntryCount()));
+                int color;
+                if (mUseAccountColor) {
+                    color = (matrix.getAccountColor(row) != Account.DEFAULT_COLOR)
+                            ? matrix.getAccountColor(row)
+                            : ReportsActivity.COLORS[(dataSet.getEntryCount() - 1) % ReportsActivity.COLORS.length];
+                } else {
+                    color = ReportsActivity.COLORS[(dataSet.getEntryCount() - 1) % ReportsActivity.COLORS.length];
                 }
+                colors.add(color);
+                labels.add(matrix.getAccountName(row));
             }
         }
         dataSet.setColors(colors);
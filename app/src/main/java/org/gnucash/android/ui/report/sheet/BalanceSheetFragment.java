@@ -27,16 +27,24 @@ import android.widget.TableLayout;
 import android.widget.TextView;
 
 import org.gnucash.android.R;
+import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.db.DatabaseSchema;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Commodity;
 import org.gnucash.android.model.Money;
+import org.gnucash.android.report.NetWorthSeries;
+import org.gnucash.android.report.ReportCache;
 import org.gnucash.android.ui.report.BaseReportFragment;
 import org.gnucash.android.ui.report.ReportType;
 import org.gnucash.android.ui.transaction.TransactionsActivity;
+import org.joda.time.LocalDate;
 
+import java.io.Serializable;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import butterknife.BindView;
 
@@ -54,8 +62,13 @@ public class BalanceSheetFragment extends BaseReportFragment {
 
     AccountsDbAdapter mAccountsDbAdapter = AccountsDbAdapter.getInstance();
 
-    private Money mAssetsBalance;
-    private Money mLiabilitiesBalance;
+    private AccountBalances mAssets;
+    private AccountBalances mLiabilities;
+    private AccountBalances mEquity;
+    /**
+     * Balances of all accounts including their sub-accounts, while the report is generated
+     */
+    private Map<String, Money> mRolledUpBalances;
     private List<AccountType> mAssetAccountTypes;
     private List<AccountType> mLiabilityAccountTypes;
     private List<AccountType> mEquityAccountTypes;
@@ -103,17 +116,22 @@ public class BalanceSheetFragment extends BaseReportFragment {
 
     @Override
     protected void generateReport() {
-        mAssetsBalance = mAccountsDbAdapter.getAccountBalance(mAssetAccountTypes, -1, System.currentTimeMillis());
-        mLiabilitiesBalance = mAccountsDbAdapter.getAccountBalance(mLiabilityAccountTypes, -1, System.currentTimeMillis());
+        // the balances are up to now, so they are cached for the day
+        long today = new LocalDate().toDate().getTime();
+        mAssets = getAccountBalances("assets", mAssetAccountTypes, today);
+        mLiabilities = getAccountBalances("liabilities", mLiabilityAccountTypes, today);
+        mEquity = getAccountBalances("equity", mEquityAccountTypes, today);
+        mRolledUpBalances = null;
     }
 
     @Override
     protected void displayReport() {
-        loadAccountViews(mAssetAccountTypes, mAssetsTableLayout);
-        loadAccountViews(mLiabilityAccountTypes, mLiabilitiesTableLayout);
-        loadAccountViews(mEquityAccountTypes, mEquityTableLayout);
+        loadAccountViews(mAssets, mAssetsTableLayout);
+        loadAccountViews(mLiabilities, mLiabilitiesTableLayout);
+        loadAccountViews(mEquity, mEquityTableLayout);
 
-        TransactionsActivity.displayBalance(mNetWorth, mAssetsBalance.subtract(mLiabilitiesBalance));
+        Money assetsBalance = new Money(mAssets.mTotal, mCommodity);
+        TransactionsActivity.displayBalance(mNetWorth, assetsBalance.subtract(new Money(mLiabilities.mTotal, mCommodity)));
     }
 
     @Override
@@ -122,25 +140,62 @@ public class BalanceSheetFragment extends BaseReportFragment {
         menu.findItem(R.id.menu_group_reports_by).setVisible(false);
     }
 
+    /**
+     * Computes the balances of the accounts of some types, or returns them from the cache
+     * @param name Name of the section of the balance sheet
+     * @param accountTypes Account types for which to compute balances
+     * @param today Start of the current day
+     * @return Balances of the accounts
+     */
+    private AccountBalances getAccountBalances(String name, final List<AccountType> accountTypes, long today) {
+        return getCachedResult(name, -1, today, new ReportCache.Loader<AccountBalances>() {
+            @Override
+            public AccountBalances load() {
+                AccountBalances balances = new AccountBalances();
+                Cursor cursor = mAccountsDbAdapter.fetchAccounts(DatabaseSchema.AccountEntry.COLUMN_TYPE
+                                + " IN ( '" + TextUtils.join("' , '", accountTypes) + "' ) AND "
+                                + DatabaseSchema.AccountEntry.COLUMN_PLACEHOLDER + " = 0",
+                        null, DatabaseSchema.AccountEntry.COLUMN_FULL_NAME + " ASC");
+                try {
+                    while (cursor.moveToNext()) {
+                        String accountUID = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.AccountEntry.COLUMN_UID));
+                        String accountName = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.AccountEntry.COLUMN_NAME));
+                        Money balance = getRolledUpBalances().get(accountUID);
+                        balances.mNames.add(accountName);
+                        balances.mBalances.add(balance.asBigDecimal());
+                        balances.mCurrencyCodes.add(balance.getCommodity().getCurrencyCode());
+                    }
+                } finally {
+                    cursor.close();
+                }
+                balances.mTotal = new NetWorthSeries(GnuCashApplication.getActiveDb())
+                        .getBalance(accountTypes, mCommodity, System.currentTimeMillis()).asBigDecimal();
+                return balances;
+            }
+        });
+    }
+
+    /**
+     * Returns the balances of all accounts, which are computed at once for all sections
+     */
+    private Map<String, Money> getRolledUpBalances() {
+        if (mRolledUpBalances == null)
+            mRolledUpBalances = mAccountsDbAdapter.getAccountBalances(-1, -1);
+        return mRolledUpBalances;
+    }
+
     /**
      * Loads rows for the individual accounts and adds them to the report
-     * @param accountTypes Account types for which to load balances
+     * @param balances Balances of the accounts to load
      * @param tableLayout Table layout into which to load the rows
      */
-    private void loadAccountViews(List<AccountType> accountTypes, TableLayout tableLayout){
+    private void loadAccountViews(AccountBalances balances, TableLayout tableLayout){
         LayoutInflater inflater = LayoutInflater.from(getActivity());
 
-        Cursor cursor = mAccountsDbAdapter.fetchAccounts(DatabaseSchema.AccountEntry.COLUMN_TYPE
-                        + " IN ( '" + TextUtils.join("' , '", accountTypes) + "' ) AND "
-                        + DatabaseSchema.AccountEntry.COLUMN_PLACEHOLDER + " = 0",
-                null, DatabaseSchema.AccountEntry.COLUMN_FULL_NAME + " ASC");
-
-        while (cursor.moveToNext()){
-            String accountUID = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.AccountEntry.COLUMN_UID));
-            String name = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.AccountEntry.COLUMN_NAME));
-            Money balance = mAccountsDbAdapter.getAccountBalance(accountUID);
+        for (int i = 0; i < balances.mNames.size(); i++) {
+            Money balance = new Money(balances.mBalances.get(i), Commodity.getInstance(balances.mCurrencyCodes.get(i)));
             View view = inflater.inflate(R.layout.row_balance_sheet, tableLayout, false);
-            ((TextView)view.findViewById(R.id.account_name)).setText(name);
+            ((TextView)view.findViewById(R.id.account_name)).setText(balances.mNames.get(i));
             TextView balanceTextView = (TextView) view.findViewById(R.id.account_balance);
             TransactionsActivity.displayBalance(balanceTextView, balance);
             tableLayout.addView(view);
@@ -157,9 +212,23 @@ public class BalanceSheetFragment extends BaseReportFragment {
         TextView accountBalance = (TextView) totalView.findViewById(R.id.account_balance);
         accountBalance.setTextSize(16);
         accountBalance.setTypeface(null, Typeface.BOLD);
-        TransactionsActivity.displayBalance(accountBalance, mAccountsDbAdapter.getAccountBalance(accountTypes, -1, System.currentTimeMillis()));
+        TransactionsActivity.displayBalance(accountBalance, new Money(balances.mTotal, mCommodity));
 
         tableLayout.addView(totalView);
     }
 
+    /**
+     * Balances of the accounts of a section of the balance sheet, in the currencies of the accounts
+     */
+    private static class AccountBalances implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final ArrayList<String> mNames = new ArrayList<>();
+        final ArrayList<BigDecimal> mBalances = new ArrayList<>();
+        final ArrayList<String> mCurrencyCodes = new ArrayList<>();
+        /**
+         * Total balance of the section, in the default currency
+         */
+        BigDecimal mTotal;
+    }
 }
@@ -20,6 +20,7 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.ListFragment;
@@ -52,9 +53,11 @@ import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.db.adapter.BooksDbAdapter;
 import org.gnucash.android.db.adapter.SplitsDbAdapter;
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.importer.ImportAsyncTask;
 import org.gnucash.android.ui.account.AccountsActivity;
 import org.gnucash.android.ui.common.Refreshable;
 import org.gnucash.android.ui.settings.dialog.DeleteBookConfirmationDialog;
+import org.gnucash.android.ui.util.TaskDelegate;
 import org.gnucash.android.util.BookUtils;
 import org.gnucash.android.util.PreferencesHelper;
 
@@ -200,6 +203,8 @@ public class BookManagerFragment extends ListFragment implements
                                 case R.id.ctx_menu_sync_book:
                                     //TODO implement sync
                                     return false;
+                                case R.id.ctx_menu_update_book:
+                                    return handleMenuUpdateBook(bookUID);
                                 case R.id.ctx_menu_delete_book:
                                     return handleMenuDeleteBook(bookUID);
                                 default:
@@ -212,11 +217,31 @@ public class BookManagerFragment extends ListFragment implements
                     if (activeBookUID.equals(bookUID)) {//we cannot delete the active book
                         popupMenu.getMenu().findItem(R.id.ctx_menu_delete_book).setEnabled(false);
                     }
+                    //we can only update books which were imported from a file
+                    if (BooksDbAdapter.getInstance().getRecord(bookUID).getSourceUri() == null) {
+                        popupMenu.getMenu().findItem(R.id.ctx_menu_update_book).setVisible(false);
+                    }
                     popupMenu.show();
                 }
             });
         }
 
+        /**
+         * Merges the file from which the book was imported into the book again.
+         * <p>Only the accounts, transactions and prices which changed in the file are written</p>
+         * @param bookUID GUID of the book
+         */
+        private boolean handleMenuUpdateBook(String bookUID) {
+            Uri sourceUri = BooksDbAdapter.getInstance().getRecord(bookUID).getSourceUri();
+            new ImportAsyncTask(getActivity(), new TaskDelegate() {
+                @Override
+                public void onTaskComplete() {
+                    refresh();
+                }
+            }, bookUID).execute(sourceUri);
+            return true;
+        }
+
         private boolean handleMenuDeleteBook(final String bookUID) {
             DeleteBookConfirmationDialog dialog = DeleteBookConfirmationDialog.newInstance(bookUID);
             dialog.show(getFragmentManager(), "delete_book");
@@ -881,7 +881,7 @@ public class TransactionFormFragment extends Fragment implements
         }
 
         //update widgets, if any
-		WidgetConfigurationActivity.updateAllWidgets(getActivity().getApplicationContext());
+		WidgetConfigurationActivity.updateChangedWidgets(getActivity().getApplicationContext());
 
 		finish(Activity.RESULT_OK);
 	}
@@ -45,12 +45,11 @@ import org.gnucash.android.R;
 import org.gnucash.android.app.GnuCashApplication;
 import org.gnucash.android.db.DatabaseCursorLoader;
 import org.gnucash.android.db.DatabaseSchema;
-import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
 import org.gnucash.android.db.adapter.DatabaseAdapter;
-import org.gnucash.android.db.adapter.SplitsDbAdapter;
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.model.Commodity;
 import org.gnucash.android.model.Money;
-import org.gnucash.android.model.Split;
 import org.gnucash.android.model.Transaction;
 import org.gnucash.android.ui.common.FormActivity;
 import org.gnucash.android.ui.common.Refreshable;
@@ -62,7 +61,7 @@ import org.gnucash.android.ui.util.CursorRecyclerAdapter;
 import org.gnucash.android.ui.util.widget.EmptyRecyclerView;
 import org.gnucash.android.util.BackupManager;
 
-import java.util.List;
+import java.math.BigDecimal;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -83,6 +82,11 @@ public class TransactionsListFragment extends Fragment implements
     private TransactionsDbAdapter mTransactionsDbAdapter;
     private String mAccountUID;
 
+	/**
+	 * Commodity of the account, in which the amounts of the transactions are displayed
+	 */
+	private Commodity mAccountCommodity;
+
 	private boolean mUseCompactView = false;
 
 	private TransactionRecyclerAdapter mTransactionRecyclerAdapter;
@@ -212,6 +216,7 @@ public class TransactionsListFragment extends Fragment implements
 	@Override
 	public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
 		Log.d(LOG_TAG, "Transactions loader finished. Swapping in cursor");
+		mAccountCommodity = ((TransactionsCursorLoader) loader).getAccountCommodity();
 		mTransactionRecyclerAdapter.swapCursor(cursor);
 		mTransactionRecyclerAdapter.notifyDataSetChanged();
 	}
@@ -223,11 +228,14 @@ public class TransactionsListFragment extends Fragment implements
 	}
 
 	/**
-	 * {@link DatabaseCursorLoader} for loading transactions asynchronously from the database
+	 * {@link DatabaseCursorLoader} for loading transactions asynchronously from the database.
+	 * <p>The cursor contains everything displayed in the list, so that no queries are run while binding the rows.
+	 * See {@link TransactionsDbAdapter#fetchTransactionRowsForAccount(String)}</p>
 	 * @author Ngewi Fet <ngewif@gmail.com>
 	 */
 	protected static class TransactionsCursorLoader extends DatabaseCursorLoader {
 		private String accountUID;
+		private Commodity mAccountCommodity;
 		
 		public TransactionsCursorLoader(Context context, String accountUID) {
 			super(context);			
@@ -237,11 +245,20 @@ public class TransactionsListFragment extends Fragment implements
 		@Override
 		public Cursor loadInBackground() {
 			mDatabaseAdapter = TransactionsDbAdapter.getInstance();
-			Cursor c = ((TransactionsDbAdapter) mDatabaseAdapter).fetchAllTransactionsForAccount(accountUID);
+			mAccountCommodity = CommoditiesDbAdapter.getInstance().getCommodity(
+					mDatabaseAdapter.getAccountCurrencyCode(accountUID));
+			Cursor c = ((TransactionsDbAdapter) mDatabaseAdapter).fetchTransactionRowsForAccount(accountUID);
 			if (c != null)
 				registerContentObserver(c);
 			return c;
-		}		
+		}
+
+		/**
+		 * Returns the commodity of the account, in which the amounts in the cursor are expressed
+		 */
+		public Commodity getAccountCommodity() {
+			return mAccountCommodity;
+		}
 	}
 
 	public class TransactionRecyclerAdapter extends CursorRecyclerAdapter<TransactionRecyclerAdapter.ViewHolder>{
@@ -274,7 +291,8 @@ public class TransactionsListFragment extends Fragment implements
 			holder.primaryText.setText(description);
 
 			final String transactionUID = cursor.getString(cursor.getColumnIndexOrThrow(DatabaseSchema.TransactionEntry.COLUMN_UID));
-			Money amount = mTransactionsDbAdapter.getBalance(transactionUID, mAccountUID);
+			double accountAmount = cursor.getDouble(cursor.getColumnIndexOrThrow(TransactionsDbAdapter.COLUMN_ACCOUNT_AMOUNT));
+			Money amount = new Money(BigDecimal.valueOf(accountAmount), mAccountCommodity);
 			TransactionsActivity.displayBalance(holder.transactionAmount, amount);
 
 			long dateMillis = cursor.getLong(cursor.getColumnIndexOrThrow(DatabaseSchema.TransactionEntry.COLUMN_TIMESTAMP));
@@ -292,20 +310,16 @@ public class TransactionsListFragment extends Fragment implements
 				holder.secondaryText.setText(dateText);
 			} else {
 
-				List<Split> splits = SplitsDbAdapter.getInstance().getSplitsForTransaction(transactionUID);
+				int splitCount = cursor.getInt(cursor.getColumnIndexOrThrow(TransactionsDbAdapter.COLUMN_SPLIT_COUNT));
 				String text = "";
 
-				if (splits.size() == 2 && splits.get(0).isPairOf(splits.get(1))) {
-					for (Split split : splits) {
-						if (!split.getAccountUID().equals(mAccountUID)) {
-							text = AccountsDbAdapter.getInstance().getFullyQualifiedAccountName(split.getAccountUID());
-							break;
-						}
-					}
+				int counterpartIndex = cursor.getColumnIndexOrThrow(TransactionsDbAdapter.COLUMN_COUNTERPART_ACCOUNT_NAME);
+				if (!cursor.isNull(counterpartIndex)) {
+					text = cursor.getString(counterpartIndex);
 				}
 
-				if (splits.size() > 2) {
-					text = splits.size() + " splits";
+				if (splitCount > 2) {
+					text = splitCount + " splits";
 				}
 				holder.secondaryText.setText(text);
 				holder.transactionDate.setText(dateText);
@@ -357,7 +371,7 @@ public class TransactionsListFragment extends Fragment implements
 					case R.id.context_menu_delete:
 						BackupManager.backupActiveBook();
 						mTransactionsDbAdapter.deleteRecord(transactionId);
-						WidgetConfigurationActivity.updateAllWidgets(getActivity());
+						WidgetConfigurationActivity.updateChangedWidgets(getActivity());
 						refresh();
 						return true;
 
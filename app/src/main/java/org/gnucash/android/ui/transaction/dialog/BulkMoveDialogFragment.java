@@ -166,7 +166,7 @@ public class BulkMoveDialogFragment extends DialogFragment {
 					trxnAdapter.moveTransaction(trxnAdapter.getUID(trxnId), srcAccountUID, dstAccountUID);
 				}
 
-				WidgetConfigurationActivity.updateAllWidgets(getActivity());
+				WidgetConfigurationActivity.updateChangedWidgets(getActivity());
 				((Refreshable) getTargetFragment()).refresh();
 				dismiss();
 			}
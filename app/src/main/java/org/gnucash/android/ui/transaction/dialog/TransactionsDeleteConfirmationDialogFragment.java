@@ -83,7 +83,7 @@ public class TransactionsDeleteConfirmationDialogFragment extends DialogFragment
                                 if (getTargetFragment() instanceof Refreshable) {
                                     ((Refreshable) getTargetFragment()).refresh();
                                 }
-                                WidgetConfigurationActivity.updateAllWidgets(getActivity());
+                                WidgetConfigurationActivity.updateChangedWidgets(getActivity());
                             }
                         }
                 )
@@ -20,6 +20,7 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.SystemClock;
 import android.support.annotation.Nullable;
@@ -28,25 +29,22 @@ import android.util.Log;
 import com.crashlytics.android.Crashlytics;
 
 import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
 import org.gnucash.android.db.adapter.BooksDbAdapter;
 import org.gnucash.android.export.ExportFormat;
 import org.gnucash.android.export.ExportParams;
+import org.gnucash.android.export.ExportSink;
 import org.gnucash.android.export.Exporter;
 import org.gnucash.android.export.xml.GncXmlExporter;
 import org.gnucash.android.model.Book;
 import org.gnucash.android.receivers.PeriodicJobReceiver;
 import org.gnucash.android.ui.settings.PreferenceActivity;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
 
 
 /**
@@ -59,31 +57,66 @@ public class BackupManager {
     /**
      * Perform an automatic backup of all books in the database.
      * This method is run every time the service is executed
+     * <p>Books which did not change since their last backup are skipped</p>
      */
     static void backupAllBooks() {
         BooksDbAdapter booksDbAdapter = BooksDbAdapter.getInstance();
         List<String> bookUIDs = booksDbAdapter.getAllBookUIDs();
-        Context context = GnuCashApplication.getAppContext();
 
         for (String bookUID : bookUIDs) {
+            backupBookIncrementally(bookUID);
+        }
+    }
+
+    /**
+     * Backs up the book with UID {@code bookUID}, if it changed since its last backup.
+     * <p>If the user has set a backup file for the book, a full backup is written to it.
+     * Otherwise a full or a delta backup is written to the directory {@link #getBackupFolderPath(String)},
+     * see {@link IncrementalBackup}. Full backups in that directory are database snapshots, which are
+     * much faster to write and restore than XML, see {@link SnapshotBackup}</p>
+     *
+     * @param bookUID Unique ID of the book
+     * @return {@code true} if a backup was written, {@code false} if the book did not change or the backup failed
+     */
+    public static boolean backupBookIncrementally(String bookUID) {
+        final SQLiteDatabase db = openBookDatabase(bookUID);
+        try {
+            IncrementalBackup incrementalBackup = new IncrementalBackup(bookUID, db);
+            incrementalBackup.readState();
             String backupFile = getBookBackupFileUri(bookUID);
-            if (backupFile == null){
-                backupBook(bookUID);
-                continue;
+            if (backupFile != null) {
+                if (!incrementalBackup.hasChanges())
+                    return false;
+                writeXmlBackup(incrementalBackup, db, null, ExportSink.toUri(
+                        GnuCashApplication.getAppContext(), Uri.parse(backupFile), ExportSink.Compression.GZIP, false));
+                return true;
             }
 
-            try (BufferedOutputStream bufferedOutputStream =
-                    new BufferedOutputStream(context.getContentResolver().openOutputStream(Uri.parse(backupFile)))){
-                GZIPOutputStream gzipOutputStream = new GZIPOutputStream(bufferedOutputStream);
-                OutputStreamWriter writer = new OutputStreamWriter(gzipOutputStream);
-                ExportParams params = new ExportParams(ExportFormat.XML);
-                new GncXmlExporter(params).generateExport(writer);
-                writer.close();
-            } catch (IOException ex) {
-                Log.e(LOG_TAG, "Auto backup failed for book " + bookUID);
-                ex.printStackTrace();
-                Crashlytics.logException(ex);
+            switch (incrementalBackup.getRequiredBackup(new File(getBackupFolderPath(bookUID)))) {
+                case FULL:
+                    final File file = new File(getSnapshotBackupFilePath(bookUID));
+                    incrementalBackup.writeFullBackup(file, new IncrementalBackup.FullBackupWriter() {
+                        @Override
+                        public void write() throws IOException {
+                            SnapshotBackup.write(db, ExportSink.toFile(file, ExportSink.Compression.NONE));
+                        }
+                    });
+                    return true;
+                case DELTA:
+                    File deltaFile = new File(getDeltaBackupFilePath(bookUID, incrementalBackup.getNextDeltaNumber()));
+                    incrementalBackup.writeDelta(deltaFile);
+                    return true;
+                default:
+                    Log.d(LOG_TAG, "No changes to back up in book " + bookUID);
+                    return false;
             }
+        } catch (Exporter.ExporterException | IOException ex) {
+            Log.e(LOG_TAG, "Auto backup failed for book " + bookUID);
+            ex.printStackTrace();
+            Crashlytics.logException(ex);
+            return false;
+        } finally {
+            closeBookDatabase(db);
         }
     }
 
@@ -99,36 +132,95 @@ public class BackupManager {
     /**
      * Backs up the book with UID {@code bookUID} to the directory
      * {@link #getBackupFolderPath(String)}.
+     * <p>A full backup is always written. It starts a new chain of incremental backups</p>
      *
      * @param bookUID Unique ID of the book
      * @return {@code true} if backup was successful, {@code false} otherwise
      */
     public static boolean backupBook(String bookUID){
-        OutputStream outputStream;
+        SQLiteDatabase db = openBookDatabase(bookUID);
         try {
+            IncrementalBackup incrementalBackup = new IncrementalBackup(bookUID, db);
+            ExportSink sink;
+            File file = null;
             String backupFile = getBookBackupFileUri(bookUID);
             if (backupFile != null){
-                outputStream = GnuCashApplication.getAppContext().getContentResolver().openOutputStream(Uri.parse(backupFile));
+                sink = ExportSink.toUri(GnuCashApplication.getAppContext(), Uri.parse(backupFile),
+                        ExportSink.Compression.GZIP, false);
             } else { //no Uri set by user, use default location on SD card
-                backupFile = getBackupFilePath(bookUID);
-                outputStream = new FileOutputStream(backupFile);
+                file = new File(getBackupFilePath(bookUID));
+                sink = ExportSink.toFile(file, ExportSink.Compression.GZIP);
             }
 
-            BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(outputStream);
-            GZIPOutputStream gzipOutputStream = new GZIPOutputStream(bufferedOutputStream);
-            OutputStreamWriter writer = new OutputStreamWriter(gzipOutputStream);
-
-            ExportParams params = new ExportParams(ExportFormat.XML);
-            new GncXmlExporter(params).generateExport(writer);
-            writer.close();
+            writeXmlBackup(incrementalBackup, db, file, sink);
             return true;
-        } catch (IOException | Exporter.ExporterException e) {
+        } catch (Exporter.ExporterException | IOException e) {
             Crashlytics.logException(e);
             Log.e("GncXmlExporter", "Error creating XML  backup", e);
             return false;
+        } finally {
+            closeBookDatabase(db);
         }
     }
 
+    /**
+     * Writes a full XML backup of a book, see {@link IncrementalBackup#writeFullBackup(File, IncrementalBackup.FullBackupWriter)}
+     * @param file Backup file in the backup folder, or null if the backup is written elsewhere
+     * @param sink Destination of the backup
+     */
+    private static void writeXmlBackup(IncrementalBackup incrementalBackup, final SQLiteDatabase db,
+                                       @Nullable File file, final ExportSink sink) throws IOException {
+        incrementalBackup.writeFullBackup(file, new IncrementalBackup.FullBackupWriter() {
+            @Override
+            public void write() {
+                new GncXmlExporter(new ExportParams(ExportFormat.XML), db).generateExport(sink);
+            }
+        });
+    }
+
+    /**
+     * Opens the database of a book for backup
+     * @param bookUID GUID of the book
+     * @return Database of the book, which must be released with {@link #closeBookDatabase(SQLiteDatabase)}
+     */
+    private static SQLiteDatabase openBookDatabase(String bookUID) {
+        SQLiteDatabase activeDb = GnuCashApplication.getActiveDb();
+        //the database file always has the name of the book GUID
+        if (new File(activeDb.getPath()).getName().equals(bookUID))
+            return activeDb;
+        return new DatabaseHelper(GnuCashApplication.getAppContext(), bookUID).getWritableDatabase();
+    }
+
+    private static void closeBookDatabase(SQLiteDatabase db) {
+        if (db != GnuCashApplication.getActiveDb())
+            db.close();
+    }
+
+    /**
+     * Returns the full path of a file for a snapshot backup of the specified book
+     * @param bookUID GUID of the book
+     * @return the file path for the snapshot backup
+     * @see SnapshotBackup
+     */
+    private static String getSnapshotBackupFilePath(String bookUID) {
+        String fullBackupPath = getBackupFilePath(bookUID);
+        return fullBackupPath.substring(0, fullBackupPath.length() - ExportFormat.XML.getExtension().length())
+                + SnapshotBackup.SNAPSHOT_EXTENSION;
+    }
+
+    /**
+     * Returns the full path of a file for a delta backup of the specified book
+     * @param bookUID GUID of the book
+     * @param deltaNumber Number of the delta in its backup chain
+     * @return the file path for the delta backup
+     * @see IncrementalBackup
+     */
+    private static String getDeltaBackupFilePath(String bookUID, int deltaNumber) {
+        String fullBackupPath = getBackupFilePath(bookUID);
+        return fullBackupPath.substring(0, fullBackupPath.length() - ExportFormat.XML.getExtension().length())
+                + "_" + deltaNumber + IncrementalBackup.DELTA_EXTENSION;
+    }
+
     /**
      * Returns the full path of a file to make database backup of the specified book.
      * Backups are done in XML format and are Gzipped (with ".gnca" extension).
@@ -1,5 +1,8 @@
 package org.gnucash.android.util;
 
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
@@ -7,13 +10,13 @@ import org.gnucash.android.export.ExportAsyncTask;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.channels.FileChannel;
-import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.CRC32;
 
 /**
  * Misc methods for dealing with files.
@@ -21,44 +24,151 @@ import java.util.zip.ZipOutputStream;
 public final class FileUtils {
     private static final String LOG_TAG = "FileUtils";
 
-    public static void zipFiles(List<String> files, String zipFileName) throws IOException {
-        OutputStream outputStream = new FileOutputStream(zipFileName);
-        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
-        byte[] buffer = new byte[1024];
-        for (String fileName : files) {
-            File file = new File(fileName);
-            FileInputStream fileInputStream = new FileInputStream(file);
-            zipOutputStream.putNextEntry(new ZipEntry(file.getName()));
-
-            int length;
-            while ((length = fileInputStream.read(buffer)) > 0) {
-                zipOutputStream.write(buffer, 0, length);
-            }
-            zipOutputStream.closeEntry();
-            fileInputStream.close();
-        }
-        zipOutputStream.close();
-    }
+    /**
+     * Size of the buffer for copies which cannot be done by the kernel
+     */
+    private static final int TRANSFER_BUFFER_SIZE = 256 * 1024;
 
     /**
      * Moves a file from <code>src</code> to <code>dst</code>
      * @param src Absolute path to the source file
      * @param dst Absolute path to the destination file
      * @throws IOException if the file could not be moved.
+     * @see #moveFile(File, File)
      */
     public static void moveFile(String src, String dst) throws IOException {
-        File srcFile = new File(src);
-        File dstFile = new File(dst);
-        FileChannel inChannel = new FileInputStream(srcFile).getChannel();
-        FileChannel outChannel = new FileOutputStream(dstFile).getChannel();
+        moveFile(new File(src), new File(dst));
+    }
+
+    /**
+     * Moves a file from <code>src</code> to <code>dst</code>.
+     * <p>The file is renamed if both are on the same volume, otherwise it is copied and deleted afterwards</p>
+     * @param src Source file
+     * @param dst Destination file, it is overwritten if it exists
+     * @throws IOException if the file could not be moved.
+     */
+    public static void moveFile(@NonNull File src, @NonNull File dst) throws IOException {
+        if (src.renameTo(dst))
+            return;
+        copyFile(src, dst);
+        src.delete();
+    }
+
+    /**
+     * Copies a file from <code>src</code> to <code>dst</code>.
+     * <p>The data is transferred with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+     * so it is not copied through the Java heap</p>
+     * @param src Source file
+     * @param dst Destination file, it is overwritten if it exists
+     * @throws IOException if the file could not be copied completely
+     */
+    public static void copyFile(@NonNull File src, @NonNull File dst) throws IOException {
+        FileInputStream inputStream = new FileInputStream(src);
+        try {
+            FileOutputStream outputStream = new FileOutputStream(dst);
+            try {
+                long size = transfer(inputStream.getChannel(), outputStream.getChannel());
+                if (size != src.length())
+                    throw new IOException("Incomplete copy of " + src + " to " + dst);
+            } finally {
+                outputStream.close();
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Copies a file to a content URI, e.g. a document of the Storage Access Framework.
+     * <p>The copy is verified with a checksum of the document read back, if the content provider allows
+     * reading it</p>
+     * @param context Context used to resolve the URI
+     * @param src Source file
+     * @param dst Destination URI
+     * @throws IOException if the file could not be copied, or the copy differs from the file
+     */
+    public static void copyFileToUri(@NonNull Context context, @NonNull File src, @NonNull Uri dst)
+            throws IOException {
+        ContentResolver contentResolver = context.getContentResolver();
+        OutputStream outputStream = contentResolver.openOutputStream(dst);
+        if (outputStream == null)
+            throw new FileNotFoundException("Could not open " + dst);
+        try {
+            copyToStream(src, outputStream);
+        } finally {
+            outputStream.close();
+        }
+
+        InputStream copyInputStream;
+        try {
+            copyInputStream = contentResolver.openInputStream(dst);
+        } catch (IOException | SecurityException e) {
+            copyInputStream = null;
+        }
+        if (copyInputStream == null) {
+            Log.w(LOG_TAG, "Cannot read back " + dst + " to verify the copy");
+            return;
+        }
+        long copyChecksum;
         try {
-            inChannel.transferTo(0, inChannel.size(), outChannel);
+            copyChecksum = checksum(copyInputStream);
         } finally {
-            if (inChannel != null)
-                inChannel.close();
-            outChannel.close();
+            copyInputStream.close();
         }
-        srcFile.delete();
+        long srcChecksum;
+        InputStream srcInputStream = new FileInputStream(src);
+        try {
+            srcChecksum = checksum(srcInputStream);
+        } finally {
+            srcInputStream.close();
+        }
+        if (copyChecksum != srcChecksum)
+            throw new IOException("The copy of " + src + " to " + dst + " is corrupt");
+    }
+
+    /**
+     * Copies a file into an output stream.
+     * <p>If the stream writes to a file, as the streams of most content providers do, the data is transferred
+     * between the file channels. Otherwise it is copied through a large buffer</p>
+     * @param src Source file
+     * @param outputStream Output stream to write to. It is flushed, but not closed
+     * @return Number of bytes copied
+     * @throws IOException if the file could not be copied
+     */
+    public static long copyToStream(@NonNull File src, @NonNull OutputStream outputStream) throws IOException {
+        long size = 0;
+        FileInputStream inputStream = new FileInputStream(src);
+        try {
+            if (outputStream instanceof FileOutputStream) {
+                size = transfer(inputStream.getChannel(), ((FileOutputStream) outputStream).getChannel());
+                outputStream.flush();
+            } else {
+                size = copyToStream(inputStream, outputStream);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return size;
+    }
+
+    /**
+     * Copies the remaining content of an input stream into an output stream, through a large buffer
+     * @param inputStream Input stream to read from. It is not closed
+     * @param outputStream Output stream to write to. It is flushed, but not closed
+     * @return Number of bytes copied
+     * @throws IOException if the stream could not be copied
+     */
+    public static long copyToStream(@NonNull InputStream inputStream, @NonNull OutputStream outputStream)
+            throws IOException {
+        long size = 0;
+        byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+            size += read;
+        }
+        outputStream.flush();
+        return size;
     }
 
     /**
@@ -70,17 +180,44 @@ public final class FileUtils {
      */
     public static void moveFile(@NonNull String src, @NonNull OutputStream outputStream)
             throws IOException {
-        byte[] buffer = new byte[1024];
-        int read;
-        try (FileInputStream inputStream = new FileInputStream(src)) {
-            while ((read = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, read);
-            }
+        try {
+            copyToStream(new File(src), outputStream);
         } finally {
-            outputStream.flush();
             outputStream.close();
         }
         Log.i(LOG_TAG, "Deleting temp export file: " + src);
         new File(src).delete();
     }
+
+    /**
+     * Transfers all remaining data of the input channel to the output channel
+     * @return Number of bytes transferred
+     */
+    private static long transfer(FileChannel inChannel, FileChannel outChannel) throws IOException {
+        long position = inChannel.position();
+        long size = inChannel.size();
+        long transferred = 0;
+        // transferTo may transfer less than requested
+        while (position < size) {
+            long count = inChannel.transferTo(position, size - position, outChannel);
+            if (count <= 0)
+                break;
+            position += count;
+            transferred += count;
+        }
+        return transferred;
+    }
+
+    /**
+     * Computes the CRC-32 checksum of the remaining data of the stream
+     */
+    private static long checksum(InputStream inputStream) throws IOException {
+        CRC32 crc32 = new CRC32();
+        byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            crc32.update(buffer, 0, read);
+        }
+        return crc32.getValue();
+    }
 }
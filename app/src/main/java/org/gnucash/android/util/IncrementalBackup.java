@@ -0,0 +1,668 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.util;
+
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.BudgetAmountEntry;
+import org.gnucash.android.db.DatabaseSchema.BudgetEntry;
+import org.gnucash.android.db.DatabaseSchema.CommodityEntry;
+import org.gnucash.android.db.DatabaseSchema.CommonColumns;
+import org.gnucash.android.db.DatabaseSchema.PriceEntry;
+import org.gnucash.android.db.DatabaseSchema.RecurrenceEntry;
+import org.gnucash.android.db.DatabaseSchema.ScheduledActionEntry;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.export.ExportSink;
+import org.gnucash.android.importer.GncXmlImporter;
+import org.gnucash.android.importer.ImportProgress;
+import org.gnucash.android.ui.settings.PreferenceActivity;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.xml.sax.SAXException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Incremental backups of a book.
+ * <p>A backup chain starts with a full backup, either GnuCash XML or a {@link SnapshotBackup}. Following backups are written as delta files,
+ * which contain only the accounts, transactions, splits and prices changed or deleted since the previous
+ * backup of the chain. A backup is skipped altogether if nothing changed in the book.</p>
+ * <p>Changes are found with the {@code modified_at} column of the records. The highest value seen at the
+ * last backup is kept as high-water mark in the book preferences. Deleted records leave no trace in the
+ * database, so the GUIDs present at the last backup are kept in an index file in the private storage
+ * of the app, and compared with the GUIDs in the database.</p>
+ * <p>A new full backup is written after {@link #MAX_DELTAS_PER_CHAIN} deltas, and whenever commodities,
+ * scheduled actions, template transactions or budgets changed. Those are not covered by deltas.</p>
+ * <p>Restoring a delta file imports the full backup of its chain into a new book and replays
+ * all the deltas of the chain up to it, see {@link #restore(File, ImportProgress)}</p>
+ */
+public class IncrementalBackup {
+    private static final String LOG_TAG = "IncrementalBackup";
+
+    /**
+     * File extension of delta backups
+     */
+    public static final String DELTA_EXTENSION = ".gncd";
+
+    /**
+     * Maximum number of delta backups following a full backup
+     */
+    static final int MAX_DELTAS_PER_CHAIN = 6;
+
+    private static final String KEY_DELTA_STATE     = "backup_delta_state";
+    private static final String KEY_SNAPSHOT_STATE  = "backup_snapshot_state";
+    private static final String KEY_HIGH_WATER_MARK = "backup_high_water_mark";
+    private static final String KEY_BASE_FILE       = "backup_base_file";
+    private static final String KEY_LAST_FILE       = "backup_last_file";
+    private static final String KEY_DELTA_COUNT     = "backup_delta_count";
+
+    private static final String DELTA_FORMAT = "gnca-delta";
+    private static final int DELTA_VERSION = 1;
+
+    private static final String HEADER_FORMAT   = "format";
+    private static final String HEADER_VERSION  = "version";
+    private static final String HEADER_BASE     = "base";
+    private static final String HEADER_PREVIOUS = "previous";
+    private static final String HEADER_MARK     = "mark";
+
+    private static final String RECORD_TABLE    = "table";
+    private static final String RECORD_ROW      = "row";
+    private static final String RECORD_DELETE   = "delete";
+
+    /**
+     * Only the first 19 characters of the timestamps are compared, because the database contains
+     * timestamps both with and without milliseconds
+     */
+    private static final String MODIFIED_AT = "substr(" + CommonColumns.COLUMN_MODIFIED_AT + ", 1, 19)";
+
+    private static final String NON_TEMPLATE_TRANSACTIONS = "SELECT " + TransactionEntry.COLUMN_UID
+            + " FROM " + TransactionEntry.TABLE_NAME + " WHERE " + TransactionEntry.COLUMN_TEMPLATE + " = 0";
+
+    private static final String TEMPLATE_TRANSACTIONS = "SELECT " + TransactionEntry.COLUMN_UID
+            + " FROM " + TransactionEntry.TABLE_NAME + " WHERE " + TransactionEntry.COLUMN_TEMPLATE + " = 1";
+
+    /**
+     * Table whose records are written to delta backups
+     */
+    private static class DeltaTable {
+        final String mName;
+        final String mWhere;
+        final String[] mCommodityColumns;
+
+        DeltaTable(String name, String where, String... commodityColumns) {
+            mName = name;
+            mWhere = where;
+            mCommodityColumns = commodityColumns;
+        }
+    }
+
+    /**
+     * Tables covered by delta backups. The GUIDs of their records are kept by the XML backups.
+     * Commodities have different GUIDs in each database, so references to them are written as
+     * namespace and mnemonic
+     */
+    private static final DeltaTable[] DELTA_TABLES = {
+            new DeltaTable(AccountEntry.TABLE_NAME, "1", AccountEntry.COLUMN_COMMODITY_UID),
+            new DeltaTable(TransactionEntry.TABLE_NAME, TransactionEntry.COLUMN_TEMPLATE + " = 0",
+                    TransactionEntry.COLUMN_COMMODITY_UID),
+            new DeltaTable(SplitEntry.TABLE_NAME,
+                    SplitEntry.COLUMN_TRANSACTION_UID + " IN (" + NON_TEMPLATE_TRANSACTIONS + ")"),
+            new DeltaTable(PriceEntry.TABLE_NAME, "1", PriceEntry.COLUMN_COMMODITY_UID, PriceEntry.COLUMN_CURRENCY_UID)
+    };
+
+    /**
+     * Records which are not covered by delta backups. A change to any of them requires a full backup.
+     * Each entry is a table name followed by the condition selecting the records
+     */
+    private static final String[][] SNAPSHOT_RECORDS = {
+            {CommodityEntry.TABLE_NAME, "1"},
+            {ScheduledActionEntry.TABLE_NAME, "1"},
+            {RecurrenceEntry.TABLE_NAME, "1"},
+            {BudgetEntry.TABLE_NAME, "1"},
+            {BudgetAmountEntry.TABLE_NAME, "1"},
+            {TransactionEntry.TABLE_NAME, TransactionEntry.COLUMN_TEMPLATE + " = 1"},
+            {SplitEntry.TABLE_NAME, SplitEntry.COLUMN_TRANSACTION_UID + " IN (" + TEMPLATE_TRANSACTIONS + ")"}
+    };
+
+    /**
+     * Kind of backup required for a book
+     */
+    public enum BackupType {NONE, FULL, DELTA}
+
+    private final String mBookUID;
+    private final SQLiteDatabase mDb;
+    private final SharedPreferences mPreferences;
+    private final File mIndexFile;
+
+    private String mDeltaState;
+    private String mSnapshotState;
+    private String mHighWaterMark;
+
+    /**
+     * Creates the incremental backup of a book
+     * @param bookUID GUID of the book
+     * @param db Database of the book
+     */
+    public IncrementalBackup(@NonNull String bookUID, @NonNull SQLiteDatabase db) {
+        mBookUID = bookUID;
+        mDb = db;
+        mPreferences = PreferenceActivity.getBookSharedPreferences(bookUID);
+        File indexFolder = new File(GnuCashApplication.getAppContext().getFilesDir(), "backup_index");
+        indexFolder.mkdirs();
+        mIndexFile = new File(indexFolder, bookUID);
+    }
+
+    /**
+     * Reads the state of the book, which is compared with the state at the last backup.
+     * <p>It must be called before the backup is written, so that changes made while the backup
+     * is being written are included in the next backup</p>
+     */
+    public void readState() {
+        StringBuilder deltaState = new StringBuilder();
+        String highWaterMark = "";
+        for (DeltaTable table : DELTA_TABLES) {
+            String max = appendTableState(deltaState, table.mName, table.mWhere);
+            if (max != null && max.compareTo(highWaterMark) > 0)
+                highWaterMark = max;
+        }
+        StringBuilder snapshotState = new StringBuilder();
+        for (String[] records : SNAPSHOT_RECORDS) {
+            appendTableState(snapshotState, records[0], records[1]);
+        }
+        mDeltaState = deltaState.toString();
+        mSnapshotState = snapshotState.toString();
+        mHighWaterMark = highWaterMark;
+    }
+
+    /**
+     * Appends the number of records and their latest modification to the state
+     * @return Latest modification time of the records, or null if there are none
+     */
+    private String appendTableState(StringBuilder state, String table, String where) {
+        Cursor cursor = mDb.rawQuery("SELECT COUNT(*), MAX(" + MODIFIED_AT + ") FROM " + table
+                + " WHERE " + where, null);
+        try {
+            cursor.moveToFirst();
+            String max = cursor.getString(1);
+            state.append(table).append(':').append(cursor.getLong(0)).append('@').append(max).append(';');
+            return max;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns {@code true} if the book changed since the last backup
+     */
+    public boolean hasChanges() {
+        return !mDeltaState.equals(mPreferences.getString(KEY_DELTA_STATE, null))
+                || !mSnapshotState.equals(mPreferences.getString(KEY_SNAPSHOT_STATE, null));
+    }
+
+    /**
+     * Determines which backup should be written to the backup folder
+     * @param backupFolder Folder containing the backups of the book
+     * @return Type of backup required
+     */
+    public BackupType getRequiredBackup(@NonNull File backupFolder) {
+        if (!hasChanges())
+            return BackupType.NONE;
+
+        String baseFile = mPreferences.getString(KEY_BASE_FILE, null);
+        String lastFile = mPreferences.getString(KEY_LAST_FILE, null);
+        if (baseFile == null || lastFile == null
+                || !new File(backupFolder, baseFile).exists() || !new File(backupFolder, lastFile).exists()
+                || !mIndexFile.exists()
+                || mPreferences.getInt(KEY_DELTA_COUNT, 0) >= MAX_DELTAS_PER_CHAIN
+                || !mSnapshotState.equals(mPreferences.getString(KEY_SNAPSHOT_STATE, null)))
+            return BackupType.FULL;
+
+        return BackupType.DELTA;
+    }
+
+    /**
+     * Returns the number of the next delta in the current backup chain, starting from 1
+     */
+    public int getNextDeltaNumber() {
+        return mPreferences.getInt(KEY_DELTA_COUNT, 0) + 1;
+    }
+
+    /**
+     * Writer of a full backup, see {@link #writeFullBackup(File, FullBackupWriter)}
+     */
+    public interface FullBackupWriter {
+        /**
+         * Writes the full backup, reading from the database of the book
+         * @throws IOException if the backup could not be written
+         */
+        void write() throws IOException;
+    }
+
+    /**
+     * Writes a full backup of the book and records it.
+     * <p>The state of the book and the index of its GUIDs are read in the same transaction as the backup,
+     * which holds off writers. A record deleted after the backup was read would otherwise be missing
+     * from the index, so that the next delta would not delete it and restoring the chain would resurrect it</p>
+     * @param backupFile Backup file, or null if it is not written into the backup folder
+     *                   and can therefore not start a chain of delta backups
+     * @param writer Writer of the backup
+     * @throws IOException if the backup could not be written. The chain is not changed in this case
+     */
+    public void writeFullBackup(@Nullable File backupFile, @NonNull FullBackupWriter writer) throws IOException {
+        mDb.beginTransactionNonExclusive();
+        try {
+            readState();
+            if (backupFile != null)
+                writeIndex(null, null);
+            writer.write();
+        } catch (IOException | RuntimeException e) {
+            getTemporaryIndexFile().delete();
+            throw e;
+        } finally {
+            mDb.endTransaction();
+        }
+        onFullBackupWritten(backupFile);
+    }
+
+    /**
+     * Records that a full backup of the book was written, with the index written for it if it starts a chain
+     */
+    private void onFullBackupWritten(@Nullable File backupFile) throws IOException {
+        if (backupFile != null)
+            commitIndex();
+
+        SharedPreferences.Editor editor = mPreferences.edit()
+                .putString(KEY_DELTA_STATE, mDeltaState)
+                .putString(KEY_SNAPSHOT_STATE, mSnapshotState)
+                .putString(KEY_HIGH_WATER_MARK, mHighWaterMark)
+                .putInt(KEY_DELTA_COUNT, 0);
+        if (backupFile != null) {
+            editor.putString(KEY_BASE_FILE, backupFile.getName())
+                    .putString(KEY_LAST_FILE, backupFile.getName());
+        } else {
+            editor.remove(KEY_BASE_FILE).remove(KEY_LAST_FILE);
+            mIndexFile.delete();
+        }
+        editor.apply();
+    }
+
+    /**
+     * Writes a delta backup with the changes since the last backup of the chain.
+     * <p>The state must have been read with {@link #readState()} before</p>
+     * @param deltaFile File to write, in the same folder as the other backups of the chain
+     * @throws IOException if the delta could not be written. The chain is not changed in this case
+     */
+    public void writeDelta(@NonNull File deltaFile) throws IOException {
+        String previousMark = mPreferences.getString(KEY_HIGH_WATER_MARK, "");
+        Map<String, String> commodityKeys = getCommodityKeys(mDb);
+
+        ExportSink sink = ExportSink.toFile(deltaFile, ExportSink.Compression.GZIP);
+        Writer writer = sink.openWriter();
+        try {
+            JSONObject header = new JSONObject()
+                    .put(HEADER_FORMAT, DELTA_FORMAT)
+                    .put(HEADER_VERSION, DELTA_VERSION)
+                    .put(HEADER_BASE, mPreferences.getString(KEY_BASE_FILE, null))
+                    .put(HEADER_PREVIOUS, mPreferences.getString(KEY_LAST_FILE, null))
+                    .put(HEADER_MARK, mHighWaterMark);
+            writer.write(header.toString());
+            writer.write('\n');
+
+            for (DeltaTable table : DELTA_TABLES) {
+                writeChangedRecords(writer, table, previousMark, commodityKeys);
+            }
+            writeIndex(writer, mIndexFile);
+            writer.close();
+        } catch (JSONException | IOException | RuntimeException e) {
+            sink.discard();
+            writer.close();
+            getTemporaryIndexFile().delete();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        commitIndex();
+
+        mPreferences.edit()
+                .putString(KEY_DELTA_STATE, mDeltaState)
+                .putString(KEY_SNAPSHOT_STATE, mSnapshotState)
+                .putString(KEY_HIGH_WATER_MARK, mHighWaterMark)
+                .putString(KEY_LAST_FILE, deltaFile.getName())
+                .putInt(KEY_DELTA_COUNT, mPreferences.getInt(KEY_DELTA_COUNT, 0) + 1)
+                .apply();
+    }
+
+    /**
+     * Writes the records of the table modified since the high-water mark of the previous backup
+     */
+    private void writeChangedRecords(Writer writer, DeltaTable table, String previousMark,
+                                     Map<String, String> commodityKeys) throws IOException, JSONException {
+        Cursor cursor = mDb.rawQuery("SELECT * FROM " + table.mName + " WHERE " + table.mWhere
+                + " AND " + MODIFIED_AT + " >= ?", new String[]{previousMark});
+        try {
+            int idIndex = cursor.getColumnIndexOrThrow(CommonColumns._ID);
+            String[] columnNames = cursor.getColumnNames();
+            while (cursor.moveToNext()) {
+                JSONObject row = new JSONObject();
+                for (int i = 0; i < columnNames.length; i++) {
+                    if (i == idIndex)
+                        continue;
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row.put(columnNames[i], cursor.getLong(i));
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row.put(columnNames[i], cursor.getDouble(i));
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            row.put(columnNames[i], cursor.getString(i));
+                            break;
+                        default:
+                            row.put(columnNames[i], JSONObject.NULL);
+                    }
+                }
+                for (String column : table.mCommodityColumns) {
+                    row.put(column, commodityKeys.get(row.optString(column)));
+                }
+                JSONObject record = new JSONObject()
+                        .put(RECORD_TABLE, table.mName)
+                        .put(RECORD_ROW, row);
+                writer.write(record.toString());
+                writer.write('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Writes the index of the GUIDs in the book to a temporary file, see {@link #commitIndex()}.
+     * <p>If a delta is being written, the GUIDs of the previous index which are no longer in the book
+     * are written to the delta as deleted records</p>
+     * @param deltaWriter Writer of the delta, or null when writing the index for a full backup
+     * @param previousIndex Index of the previous backup, or null when writing the index for a full backup
+     */
+    private void writeIndex(@Nullable Writer deltaWriter, @Nullable File previousIndex)
+            throws IOException {
+        File indexFile = getTemporaryIndexFile();
+        ExportSink indexSink = ExportSink.toFile(indexFile, ExportSink.Compression.GZIP);
+        Writer indexWriter = indexSink.openWriter();
+        BufferedReader previousIndexReader = previousIndex == null ? null : openGzipReader(previousIndex);
+        try {
+            String previousLine = previousIndexReader == null ? null : previousIndexReader.readLine();
+            for (DeltaTable table : DELTA_TABLES) {
+                String prefix = table.mName + '\t';
+                // the GUIDs are sorted in the index, so that deleted records are found in a single pass
+                Cursor cursor = mDb.rawQuery("SELECT " + CommonColumns.COLUMN_UID + " FROM " + table.mName
+                        + " WHERE " + table.mWhere + " ORDER BY " + CommonColumns.COLUMN_UID, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        String line = prefix + cursor.getString(0);
+                        while (previousLine != null && previousLine.startsWith(prefix)
+                                && previousLine.compareTo(line) < 0) {
+                            writeDeletion(deltaWriter, table.mName, previousLine.substring(prefix.length()));
+                            previousLine = previousIndexReader.readLine();
+                        }
+                        if (line.equals(previousLine))
+                            previousLine = previousIndexReader.readLine();
+                        indexWriter.write(line);
+                        indexWriter.write('\n');
+                    }
+                } finally {
+                    cursor.close();
+                }
+                while (previousLine != null && previousLine.startsWith(prefix)) {
+                    writeDeletion(deltaWriter, table.mName, previousLine.substring(prefix.length()));
+                    previousLine = previousIndexReader.readLine();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            indexSink.discard();
+            indexWriter.close();
+            throw e;
+        } finally {
+            if (previousIndexReader != null)
+                previousIndexReader.close();
+        }
+        indexWriter.close();
+    }
+
+    private File getTemporaryIndexFile() {
+        return new File(mIndexFile.getPath() + ".tmp");
+    }
+
+    /**
+     * Replaces the index with the one written by {@link #writeIndex(Writer, File)},
+     * once the backup it belongs to is complete
+     */
+    private void commitIndex() throws IOException {
+        if (!getTemporaryIndexFile().renameTo(mIndexFile))
+            throw new IOException("Could not replace backup index of book " + mBookUID);
+    }
+
+    private static void writeDeletion(Writer deltaWriter, String table, String uid) throws IOException {
+        if (deltaWriter == null)
+            return;
+        try {
+            deltaWriter.write(new JSONObject()
+                    .put(RECORD_TABLE, table)
+                    .put(RECORD_DELETE, uid)
+                    .toString());
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        deltaWriter.write('\n');
+    }
+
+    /**
+     * Returns the keys of the commodities in the database, which identify them across databases
+     * @return Map of commodity GUIDs to "namespace:mnemonic"
+     */
+    private static Map<String, String> getCommodityKeys(SQLiteDatabase db) {
+        Map<String, String> keys = new HashMap<>();
+        Cursor cursor = db.query(CommodityEntry.TABLE_NAME, new String[]{CommodityEntry.COLUMN_UID,
+                CommodityEntry.COLUMN_NAMESPACE, CommodityEntry.COLUMN_MNEMONIC}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                keys.put(cursor.getString(0), cursor.getString(1) + ":" + cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return keys;
+    }
+
+    private static BufferedReader openGzipReader(File file) throws IOException {
+        InputStream inputStream = new GZIPInputStream(new FileInputStream(file), ExportSink.BUFFER_SIZE);
+        return new BufferedReader(new InputStreamReader(inputStream, "UTF-8"), ExportSink.BUFFER_SIZE);
+    }
+
+    /**
+     * Returns {@code true} if the file is a delta backup, judging from its name
+     */
+    public static boolean isDeltaBackup(@NonNull String fileName) {
+        return fileName.endsWith(DELTA_EXTENSION);
+    }
+
+    /**
+     * Restores a delta backup into a new book.
+     * <p>The full backup of the chain is imported or restored and the deltas of the chain, up to and including
+     * {@code deltaFile}, are replayed in order. All files of the chain must be in the same folder.</p>
+     * @param deltaFile Delta backup to restore
+     * @param progress Progress of the import of the full backup, may be null
+     * @return GUID of the new book
+     */
+    public static String restore(@NonNull File deltaFile, @Nullable ImportProgress progress)
+            throws IOException, ParserConfigurationException, SAXException {
+        File folder = deltaFile.getParentFile();
+        List<File> deltas = new ArrayList<>();
+        String baseFileName;
+        File file = deltaFile;
+        while (true) {
+            JSONObject header = readHeader(file);
+            deltas.add(file);
+            baseFileName = header.optString(HEADER_BASE);
+            String previous = header.optString(HEADER_PREVIOUS);
+            if (previous.equals(baseFileName))
+                break;
+            file = new File(folder, previous);
+        }
+        Collections.reverse(deltas);
+
+        File baseFile = new File(folder, baseFileName);
+        if (progress != null)
+            progress.setTotalBytes(baseFile.length());
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(baseFile));
+        String bookUID;
+        try {
+            if (SnapshotBackup.isSnapshot(inputStream))
+                bookUID = SnapshotBackup.restore(inputStream);
+            else
+                bookUID = GncXmlImporter.parse(inputStream, progress);
+        } finally {
+            inputStream.close();
+        }
+
+        DatabaseHelper databaseHelper = new DatabaseHelper(GnuCashApplication.getAppContext(), bookUID);
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        try {
+            // the records of a delta are not ordered by their references
+            // PRAGMA foreign_keys has no effect inside a transaction
+            db.execSQL("PRAGMA foreign_keys=OFF");
+            db.beginTransaction();
+            try {
+                Map<String, String> commodityUIDs = new HashMap<>();
+                for (Map.Entry<String, String> entry : getCommodityKeys(db).entrySet()) {
+                    commodityUIDs.put(entry.getValue(), entry.getKey());
+                }
+                for (File delta : deltas) {
+                    applyDelta(db, delta, commodityUIDs);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                db.execSQL("PRAGMA foreign_keys=ON");
+            }
+        } catch (IOException | RuntimeException e) {
+            databaseHelper.close();
+            BooksDbAdapter.getInstance().deleteBook(bookUID);
+            throw e;
+        }
+        databaseHelper.close();
+        Log.i(LOG_TAG, "Restored " + deltas.size() + " delta backups into book " + bookUID);
+        return bookUID;
+    }
+
+    private static JSONObject readHeader(File deltaFile) throws IOException {
+        BufferedReader reader = openGzipReader(deltaFile);
+        try {
+            String line = reader.readLine();
+            if (line == null)
+                throw new IOException(deltaFile.getName() + " is empty");
+            JSONObject header = new JSONObject(line);
+            if (!DELTA_FORMAT.equals(header.optString(HEADER_FORMAT))
+                    || header.optInt(HEADER_VERSION) > DELTA_VERSION)
+                throw new IOException(deltaFile.getName() + " is not a supported delta backup");
+            return header;
+        } catch (JSONException e) {
+            throw new IOException(deltaFile.getName() + " is not a delta backup", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Applies the records of a delta backup to the database
+     * @param commodityUIDs Map of "namespace:mnemonic" to the GUIDs of the commodities in the database
+     */
+    private static void applyDelta(SQLiteDatabase db, File deltaFile, Map<String, String> commodityUIDs)
+            throws IOException {
+        Map<String, DeltaTable> tables = new HashMap<>();
+        for (DeltaTable table : DELTA_TABLES) {
+            tables.put(table.mName, table);
+        }
+
+        BufferedReader reader = openGzipReader(deltaFile);
+        try {
+            reader.readLine(); // header
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONObject record = new JSONObject(line);
+                DeltaTable table = tables.get(record.getString(RECORD_TABLE));
+                if (table == null)
+                    throw new IOException("Unknown table in delta backup " + deltaFile.getName());
+                if (record.has(RECORD_DELETE)) {
+                    db.delete(table.mName, CommonColumns.COLUMN_UID + " = ?",
+                            new String[]{record.getString(RECORD_DELETE)});
+                    continue;
+                }
+
+                JSONObject row = record.getJSONObject(RECORD_ROW);
+                ContentValues contentValues = new ContentValues();
+                Iterator<String> columns = row.keys();
+                while (columns.hasNext()) {
+                    String column = columns.next();
+                    Object value = row.get(column);
+                    if (value == JSONObject.NULL)
+                        contentValues.putNull(column);
+                    else if (value instanceof Integer || value instanceof Long)
+                        contentValues.put(column, ((Number) value).longValue());
+                    else if (value instanceof Number)
+                        contentValues.put(column, ((Number) value).doubleValue());
+                    else
+                        contentValues.put(column, value.toString());
+                }
+                for (String column : table.mCommodityColumns) {
+                    contentValues.put(column, commodityUIDs.get(row.optString(column)));
+                }
+                // no INSERT OR REPLACE, it would delete the splits of replaced accounts and transactions
+                String uid = contentValues.getAsString(CommonColumns.COLUMN_UID);
+                if (db.update(table.mName, contentValues, CommonColumns.COLUMN_UID + " = ?", new String[]{uid}) == 0)
+                    db.insertOrThrow(table.mName, null, contentValues);
+            }
+        } catch (JSONException e) {
+            throw new IOException("Invalid delta backup " + deltaFile.getName(), e);
+        } finally {
+            reader.close();
+        }
+    }
+}
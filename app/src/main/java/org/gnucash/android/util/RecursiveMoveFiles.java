@@ -20,10 +20,7 @@ import android.util.Log;
 import org.gnucash.android.db.MigrationHelper;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.channels.FileChannel;
 
 /**
  * Moves all files from one directory  into another.
@@ -43,27 +40,6 @@ public class RecursiveMoveFiles implements Runnable {
         mDestination = dst;
     }
 
-    /**
-     * Copy file from one location to another.
-     * Does not support copying of directories
-     * @param src Source file
-     * @param dst Destination of the file
-     * @return {@code true} if the file was successfully copied, {@code false} otherwise
-     * @throws IOException
-     */
-    private boolean copy(File src, File dst) throws IOException {
-        FileChannel inChannel = new FileInputStream(src).getChannel();
-        FileChannel outChannel = new FileOutputStream(dst).getChannel();
-        try {
-            long bytesCopied = inChannel.transferTo(0, inChannel.size(), outChannel);
-            return bytesCopied >= src.length();
-        } finally {
-            if (inChannel != null)
-                inChannel.close();
-            outChannel.close();
-        }
-    }
-
     /**
      * Recursively copy files from one location to another and deletes the origin files after copy.
      * If the source file is a directory, all of the files in it will be moved.
@@ -75,6 +51,11 @@ public class RecursiveMoveFiles implements Runnable {
     private int recursiveMove(File src, File dst){
         int copyCount = 0;
         if (src.isDirectory() && src.listFiles() != null){
+            if (!dst.exists() && src.renameTo(dst)) { //same volume, the directory is moved at once
+                Log.d("RecursiveMoveFiles", String.format("Renamed %s to %s", src.getPath(), dst.getPath()));
+                String[] movedFiles = dst.list();
+                return movedFiles == null ? 0 : movedFiles.length;
+            }
             dst.mkdirs(); //we assume it works everytime. Great, right?
             for (File file : src.listFiles()) {
                 File target = new File(dst, file.getName());
@@ -83,8 +64,8 @@ public class RecursiveMoveFiles implements Runnable {
             src.delete();
         } else {
             try {
-                if(copy(src, dst))
-                    src.delete();
+                FileUtils.moveFile(src, dst);
+                copyCount++;
             } catch (IOException e) {
                 Log.d(MigrationHelper.LOG_TAG, "Error moving file: " + src.getAbsolutePath());
             }
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.util;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.DatabaseSchema;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.db.adapter.DatabaseAdapter;
+import org.gnucash.android.export.ExportSink;
+import org.gnucash.android.model.Book;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Backups of a book as a compressed copy of its database.
+ * <p>Creating and restoring a snapshot only copies the database file, so it is much faster than
+ * writing and parsing GnuCash XML. The XML format remains the one to exchange books with GnuCash desktop.</p>
+ * <p>A snapshot is a zip archive with the database file, followed by a manifest with the version of the
+ * database schema and the SHA-256 checksum of the database.</p>
+ * <p>Only the database file is copied, so the book must be in rollback journal mode, which
+ * {@link DatabaseHelper} keeps it in: in write-ahead logging mode, the latest commits would only be in
+ * the WAL file. The file is copied while a transaction holds off writers, so the copy is consistent.</p>
+ */
+public class SnapshotBackup {
+    private static final String LOG_TAG = "SnapshotBackup";
+
+    /**
+     * File extension of snapshot backups
+     */
+    public static final String SNAPSHOT_EXTENSION = ".gncs";
+
+    private static final String SNAPSHOT_FORMAT = "gnca-snapshot";
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private static final String ENTRY_DATABASE = "book.db";
+    private static final String ENTRY_MANIFEST = "manifest.json";
+
+    private static final String MANIFEST_FORMAT           = "format";
+    private static final String MANIFEST_VERSION          = "version";
+    private static final String MANIFEST_DATABASE_VERSION = "database_version";
+    private static final String MANIFEST_SIZE             = "size";
+    private static final String MANIFEST_SHA256           = "sha256";
+
+    /**
+     * Offset of the user version, which Android uses as schema version, in the header of a SQLite database
+     */
+    private static final int SQLITE_USER_VERSION_OFFSET = 60;
+
+    /**
+     * Writes a snapshot of the database to the sink
+     * @param db Database of the book
+     * @param sink Destination of the snapshot. It should not be compressed, the snapshot is compressed already
+     * @throws IOException if the snapshot could not be written
+     */
+    public static void write(@NonNull SQLiteDatabase db, @NonNull ExportSink sink) throws IOException {
+        long startTime = System.nanoTime();
+        MessageDigest digest = newDigest();
+        ZipOutputStream zipOutputStream = new ZipOutputStream(sink.open());
+        boolean success = false;
+        try {
+            zipOutputStream.setLevel(ExportSink.COMPRESSION_LEVEL);
+            zipOutputStream.putNextEntry(new ZipEntry(ENTRY_DATABASE));
+            long size;
+            int databaseVersion;
+            // no other connection can commit while the transaction is held, so the file does not change
+            db.beginTransactionNonExclusive();
+            try {
+                if (DatabaseHelper.isWriteAheadLogging(db))
+                    throw new IOException("Cannot copy a database in write-ahead logging mode: " + db.getPath());
+                databaseVersion = db.getVersion();
+                size = copy(new FileInputStream(db.getPath()), zipOutputStream, digest);
+            } finally {
+                db.endTransaction();
+            }
+            zipOutputStream.closeEntry();
+
+            JSONObject manifest = new JSONObject()
+                    .put(MANIFEST_FORMAT, SNAPSHOT_FORMAT)
+                    .put(MANIFEST_VERSION, SNAPSHOT_VERSION)
+                    .put(MANIFEST_DATABASE_VERSION, databaseVersion)
+                    .put(MANIFEST_SIZE, size)
+                    .put(MANIFEST_SHA256, toHex(digest.digest()));
+            zipOutputStream.putNextEntry(new ZipEntry(ENTRY_MANIFEST));
+            zipOutputStream.write(manifest.toString().getBytes("UTF-8"));
+            zipOutputStream.closeEntry();
+            success = true;
+        } catch (JSONException e) {
+            throw new IOException(e);
+        } finally {
+            if (!success) {
+                sink.discard();
+            }
+            zipOutputStream.close();
+        }
+        Log.d(LOG_TAG, String.format("%d ns spent on writing the snapshot", System.nanoTime() - startTime));
+    }
+
+    /**
+     * Checks if the stream contains a snapshot backup.
+     * <p>The stream must support {@link InputStream#mark(int)}. It is reset to its start before returning</p>
+     * @param inputStream Input stream to check
+     * @return {@code true} if the stream starts with the database entry of a snapshot
+     * @throws IOException if the stream could not be read
+     */
+    public static boolean isSnapshot(@NonNull InputStream inputStream) throws IOException {
+        // local file header of the first zip entry, followed by its name
+        byte[] header = new byte[30 + ENTRY_DATABASE.length()];
+        inputStream.mark(header.length);
+        try {
+            int read = 0;
+            while (read < header.length) {
+                int count = inputStream.read(header, read, header.length - read);
+                if (count < 0)
+                    return false;
+                read += count;
+            }
+        } finally {
+            inputStream.reset();
+        }
+        int nameLength = (header[26] & 0xff) | (header[27] & 0xff) << 8;
+        return header[0] == 'P' && header[1] == 'K' && header[2] == 3 && header[3] == 4
+                && nameLength == ENTRY_DATABASE.length()
+                && new String(header, 30, nameLength, "UTF-8").equals(ENTRY_DATABASE);
+    }
+
+    /**
+     * Restores a snapshot into a new book.
+     * <p>The database is extracted next to the databases of the other books and verified against the
+     * checksum and schema version of the manifest, before it is moved into place. A database of an
+     * older schema version is upgraded when it is opened</p>
+     * @param inputStream Stream of the snapshot
+     * @return GUID of the new book
+     * @throws IOException if the snapshot could not be read or is corrupt
+     * @throws IllegalArgumentException if the snapshot is of a newer version of the app
+     */
+    public static String restore(@NonNull InputStream inputStream) throws IOException {
+        long startTime = System.nanoTime();
+        Context context = GnuCashApplication.getAppContext();
+        Book book = new Book();
+        File databaseFile = context.getDatabasePath(book.getUID());
+        databaseFile.getParentFile().mkdirs();
+        File tempFile = new File(databaseFile.getPath() + ".tmp");
+
+        try {
+            MessageDigest digest = newDigest();
+            ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+            long size;
+            JSONObject manifest;
+            try {
+                ZipEntry entry = zipInputStream.getNextEntry();
+                if (entry == null || !ENTRY_DATABASE.equals(entry.getName()))
+                    throw new IOException("Not a snapshot backup");
+                size = copy(zipInputStream, new FileOutputStream(tempFile), digest);
+
+                entry = zipInputStream.getNextEntry();
+                if (entry == null || !ENTRY_MANIFEST.equals(entry.getName()))
+                    throw new IOException("Snapshot backup has no manifest");
+                manifest = new JSONObject(readString(zipInputStream));
+            } finally {
+                zipInputStream.close();
+            }
+
+            if (!SNAPSHOT_FORMAT.equals(manifest.optString(MANIFEST_FORMAT))
+                    || manifest.getInt(MANIFEST_VERSION) > SNAPSHOT_VERSION)
+                throw new IOException("Unsupported snapshot backup");
+            if (manifest.getLong(MANIFEST_SIZE) != size
+                    || !manifest.getString(MANIFEST_SHA256).equals(toHex(digest.digest())))
+                throw new IOException("Snapshot backup is corrupt");
+
+            int databaseVersion = readUserVersion(tempFile);
+            if (databaseVersion != manifest.getInt(MANIFEST_DATABASE_VERSION))
+                throw new IOException("Snapshot backup is corrupt");
+            if (databaseVersion > DatabaseSchema.DATABASE_VERSION)
+                throw new IllegalArgumentException("The backup was made by a newer version of the app");
+
+            if (!tempFile.renameTo(databaseFile))
+                throw new IOException("Could not move the restored database into place");
+        } catch (JSONException e) {
+            tempFile.delete();
+            throw new IOException("Invalid snapshot manifest", e);
+        } catch (IOException | RuntimeException e) {
+            tempFile.delete();
+            throw e;
+        }
+
+        // opening the database upgrades it if it is of an older version
+        DatabaseHelper databaseHelper = new DatabaseHelper(context, book.getUID());
+        try {
+            book.setRootAccountUID(
+                    new AccountsDbAdapter(databaseHelper.getWritableDatabase()).getOrCreateGnuCashRootAccountUID());
+        } catch (RuntimeException e) {
+            databaseHelper.close();
+            context.deleteDatabase(book.getUID());
+            throw e;
+        }
+        databaseHelper.close();
+
+        BooksDbAdapter booksDbAdapter = BooksDbAdapter.getInstance();
+        book.setDisplayName(booksDbAdapter.generateDefaultBookName());
+        //we on purpose do not set the book active. Only import. Caller should handle activation
+        booksDbAdapter.addRecord(book, DatabaseAdapter.UpdateMethod.insert);
+        Log.d(LOG_TAG, String.format("%d ns spent on restoring the snapshot", System.nanoTime() - startTime));
+        return book.getUID();
+    }
+
+    /**
+     * Copies the stream, updating the digest with the copied bytes.
+     * <p>The input stream is closed, the output stream only if it is a file</p>
+     * @return Number of bytes copied
+     */
+    private static long copy(InputStream inputStream, OutputStream outputStream, MessageDigest digest)
+            throws IOException {
+        long size = 0;
+        try {
+            byte[] buffer = new byte[ExportSink.BUFFER_SIZE];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, count);
+                digest.update(buffer, 0, count);
+                size += count;
+            }
+        } finally {
+            if (inputStream instanceof FileInputStream)
+                inputStream.close();
+            if (outputStream instanceof FileOutputStream)
+                outputStream.close();
+        }
+        return size;
+    }
+
+    private static String readString(InputStream inputStream) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            builder.append(new String(buffer, 0, count, "UTF-8"));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Reads the schema version from the header of a SQLite database file
+     */
+    private static int readUserVersion(File databaseFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(databaseFile, "r");
+        try {
+            file.seek(SQLITE_USER_VERSION_OFFSET);
+            return file.readInt();
+        } finally {
+            file.close();
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every Java platform supports SHA-256
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -39,6 +39,7 @@ import org.gnucash.android.model.BudgetAmount;
 import org.gnucash.android.model.Commodity;
 import org.gnucash.android.model.Money;
 import org.gnucash.android.model.PeriodType;
+import org.gnucash.android.model.Price;
 import org.gnucash.android.model.Recurrence;
 import org.gnucash.android.model.ScheduledAction;
 import org.gnucash.android.model.Split;
@@ -57,7 +58,10 @@ import org.xml.sax.SAXException;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -350,6 +354,128 @@ public class AccountsDbAdapterTest{
         assertThat(balance).isEqualTo(expectedBalance);
     }
 
+    @Test
+    public void accountBalances_shouldRollUpSubAccounts(){
+        Account assets = new Account("Assets", Commodity.USD);
+        assets.setAccountType(AccountType.ASSET);
+        Account bank = new Account("Bank", Commodity.USD);
+        bank.setAccountType(AccountType.BANK);
+        bank.setParentUID(assets.getUID());
+        Account euroBank = new Account("Euro Bank", Commodity.EUR);
+        euroBank.setAccountType(AccountType.BANK);
+        euroBank.setParentUID(assets.getUID());
+        Account card = new Account("Card", Commodity.USD);
+        card.setAccountType(AccountType.CREDIT);
+        Account transfer = new Account("Transfer", Commodity.USD);
+        for (Account account : new Account[]{assets, bank, euroBank, card, transfer}) {
+            mAccountsDbAdapter.addRecord(account);
+        }
+
+        Price price = new Price(mCommoditiesDbAdapter.getCommodityUID("EUR"), mCommoditiesDbAdapter.getCommodityUID("USD"));
+        price.setValueNum(3);
+        price.setValueDenom(2);
+        PricesDbAdapter.getInstance().addRecord(price);
+
+        addTransfer(bank, transfer, new Money("100", "USD"));
+        addTransfer(euroBank, transfer, new Money("10", "EUR"));
+        addTransfer(transfer, card, new Money("25.50", "USD"));
+
+        Map<String, Money> balances = mAccountsDbAdapter.getAccountBalances(-1, -1);
+        assertThat(balances.get(assets.getUID())).isEqualTo(new Money("115", "USD"));
+        assertThat(balances.get(euroBank.getUID())).isEqualTo(new Money("10", "EUR"));
+        assertThat(balances.get(card.getUID())).isEqualTo(new Money("25.50", "USD"));
+        for (Account account : mAccountsDbAdapter.getSimpleAccountList()) {
+            assertThat(balances.get(account.getUID()))
+                    .isEqualTo(mAccountsDbAdapter.getAccountBalance(account.getUID()));
+        }
+    }
+
+    @Test
+    public void accountBalances_shouldComputeEachRange(){
+        Account expenses = new Account("Expenses", Commodity.USD);
+        expenses.setAccountType(AccountType.EXPENSE);
+        Account groceries = new Account("Groceries", Commodity.USD);
+        groceries.setAccountType(AccountType.EXPENSE);
+        groceries.setParentUID(expenses.getUID());
+        Account bank = new Account("Bank", Commodity.USD);
+        bank.setAccountType(AccountType.BANK);
+        for (Account account : new Account[]{expenses, groceries, bank}) {
+            mAccountsDbAdapter.addRecord(account);
+        }
+
+        addTransfer(groceries, bank, new Money("10", "USD"), 1000);
+        addTransfer(groceries, bank, new Money("20", "USD"), 2000);
+        addTransfer(expenses, bank, new Money("40", "USD"), 3000);
+
+        // ranges include both of their bounds and may overlap
+        long[] starts = {1000, 2000, 2500, -1};
+        long[] ends = {2000, 3000, 2600, -1};
+        Map<String, Money[]> balances = mAccountsDbAdapter.getAccountBalances(
+                Arrays.asList(expenses.getUID(), groceries.getUID(), bank.getUID()), starts, ends);
+        assertThat(balances.get(expenses.getUID())).containsExactly(new Money("30", "USD"),
+                new Money("60", "USD"), new Money("0", "USD"), new Money("70", "USD"));
+        assertThat(balances.get(groceries.getUID())[1]).isEqualTo(new Money("20", "USD"));
+        for (String accountUID : balances.keySet()) {
+            for (int range = 0; range < starts.length; range++) {
+                assertThat(balances.get(accountUID)[range]).isEqualTo(
+                        mAccountsDbAdapter.getAccountBalance(accountUID, starts[range], ends[range]));
+            }
+        }
+    }
+
+    @Test
+    public void accountBalances_shouldComputeMoreRangesThanCompoundSelectLimit(){
+        Account expenses = new Account("Expenses", Commodity.USD);
+        expenses.setAccountType(AccountType.EXPENSE);
+        Account bank = new Account("Bank", Commodity.USD);
+        bank.setAccountType(AccountType.BANK);
+        mAccountsDbAdapter.addRecord(expenses);
+        mAccountsDbAdapter.addRecord(bank);
+        for (int day = 0; day < 10; day++) {
+            addTransfer(expenses, bank, new Money("1", "USD"), day * 100 * 1000);
+        }
+
+        // SQLite allows 500 terms in a compound select, and the first range overlaps all others
+        int rangeCount = 1200;
+        long[] starts = new long[rangeCount];
+        long[] ends = new long[rangeCount];
+        starts[0] = -1;
+        ends[0] = -1;
+        for (int range = 1; range < rangeCount; range++) {
+            starts[range] = (range - 1) * 1000;
+            ends[range] = range * 1000 - 1;
+        }
+        Map<String, Money[]> balances = mAccountsDbAdapter.getAccountBalances(
+                Collections.singletonList(expenses.getUID()), starts, ends);
+        Money[] expensesBalances = balances.get(expenses.getUID());
+        assertThat(expensesBalances).hasSize(rangeCount);
+        assertThat(expensesBalances[0]).isEqualTo(new Money("10", "USD"));
+        for (int range = 1; range < rangeCount; range++) {
+            Money expected = (range - 1) % 100 == 0 && range <= 901 ? new Money("1", "USD") : new Money("0", "USD");
+            assertThat(expensesBalances[range]).isEqualTo(expected);
+        }
+    }
+
+    /**
+     * Adds a transaction debiting an account and crediting another
+     */
+    private void addTransfer(Account debitAccount, Account creditAccount, Money amount) {
+        addTransfer(debitAccount, creditAccount, amount, System.currentTimeMillis());
+    }
+
+    /**
+     * Adds a transaction at a specific time debiting an account and crediting another
+     */
+    private void addTransfer(Account debitAccount, Account creditAccount, Money amount, long time) {
+        Transaction transaction = new Transaction("Transfer");
+        transaction.setTime(time);
+        Split split = new Split(amount, debitAccount.getUID());
+        split.setType(TransactionType.DEBIT);
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(creditAccount.getUID()));
+        mTransactionsDbAdapter.addRecord(transaction);
+    }
+
     /**
      * Test creating an account hierarchy by specifying fully qualified name
      */
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.db;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.ChangeLog;
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.ChangeLogEntry;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.DatabaseAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class ChangeLogTest {
+
+    private AccountsDbAdapter mAccountsDbAdapter;
+    private TransactionsDbAdapter mTransactionsDbAdapter;
+    private ChangeLog mChangeLog;
+    private RecordingSubscriber mSubscriber;
+
+    @Before
+    public void setUp() {
+        mAccountsDbAdapter = AccountsDbAdapter.getInstance();
+        mTransactionsDbAdapter = TransactionsDbAdapter.getInstance();
+        mChangeLog = ChangeLog.getInstance(GnuCashApplication.getActiveDb());
+        mSubscriber = new RecordingSubscriber();
+    }
+
+    @After
+    public void tearDown() {
+        mChangeLog.unsubscribe(mSubscriber);
+        mAccountsDbAdapter.deleteAllRecords();
+    }
+
+    @Test
+    public void subscriber_shouldReceiveChangesSinceLastDispatch() {
+        Account bank = new Account("Bank");
+        Account groceries = new Account("Groceries");
+        mAccountsDbAdapter.addRecord(bank);
+        mAccountsDbAdapter.addRecord(groceries);
+        mChangeLog.subscribe(mSubscriber);
+
+        Transaction transaction = new Transaction("Shopping");
+        transaction.setTime(1500000000000L);
+        Split split = new Split(new Money("25", "USD"), groceries.getUID());
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(bank.getUID()));
+        mTransactionsDbAdapter.addRecord(transaction);
+        mChangeLog.dispatch();
+
+        assertThat(mSubscriber.mChanges).isNotEmpty();
+        List<String> accountUIDs = new ArrayList<>();
+        for (ChangeLog.Change change : mSubscriber.mChanges) {
+            accountUIDs.addAll(change.getAccountUIDs());
+            if (change.getEntityType().equals(ChangeLog.ENTITY_SPLIT)) {
+                assertThat(change.getOperation()).isEqualTo(ChangeLog.Operation.INSERT);
+                assertThat(change.getTimestamp()).isEqualTo(transaction.getTimeMillis());
+            }
+        }
+        assertThat(accountUIDs).contains(bank.getUID(), groceries.getUID());
+        long lastSequence = mSubscriber.mChanges.get(mSubscriber.mChanges.size() - 1).getSequence();
+        assertThat(lastSequence).isEqualTo(mChangeLog.getLastSequence());
+
+        // only the new changes are dispatched the next time
+        mSubscriber.mChanges.clear();
+        mChangeLog.dispatch();
+        assertThat(mSubscriber.mChanges).isEmpty();
+        mTransactionsDbAdapter.deleteRecord(transaction.getUID());
+        mChangeLog.dispatch();
+        assertThat(mSubscriber.mChanges).isNotEmpty();
+        for (ChangeLog.Change change : mSubscriber.mChanges) {
+            assertThat(change.getSequence()).isGreaterThan(lastSequence);
+            assertThat(change.getOperation()).isEqualTo(ChangeLog.Operation.DELETE);
+        }
+        assertThat(mSubscriber.mChangesLost).isFalse();
+    }
+
+    @Test
+    public void replacedRecords_shouldBeLoggedAsDeletedAndInserted() {
+        Account bank = new Account("Bank");
+        Account groceries = new Account("Groceries");
+        mAccountsDbAdapter.addRecord(bank);
+        mAccountsDbAdapter.addRecord(groceries);
+        Transaction transaction = new Transaction("Shopping");
+        transaction.setTime(1500000000000L);
+        Split split = new Split(new Money("25", "USD"), groceries.getUID());
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(bank.getUID()));
+        mTransactionsDbAdapter.addRecord(transaction);
+        mChangeLog.subscribe(mSubscriber);
+
+        // saved again with REPLACE, which does not run the delete triggers
+        transaction.setTime(1600000000000L);
+        mTransactionsDbAdapter.addRecord(transaction, DatabaseAdapter.UpdateMethod.replace);
+        mChangeLog.dispatch();
+
+        List<ChangeLog.Change> changes = getChanges(ChangeLog.ENTITY_TRANSACTION, transaction.getUID());
+        assertThat(changes).hasSize(2);
+        // the replaced record is logged with the accounts and the time it had
+        assertThat(changes.get(0).getOperation()).isEqualTo(ChangeLog.Operation.DELETE);
+        assertThat(changes.get(0).getAccountUIDs()).containsOnly(bank.getUID(), groceries.getUID());
+        assertThat(changes.get(0).getTimestamp()).isEqualTo(1500000000000L);
+        assertThat(changes.get(1).getOperation()).isEqualTo(ChangeLog.Operation.INSERT);
+        assertThat(changes.get(1).getTimestamp()).isEqualTo(1600000000000L);
+
+        changes = getChanges(ChangeLog.ENTITY_SPLIT, split.getUID());
+        assertThat(changes).hasSize(2);
+        assertThat(changes.get(0).getOperation()).isEqualTo(ChangeLog.Operation.DELETE);
+        assertThat(changes.get(0).getAccountUIDs()).containsExactly(groceries.getUID());
+        assertThat(changes.get(1).getOperation()).isEqualTo(ChangeLog.Operation.INSERT);
+        assertThat(changes.get(1).getTimestamp()).isEqualTo(1600000000000L);
+    }
+
+    @Test
+    public void movedAccountsAndSplits_shouldLogFormerAndNewAccounts() {
+        Account assets = new Account("Assets");
+        Account savings = new Account("Savings");
+        Account bank = new Account("Bank");
+        Account groceries = new Account("Groceries");
+        Account restaurants = new Account("Restaurants");
+        bank.setParentUID(assets.getUID());
+        mAccountsDbAdapter.addRecord(assets);
+        mAccountsDbAdapter.addRecord(savings);
+        mAccountsDbAdapter.addRecord(bank);
+        mAccountsDbAdapter.addRecord(groceries);
+        mAccountsDbAdapter.addRecord(restaurants);
+        Transaction transaction = new Transaction("Shopping");
+        transaction.setTime(1500000000000L);
+        Split split = new Split(new Money("25", "USD"), groceries.getUID());
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(bank.getUID()));
+        mTransactionsDbAdapter.addRecord(transaction);
+        mChangeLog.subscribe(mSubscriber);
+
+        mAccountsDbAdapter.updateRecord(bank.getUID(), AccountEntry.COLUMN_PARENT_ACCOUNT_UID, savings.getUID());
+        SplitsDbAdapter.getInstance().updateRecord(split.getUID(), SplitEntry.COLUMN_ACCOUNT_UID, restaurants.getUID());
+        mChangeLog.dispatch();
+
+        // one change each, the update of the modified_at column by its trigger is not logged
+        assertThat(mSubscriber.mChanges).hasSize(2);
+        ChangeLog.Change accountChange = mSubscriber.mChanges.get(0);
+        assertThat(accountChange.getEntityUID()).isEqualTo(bank.getUID());
+        assertThat(accountChange.getOperation()).isEqualTo(ChangeLog.Operation.UPDATE);
+        assertThat(accountChange.getAccountUIDs()).containsOnly(bank.getUID(), savings.getUID(), assets.getUID());
+        ChangeLog.Change splitChange = mSubscriber.mChanges.get(1);
+        assertThat(splitChange.getEntityUID()).isEqualTo(split.getUID());
+        assertThat(splitChange.getOperation()).isEqualTo(ChangeLog.Operation.UPDATE);
+        assertThat(splitChange.getAccountUIDs()).containsOnly(restaurants.getUID(), groceries.getUID());
+        assertThat(splitChange.getTimestamp()).isEqualTo(1500000000000L);
+    }
+
+    @Test
+    public void prunedChanges_shouldBeReportedAsLost() {
+        mAccountsDbAdapter.addRecord(new Account("Bank"));
+        mChangeLog.subscribe(mSubscriber);
+
+        // more changes than the log keeps, by doubling its entries
+        SQLiteDatabase db = GnuCashApplication.getActiveDb();
+        for (int i = 0; i < 14; i++) {
+            db.execSQL("INSERT INTO " + ChangeLogEntry.TABLE_NAME + " (" + ChangeLogEntry.COLUMN_ENTITY_TYPE + ", "
+                    + ChangeLogEntry.COLUMN_ENTITY_UID + ", " + ChangeLogEntry.COLUMN_OPERATION + ") SELECT "
+                    + ChangeLogEntry.COLUMN_ENTITY_TYPE + ", " + ChangeLogEntry.COLUMN_ENTITY_UID + ", "
+                    + ChangeLogEntry.COLUMN_OPERATION + " FROM " + ChangeLogEntry.TABLE_NAME);
+        }
+        assertThat(DatabaseUtils.queryNumEntries(db, ChangeLogEntry.TABLE_NAME)).isEqualTo(10000);
+        mChangeLog.dispatch();
+
+        assertThat(mSubscriber.mChangesLost).isTrue();
+        assertThat(mSubscriber.mChanges).isEmpty();
+
+        // the subscriber is notified normally of the next changes
+        mSubscriber.mChangesLost = false;
+        mAccountsDbAdapter.addRecord(new Account("Groceries"));
+        mChangeLog.dispatch();
+        assertThat(mSubscriber.mChangesLost).isFalse();
+        assertThat(mSubscriber.mChanges).isNotEmpty();
+    }
+
+    @Test
+    public void replacedDatabase_shouldReportChangesAsLost() {
+        mAccountsDbAdapter.addRecord(new Account("Bank"));
+        mAccountsDbAdapter.addRecord(new Account("Groceries"));
+        mChangeLog.subscribe(mSubscriber);
+
+        // a restored database starts its sequence numbers again
+        SQLiteDatabase db = GnuCashApplication.getActiveDb();
+        db.delete(ChangeLogEntry.TABLE_NAME, null, null);
+        db.delete("sqlite_sequence", "name = ?", new String[]{ChangeLogEntry.TABLE_NAME});
+        mAccountsDbAdapter.addRecord(new Account("Restaurants"));
+        mChangeLog.dispatch();
+
+        assertThat(mSubscriber.mChangesLost).isTrue();
+        assertThat(mSubscriber.mChanges).isEmpty();
+
+        mSubscriber.mChangesLost = false;
+        mAccountsDbAdapter.addRecord(new Account("Savings"));
+        mChangeLog.dispatch();
+        assertThat(mSubscriber.mChangesLost).isFalse();
+        assertThat(mSubscriber.mChanges).isNotEmpty();
+    }
+
+    /**
+     * Returns the dispatched changes of a record
+     */
+    private List<ChangeLog.Change> getChanges(String entityType, String entityUID) {
+        List<ChangeLog.Change> changes = new ArrayList<>();
+        for (ChangeLog.Change change : mSubscriber.mChanges) {
+            if (change.getEntityType().equals(entityType) && change.getEntityUID().equals(entityUID)) {
+                changes.add(change);
+            }
+        }
+        return changes;
+    }
+
+    private static class RecordingSubscriber implements ChangeLog.Subscriber {
+        final List<ChangeLog.Change> mChanges = new ArrayList<>();
+        boolean mChangesLost;
+
+        @Override
+        public void onChanges(@NonNull List<ChangeLog.Change> changes) {
+            mChanges.addAll(changes);
+        }
+
+        @Override
+        public void onChangesLost() {
+            mChangesLost = true;
+        }
+    }
+}
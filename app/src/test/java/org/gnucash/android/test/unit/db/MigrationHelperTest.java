@@ -15,7 +15,18 @@
  */
 package org.gnucash.android.test.unit.db;
 
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.ChangeLogEntry;
+import org.gnucash.android.db.DatabaseSchema.CommodityEntry;
+import org.gnucash.android.db.DatabaseSchema.CommonColumns;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
 import org.gnucash.android.db.MigrationHelper;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
 import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
 import org.gnucash.android.util.TimestampHelper;
@@ -25,6 +36,8 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TimeZone;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -60,4 +73,91 @@ public class MigrationHelperTest {
         assertThat(TimestampHelper.getUtcStringFromTimestamp(result))
                 .isEqualTo(unixBillenniumUtcString);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void upgradeToVersion18_shouldCreateChangeLog() {
+        DatabaseHelper databaseHelper = new DatabaseHelper(GnuCashApplication.getAppContext(), "migration_test");
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        try {
+            // databases of version 17 have no change log
+            for (String trigger : getSchemaObjects(db, "trigger", ChangeLogEntry.TABLE_NAME + "%")) {
+                db.execSQL("DROP TRIGGER " + trigger);
+            }
+            db.execSQL("DROP TABLE " + ChangeLogEntry.TABLE_NAME);
+            db.execSQL("DROP INDEX " + SplitEntry.INDEX_TRANSACTION_UID);
+            databaseHelper.onUpgrade(db, 17, 18);
+
+            assertThat(getSchemaObjects(db, "table", ChangeLogEntry.TABLE_NAME)).hasSize(1);
+            assertThat(getSchemaObjects(db, "index", SplitEntry.INDEX_TRANSACTION_UID)).hasSize(1);
+            // the prune trigger, and the replace, insert, update and delete triggers of five tables
+            assertThat(getSchemaObjects(db, "trigger", ChangeLogEntry.TABLE_NAME + "%")).hasSize(21);
+
+            db.execSQL("INSERT INTO " + AccountEntry.TABLE_NAME + " (" + AccountEntry.COLUMN_UID + ", "
+                    + AccountEntry.COLUMN_NAME + ", " + AccountEntry.COLUMN_TYPE + ", " + AccountEntry.COLUMN_CURRENCY + ", "
+                    + AccountEntry.COLUMN_COMMODITY_UID + ") "
+                    + "SELECT 'wallet', 'Wallet', 'CASH', 'USD', " + CommodityEntry.COLUMN_UID
+                    + " FROM " + CommodityEntry.TABLE_NAME + " WHERE " + CommodityEntry.COLUMN_MNEMONIC + " = 'USD'");
+            assertThat(getChangeCount(db)).isEqualTo(1);
+        } finally {
+            databaseHelper.close();
+            GnuCashApplication.getAppContext().deleteDatabase("migration_test");
+        }
+    }
+
+    @Test
+    public void upgradeToVersion19_shouldCreateModifiedAtTriggers() {
+        DatabaseHelper databaseHelper = new DatabaseHelper(GnuCashApplication.getAppContext(), "migration_test");
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        try {
+            // databases of version 18 have no modified_at trigger
+            for (String trigger : getSchemaObjects(db, "trigger", "%_modified_at_trigger")) {
+                db.execSQL("DROP TRIGGER " + trigger);
+            }
+            databaseHelper.onUpgrade(db, 18, 19);
+            assertThat(getSchemaObjects(db, "trigger", AccountEntry.TABLE_NAME + "_modified_at_trigger")).hasSize(1);
+
+            // the commodities of this database are not the ones of the active book
+            db.execSQL("INSERT INTO " + AccountEntry.TABLE_NAME + " (" + AccountEntry.COLUMN_UID + ", "
+                    + AccountEntry.COLUMN_NAME + ", " + AccountEntry.COLUMN_TYPE + ", " + AccountEntry.COLUMN_CURRENCY + ", "
+                    + AccountEntry.COLUMN_COMMODITY_UID + ", " + AccountEntry.COLUMN_MODIFIED_AT + ") "
+                    + "SELECT 'wallet', 'Wallet', 'CASH', 'USD', " + CommodityEntry.COLUMN_UID
+                    + ", '2000-01-01 00:00:00' FROM " + CommodityEntry.TABLE_NAME
+                    + " WHERE " + CommodityEntry.COLUMN_MNEMONIC + " = 'USD'");
+            AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(db);
+            long changeCount = getChangeCount(db);
+
+            assertThat(accountsDbAdapter.updateRecord("wallet", AccountEntry.COLUMN_NAME, "Purse")).isEqualTo(1);
+            assertThat(accountsDbAdapter.getAttribute("wallet", CommonColumns.COLUMN_MODIFIED_AT))
+                    .isGreaterThan("2000-01-01 00:00:00");
+            // the update of the modified_at column by the trigger is not logged again
+            assertThat(getChangeCount(db)).isEqualTo(changeCount + 1);
+        } finally {
+            databaseHelper.close();
+            GnuCashApplication.getAppContext().deleteDatabase("migration_test");
+        }
+    }
+
+    private static List<String> getSchemaObjects(SQLiteDatabase db, String type, String namePattern) {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = ? AND name LIKE ?",
+                new String[]{type, namePattern});
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    private static long getChangeCount(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + ChangeLogEntry.TABLE_NAME, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
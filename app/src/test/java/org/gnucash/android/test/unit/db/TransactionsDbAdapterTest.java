@@ -15,7 +15,10 @@
  */
 package org.gnucash.android.test.unit.db;
 
+import android.database.Cursor;
+
 import org.assertj.core.data.Index;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
 import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.db.adapter.SplitsDbAdapter;
 import org.gnucash.android.db.adapter.TransactionsDbAdapter;
@@ -143,6 +146,57 @@ public class TransactionsDbAdapterTest {
 		assertThat(savedBalance.getCommodity()).isEqualTo(secondSplitAmount.getCommodity());
 	}
 
+	/**
+	 * The columns computed for the transactions list should match what was previously queried for each row
+	 */
+	@Test
+	public void transactionRows_shouldContainAmountSplitCountAndCounterpart(){
+		Account charlieAccount = new Account("Charlie");
+		charlieAccount.setParentUID(bravoAccount.getUID());
+		mAccountsDbAdapter.addRecord(charlieAccount);
+
+		Transaction pair = new Transaction("Pair");
+		pair.setTime(System.currentTimeMillis() - 10000);
+		Split split = new Split(new Money("23.50", DEFAULT_CURRENCY.getCurrencyCode()), alphaAccount.getUID());
+		pair.addSplit(split);
+		pair.addSplit(split.createPair(charlieAccount.getUID()));
+		mTransactionsDbAdapter.addRecord(pair);
+
+		Transaction multiple = new Transaction("Multiple");
+		multiple.setTime(System.currentTimeMillis());
+		split = new Split(new Money("10", DEFAULT_CURRENCY.getCurrencyCode()), alphaAccount.getUID());
+		multiple.addSplit(split);
+		multiple.addSplit(new Split(new Money("4.01", DEFAULT_CURRENCY.getCurrencyCode()), alphaAccount.getUID()));
+		Split other = split.createPair(bravoAccount.getUID());
+		other.setValue(new Money("14.01", DEFAULT_CURRENCY.getCurrencyCode()));
+		other.setQuantity(other.getValue());
+		multiple.addSplit(other);
+		mTransactionsDbAdapter.addRecord(multiple);
+
+		Cursor cursor = mTransactionsDbAdapter.fetchTransactionRowsForAccount(alphaAccount.getUID());
+		try {
+			assertThat(cursor.getCount()).isEqualTo(2);
+			for (Transaction transaction : new Transaction[]{multiple, pair}) {
+				cursor.moveToNext();
+				assertThat(cursor.getString(cursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_UID)))
+						.isEqualTo(transaction.getUID());
+				Money amount = new Money(BigDecimal.valueOf(cursor.getDouble(cursor.getColumnIndexOrThrow(
+						TransactionsDbAdapter.COLUMN_ACCOUNT_AMOUNT))), DEFAULT_CURRENCY);
+				assertThat(amount).isEqualTo(mTransactionsDbAdapter.getBalance(transaction.getUID(), alphaAccount.getUID()));
+				assertThat(cursor.getInt(cursor.getColumnIndexOrThrow(TransactionsDbAdapter.COLUMN_SPLIT_COUNT)))
+						.isEqualTo(mSplitsDbAdapter.getSplitsForTransaction(transaction.getUID()).size());
+			}
+			// the counterpart is only known for a pair of splits
+			int counterpartIndex = cursor.getColumnIndexOrThrow(TransactionsDbAdapter.COLUMN_COUNTERPART_ACCOUNT_NAME);
+			assertThat(cursor.getString(counterpartIndex))
+					.isEqualTo(mAccountsDbAdapter.getFullyQualifiedAccountName(charlieAccount.getUID()));
+			cursor.moveToFirst();
+			assertThat(cursor.isNull(counterpartIndex)).isTrue();
+		} finally {
+			cursor.close();
+		}
+	}
+
 	@After
 	public void tearDown() throws Exception {
 		mAccountsDbAdapter.deleteAllRecords();
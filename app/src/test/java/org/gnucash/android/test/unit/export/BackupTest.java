@@ -15,17 +15,35 @@
  */
 package org.gnucash.android.test.unit.export;
 
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
 import org.gnucash.android.R;
 import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.CommonColumns;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
 import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
 import org.gnucash.android.export.ExportFormat;
 import org.gnucash.android.export.ExportParams;
+import org.gnucash.android.export.ExportSink;
 import org.gnucash.android.export.Exporter;
 import org.gnucash.android.export.xml.GncXmlExporter;
 import org.gnucash.android.importer.GncXmlImporter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
 import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
 import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
 import org.gnucash.android.util.BackupManager;
+import org.gnucash.android.util.IncrementalBackup;
+import org.gnucash.android.util.SnapshotBackup;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -33,13 +51,22 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 import org.xml.sax.SAXException;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 
 /**
  * Test backup and restore functionality
@@ -65,6 +92,190 @@ public class BackupTest {
 
     }
 
+    /**
+     * Unchanged books should not be backed up again, and restoring a delta backup
+     * should replay the changes and deletions since the full backup
+     */
+    @Test
+    public void incrementalBackups_shouldRestoreChangesAndDeletions() throws Exception {
+        String bookUID = BooksDbAdapter.getInstance().getActiveBookUID();
+        assertThat(BackupManager.backupBookIncrementally(bookUID)).isTrue();
+        assertThat(BackupManager.backupBookIncrementally(bookUID)).isFalse();
+
+        SQLiteDatabase db = new DatabaseHelper(GnuCashApplication.getAppContext(), bookUID).getWritableDatabase();
+        TransactionsDbAdapter transactionsDbAdapter = new TransactionsDbAdapter(db, new SplitsDbAdapter(db));
+        AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(db, transactionsDbAdapter);
+        Account wallet = new Account("Wallet");
+        Account snacks = new Account("Snacks");
+        accountsDbAdapter.addRecord(wallet);
+        accountsDbAdapter.addRecord(snacks);
+        Transaction keptTransaction = createTransaction("Chocolate", wallet, snacks);
+        Transaction deletedTransaction = createTransaction("Crisps", wallet, snacks);
+        transactionsDbAdapter.addRecord(keptTransaction);
+        transactionsDbAdapter.addRecord(deletedTransaction);
+        assertThat(BackupManager.backupBookIncrementally(bookUID)).isTrue();
+
+        transactionsDbAdapter.deleteRecord(deletedTransaction.getUID());
+        accountsDbAdapter.updateRecord(wallet.getUID(), AccountEntry.COLUMN_NAME, "Purse");
+        assertThat(BackupManager.backupBookIncrementally(bookUID)).isTrue();
+        long transactionCount = transactionsDbAdapter.getRecordsCount();
+        db.close();
+
+        File lastBackup = BackupManager.getBackupList(bookUID).get(0);
+        assertThat(lastBackup.getName()).endsWith(IncrementalBackup.DELTA_EXTENSION);
+        String restoredBookUID = IncrementalBackup.restore(lastBackup, null);
+
+        SQLiteDatabase restoredDb = new DatabaseHelper(GnuCashApplication.getAppContext(), restoredBookUID)
+                .getWritableDatabase();
+        TransactionsDbAdapter restoredTransactions = new TransactionsDbAdapter(restoredDb, new SplitsDbAdapter(restoredDb));
+        AccountsDbAdapter restoredAccounts = new AccountsDbAdapter(restoredDb, restoredTransactions);
+        assertThat(restoredAccounts.getRecord(wallet.getUID()).getName()).isEqualTo("Purse");
+        assertThat(restoredTransactions.getRecord(keptTransaction.getUID()).getSplits()).hasSize(2);
+        assertThat(restoredTransactions.getRecordsCount()).isEqualTo(transactionCount);
+        restoredDb.close();
+    }
+
+    /**
+     * Plain updates of records which were modified before the last backup, like moving splits
+     * to another account or hiding an account, should be included in the next delta backup
+     */
+    @Test
+    public void incrementalBackups_shouldIncludeUpdatesInLaterSecond() throws Exception {
+        String bookUID = BooksDbAdapter.getInstance().getActiveBookUID();
+        SQLiteDatabase db = new DatabaseHelper(GnuCashApplication.getAppContext(), bookUID).getWritableDatabase();
+        SplitsDbAdapter splitsDbAdapter = new SplitsDbAdapter(db);
+        TransactionsDbAdapter transactionsDbAdapter = new TransactionsDbAdapter(db, splitsDbAdapter);
+        AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(db, transactionsDbAdapter);
+        Account wallet = new Account("Wallet");
+        Account snacks = new Account("Snacks");
+        accountsDbAdapter.addRecord(wallet);
+        accountsDbAdapter.addRecord(snacks);
+        Transaction transaction = createTransaction("Chocolate", wallet, snacks);
+        transactionsDbAdapter.addRecord(transaction);
+        // the records were last modified well before the backup, which is taken when a new account is added
+        for (String table : new String[]{AccountEntry.TABLE_NAME, TransactionEntry.TABLE_NAME, SplitEntry.TABLE_NAME}) {
+            db.execSQL("UPDATE " + table + " SET " + CommonColumns.COLUMN_MODIFIED_AT + " = '2000-01-01 00:00:00'");
+        }
+        Account groceries = new Account("Groceries");
+        accountsDbAdapter.addRecord(groceries);
+        assertThat(BackupManager.backupBookIncrementally(bookUID)).isTrue();
+
+        splitsDbAdapter.updateRecords(SplitEntry.COLUMN_ACCOUNT_UID + " = ?", new String[]{snacks.getUID()},
+                SplitEntry.COLUMN_ACCOUNT_UID, groceries.getUID());
+        accountsDbAdapter.updateRecord(snacks.getUID(), AccountEntry.COLUMN_HIDDEN, "1");
+        assertThat(accountsDbAdapter.getAttribute(snacks.getUID(), CommonColumns.COLUMN_MODIFIED_AT))
+                .isNotEqualTo("2000-01-01 00:00:00");
+        assertThat(BackupManager.backupBookIncrementally(bookUID)).isTrue();
+        db.close();
+
+        File lastBackup = BackupManager.getBackupList(bookUID).get(0);
+        assertThat(lastBackup.getName()).endsWith(IncrementalBackup.DELTA_EXTENSION);
+        String restoredBookUID = IncrementalBackup.restore(lastBackup, null);
+
+        SQLiteDatabase restoredDb = new DatabaseHelper(GnuCashApplication.getAppContext(), restoredBookUID)
+                .getWritableDatabase();
+        TransactionsDbAdapter restoredTransactions = new TransactionsDbAdapter(restoredDb, new SplitsDbAdapter(restoredDb));
+        AccountsDbAdapter restoredAccounts = new AccountsDbAdapter(restoredDb, restoredTransactions);
+        assertThat(restoredAccounts.getRecord(snacks.getUID()).isHidden()).isTrue();
+        List<Split> splits = restoredTransactions.getRecord(transaction.getUID()).getSplits();
+        assertThat(splits).hasSize(2);
+        assertThat(splits).extracting("accountUID").containsOnly(wallet.getUID(), groceries.getUID());
+        restoredDb.close();
+    }
+
+    /**
+     * A snapshot restores the book with all its records and is rejected if it was altered
+     */
+    @Test
+    public void snapshotBackup_shouldRestoreBookAndVerifyChecksum() throws Exception {
+        String bookUID = BooksDbAdapter.getInstance().getActiveBookUID();
+        SQLiteDatabase db = new DatabaseHelper(GnuCashApplication.getAppContext(), bookUID).getWritableDatabase();
+        long accountCount = new AccountsDbAdapter(db).getRecordsCount();
+        File snapshot = File.createTempFile("book", SnapshotBackup.SNAPSHOT_EXTENSION);
+        SnapshotBackup.write(db, ExportSink.toFile(snapshot, ExportSink.Compression.NONE));
+        db.close();
+
+        byte[] snapshotBytes = Files.readAllBytes(snapshot.toPath());
+        InputStream inputStream = new BufferedInputStream(new ByteArrayInputStream(snapshotBytes));
+        assertThat(SnapshotBackup.isSnapshot(inputStream)).isTrue();
+        String restoredBookUID = SnapshotBackup.restore(inputStream);
+
+        assertThat(restoredBookUID).isNotEqualTo(bookUID);
+        assertThat(BooksDbAdapter.getInstance().getRecord(restoredBookUID).getRootAccountUID()).isNotNull();
+        SQLiteDatabase restoredDb = new DatabaseHelper(GnuCashApplication.getAppContext(), restoredBookUID)
+                .getWritableDatabase();
+        assertThat(new AccountsDbAdapter(restoredDb).getRecordsCount()).isEqualTo(accountCount);
+        restoredDb.close();
+
+        // alter one byte of the database, keeping the original manifest
+        ByteArrayOutputStream corruptSnapshot = new ByteArrayOutputStream();
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(snapshotBytes));
+        ZipOutputStream zipOutputStream = new ZipOutputStream(corruptSnapshot);
+        ZipEntry entry;
+        while ((entry = zipInputStream.getNextEntry()) != null) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = zipInputStream.read(buffer)) != -1) {
+                content.write(buffer, 0, count);
+            }
+            byte[] data = content.toByteArray();
+            if (entry.getName().endsWith(".db"))
+                data[data.length - 1] ^= 1;
+            zipOutputStream.putNextEntry(new ZipEntry(entry.getName()));
+            zipOutputStream.write(data);
+            zipOutputStream.closeEntry();
+        }
+        zipOutputStream.close();
+        try {
+            SnapshotBackup.restore(new ByteArrayInputStream(corruptSnapshot.toByteArray()));
+            fail("A corrupt snapshot should not be restored");
+        } catch (IOException e) {
+            assertThat(e).hasMessageContaining("corrupt");
+        }
+        snapshot.delete();
+    }
+
+    /**
+     * Commits in write-ahead logging mode are not in the database file, so it is not copied
+     */
+    @Test
+    public void snapshotBackup_shouldRefuseWriteAheadLogging() throws Exception {
+        String bookUID = BooksDbAdapter.getInstance().getActiveBookUID();
+        SQLiteDatabase db = new DatabaseHelper(GnuCashApplication.getAppContext(), bookUID).getWritableDatabase();
+        assertThat(DatabaseHelper.isWriteAheadLogging(db)).isFalse();
+        File snapshot = File.createTempFile("book", SnapshotBackup.SNAPSHOT_EXTENSION);
+        try {
+            setJournalMode(db, "WAL");
+            assertThat(DatabaseHelper.isWriteAheadLogging(db)).isTrue();
+            SnapshotBackup.write(db, ExportSink.toFile(snapshot, ExportSink.Compression.NONE));
+            fail("A database in write-ahead logging mode should not be copied");
+        } catch (IOException e) {
+            assertThat(e).hasMessageContaining("write-ahead logging");
+        } finally {
+            setJournalMode(db, "TRUNCATE");
+            db.close();
+            snapshot.delete();
+        }
+    }
+
+    private static void setJournalMode(SQLiteDatabase db, String mode) {
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode = " + mode, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Transaction createTransaction(String description, Account from, Account to) {
+        Transaction transaction = new Transaction(description);
+        Split split = new Split(new Money("2.50", from.getCommodity().getCurrencyCode()), from.getUID());
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(to.getUID()));
+        return transaction;
+    }
+
     /**
      * Loads the default accounts from file resource
      */
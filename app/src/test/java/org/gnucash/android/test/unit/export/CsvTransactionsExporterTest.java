@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.export;
+
+import android.database.Cursor;
+
+import org.gnucash.android.R;
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.export.ExportFormat;
+import org.gnucash.android.export.ExportParams;
+import org.gnucash.android.export.csv.CsvTransactionsExporter;
+import org.gnucash.android.export.csv.CsvWriter;
+import org.gnucash.android.importer.GncXmlImporter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.model.TransactionType;
+import org.gnucash.android.test.unit.testutil.GncXmlBookGenerator;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.gnucash.android.util.TimestampHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Exports the transactions of a generated book to CSV and compares the output to the one
+ * of the previous exporter, which built the model of every transaction
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class CsvTransactionsExporterTest {
+    private static final int TRANSACTION_COUNT = 300;
+
+    private AccountsDbAdapter mAccountsDbAdapter;
+    private TransactionsDbAdapter mTransactionsDbAdapter;
+
+    @Before
+    public void setUp() throws Exception {
+        mAccountsDbAdapter = AccountsDbAdapter.getInstance();
+        mTransactionsDbAdapter = TransactionsDbAdapter.getInstance();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new GncXmlBookGenerator()
+                .setAccountTreeDepth(3)
+                .setAccountTreeWidth(2)
+                .setCommodityCount(3)
+                .setSplitsPerTransaction(3)
+                .setTransactionCount(TRANSACTION_COUNT)
+                .generate(outputStream, false);
+        GncXmlImporter.merge(new ByteArrayInputStream(outputStream.toByteArray()),
+                BooksDbAdapter.getInstance().getActiveBookUID(), false);
+    }
+
+    @After
+    public void tearDown() {
+        mAccountsDbAdapter.deleteAllRecords();
+    }
+
+    @Test
+    public void export_shouldMatchPreviousExporter() throws IOException {
+        String output = export(',');
+
+        assertThat(output).isEqualTo(generatePreviousExport(','));
+        // the header and one line per split
+        assertThat(output.split(System.getProperty("line.separator"))).hasSize(1 + 3 * TRANSACTION_COUNT);
+    }
+
+    @Test
+    public void export_shouldEscapeTokensAndHandleReconciledAndMultiCurrencySplits() throws IOException {
+        CommoditiesDbAdapter commoditiesDbAdapter = CommoditiesDbAdapter.getInstance();
+        Commodity usd = commoditiesDbAdapter.getCommodity("USD");
+        Commodity eur = commoditiesDbAdapter.getCommodity("EUR");
+        Account wallet = new Account("Wallet; cash \"main\"", usd);
+        Account euros = new Account("Euros", eur);
+        mAccountsDbAdapter.addRecord(wallet);
+        mAccountsDbAdapter.addRecord(euros);
+
+        Transaction transaction = new Transaction("Exchange; euros");
+        transaction.setTime(System.currentTimeMillis());
+        transaction.setNote("First line\nsecond \"line\"");
+        Split euroSplit = new Split(new Money("110", "USD"), new Money("100.50", "EUR"), euros.getUID());
+        euroSplit.setType(TransactionType.DEBIT);
+        euroSplit.setMemo("Rate; 1.09");
+        Split walletSplit = new Split(new Money("110", "USD"), wallet.getUID());
+        walletSplit.setType(TransactionType.CREDIT);
+        walletSplit.setReconcileState(Split.FLAG_RECONCILED);
+        walletSplit.setReconcileDate(TimestampHelper.getTimestampFromNow());
+        transaction.addSplit(euroSplit);
+        transaction.addSplit(walletSplit);
+        mTransactionsDbAdapter.addRecord(transaction);
+
+        String output = export(';');
+
+        assertThat(output).isEqualTo(generatePreviousExport(';'));
+        assertThat(output).contains(";\"Wallet; cash \"\"main\"\"\";")
+                .contains(";\"First line\nsecond \"\"line\"\"\";")
+                .contains(";-110.00;y;");
+    }
+
+    /**
+     * Runs the CSV transactions exporter on the active book
+     */
+    private static String export(char separator) throws IOException {
+        ExportParams params = new ExportParams(ExportFormat.CSVT);
+        params.setCsvSeparator(separator);
+        List<String> files = new CsvTransactionsExporter(params).generateExport();
+        assertThat(files).hasSize(1);
+        File file = new File(files.get(0));
+        try {
+            return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Writes the CSV export the way the exporter did before it read the splits with a single query
+     */
+    private String generatePreviousExport(char separator) throws IOException {
+        DateFormat dateFormat = new SimpleDateFormat("YYYY-MM-dd", Locale.US);
+        StringWriter stringWriter = new StringWriter();
+        CsvWriter writer = new CsvWriter(stringWriter, "" + separator);
+        for (String name : GnuCashApplication.getAppContext().getResources().getStringArray(R.array.csv_transaction_headers)) {
+            writer.writeToken(name);
+        }
+        writer.newLine();
+
+        Cursor cursor = mTransactionsDbAdapter.fetchTransactionsModifiedSince(TimestampHelper.getTimestampFromEpochZero());
+        try {
+            while (cursor.moveToNext()) {
+                Transaction transaction = mTransactionsDbAdapter.buildModelInstance(cursor);
+                writer.writeToken(dateFormat.format(new Date(transaction.getTimeMillis())));
+                writer.writeToken(transaction.getUID());
+                writer.writeToken(null);
+                writer.writeToken(transaction.getDescription());
+                writer.writeToken(transaction.getNote());
+                writer.writeToken("CURRENCY::" + transaction.getCurrencyCode());
+                writer.writeToken(null);
+                writer.writeToken(null);
+
+                int index = 0;
+                for (Split split : transaction.getSplits()) {
+                    if (index++ > 0) {
+                        for (int i = 0; i < 8; i++) {
+                            writer.write(separator);
+                        }
+                    }
+                    Account account = mAccountsDbAdapter.getRecord(split.getAccountUID());
+                    writer.writeToken(split.getMemo());
+                    writer.writeToken(account.getFullName());
+                    writer.writeToken(account.getName());
+                    String sign = split.getType() == TransactionType.CREDIT ? "-" : "";
+                    writer.writeToken(sign + split.getQuantity().formattedString());
+                    writer.writeToken(sign + split.getQuantity().toLocaleString());
+                    writer.writeToken("" + split.getReconcileState());
+                    if (split.getReconcileState() == Split.FLAG_RECONCILED) {
+                        writer.writeToken(dateFormat.format(new Date(split.getReconcileDate().getTime())));
+                    } else {
+                        writer.writeToken(null);
+                    }
+                    writer.writeEndToken(getPrice(split, account));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        writer.close();
+        return stringWriter.toString();
+    }
+
+    /**
+     * Returns the price of the split as written by the previous exporter.
+     * <p>It failed on splits whose quantity and value are in different currencies, for which the price
+     * is now rounded to the precision of the account currency</p>
+     */
+    private static String getPrice(Split split, Account account) {
+        Money quantity = split.getQuantity();
+        Money value = split.getValue();
+        if (quantity.getCommodity().equals(value.getCommodity())) {
+            return quantity.divide(value).toLocaleString();
+        }
+        BigDecimal price = quantity.asBigDecimal().divide(value.asBigDecimal(),
+                account.getCommodity().getSmallestFractionDigits(), RoundingMode.HALF_EVEN);
+        return String.format(Locale.getDefault(), "%.2f", price.doubleValue());
+    }
+}
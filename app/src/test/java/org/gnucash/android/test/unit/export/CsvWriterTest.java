@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.export;
+
+import org.gnucash.android.export.csv.CsvWriter;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CsvWriterTest {
+
+    @Test
+    public void plainTokens_shouldNotBeQuoted() throws IOException {
+        assertThat(writeRow(",", "Expenses:Food", null, "", "12.50")).isEqualTo("Expenses:Food,,,12.50\n");
+    }
+
+    @Test
+    public void tokensWithSeparator_shouldBeQuoted() throws IOException {
+        assertThat(writeRow(",", "Bread, milk", "1,50")).isEqualTo("\"Bread, milk\",\"1,50\"\n");
+        assertThat(writeRow(";", "Bread, milk", "1;50")).isEqualTo("Bread, milk;\"1;50\"\n");
+    }
+
+    @Test
+    public void quotesAndLineBreaks_shouldBeEscaped() throws IOException {
+        assertThat(writeRow(",", "The \"good\" shop", "Line 1\nLine 2", "a\r\nb"))
+                .isEqualTo("\"The \"\"good\"\" shop\",\"Line 1\nLine 2\",\"a\r\nb\"\n");
+    }
+
+    @Test
+    public void charSequenceTokens_shouldBeWrittenLikeStrings() throws IOException {
+        StringWriter output = new StringWriter();
+        CsvWriter csvWriter = new CsvWriter(output, ",");
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            token.append('x');
+        }
+        csvWriter.writeToken(token);
+        csvWriter.writeEndToken(new StringBuilder("say \"hi\""));
+        csvWriter.close();
+
+        assertThat(output.toString()).isEqualTo(token + ",\"say \"\"hi\"\"\"" + System.getProperty("line.separator"));
+    }
+
+    /**
+     * Writes the tokens as one row and returns the CSV, with the line separator replaced by a line feed
+     */
+    private static String writeRow(String separator, String... tokens) throws IOException {
+        StringWriter output = new StringWriter();
+        CsvWriter csvWriter = new CsvWriter(output, separator);
+        for (int i = 0; i < tokens.length - 1; i++) {
+            csvWriter.writeToken(tokens[i]);
+        }
+        csvWriter.writeEndToken(tokens[tokens.length - 1]);
+        csvWriter.close();
+        String csv = output.toString();
+        return csv.substring(0, csv.length() - System.getProperty("line.separator").length()) + "\n";
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.export;
+
+import android.net.Uri;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.export.ExportSink;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Writes exports through the sinks and reads them back
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class ExportSinkTest {
+    private static final String CONTENT = "<gnc-v2>é€</gnc-v2>\n";
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("export", ".xml");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        getPartFile().delete();
+    }
+
+    @Test
+    public void fileSink_shouldWriteUncompressedUtf8() throws IOException {
+        write(ExportSink.toFile(mFile, ExportSink.Compression.NONE));
+
+        assertThat(new String(read(new FileInputStream(mFile)), "UTF-8")).isEqualTo(CONTENT);
+        assertThat(getPartFile().exists()).isFalse();
+    }
+
+    @Test
+    public void fileSink_shouldCompressWithGzip() throws IOException {
+        write(ExportSink.toFile(mFile, ExportSink.Compression.GZIP));
+
+        assertThat(new String(read(new GZIPInputStream(new FileInputStream(mFile))), "UTF-8")).isEqualTo(CONTENT);
+    }
+
+    @Test
+    public void fileSink_shouldCompressIntoZipEntry() throws IOException {
+        write(ExportSink.toFile(mFile, ExportSink.Compression.ZIP).setZipEntryName("book.gnucash"));
+
+        ZipInputStream zipInputStream = new ZipInputStream(new FileInputStream(mFile));
+        try {
+            ZipEntry entry = zipInputStream.getNextEntry();
+            assertThat(entry.getName()).isEqualTo("book.gnucash");
+            assertThat(new String(readEntry(zipInputStream), "UTF-8")).isEqualTo(CONTENT);
+            assertThat(zipInputStream.getNextEntry()).isNull();
+        } finally {
+            zipInputStream.close();
+        }
+    }
+
+    @Test
+    public void discardedFileSink_shouldKeepExistingFile() throws IOException {
+        write(ExportSink.toFile(mFile, ExportSink.Compression.NONE));
+
+        ExportSink sink = ExportSink.toFile(mFile, ExportSink.Compression.GZIP);
+        OutputStream outputStream = sink.open();
+        outputStream.write(new byte[100 * 1024]);
+        // the destination is not touched until the export is complete
+        assertThat(new String(read(new FileInputStream(mFile)), "UTF-8")).isEqualTo(CONTENT);
+        sink.discard();
+        outputStream.close();
+
+        assertThat(sink.isDiscarded()).isTrue();
+        assertThat(new String(read(new FileInputStream(mFile)), "UTF-8")).isEqualTo(CONTENT);
+        assertThat(getPartFile().exists()).isFalse();
+    }
+
+    @Test
+    public void uriSink_shouldKeepDocumentOnSuccess() throws IOException {
+        write(ExportSink.toUri(GnuCashApplication.getAppContext(), Uri.fromFile(mFile), ExportSink.Compression.GZIP));
+
+        assertThat(mFile.exists()).isTrue();
+    }
+
+    @Test
+    public void discardedUriSink_shouldDeleteDocument() throws IOException {
+        ExportSink sink = ExportSink.toUri(GnuCashApplication.getAppContext(), Uri.fromFile(mFile),
+                ExportSink.Compression.NONE);
+        discard(sink);
+
+        assertThat(mFile.exists()).isFalse();
+    }
+
+    @Test
+    public void discardedUriSink_shouldKeepDocumentIfRequested() throws IOException {
+        ExportSink sink = ExportSink.toUri(GnuCashApplication.getAppContext(), Uri.fromFile(mFile),
+                ExportSink.Compression.ZIP, false);
+        discard(sink);
+
+        assertThat(mFile.exists()).isTrue();
+    }
+
+    private File getPartFile() {
+        return new File(mFile.getPath() + ".part");
+    }
+
+    private static void write(ExportSink sink) throws IOException {
+        Writer writer = sink.openWriter();
+        try {
+            writer.write(CONTENT);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void discard(ExportSink sink) throws IOException {
+        Writer writer = sink.openWriter();
+        writer.write(CONTENT);
+        sink.discard();
+        writer.close();
+    }
+
+    private static byte[] read(InputStream inputStream) throws IOException {
+        try {
+            return readEntry(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Reads the stream up to its end, or the end of the current entry of a zip stream, without closing it
+     */
+    private static byte[] readEntry(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int length;
+        while ((length = inputStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, length);
+        }
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.export;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.adapter.BudgetAmountsDbAdapter;
+import org.gnucash.android.db.adapter.BudgetsDbAdapter;
+import org.gnucash.android.db.adapter.DatabaseAdapter;
+import org.gnucash.android.db.adapter.RecurrenceDbAdapter;
+import org.gnucash.android.export.ExportFormat;
+import org.gnucash.android.export.ExportParams;
+import org.gnucash.android.export.xml.GncXmlExporter;
+import org.gnucash.android.importer.GncXmlImporter;
+import org.gnucash.android.model.Budget;
+import org.gnucash.android.model.BudgetAmount;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.PeriodType;
+import org.gnucash.android.model.Recurrence;
+import org.gnucash.android.test.unit.testutil.GncXmlBookGenerator;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class GncXmlExporterTest {
+
+    /**
+     * The book is serialized in sections by several workers. The result must be the same
+     * as when the sections are serialized one after the other.
+     */
+    @Test
+    public void concurrentExport_shouldMatchSequentialExport() throws Exception {
+        ByteArrayOutputStream book = new ByteArrayOutputStream();
+        new GncXmlBookGenerator()
+                .setTransactionCount(5000)
+                .setCommodityCount(3)
+                .setPriceCount(50)
+                .setScheduledActionCount(20)
+                .generate(book, false);
+        String bookUID = GncXmlImporter.parse(new ByteArrayInputStream(book.toByteArray()));
+        SQLiteDatabase db = new DatabaseHelper(GnuCashApplication.getAppContext(), bookUID).getWritableDatabase();
+        addBudgets(db, 3);
+
+        String sequentialExport = export(db, 1);
+        String concurrentExport = export(db, 4);
+
+        assertThat(sequentialExport).contains("<gnc:transaction", "<gnc:schedxaction", "<gnc:budget");
+        assertThat(concurrentExport).isEqualTo(sequentialExport);
+    }
+
+    /**
+     * Adds budgets for some of the expense accounts.
+     * <p>They are not generated in the book, because the import of budgets is disabled</p>
+     */
+    private static void addBudgets(SQLiteDatabase db, int count) {
+        BudgetsDbAdapter budgetsDbAdapter = new BudgetsDbAdapter(db, new BudgetAmountsDbAdapter(db),
+                new RecurrenceDbAdapter(db));
+        Cursor cursor = db.query(AccountEntry.TABLE_NAME, new String[]{AccountEntry.COLUMN_UID},
+                AccountEntry.COLUMN_TYPE + " = 'EXPENSE' AND " + AccountEntry.COLUMN_PLACEHOLDER + " = 0",
+                null, null, null, AccountEntry.COLUMN_UID);
+        try {
+            for (int i = 0; i < count; i++) {
+                Budget budget = new Budget("Budget " + i, new Recurrence(PeriodType.MONTH));
+                budget.setDescription("Generated budget " + i);
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    budget.addBudgetAmount(new BudgetAmount(new Money(String.valueOf(100 * (i + 1) + cursor.getPosition()),
+                            "USD"), cursor.getString(0)));
+                }
+                budgetsDbAdapter.addRecord(budget, DatabaseAdapter.UpdateMethod.insert);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String export(SQLiteDatabase db, int parallelism) {
+        GncXmlExporter exporter = new GncXmlExporter(new ExportParams(ExportFormat.XML), db);
+        exporter.setParallelism(parallelism);
+        StringWriter writer = new StringWriter();
+        exporter.generateExport(writer);
+        // the book GUID is generated anew for every export
+        String xml = writer.toString().replaceAll("<book:id type=\"guid\">\\w+</book:id>", "<book:id/>");
+        return normalizeTemplateAccounts(xml);
+    }
+
+    /**
+     * Replaces the GUIDs and names of the template accounts, which are generated anew for every export,
+     * with their order of appearance in the template transactions. The names are GUIDs as well,
+     * which identify the scheduled actions
+     */
+    private static String normalizeTemplateAccounts(String xml) {
+        int start = xml.indexOf("<gnc:template-transactions>");
+        if (start < 0)
+            return xml;
+        Matcher matcher = Pattern.compile("<act:id type=\"guid\">(\\w+)</act:id>|<act:name>(\\w{32})</act:name>")
+                .matcher(xml);
+        matcher.region(start, xml.length());
+        String normalized = xml;
+        int count = 0;
+        while (matcher.find()) {
+            String guid = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+            normalized = normalized.replace(guid, "template-guid-" + count++);
+        }
+        return normalized;
+    }
+}
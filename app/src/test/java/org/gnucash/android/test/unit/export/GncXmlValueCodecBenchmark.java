@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.export;
+
+import org.gnucash.android.export.xml.GncXmlValueCodec;
+import org.gnucash.android.ui.transaction.TransactionFormFragment;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Microbenchmark comparing {@link GncXmlValueCodec} with the {@link SimpleDateFormat}
+ * and string based amount parsing it replaces.
+ * <p>The timings are only printed, they are not asserted since they depend on the machine</p>
+ */
+public class GncXmlValueCodecBenchmark {
+
+    private static final int SAMPLES = 10000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    /**
+     * Prevents the JIT from eliminating the benchmarked calls
+     */
+    private long mSink;
+
+    @Test
+    public void benchmarkDates() throws ParseException {
+        final TimeZone zone = TimeZone.getDefault();
+        final SimpleDateFormat format = new SimpleDateFormat(GncXmlValueCodec.DATE_PATTERN, Locale.US);
+        format.setTimeZone(zone);
+        Random random = new Random(42);
+        final long[] millis = new long[SAMPLES];
+        final String[] dates = new String[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            millis[i] = 946684800000L + (long) (random.nextDouble() * 30 * 365 * 24 * 3600 * 1000L);
+            dates[i] = format.format(new Date(millis[i]));
+        }
+
+        long legacyFormat = measure(new Task() {
+            @Override
+            public void run() {
+                for (long time : millis) {
+                    mSink += format.format(new Date(time)).length();
+                }
+            }
+        });
+        long codecFormat = measure(new Task() {
+            @Override
+            public void run() {
+                for (long time : millis) {
+                    mSink += GncXmlValueCodec.formatDate(time, zone).length();
+                }
+            }
+        });
+        long legacyParse = measure(new Task() {
+            @Override
+            public void run() throws ParseException {
+                for (String date : dates) {
+                    mSink += format.parse(date).getTime();
+                }
+            }
+        });
+        long codecParse = measure(new Task() {
+            @Override
+            public void run() throws ParseException {
+                for (String date : dates) {
+                    mSink += GncXmlValueCodec.parseDate(date, zone);
+                }
+            }
+        });
+
+        report("formatDate", legacyFormat, codecFormat);
+        report("parseDate", legacyParse, codecParse);
+        assertThat(mSink).isNotZero();
+    }
+
+    @Test
+    public void benchmarkAmounts() throws ParseException {
+        Random random = new Random(42);
+        final String[] amounts = new String[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            amounts[i] = (random.nextInt(2000000) - 1000000) + "/100";
+        }
+
+        long legacyParse = measure(new Task() {
+            @Override
+            public void run() {
+                for (String amount : amounts) {
+                    int pos = amount.indexOf("/");
+                    String numerator = TransactionFormFragment.stripCurrencyFormatting(amount.substring(0, pos));
+                    mSink += new BigDecimal(new BigInteger(numerator), amount.length() - pos - 2).signum();
+                }
+            }
+        });
+        long codecParse = measure(new Task() {
+            @Override
+            public void run() throws ParseException {
+                for (String amount : amounts) {
+                    mSink += GncXmlValueCodec.parseAmount(amount).signum();
+                }
+            }
+        });
+
+        report("parseAmount", legacyParse, codecParse);
+    }
+
+    private interface Task {
+        void run() throws ParseException;
+    }
+
+    /**
+     * Runs the task repeatedly and returns the best time of the measured rounds
+     * @return Nanoseconds per sample
+     */
+    private static long measure(Task task) throws ParseException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            task.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / SAMPLES;
+    }
+
+    private static void report(String operation, long legacyNanos, long codecNanos) {
+        System.out.println(String.format(Locale.US, "%-12s legacy: %6d ns/op, codec: %6d ns/op",
+                operation, legacyNanos, codecNanos));
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.export;
+
+import org.gnucash.android.export.xml.GncXmlValueCodec;
+import org.gnucash.android.ui.transaction.TransactionFormFragment;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that {@link GncXmlValueCodec} gives the same results as the {@link SimpleDateFormat}
+ * and string based amount parsing it replaces
+ */
+public class GncXmlValueCodecTest {
+
+    private static final String[] TIME_ZONES = {"UTC", "Europe/Berlin", "America/New_York",
+            "Asia/Kolkata", "Australia/Lord_Howe", "Pacific/Chatham", "America/St_Johns", "Pacific/Kiritimati"};
+
+    private static final long SEED = 20180417L;
+
+    @Test
+    public void formatDate_shouldMatchSimpleDateFormat() {
+        Random random = new Random(SEED);
+        for (String zoneId : TIME_ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            SimpleDateFormat reference = createReferenceFormat(zone);
+            for (int i = 0; i < 20000; i++) {
+                // roughly between the years 1900 and 2100
+                long millis = (long) ((random.nextDouble() - 0.35) * 200 * 365.25 * 24 * 3600 * 1000);
+                assertThat(GncXmlValueCodec.formatDate(millis, zone))
+                        .isEqualTo(reference.format(new Date(millis)));
+            }
+        }
+    }
+
+    @Test
+    public void formatDate_shouldMatchSimpleDateFormatOutsideFastRange() {
+        TimeZone zone = TimeZone.getTimeZone("Europe/Berlin");
+        SimpleDateFormat reference = createReferenceFormat(zone);
+        long[] samples = {Long.MIN_VALUE / 4, -12219292800000L, -12219292800001L, -11676096000000L,
+                253402300799999L, 253402300800000L, 0, -1};
+        for (long millis : samples) {
+            assertThat(GncXmlValueCodec.formatDate(millis, zone))
+                    .isEqualTo(reference.format(new Date(millis)));
+        }
+    }
+
+    @Test
+    public void parseDate_shouldMatchSimpleDateFormat() throws ParseException {
+        Random random = new Random(SEED);
+        String[] offsets = {"+0000", "+0200", "-0500", "+0530", "+1245", "-1100", "+1400", "-0330"};
+        for (String zoneId : TIME_ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            SimpleDateFormat reference = createReferenceFormat(zone);
+            for (int i = 0; i < 20000; i++) {
+                long millis = (long) ((random.nextDouble() - 0.35) * 200 * 365.25 * 24 * 3600 * 1000);
+                String formatted = reference.format(new Date(millis));
+                assertThat(GncXmlValueCodec.parseDate(formatted, zone))
+                        .isEqualTo(reference.parse(formatted).getTime());
+
+                String withOtherOffset = formatted.substring(0, 20) + offsets[random.nextInt(offsets.length)];
+                assertThat(GncXmlValueCodec.parseDate(withOtherOffset, zone))
+                        .isEqualTo(reference.parse(withOtherOffset).getTime());
+            }
+        }
+    }
+
+    @Test
+    public void parseDate_shouldMatchSimpleDateFormatForUnusualInput() throws ParseException {
+        TimeZone zone = TimeZone.getTimeZone("Europe/Berlin");
+        SimpleDateFormat reference = createReferenceFormat(zone);
+        String[] samples = {
+                "2016-08-23 12:44:19 +0200",
+                "2016-02-29 23:59:59 -0000",
+                "2015-02-29 10:00:00 +0100",    //lenient day overflow
+                "2016-13-01 10:00:00 +0100",    //lenient month overflow
+                "2016-08-23 24:00:00 +0200",
+                "2016-08-23 12:44:19 GMT+02:00",
+                "2016-08-23 12:44:19 +0200 trailing",
+                "1500-06-01 00:00:00 +0000",    //julian calendar
+                "16-08-23 12:44:19 +0200"
+        };
+        for (String sample : samples) {
+            assertThat(GncXmlValueCodec.parseDate(sample, zone))
+                    .as(sample)
+                    .isEqualTo(reference.parse(sample).getTime());
+        }
+    }
+
+    @Test
+    public void parseDate_shouldParseCharacterRanges() throws ParseException {
+        TimeZone zone = TimeZone.getTimeZone("UTC");
+        String text = "<ts:date>2016-08-23 12:44:19 +0200</ts:date>";
+        long expected = GncXmlValueCodec.parseDate("2016-08-23 12:44:19 +0200", zone);
+        assertThat(GncXmlValueCodec.parseDate(text, 9, 34, zone)).isEqualTo(expected);
+    }
+
+    @Test(expected = ParseException.class)
+    public void parseDate_shouldFailForInvalidInput() throws ParseException {
+        GncXmlValueCodec.parseDate("23.08.2016", TimeZone.getTimeZone("UTC"));
+    }
+
+    @Test
+    public void appendDate_shouldMatchFormatDate() {
+        TimeZone zone = TimeZone.getTimeZone("America/New_York");
+        StringBuilder builder = new StringBuilder("date: ");
+        char[] buffer = new char[32];
+        GncXmlValueCodec.appendDate(1471949059000L, zone, builder, buffer);
+        assertThat(builder.toString()).isEqualTo("date: " + GncXmlValueCodec.formatDate(1471949059000L, zone));
+    }
+
+    @Test
+    public void parseAmount_shouldMatchFormerImplementation() throws ParseException {
+        Random random = new Random(SEED);
+        String[] denominators = {"1", "10", "100", "1000", "100000000", "3"};
+        for (int i = 0; i < 50000; i++) {
+            long numerator = random.nextInt(4) == 0 ? random.nextLong() : random.nextInt();
+            String amount = numerator + "/" + denominators[random.nextInt(denominators.length)];
+            assertThat(GncXmlValueCodec.parseAmount(amount)).isEqualTo(parseAmountReference(amount));
+        }
+
+        String[] samples = {"0/100", "-0/100", "+1500/100", "1.234,50/100", " -12 345/100", "99999999999999999/100",
+                "999999999999999999/100", "-9999999999999999999/100", "123456789012345678901234567890/1000",
+                "-$1,234.56/100", "12345/"};
+        for (String sample : samples) {
+            assertThat(GncXmlValueCodec.parseAmount(sample)).as(sample).isEqualTo(parseAmountReference(sample));
+        }
+    }
+
+    @Test
+    public void parseAmount_shouldParseCharacterRanges() throws ParseException {
+        String text = "<split:value>-12345/100</split:value>";
+        assertThat(GncXmlValueCodec.parseAmount(text, 13, 23)).isEqualTo(new BigDecimal("-123.45"));
+    }
+
+    @Test(expected = ParseException.class)
+    public void parseAmount_shouldFailWithoutDenominator() throws ParseException {
+        GncXmlValueCodec.parseAmount("123.45");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseAmount_shouldFailWithoutNumeratorDigits() throws ParseException {
+        GncXmlValueCodec.parseAmount("abc/100");
+    }
+
+    @Test
+    public void parseLong_shouldMatchLongParseLong() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < 10000; i++) {
+            String value = Long.toString(random.nextLong());
+            assertThat(GncXmlValueCodec.parseLong(value, 0, value.length())).isEqualTo(Long.parseLong(value));
+        }
+        assertThat(GncXmlValueCodec.parseLong("+42", 0, 3)).isEqualTo(42L);
+        assertThat(GncXmlValueCodec.parseLong("1234/100", 5, 8)).isEqualTo(100L);
+        assertThat(GncXmlValueCodec.parseLong("-9223372036854775808", 0, 20)).isEqualTo(Long.MIN_VALUE);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseLong_shouldFailForInvalidInput() {
+        GncXmlValueCodec.parseLong("12a4", 0, 4);
+    }
+
+    @Test
+    public void formatAmount_shouldMatchStringConcatenation() {
+        assertThat(GncXmlValueCodec.formatAmount(12345, 100, false)).isEqualTo("12345/100");
+        assertThat(GncXmlValueCodec.formatAmount(12345, 100, true)).isEqualTo("-12345/100");
+        assertThat(GncXmlValueCodec.formatAmount(Long.MAX_VALUE, 1, true)).isEqualTo("-" + Long.MAX_VALUE + "/1");
+    }
+
+    private static SimpleDateFormat createReferenceFormat(TimeZone zone) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z", Locale.US);
+        format.setTimeZone(zone);
+        return format;
+    }
+
+    /**
+     * Amount parsing as it was implemented in GncXmlHelper before the codec
+     */
+    private static BigDecimal parseAmountReference(String amountString) throws ParseException {
+        int pos = amountString.indexOf("/");
+        if (pos < 0) {
+            throw new ParseException("Cannot parse money string : " + amountString, 0);
+        }
+        int scale = amountString.length() - pos - 2;
+        String numerator = TransactionFormFragment.stripCurrencyFormatting(amountString.substring(0, pos));
+        return new BigDecimal(new BigInteger(numerator), scale);
+    }
+}
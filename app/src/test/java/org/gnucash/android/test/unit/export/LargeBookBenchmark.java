@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.export;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.export.ExportFormat;
+import org.gnucash.android.export.ExportParams;
+import org.gnucash.android.export.Exporter;
+import org.gnucash.android.export.csv.CsvTransactionsExporter;
+import org.gnucash.android.export.ofx.OfxExporter;
+import org.gnucash.android.export.qif.QifExporter;
+import org.gnucash.android.export.xml.GncXmlExporter;
+import org.gnucash.android.importer.GncXmlImporter;
+import org.gnucash.android.test.unit.testutil.GncXmlBookGenerator;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.gnucash.android.util.BackupManager;
+import org.gnucash.android.util.BookUtils;
+import org.gnucash.android.util.TimestampHelper;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Measures import, export and backup of generated books of increasing size.
+ * <p>For each operation the time, the peak heap usage and the size of the database or the output are printed.
+ * The numbers are not asserted since they depend on the machine.</p>
+ * <p>Only the smallest book is used by default, to keep the unit tests fast. Larger books can be given as a
+ * comma separated list of transaction counts:
+ * <pre>./gradlew testDevelopDebugUnitTest --tests '*LargeBookBenchmark' -PbenchmarkTransactions=1000,10000,100000,500000</pre>
+ * The largest books need a bigger heap for the test JVM.</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class LargeBookBenchmark {
+
+    /**
+     * System property with the transaction counts of the benchmarked books
+     */
+    public static final String PROPERTY_TRANSACTION_COUNTS = "gnucash.benchmark.transactions";
+
+    private static final String DEFAULT_TRANSACTION_COUNTS = "1000";
+
+    private interface Operation {
+        /**
+         * Runs the benchmarked operation
+         * @return Size in bytes of the result of the operation
+         */
+        long run() throws Exception;
+    }
+
+    @Test
+    public void benchmarkImportAndExport() throws Exception {
+        String counts = System.getProperty(PROPERTY_TRANSACTION_COUNTS, DEFAULT_TRANSACTION_COUNTS);
+        for (String count : counts.split(",")) {
+            benchmarkBook(Integer.parseInt(count.trim()));
+        }
+    }
+
+    private void benchmarkBook(final int transactionCount) throws Exception {
+        final File bookFile = File.createTempFile("benchmark", ".gnca");
+        try {
+            new GncXmlBookGenerator()
+                    .setTransactionCount(transactionCount)
+                    .setSplitsPerTransaction(3)
+                    .setAccountTreeDepth(3)
+                    .setAccountTreeWidth(4)
+                    .setCommodityCount(3)
+                    .setPriceCount(transactionCount / 100)
+                    .setScheduledActionCount(10)
+                    .generate(bookFile, true);
+
+            System.out.println(String.format(Locale.US, "Book with %d transactions (%d bytes gzipped)",
+                    transactionCount, bookFile.length()));
+
+            final String[] bookUID = new String[1];
+            measure("import", new Operation() {
+                @Override
+                public long run() throws Exception {
+                    InputStream inputStream = new FileInputStream(bookFile);
+                    try {
+                        bookUID[0] = GncXmlImporter.parse(inputStream);
+                    } finally {
+                        inputStream.close();
+                    }
+                    return GnuCashApplication.getAppContext().getDatabasePath(bookUID[0]).length();
+                }
+            });
+            BookUtils.activateBook(bookUID[0]);
+            assertThat(TransactionsDbAdapter.getInstance().getRecordsCount()).isEqualTo(transactionCount);
+
+            measure("xml export", new Operation() {
+                @Override
+                public long run() {
+                    return export(new GncXmlExporter(createExportParams(ExportFormat.XML)));
+                }
+            });
+            measure("csv export", new Operation() {
+                @Override
+                public long run() {
+                    return export(new CsvTransactionsExporter(createExportParams(ExportFormat.CSVT)));
+                }
+            });
+            measure("qif export", new Operation() {
+                @Override
+                public long run() {
+                    return export(new QifExporter(createExportParams(ExportFormat.QIF)));
+                }
+            });
+            measure("ofx export", new Operation() {
+                @Override
+                public long run() {
+                    return export(new OfxExporter(createExportParams(ExportFormat.OFX)));
+                }
+            });
+            measure("backup", new Operation() {
+                @Override
+                public long run() {
+                    assertThat(BackupManager.backupBook(bookUID[0])).isTrue();
+                    List<File> backups = BackupManager.getBackupList(bookUID[0]);
+                    return backups.get(0).length();
+                }
+            });
+        } finally {
+            bookFile.delete();
+        }
+    }
+
+    private static ExportParams createExportParams(ExportFormat format) {
+        ExportParams params = new ExportParams(format);
+        params.setExportStartTime(TimestampHelper.getTimestampFromEpochZero());
+        params.setExportTarget(ExportParams.ExportTarget.SD_CARD);
+        params.setDeleteTransactionsAfterExport(false);
+        return params;
+    }
+
+    /**
+     * Runs the exporter
+     * @return Total size of the exported files
+     */
+    private static long export(Exporter exporter) {
+        long size = 0;
+        for (String path : exporter.generateExport()) {
+            File file = new File(path);
+            size += file.length();
+            file.delete();
+        }
+        return size;
+    }
+
+    /**
+     * Runs the operation once and prints the time, the peak heap usage and the size of its result
+     */
+    private static void measure(String name, Operation operation) throws Exception {
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool);
+            }
+        }
+        System.gc();
+        long baseline = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            pool.resetPeakUsage();
+            baseline += pool.getUsage().getUsed();
+        }
+
+        long startTime = System.nanoTime();
+        long size = operation.run();
+        long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        System.out.println(String.format(Locale.US, "  %-12s %8d ms, peak heap %6d MB (+%d MB), size %d bytes",
+                name, elapsedMillis, peak >> 20, Math.max(0, peak - baseline) >> 20, size));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.importer;
+
+import android.database.Cursor;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseSchema.AccountEntry;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
+import org.gnucash.android.db.adapter.DatabaseAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.importer.GncXmlImporter;
+import org.gnucash.android.importer.MergeReport;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.test.unit.testutil.GncXmlBookGenerator;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Merges generated books into the active book and checks the changes made to it
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class BookMergerTest {
+    private static final int TRANSACTION_COUNT = 20;
+
+    private AccountsDbAdapter mAccountsDbAdapter;
+    private TransactionsDbAdapter mTransactionsDbAdapter;
+    private String mBookUID;
+    private byte[] mBook;
+
+    @Before
+    public void setUp() throws Exception {
+        mAccountsDbAdapter = AccountsDbAdapter.getInstance();
+        mTransactionsDbAdapter = TransactionsDbAdapter.getInstance();
+        mBookUID = BooksDbAdapter.getInstance().getActiveBookUID();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new GncXmlBookGenerator()
+                .setAccountTreeDepth(2)
+                .setAccountTreeWidth(2)
+                .setCommodityCount(2)
+                .setTransactionCount(TRANSACTION_COUNT)
+                .setScheduledActionCount(1)
+                .generate(outputStream, false);
+        mBook = outputStream.toByteArray();
+    }
+
+    @After
+    public void tearDown() {
+        mAccountsDbAdapter.deleteAllRecords();
+    }
+
+    @Test
+    public void merge_shouldOnlyWriteNewAndChangedRecords() throws Exception {
+        GnuCashApplication.setDefaultCurrencyCode("JPY");
+        MergeReport report = merge(false);
+        MergeReport.EntityChanges transactions = report.getChanges(TransactionEntry.TABLE_NAME);
+        assertThat(transactions.getInserted()).isEqualTo(TRANSACTION_COUNT);
+        assertThat(report.getChanges(AccountEntry.TABLE_NAME).getInserted()).isPositive();
+        // merging does not change the default currency of the book
+        assertThat(GnuCashApplication.getDefaultCurrencyCode()).isEqualTo("JPY");
+
+        // merging the same file again changes nothing
+        report = merge(false);
+        assertThat(report.getTotalChangedCount()).isZero();
+        assertThat(report.getChanges(TransactionEntry.TABLE_NAME).getUnchanged()).isEqualTo(TRANSACTION_COUNT);
+
+        Transaction transaction = getImportedTransaction();
+        String accountUID = transaction.getSplits().get(0).getAccountUID();
+        mAccountsDbAdapter.updateRecord(accountUID, AccountEntry.COLUMN_DESCRIPTION, "Changed locally");
+        mTransactionsDbAdapter.updateRecord(transaction.getUID(), TransactionEntry.COLUMN_DESCRIPTION, "Changed locally");
+        report = merge(false);
+        assertThat(report.getChanges(AccountEntry.TABLE_NAME).getUpdated()).isEqualTo(1);
+        assertThat(report.getChanges(TransactionEntry.TABLE_NAME).getUpdated()).isEqualTo(1);
+        assertThat(report.getChanges(TransactionEntry.TABLE_NAME).getUnchanged()).isEqualTo(TRANSACTION_COUNT - 1);
+        assertThat(mAccountsDbAdapter.getAttribute(accountUID, AccountEntry.COLUMN_DESCRIPTION))
+                .isNotEqualTo("Changed locally");
+    }
+
+    @Test
+    public void mergeDeletingMissing_shouldDeleteLocalAccountsWithTheirTransactions() throws Exception {
+        merge(false);
+        String rootUID = mAccountsDbAdapter.getOrCreateGnuCashRootAccountUID();
+        String imbalanceUID = mAccountsDbAdapter.getOrCreateImbalanceAccountUID(
+                CommoditiesDbAdapter.getInstance().getCommodity("USD"));
+        Transaction importedTransaction = getImportedTransaction();
+        String importedAccountUID = importedTransaction.getSplits().get(0).getAccountUID();
+        long splitCount = SplitsDbAdapter.getInstance().getRecordsCount();
+
+        Account localAccount = new Account("Local");
+        localAccount.setAccountType(AccountType.EXPENSE);
+        mAccountsDbAdapter.addRecord(localAccount);
+        Transaction localTransaction = new Transaction("Local");
+        Split split = new Split(new Money("12.50", "USD"), localAccount.getUID());
+        localTransaction.addSplit(split);
+        localTransaction.addSplit(split.createPair(importedAccountUID));
+        mTransactionsDbAdapter.addRecord(localTransaction);
+
+        MergeReport report = merge(true);
+        assertThat(report.getChanges(AccountEntry.TABLE_NAME).getDeleted()).isEqualTo(1);
+        assertThat(report.getChanges(TransactionEntry.TABLE_NAME).getDeleted()).isEqualTo(1);
+        assertThat(exists(mAccountsDbAdapter, localAccount.getUID())).isFalse();
+        // no split is left behind in the imported account
+        assertThat(exists(mTransactionsDbAdapter, localTransaction.getUID())).isFalse();
+        assertThat(SplitsDbAdapter.getInstance().getRecordsCount()).isEqualTo(splitCount);
+        // the accounts needed by the book are kept
+        assertThat(exists(mAccountsDbAdapter, rootUID)).isTrue();
+        assertThat(exists(mAccountsDbAdapter, imbalanceUID)).isTrue();
+        assertThat(mTransactionsDbAdapter.getRecordsCount()).isEqualTo(TRANSACTION_COUNT);
+
+        // deleting missing records is idempotent as well
+        assertThat(merge(true).getTotalChangedCount()).isZero();
+    }
+
+    private MergeReport merge(boolean deleteMissing) throws Exception {
+        return GncXmlImporter.merge(new ByteArrayInputStream(mBook), mBookUID, deleteMissing);
+    }
+
+    /**
+     * Returns a transaction of the merged book which is not a template
+     */
+    private Transaction getImportedTransaction() {
+        Cursor cursor = mTransactionsDbAdapter.fetchAllRecords(TransactionEntry.COLUMN_TEMPLATE + " = 0", null, null);
+        try {
+            assertThat(cursor.moveToFirst()).isTrue();
+            return mTransactionsDbAdapter.getRecord(
+                    cursor.getString(cursor.getColumnIndexOrThrow(TransactionEntry.COLUMN_UID)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean exists(DatabaseAdapter adapter, String uid) {
+        try {
+            adapter.getID(uid);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.importer;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.importer.GncSqliteImporter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.TransactionType;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Imports a small book saved by GnuCash desktop in the SQLite format.
+ * <p>The book has a salary of 2000 USD paid into a checking account, a transfer of 1100 USD
+ * to a savings account in EUR which received 1000 EUR, and a 0.50 USD fee whose split in the savings
+ * account has a zero quantity</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class GncSqliteImporterTest {
+    private static final String FIXTURE = "gnucashDesktopBook.gnucash";
+
+    private static final String CHECKING_UID    = "00000000000000000000000000000007";
+    private static final String SAVINGS_UID     = "00000000000000000000000000000008";
+    private static final String FEES_UID        = "0000000000000000000000000000000a";
+    private static final String SALARY_UID      = "0000000000000000000000000000000c";
+    private static final String TRANSFER_UID    = "0000000000000000000000000000000e";
+    private static final String FEE_UID         = "0000000000000000000000000000000f";
+    private static final String SAVINGS_TRANSFER_SPLIT_UID  = "00000000000000000000000000000013";
+    private static final String SAVINGS_FEE_SPLIT_UID       = "00000000000000000000000000000015";
+
+    @Test
+    public void fixtureShouldBeDetectedAsSqliteDatabase() throws Exception {
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(getFixture()));
+        try {
+            assertThat(GncSqliteImporter.isSqliteDatabase(inputStream)).isTrue();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Test
+    public void importedBook_shouldHaveAccountsSplitTypesAndBalances() {
+        String bookUID = GncSqliteImporter.parse(getFixture());
+        SQLiteDatabase db = new DatabaseHelper(GnuCashApplication.getAppContext(), bookUID).getReadableDatabase();
+        TransactionsDbAdapter transactionsDbAdapter = new TransactionsDbAdapter(db, new SplitsDbAdapter(db));
+        AccountsDbAdapter accountsDbAdapter = new AccountsDbAdapter(db, transactionsDbAdapter);
+        try {
+            Account savings = accountsDbAdapter.getRecord(SAVINGS_UID);
+            assertThat(savings.getFullName()).isEqualTo("Assets:Savings");
+            assertThat(savings.getAccountType()).isEqualTo(AccountType.BANK);
+            assertThat(savings.getCommodity().getCurrencyCode()).isEqualTo("EUR");
+            assertThat(accountsDbAdapter.getRecord(SALARY_UID).getFullName()).isEqualTo("Income:Salary");
+
+            // the split type comes from the sign of the value, even when the quantity differs
+            assertThat(getSplit(transactionsDbAdapter, TRANSFER_UID, SAVINGS_TRANSFER_SPLIT_UID).getType())
+                    .isEqualTo(TransactionType.DEBIT);
+            Split feeSplit = getSplit(transactionsDbAdapter, FEE_UID, SAVINGS_FEE_SPLIT_UID);
+            assertThat(feeSplit.getType()).isEqualTo(TransactionType.CREDIT);
+            assertThat(feeSplit.getValue().asBigDecimal()).isEqualByComparingTo("0.50");
+            assertThat(feeSplit.getQuantity().isAmountZero()).isTrue();
+
+            assertBalance(accountsDbAdapter, CHECKING_UID, "900", "USD");
+            assertBalance(accountsDbAdapter, SAVINGS_UID, "1000", "EUR");
+            assertBalance(accountsDbAdapter, FEES_UID, "0.50", "USD");
+            assertBalance(accountsDbAdapter, SALARY_UID, "2000", "USD");
+        } finally {
+            db.close();
+        }
+    }
+
+    private File getFixture() {
+        return new File(getClass().getClassLoader().getResource(FIXTURE).getFile());
+    }
+
+    private static Split getSplit(TransactionsDbAdapter transactionsDbAdapter, String transactionUID, String splitUID) {
+        for (Split split : transactionsDbAdapter.getRecord(transactionUID).getSplits()) {
+            if (split.getUID().equals(splitUID))
+                return split;
+        }
+        throw new AssertionError("Split " + splitUID + " was not imported");
+    }
+
+    private static void assertBalance(AccountsDbAdapter accountsDbAdapter, String accountUID,
+                                      String amount, String currencyCode) {
+        Money balance = accountsDbAdapter.getAccountBalance(accountUID);
+        assertThat(balance.asBigDecimal()).isEqualByComparingTo(amount);
+        assertThat(balance.getCommodity().getCurrencyCode()).isEqualTo(currencyCode);
+    }
+}
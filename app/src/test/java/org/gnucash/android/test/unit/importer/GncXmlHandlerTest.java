@@ -36,6 +36,7 @@ import org.gnucash.android.model.Transaction;
 import org.gnucash.android.model.TransactionType;
 import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
 import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.joda.time.LocalDateTime;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -49,8 +50,11 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -406,4 +410,42 @@ public class GncXmlHandlerTest {
         //assertThat(split2.getQuantity()).isEqualTo(new Money("20", "USD"));
         assertThat(split2.isPairOf(split1)).isTrue();
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests that the runs of an auto-created scheduled action which were missed since
+     * its start are generated, following the calendar months of the recurrence.
+     */
+    @Test
+    public void importingScheduledAction_shouldGenerateMissedTransactions() {
+        String bookUID = importGnuCashXml("importingScheduledAction_shouldGenerateMissedTransactions.xml");
+        setUpDbAdapters(bookUID);
+
+        LocalDateTime start = new LocalDateTime(2016, 9, 24, 0, 0);
+        LocalDateTime now = LocalDateTime.now();
+        int expectedRuns = 0;
+        while (!start.plusMonths(expectedRuns).isAfter(now)) {
+            expectedRuns++;
+        }
+
+        List<Transaction> transactions = mTransactionsDbAdapter.getAllTransactions();
+        List<Long> runTimes = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            if (transaction.isTemplate())
+                continue;
+            assertThat(transaction.getScheduledActionUID()).isEqualTo("9def659b35e85b09fe2bfade35053487");
+            assertThat(transaction.getDescription()).isEqualTo("Los pollos hermanos");
+            assertThat(transaction.getSplits()).hasSize(2);
+            runTimes.add(transaction.getTimeMillis());
+        }
+        assertThat(runTimes).hasSize(expectedRuns);
+        Collections.sort(runTimes);
+        for (int i = 0; i < expectedRuns; i++) {
+            assertThat(runTimes.get(i)).isEqualTo(start.plusMonths(i).toDate().getTime());
+        }
+
+        ScheduledAction scheduledAction =
+                mScheduledActionDbAdapter.getRecord("9def659b35e85b09fe2bfade35053487");
+        assertThat(scheduledAction.getExecutionCount()).isEqualTo(expectedRuns);
+        assertThat(scheduledAction.getLastRunTime()).isEqualTo(runTimes.get(expectedRuns - 1));
+    }
+}
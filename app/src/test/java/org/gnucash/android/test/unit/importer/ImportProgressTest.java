@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gnucash.android.test.unit.importer;
+
+import android.support.annotation.NonNull;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseSchema.TransactionEntry;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.BooksDbAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.importer.GncXmlImporter;
+import org.gnucash.android.importer.ImportCancelledException;
+import org.gnucash.android.importer.ImportProgress;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.test.unit.testutil.GncXmlBookGenerator;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the progress reported while importing and that cancelled imports leave no trace
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class ImportProgressTest {
+    private static final int TRANSACTION_COUNT = 2000;
+
+    private byte[] mBook;
+
+    @Before
+    public void setUp() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new GncXmlBookGenerator()
+                .setAccountTreeDepth(2)
+                .setAccountTreeWidth(3)
+                .setTransactionCount(TRANSACTION_COUNT)
+                .setScheduledActionCount(2)
+                .generate(outputStream, false);
+        mBook = outputStream.toByteArray();
+    }
+
+    @After
+    public void tearDown() {
+        AccountsDbAdapter.getInstance().deleteAllRecords();
+    }
+
+    @Test
+    public void progress_shouldBeMonotonicAndReachCompletion() throws Exception {
+        final List<Long> bytesRead = new ArrayList<>();
+        final List<Integer> percentages = new ArrayList<>();
+        ImportProgress progress = new ImportProgress(new ImportProgress.Listener() {
+            @Override
+            public void onProgressUpdate(@NonNull ImportProgress progress) {
+                bytesRead.add(progress.getBytesRead());
+                percentages.add(progress.getPercentage());
+            }
+        });
+        progress.setTotalBytes(mBook.length);
+
+        String bookUID = GncXmlImporter.parse(new ByteArrayInputStream(mBook), progress);
+        try {
+            // the file is large enough to be published several times while it is parsed
+            assertThat(percentages.size()).isGreaterThan(2);
+            assertThat(percentages.get(0)).isBetween(0, 99);
+            for (int i = 1; i < bytesRead.size(); i++) {
+                assertThat(bytesRead.get(i)).isGreaterThanOrEqualTo(bytesRead.get(i - 1));
+                assertThat(percentages.get(i)).isGreaterThanOrEqualTo(percentages.get(i - 1));
+            }
+            assertThat(bytesRead.get(bytesRead.size() - 1)).isEqualTo(mBook.length);
+            assertThat(percentages.get(percentages.size() - 1)).isEqualTo(100);
+
+            assertThat(progress.getEntityCounts().get(TransactionEntry.TABLE_NAME)).isEqualTo(TRANSACTION_COUNT);
+            assertThat(progress.getPhaseTimings()).containsKeys("parse", "insert transactions", "insert prices");
+        } finally {
+            BooksDbAdapter.getInstance().deleteBook(bookUID);
+        }
+    }
+
+    @Test
+    public void cancellingImport_shouldNotCreateBook() throws Exception {
+        BooksDbAdapter booksDbAdapter = BooksDbAdapter.getInstance();
+        long bookCount = booksDbAdapter.getRecordsCount();
+        List<String> databases = Arrays.asList(GnuCashApplication.getAppContext().databaseList());
+
+        // cancel while the transactions are written, after the whole file was parsed
+        ImportProgress progress = new ImportProgress(new CancellingListener("insert transactions"));
+        try {
+            GncXmlImporter.parse(new ByteArrayInputStream(mBook), progress);
+            fail("The import should have been cancelled");
+        } catch (ImportCancelledException e) {
+            // expected
+        }
+
+        assertThat(progress.getBytesRead()).isEqualTo(mBook.length);
+        assertThat(booksDbAdapter.getRecordsCount()).isEqualTo(bookCount);
+        // the database of the new book is deleted
+        assertThat(GnuCashApplication.getAppContext().databaseList()).containsOnly(databases.toArray(new String[0]));
+    }
+
+    @Test
+    public void cancellingMerge_shouldRollBackTheBook() throws Exception {
+        AccountsDbAdapter accountsDbAdapter = AccountsDbAdapter.getInstance();
+        TransactionsDbAdapter transactionsDbAdapter = TransactionsDbAdapter.getInstance();
+        accountsDbAdapter.addRecord(new Account("Local"));
+        long accountCount = accountsDbAdapter.getRecordsCount();
+        long transactionCount = transactionsDbAdapter.getRecordsCount();
+        long splitCount = SplitsDbAdapter.getInstance().getRecordsCount();
+
+        // all the merged records have been written when the cancellation is noticed
+        ImportProgress progress = new ImportProgress(new CancellingListener("resolve accounts"));
+        try {
+            GncXmlImporter.merge(new ByteArrayInputStream(mBook),
+                    BooksDbAdapter.getInstance().getActiveBookUID(), false, progress);
+            fail("The merge should have been cancelled");
+        } catch (ImportCancelledException e) {
+            // expected
+        }
+
+        assertThat(accountsDbAdapter.getRecordsCount()).isEqualTo(accountCount);
+        assertThat(transactionsDbAdapter.getRecordsCount()).isEqualTo(transactionCount);
+        assertThat(SplitsDbAdapter.getInstance().getRecordsCount()).isEqualTo(splitCount);
+    }
+
+    /**
+     * Cancels the import once a phase of the import has ended
+     */
+    private static class CancellingListener implements ImportProgress.Listener {
+        private final String mPhase;
+
+        CancellingListener(String phase) {
+            mPhase = phase;
+        }
+
+        @Override
+        public void onProgressUpdate(@NonNull ImportProgress progress) {
+            if (progress.getPhaseTimings().containsKey(mPhase)) {
+                progress.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.report;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.model.TransactionType;
+import org.gnucash.android.report.LedgerSnapshotFile;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class LedgerSnapshotFileTest {
+
+    private AccountsDbAdapter mAccountsDbAdapter;
+    private TransactionsDbAdapter mTransactionsDbAdapter;
+    private SQLiteDatabase mDb;
+    private Account mBank;
+    private Account mGroceries;
+    private Account mSalary;
+
+    @Before
+    public void setUp() {
+        mAccountsDbAdapter = AccountsDbAdapter.getInstance();
+        mTransactionsDbAdapter = TransactionsDbAdapter.getInstance();
+        mDb = GnuCashApplication.getActiveDb();
+        mBank = addAccount("Bank", AccountType.BANK);
+        mGroceries = addAccount("Groceries", AccountType.EXPENSE);
+        mSalary = addAccount("Salary", AccountType.INCOME);
+    }
+
+    @After
+    public void tearDown() {
+        mAccountsDbAdapter.deleteAllRecords();
+    }
+
+    @Test
+    public void savedFile_shouldBeUsedUntilModification() throws IOException {
+        addTransaction(new DateTime(2016, 1, 10, 12, 0), mBank, mSalary, "3000");
+        addTransaction(new DateTime(2016, 3, 5, 12, 0), mGroceries, mBank, "45.60");
+        addTransaction(new DateTime(2016, 3, 20, 12, 0), mGroceries, mBank, "20");
+        assertThat(LedgerSnapshotFile.get(mDb)).isNull();
+
+        LedgerSnapshotFile.save(mDb);
+        LedgerSnapshotFile snapshotFile = LedgerSnapshotFile.get(mDb);
+        assertThat(snapshotFile).isNotNull();
+        Map<String, Money> balances = snapshotFile.getAccountBalances(mDb);
+        assertThat(balances.get(mBank.getUID()).asBigDecimal()).isEqualByComparingTo("2934.40");
+        assertThat(balances.get(mSalary.getUID()).asBigDecimal()).isEqualByComparingTo("3000");
+        assertThat(balances.get(mGroceries.getUID()).asBigDecimal()).isEqualByComparingTo("65.60");
+
+        int bank = snapshotFile.getAccountIndex(mBank.getUID());
+        assertThat(snapshotFile.getMonthlyAmount(bank, new LocalDate(2016, 1, 1))).isEqualTo(3000);
+        assertThat(snapshotFile.getMonthlyAmount(bank, new LocalDate(2016, 2, 1))).isEqualTo(0);
+        assertThat(snapshotFile.getMonthlyAmount(bank, new LocalDate(2016, 3, 1))).isEqualTo(-65.6);
+        assertThat(snapshotFile.getMonthlyAmount(bank, new LocalDate(2017, 1, 1))).isEqualTo(0);
+
+        // the first modification discards the file
+        addTransaction(new DateTime(2016, 4, 1, 12, 0), mGroceries, mBank, "10");
+        assertThat(LedgerSnapshotFile.get(mDb)).isNull();
+    }
+
+    @Test
+    public void loadedFile_shouldBeDiscardedByDeletionsAndEdits() throws IOException {
+        Transaction salary = addTransaction(new DateTime(2016, 1, 10, 12, 0), mBank, mSalary, "3000");
+        Transaction groceries = addTransaction(new DateTime(2016, 3, 5, 12, 0), mGroceries, mBank, "45.60");
+        LedgerSnapshotFile.save(mDb);
+        assertThat(LedgerSnapshotFile.get(mDb)).isNotNull();
+
+        // deleting a transaction does not change the time of the last modification
+        mTransactionsDbAdapter.deleteRecord(groceries.getUID());
+        assertThat(LedgerSnapshotFile.get(mDb)).isNull();
+        LedgerSnapshotFile.save(mDb);
+        LedgerSnapshotFile snapshotFile = LedgerSnapshotFile.get(mDb);
+        assertThat(snapshotFile).isNotNull();
+        assertThat(snapshotFile.getAccountBalances(mDb).get(mBank.getUID()).asBigDecimal()).isEqualByComparingTo("3000");
+
+        Split split = salary.getSplits().get(0);
+        ContentValues values = new ContentValues();
+        values.put(SplitEntry.COLUMN_VALUE_NUM, 250000);
+        values.put(SplitEntry.COLUMN_QUANTITY_NUM, 250000);
+        SplitsDbAdapter.getInstance().updateRecord(split.getUID(), values);
+        assertThat(LedgerSnapshotFile.get(mDb)).isNull();
+        LedgerSnapshotFile.save(mDb);
+        assertThat(LedgerSnapshotFile.get(mDb).getAccountBalances(mDb).get(split.getAccountUID()).asBigDecimal())
+                .isEqualByComparingTo("2500");
+    }
+
+    @Test
+    public void file_shouldNotBeUsedWithWriteAheadLogging() throws IOException {
+        addTransaction(new DateTime(2016, 1, 10, 12, 0), mBank, mSalary, "3000");
+        LedgerSnapshotFile.save(mDb);
+        assertThat(LedgerSnapshotFile.get(mDb)).isNotNull();
+
+        setJournalMode("WAL");
+        try {
+            assertThat(LedgerSnapshotFile.get(mDb)).isNull();
+        } finally {
+            setJournalMode("TRUNCATE");
+        }
+    }
+
+    private void setJournalMode(String journalMode) {
+        Cursor cursor = mDb.rawQuery("PRAGMA journal_mode = " + journalMode, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Account addAccount(String name, AccountType type) {
+        Account account = new Account(name);
+        account.setAccountType(type);
+        mAccountsDbAdapter.addRecord(account);
+        return account;
+    }
+
+    /**
+     * Adds a transaction which debits an account and credits another one
+     */
+    private Transaction addTransaction(DateTime time, Account debitAccount, Account creditAccount, String amount) {
+        Transaction transaction = new Transaction("Test");
+        transaction.setTime(time.getMillis());
+        Split split = new Split(new Money(amount, "USD"), debitAccount.getUID());
+        split.setType(TransactionType.DEBIT);
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(creditAccount.getUID()));
+        mTransactionsDbAdapter.addRecord(transaction);
+        return transaction;
+    }
+}
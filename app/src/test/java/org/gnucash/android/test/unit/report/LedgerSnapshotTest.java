@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.report;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseSchema.SplitEntry;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.SplitsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.model.TransactionType;
+import org.gnucash.android.report.LedgerSnapshot;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class LedgerSnapshotTest {
+
+    private AccountsDbAdapter mAccountsDbAdapter;
+    private TransactionsDbAdapter mTransactionsDbAdapter;
+    private SQLiteDatabase mDb;
+    private Account mBank;
+    private Account mGroceries;
+    private Account mRent;
+    private Account mSalary;
+
+    @Before
+    public void setUp() {
+        mAccountsDbAdapter = AccountsDbAdapter.getInstance();
+        mTransactionsDbAdapter = TransactionsDbAdapter.getInstance();
+        mDb = GnuCashApplication.getActiveDb();
+        mBank = addAccount("Bank", AccountType.BANK);
+        mGroceries = addAccount("Groceries", AccountType.EXPENSE);
+        mRent = addAccount("Rent", AccountType.EXPENSE);
+        mSalary = addAccount("Salary", AccountType.INCOME);
+    }
+
+    @After
+    public void tearDown() {
+        mAccountsDbAdapter.deleteAllRecords();
+    }
+
+    /**
+     * A new transaction is appended to the snapshot in memory, instead of rebuilding it
+     */
+    @Test
+    public void newTransaction_shouldBeAppendedToSnapshot() {
+        addTransaction(new DateTime(2016, 1, 10, 12, 0), mBank, mSalary, "3000");
+        addTransaction(new DateTime(2016, 3, 1, 12, 0), mRent, mBank, "500");
+        LedgerSnapshot snapshot = LedgerSnapshot.get(mDb);
+        assertThat(snapshot).isNotNull();
+        assertThat(snapshot.getSplitCount()).isEqualTo(4);
+
+        // back-dated, so that it is inserted between the other splits
+        addTransaction(new DateTime(2016, 2, 5, 12, 0), mGroceries, mBank, "12.34");
+        assertThat(LedgerSnapshot.get(mDb)).isSameAs(snapshot);
+        assertThat(snapshot.getSplitCount()).isEqualTo(6);
+
+        long[] boundaries = {
+                new DateTime(2016, 1, 1, 0, 0).getMillis(),
+                new DateTime(2016, 2, 1, 0, 0).getMillis(),
+                new DateTime(2016, 3, 1, 0, 0).getMillis(),
+                new DateTime(2016, 4, 1, 0, 0).getMillis()};
+        double[][] sums = snapshot.sumByBucket(null, boundaries);
+        assertThat(sums[snapshot.getAccountIndex(mBank.getUID())]).containsExactly(3000, -12.34, -500);
+        assertThat(sums[snapshot.getAccountIndex(mSalary.getUID())]).containsExactly(-3000, 0, 0);
+        assertThat(snapshot.getAccountTotal(snapshot.getAccountIndex(mBank.getUID()),
+                boundaries[1], boundaries[3])).isEqualTo(-512.34);
+
+        // other modifications cause a rebuild
+        mTransactionsDbAdapter.deleteAllRecords();
+        assertThat(LedgerSnapshot.get(mDb).getSplitCount()).isZero();
+    }
+
+    @Test
+    public void deletedAndEditedSplits_shouldRebuildSnapshot() {
+        addTransaction(new DateTime(2016, 1, 10, 12, 0), mBank, mSalary, "3000");
+        Transaction rent = addTransaction(new DateTime(2016, 3, 1, 12, 0), mRent, mBank, "500");
+        Transaction groceries = addTransaction(new DateTime(2016, 3, 5, 12, 0), mGroceries, mBank, "80");
+        LedgerSnapshot snapshot = LedgerSnapshot.get(mDb);
+        assertThat(snapshot.getSplitCount()).isEqualTo(6);
+        long start = new DateTime(2016, 1, 1, 0, 0).getMillis();
+        long end = new DateTime(2016, 4, 1, 0, 0).getMillis();
+
+        mDb.delete(SplitEntry.TABLE_NAME, SplitEntry.COLUMN_UID + " = ?",
+                new String[]{groceries.getSplits().get(0).getUID()});
+        snapshot = LedgerSnapshot.get(mDb);
+        assertThat(snapshot.getSplitCount()).isEqualTo(5);
+        assertThat(snapshot.sumByAccount(null, start, end)[snapshot.getAccountIndex(mGroceries.getUID())]).isEqualTo(0);
+
+        ContentValues values = new ContentValues();
+        values.put(SplitEntry.COLUMN_VALUE_NUM, 45000);
+        values.put(SplitEntry.COLUMN_QUANTITY_NUM, 45000);
+        SplitsDbAdapter splitsDbAdapter = SplitsDbAdapter.getInstance();
+        splitsDbAdapter.updateRecord(rent.getSplits().get(0).getUID(), values);
+        LedgerSnapshot edited = LedgerSnapshot.get(mDb);
+        assertThat(edited).isNotSameAs(snapshot);
+        assertThat(edited.sumByAccount(null, start, end)[edited.getAccountIndex(mRent.getUID())]).isEqualTo(450);
+
+        // a new transaction is not appended after another modification, which the snapshot does not include
+        splitsDbAdapter.updateRecord(rent.getSplits().get(0).getUID(), values);
+        values.put(SplitEntry.COLUMN_VALUE_NUM, 40000);
+        values.put(SplitEntry.COLUMN_QUANTITY_NUM, 40000);
+        splitsDbAdapter.updateRecord(rent.getSplits().get(0).getUID(), values);
+        addTransaction(new DateTime(2016, 3, 10, 12, 0), mGroceries, mBank, "20");
+        snapshot = LedgerSnapshot.get(mDb);
+        assertThat(snapshot).isNotSameAs(edited);
+        assertThat(snapshot.getSplitCount()).isEqualTo(7);
+        assertThat(snapshot.sumByAccount(null, start, end)[snapshot.getAccountIndex(mRent.getUID())]).isEqualTo(400);
+    }
+
+    @Test
+    public void topAccounts_shouldBeSortedByAbsoluteAmount() {
+        addTransaction(new DateTime(2016, 1, 10, 12, 0), mBank, mSalary, "3000");
+        addTransaction(new DateTime(2016, 1, 15, 12, 0), mRent, mBank, "500");
+        addTransaction(new DateTime(2016, 1, 20, 12, 0), mGroceries, mBank, "80");
+        LedgerSnapshot snapshot = LedgerSnapshot.get(mDb);
+        assertThat(snapshot).isNotNull();
+
+        boolean[] expenses = new boolean[snapshot.getAccountCount()];
+        expenses[snapshot.getAccountIndex(mGroceries.getUID())] = true;
+        expenses[snapshot.getAccountIndex(mRent.getUID())] = true;
+        long start = new DateTime(2016, 1, 1, 0, 0).getMillis();
+        long end = new DateTime(2016, 2, 1, 0, 0).getMillis();
+
+        int[] top = snapshot.getTopAccounts(null, start, end, 2);
+        assertThat(top).containsExactly(snapshot.getAccountIndex(mSalary.getUID()), snapshot.getAccountIndex(mBank.getUID()));
+        top = snapshot.getTopAccounts(expenses, start, end, 5);
+        assertThat(top).containsExactly(snapshot.getAccountIndex(mRent.getUID()), snapshot.getAccountIndex(mGroceries.getUID()));
+    }
+
+    private Account addAccount(String name, AccountType type) {
+        Account account = new Account(name);
+        account.setAccountType(type);
+        mAccountsDbAdapter.addRecord(account);
+        return account;
+    }
+
+    /**
+     * Adds a transaction which debits an account and credits another one
+     */
+    private Transaction addTransaction(DateTime time, Account debitAccount, Account creditAccount, String amount) {
+        Transaction transaction = new Transaction("Test");
+        transaction.setTime(time.getMillis());
+        Split split = new Split(new Money(amount, "USD"), debitAccount.getUID());
+        split.setType(TransactionType.DEBIT);
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(creditAccount.getUID()));
+        mTransactionsDbAdapter.addRecord(transaction);
+        return transaction;
+    }
+}
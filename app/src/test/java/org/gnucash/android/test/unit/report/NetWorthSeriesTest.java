@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.report;
+
+import android.database.Cursor;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseSchema.NetWorthStateEntry;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.model.TransactionType;
+import org.gnucash.android.report.NetWorthSeries;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class NetWorthSeriesTest {
+
+    private AccountsDbAdapter mAccountsDbAdapter;
+    private TransactionsDbAdapter mTransactionsDbAdapter;
+    private NetWorthSeries mSeries;
+    private Account mBank;
+    private Account mCard;
+    private Account mGroceries;
+    private Account mSalary;
+
+    @Before
+    public void setUp() {
+        mAccountsDbAdapter = AccountsDbAdapter.getInstance();
+        mTransactionsDbAdapter = TransactionsDbAdapter.getInstance();
+        mSeries = new NetWorthSeries(GnuCashApplication.getActiveDb());
+        mBank = addAccount("Bank", AccountType.BANK);
+        mCard = addAccount("Card", AccountType.CREDIT);
+        mGroceries = addAccount("Groceries", AccountType.EXPENSE);
+        mSalary = addAccount("Salary", AccountType.INCOME);
+    }
+
+    @After
+    public void tearDown() {
+        mAccountsDbAdapter.deleteAllRecords();
+    }
+
+    @Test
+    public void balances_shouldHaveSignOfNormalBalance() {
+        addTransaction(new DateTime(2016, 1, 10, 12, 0), mBank, mSalary, "1000");
+        addTransaction(new DateTime(2016, 2, 5, 12, 0), mGroceries, mCard, "100");
+        addTransaction(new DateTime(2016, 3, 1, 12, 0), mCard, mBank, "100");
+
+        long[] times = {
+                new DateTime(2016, 1, 1, 12, 0).getMillis(),
+                new DateTime(2016, 1, 10, 0, 0).getMillis(),
+                new DateTime(2016, 2, 10, 12, 0).getMillis(),
+                new DateTime(2016, 3, 10, 12, 0).getMillis()};
+        Money[] assets = mSeries.getBalances(NetWorthSeries.ASSET_TYPES, Commodity.USD, times);
+        Money[] liabilities = mSeries.getBalances(NetWorthSeries.LIABILITY_TYPES, Commodity.USD, times);
+
+        // the balances are at the end of each day
+        assertThat(amounts(assets)).containsExactly(bd("0"), bd("1000"), bd("1000"), bd("900"));
+        assertThat(amounts(liabilities)).containsExactly(bd("0"), bd("0"), bd("100"), bd("0"));
+        assertThat(mSeries.getFirstDate()).isEqualTo(new DateTime(2016, 1, 10, 12, 0).toLocalDate());
+    }
+
+    /**
+     * A back-dated transaction is recorded by the triggers, and only the checkpoints from its day onward are recomputed
+     */
+    @Test
+    public void backDatedTransaction_shouldOnlyRecomputeLaterDays() {
+        addTransaction(new DateTime(2016, 1, 10, 12, 0), mBank, mSalary, "1000");
+        addTransaction(new DateTime(2016, 2, 5, 12, 0), mGroceries, mBank, "100");
+        addTransaction(new DateTime(2016, 3, 1, 12, 0), mGroceries, mBank, "50");
+        long end = new DateTime(2016, 3, 31, 12, 0).getMillis();
+        assertThat(mSeries.getBalance(NetWorthSeries.ASSET_TYPES, Commodity.USD, end).asBigDecimal()).isEqualTo(bd("850"));
+        assertThat(getDirtyFrom()).isNull();
+
+        Transaction transaction = addTransaction(new DateTime(2016, 1, 20, 12, 0), mGroceries, mBank, "25");
+        assertThat(getDirtyFrom()).isEqualTo(transaction.getTimeMillis());
+        assertThat(mSeries.getBalance(NetWorthSeries.ASSET_TYPES, Commodity.USD, end).asBigDecimal()).isEqualTo(bd("825"));
+        assertThat(getDirtyFrom()).isNull();
+
+        // moving the transaction after the others, and deleting it
+        transaction.setTime(new DateTime(2016, 3, 15, 12, 0).getMillis());
+        mTransactionsDbAdapter.addRecord(transaction);
+        assertThat(mSeries.getBalance(NetWorthSeries.ASSET_TYPES, Commodity.USD,
+                new DateTime(2016, 3, 10, 12, 0).getMillis()).asBigDecimal()).isEqualTo(bd("850"));
+        assertThat(mSeries.getBalance(NetWorthSeries.ASSET_TYPES, Commodity.USD, end).asBigDecimal()).isEqualTo(bd("825"));
+        mTransactionsDbAdapter.deleteRecord(transaction.getUID());
+        assertThat(mSeries.getBalance(NetWorthSeries.ASSET_TYPES, Commodity.USD, end).asBigDecimal())
+                .isEqualTo(mAccountsDbAdapter.getAccountBalance(NetWorthSeries.ASSET_TYPES, -1, end).asBigDecimal());
+    }
+
+    private Long getDirtyFrom() {
+        Cursor cursor = GnuCashApplication.getActiveDb().query(NetWorthStateEntry.TABLE_NAME,
+                new String[]{NetWorthStateEntry.COLUMN_DIRTY_FROM}, null, null, null, null, null);
+        try {
+            assertThat(cursor.moveToFirst()).isTrue();
+            return cursor.isNull(0) ? null : cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static BigDecimal[] amounts(Money[] balances) {
+        BigDecimal[] amounts = new BigDecimal[balances.length];
+        for (int i = 0; i < balances.length; i++) {
+            amounts[i] = balances[i].asBigDecimal();
+        }
+        return amounts;
+    }
+
+    private static BigDecimal bd(String amount) {
+        return new BigDecimal(amount).setScale(2);
+    }
+
+    private Account addAccount(String name, AccountType type) {
+        Account account = new Account(name);
+        account.setAccountType(type);
+        mAccountsDbAdapter.addRecord(account);
+        return account;
+    }
+
+    /**
+     * Adds a transaction which debits an account and credits another one
+     */
+    private Transaction addTransaction(DateTime time, Account debitAccount, Account creditAccount, String amount) {
+        Transaction transaction = new Transaction("Test");
+        transaction.setTime(time.getMillis());
+        Split split = new Split(new Money(amount, "USD"), debitAccount.getUID());
+        split.setType(TransactionType.DEBIT);
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(creditAccount.getUID()));
+        mTransactionsDbAdapter.addRecord(transaction);
+        return transaction;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.report;
+
+import android.support.annotation.NonNull;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.db.adapter.CommoditiesDbAdapter;
+import org.gnucash.android.db.adapter.PricesDbAdapter;
+import org.gnucash.android.db.adapter.TransactionsDbAdapter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.model.Commodity;
+import org.gnucash.android.model.Money;
+import org.gnucash.android.model.Price;
+import org.gnucash.android.model.Split;
+import org.gnucash.android.model.Transaction;
+import org.gnucash.android.model.TransactionType;
+import org.gnucash.android.report.BalanceMatrix;
+import org.gnucash.android.report.ReportAggregator;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.gnucash.android.ui.report.ReportsActivity.GroupInterval;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class ReportAggregatorTest {
+
+    private static final DateTimeZone TIME_ZONE = DateTimeZone.forID("Europe/Berlin");
+
+    private AccountsDbAdapter mAccountsDbAdapter;
+    private TransactionsDbAdapter mTransactionsDbAdapter;
+    private Account mBank;
+    private Account mGroceries;
+    private Account mRent;
+    private Account mSalary;
+
+    @Before
+    public void setUp() {
+        mAccountsDbAdapter = AccountsDbAdapter.getInstance();
+        mTransactionsDbAdapter = TransactionsDbAdapter.getInstance();
+        mBank = addAccount("Bank", AccountType.BANK);
+        mGroceries = addAccount("Groceries", AccountType.EXPENSE);
+        mRent = addAccount("Rent", AccountType.EXPENSE);
+        mSalary = addAccount("Salary", AccountType.INCOME);
+    }
+
+    @After
+    public void tearDown() {
+        mAccountsDbAdapter.deleteAllRecords();
+    }
+
+    /**
+     * Transactions are grouped by their local date, also around daylight saving time changes
+     */
+    @Test
+    public void monthlyAmounts_shouldUseLocalDates() {
+        // last evening of January and March, which are already February and April in UTC
+        addTransaction(new DateTime(2016, 1, 31, 23, 30, TIME_ZONE), mGroceries, "12.50");
+        addTransaction(new DateTime(2016, 3, 31, 23, 30, TIME_ZONE), mGroceries, "20.00");
+        addTransaction(new DateTime(2016, 4, 1, 0, 30, TIME_ZONE), mGroceries, "7.25");
+        addTransaction(new DateTime(2016, 3, 1, 12, 0, TIME_ZONE), mRent, "500");
+        addTransaction(new DateTime(2016, 6, 15, 12, 0, TIME_ZONE), mRent, "500");
+
+        BalanceMatrix matrix = new ReportAggregator(GnuCashApplication.getActiveDb(), TIME_ZONE).aggregate(
+                Collections.singletonList(AccountType.EXPENSE), "USD", GroupInterval.MONTH,
+                new DateTime(2016, 1, 15, 0, 0, TIME_ZONE).getMillis(),
+                new DateTime(2016, 5, 1, 0, 0, TIME_ZONE).getMillis());
+
+        assertThat(matrix.getPeriodCount()).isEqualTo(5);
+        assertThat(matrix.getPeriodStart(0)).isEqualTo(new LocalDate(2016, 1, 1));
+        assertThat(matrix.getPeriodStart(4)).isEqualTo(new LocalDate(2016, 5, 1));
+        assertThat(matrix.getAccountCount()).isEqualTo(2);
+        assertThat(matrix.getAccountUID(0)).isEqualTo(mGroceries.getUID());
+        assertThat(matrix.getAccountUID(1)).isEqualTo(mRent.getUID());
+        assertThat(matrix.getRow(0)).containsExactly(12.5, 0, 20, 7.25, 0);
+        // the rent of June is outside of the range
+        assertThat(matrix.getRow(1)).containsExactly(0, 0, 500, 0, 0);
+    }
+
+    @Test
+    public void quarterlyAmounts_shouldHaveSignOfNormalBalance() {
+        addTransaction(new DateTime(2015, 12, 1, 12, 0, TIME_ZONE), mRent, "500");
+        addTransaction(new DateTime(2016, 2, 1, 12, 0, TIME_ZONE), mRent, "500");
+        addTransaction(new DateTime(2016, 2, 25, 12, 0, TIME_ZONE), mSalary, "-3000");
+        addTransaction(new DateTime(2016, 4, 25, 12, 0, TIME_ZONE), mSalary, "-3000");
+
+        BalanceMatrix matrix = new ReportAggregator(GnuCashApplication.getActiveDb(), TIME_ZONE).aggregate(
+                Arrays.asList(AccountType.INCOME, AccountType.EXPENSE), "USD", GroupInterval.QUARTER,
+                new DateTime(2015, 11, 1, 0, 0, TIME_ZONE).getMillis(),
+                new DateTime(2016, 4, 1, 0, 0, TIME_ZONE).getMillis());
+
+        assertThat(matrix.getPeriodCount()).isEqualTo(3);
+        assertThat(matrix.getPeriodStart(1)).isEqualTo(new LocalDate(2016, 1, 1));
+        assertThat(matrix.getTotals(AccountType.EXPENSE)).containsExactly(500, 500, 0);
+        assertThat(matrix.getTotals(AccountType.INCOME)).containsExactly(0, 3000, 3000);
+    }
+
+    /**
+     * The whole range is a single period, which includes both of its bounds
+     */
+    @Test
+    public void totals_shouldIncludeBoundsOfRange() {
+        DateTime start = new DateTime(2016, 3, 1, 0, 0, TIME_ZONE);
+        DateTime end = new DateTime(2016, 3, 31, 12, 0, TIME_ZONE);
+        addTransaction(start.minusMillis(1), mGroceries, "1");
+        addTransaction(start, mGroceries, "10");
+        addTransaction(end, mGroceries, "100");
+        addTransaction(end.plusMillis(1), mGroceries, "1000");
+
+        ReportAggregator aggregator = new ReportAggregator(GnuCashApplication.getActiveDb(), TIME_ZONE);
+        BalanceMatrix matrix = aggregator.aggregate(Collections.singletonList(AccountType.EXPENSE), "USD",
+                GroupInterval.ALL, start.getMillis(), end.getMillis());
+        assertThat(matrix.getPeriodCount()).isEqualTo(1);
+        assertThat(matrix.getRow(0)).containsExactly(110);
+
+        matrix = aggregator.aggregate(Collections.singletonList(AccountType.EXPENSE), "USD",
+                GroupInterval.ALL, -1, end.getMillis());
+        assertThat(matrix.getRow(0)).containsExactly(111);
+    }
+
+    @Test
+    public void chunkedAmounts_shouldMatchSingleQuery() {
+        addTransaction(new DateTime(2016, 1, 10, 12, 0, TIME_ZONE), mGroceries, "10");
+        addTransaction(new DateTime(2016, 2, 10, 12, 0, TIME_ZONE), mGroceries, "20");
+        addTransaction(new DateTime(2016, 5, 10, 12, 0, TIME_ZONE), mRent, "500");
+        long start = new DateTime(2016, 1, 1, 0, 0, TIME_ZONE).getMillis();
+        long end = new DateTime(2016, 5, 31, 0, 0, TIME_ZONE).getMillis();
+
+        ReportAggregator aggregator = new ReportAggregator(GnuCashApplication.getActiveDb(), TIME_ZONE);
+        final List<BalanceMatrix> partialResults = new ArrayList<>();
+        BalanceMatrix matrix = aggregator.aggregate(Collections.singletonList(AccountType.EXPENSE), "USD",
+                GroupInterval.MONTH, start, end, 2, new ReportAggregator.PartialResultListener() {
+                    @Override
+                    public boolean onPartialResult(@NonNull BalanceMatrix matrix) {
+                        partialResults.add(matrix);
+                        return true;
+                    }
+                });
+
+        assertThat(partialResults).hasSize(2);
+        assertThat(partialResults.get(0).getAccountCount()).isEqualTo(1);
+        assertThat(partialResults.get(0).getRow(0)).containsExactly(10, 20, 0, 0, 0);
+        assertThat(matrix.getAccountCount()).isEqualTo(2);
+        assertThat(matrix.getRow(0)).containsExactly(10, 20, 0, 0, 0);
+        assertThat(matrix.getRow(1)).containsExactly(0, 0, 0, 0, 500);
+
+        BalanceMatrix cancelled = aggregator.aggregate(Collections.singletonList(AccountType.EXPENSE), "USD",
+                GroupInterval.MONTH, start, end, 2, new ReportAggregator.PartialResultListener() {
+                    @Override
+                    public boolean onPartialResult(@NonNull BalanceMatrix matrix) {
+                        return false;
+                    }
+                });
+        assertThat(cancelled).isNull();
+    }
+
+    /**
+     * Amounts in other currencies are converted at the price valid at the end of their period
+     */
+    @Test
+    public void foreignAmounts_shouldUsePriceOfPeriod() {
+        Account euroGroceries = new Account("Euro Groceries", Commodity.EUR);
+        euroGroceries.setAccountType(AccountType.EXPENSE);
+        mAccountsDbAdapter.addRecord(euroGroceries);
+        CommoditiesDbAdapter commoditiesDbAdapter = CommoditiesDbAdapter.getInstance();
+        addPrice(commoditiesDbAdapter.getCommodityUID("EUR"), commoditiesDbAdapter.getCommodityUID("USD"),
+                new DateTime(2016, 1, 1, 12, 0, TIME_ZONE), 3, 2);
+        // the inverse price can be used as well
+        addPrice(commoditiesDbAdapter.getCommodityUID("USD"), commoditiesDbAdapter.getCommodityUID("EUR"),
+                new DateTime(2016, 3, 1, 12, 0, TIME_ZONE), 1, 2);
+
+        for (int month : new int[]{1, 3}) {
+            Transaction transaction = new Transaction("Test");
+            transaction.setTime(new DateTime(2016, month, 15, 12, 0, TIME_ZONE).getMillis());
+            Split split = new Split(new Money("10", "USD"), new Money("10", "EUR"), euroGroceries.getUID());
+            split.setType(TransactionType.DEBIT);
+            transaction.addSplit(split);
+            Split pair = new Split(new Money("10", "USD"), mBank.getUID());
+            pair.setType(TransactionType.CREDIT);
+            transaction.addSplit(pair);
+            mTransactionsDbAdapter.addRecord(transaction);
+        }
+        addTransaction(new DateTime(2016, 2, 10, 12, 0, TIME_ZONE), mGroceries, "5");
+
+        BalanceMatrix matrix = new ReportAggregator(GnuCashApplication.getActiveDb(), TIME_ZONE).aggregate(
+                Collections.singletonList(AccountType.EXPENSE), "USD", GroupInterval.MONTH,
+                new DateTime(2016, 1, 1, 0, 0, TIME_ZONE).getMillis(),
+                new DateTime(2016, 3, 31, 0, 0, TIME_ZONE).getMillis());
+
+        assertThat(matrix.getAccountCount()).isEqualTo(2);
+        assertThat(matrix.getAccountUID(0)).isEqualTo(euroGroceries.getUID());
+        assertThat(matrix.getRow(0)).containsExactly(15, 0, 20);
+        assertThat(matrix.getRow(1)).containsExactly(0, 5, 0);
+    }
+
+    private void addPrice(String commodityUID, String currencyUID, DateTime date, long num, long denom) {
+        Price price = new Price(commodityUID, currencyUID);
+        price.setDate(new Timestamp(date.getMillis()));
+        price.setValueNum(num);
+        price.setValueDenom(denom);
+        PricesDbAdapter.getInstance().addRecord(price);
+    }
+
+    private Account addAccount(String name, AccountType type) {
+        Account account = new Account(name);
+        account.setAccountType(type);
+        mAccountsDbAdapter.addRecord(account);
+        return account;
+    }
+
+    /**
+     * Adds a transaction between the bank and an account
+     * @param amount Amount debited to the account, negative amounts are credited
+     */
+    private void addTransaction(DateTime time, Account account, String amount) {
+        Transaction transaction = new Transaction("Test");
+        transaction.setTime(time.getMillis());
+        Money money = new Money(amount, "USD");
+        Split split = new Split(money.abs(), account.getUID());
+        split.setType(money.isNegative() ? TransactionType.CREDIT : TransactionType.DEBIT);
+        transaction.addSplit(split);
+        transaction.addSplit(split.createPair(mBank.getUID()));
+        mTransactionsDbAdapter.addRecord(transaction);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.report;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.gnucash.android.app.GnuCashApplication;
+import org.gnucash.android.db.DatabaseHelper;
+import org.gnucash.android.db.DatabaseSchema.CommodityEntry;
+import org.gnucash.android.db.adapter.AccountsDbAdapter;
+import org.gnucash.android.model.Account;
+import org.gnucash.android.model.AccountType;
+import org.gnucash.android.report.ReportCache;
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.gnucash.android.ui.report.ReportType;
+import org.gnucash.android.ui.report.ReportsActivity.GroupInterval;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class ReportCacheTest {
+
+    private static final ReportCache.Key KEY = new ReportCache.Key("book", ReportType.BAR_CHART, "amounts",
+            AccountType.EXPENSE, "USD", -1, -1, GroupInterval.MONTH);
+
+    private File mDirectory;
+    private int mLoadCount;
+
+    private final ReportCache.Loader<String> mLoader = new ReportCache.Loader<String>() {
+        @Override
+        public String load() {
+            mLoadCount++;
+            return "result " + mLoadCount;
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("reports", "");
+        mDirectory.delete();
+        mLoadCount = 0;
+    }
+
+    @After
+    public void tearDown() {
+        new ReportCache(mDirectory).clear();
+        mDirectory.delete();
+        AccountsDbAdapter.getInstance().deleteAllRecords();
+    }
+
+    @Test
+    public void get_shouldOnlyReturnResultsOfSameDataVersion() {
+        ReportCache cache = new ReportCache(mDirectory);
+        cache.put(KEY, 1, "result");
+
+        assertThat(cache.<String>get(KEY, 1)).isEqualTo("result");
+        assertThat(cache.<String>get(KEY, 2)).isNull();
+        assertThat(cache.<String>get(new ReportCache.Key("book", ReportType.BAR_CHART, "amounts",
+                AccountType.INCOME, "USD", -1, -1, GroupInterval.MONTH), 1)).isNull();
+
+        // results survive a restart of the app
+        assertThat(new ReportCache(mDirectory).<String>get(KEY, 1)).isEqualTo("result");
+    }
+
+    @Test
+    public void get_shouldLoadAgainAfterWrite() {
+        SQLiteDatabase db = GnuCashApplication.getActiveDb();
+        ReportCache cache = new ReportCache(mDirectory);
+        long version = ReportCache.getDataVersion(db);
+        assertThat(version).isNotEqualTo(-1);
+
+        assertThat(cache.get(KEY, db, mLoader)).isEqualTo("result 1");
+        assertThat(cache.get(KEY, db, mLoader)).isEqualTo("result 1");
+
+        AccountsDbAdapter.getInstance().addRecord(new Account("Groceries"));
+        assertThat(ReportCache.getDataVersion(db)).isNotEqualTo(version);
+        assertThat(cache.get(KEY, db, mLoader)).isEqualTo("result 2");
+        assertThat(mLoadCount).isEqualTo(2);
+    }
+
+    @Test
+    public void dataVersion_shouldNotBeAvailableWithWriteAheadLogging() {
+        DatabaseHelper databaseHelper = new DatabaseHelper(GnuCashApplication.getAppContext(), "wal_test");
+        try {
+            SQLiteDatabase db = databaseHelper.getWritableDatabase();
+            assertThat(DatabaseHelper.isWriteAheadLogging(db)).isFalse();
+
+            // as in the compatibility WAL mode of Android 9, which SQLiteDatabase does not report
+            setJournalMode(db, "WAL");
+            assertThat(DatabaseHelper.isWriteAheadLogging(db)).isTrue();
+            assertThat(ReportCache.getDataVersion(db)).isEqualTo(-1);
+            ReportCache cache = new ReportCache(mDirectory);
+            assertThat(cache.get(KEY, db, mLoader)).isEqualTo("result 1");
+            assertThat(cache.get(KEY, db, mLoader)).isEqualTo("result 2");
+            databaseHelper.close();
+
+            // the database is switched back to a rollback journal when it is opened again
+            databaseHelper = new DatabaseHelper(GnuCashApplication.getAppContext(), "wal_test");
+            db = databaseHelper.getWritableDatabase();
+            assertThat(DatabaseHelper.isWriteAheadLogging(db)).isFalse();
+            long version = ReportCache.getDataVersion(db);
+            assertThat(version).isNotEqualTo(-1);
+            db.execSQL("UPDATE " + CommodityEntry.TABLE_NAME + " SET " + CommodityEntry.COLUMN_QUOTE_FLAG + " = 1"
+                    + " WHERE " + CommodityEntry.COLUMN_MNEMONIC + " = 'USD'");
+            assertThat(ReportCache.getDataVersion(db)).isEqualTo(version + 1);
+        } finally {
+            databaseHelper.close();
+            GnuCashApplication.getAppContext().deleteDatabase("wal_test");
+        }
+    }
+
+    private static void setJournalMode(SQLiteDatabase db, String journalMode) {
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode = " + journalMode, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+}
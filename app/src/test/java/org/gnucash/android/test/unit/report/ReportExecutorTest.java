@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.report;
+
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.gnucash.android.ui.report.ReportExecutor;
+import org.gnucash.android.ui.report.ReportType;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Submits runs to the report executor and checks which of them are generated and called back
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class ReportExecutorTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final List<String> mGenerated = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> mFinished = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> mFailed = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test
+    public void fullQueue_shouldCancelOldestWaitingRun() throws Exception {
+        ReportExecutor executor = ReportExecutor.getInstance();
+        BlockingGenerator blocking = new BlockingGenerator("blocking");
+        executor.submit(ReportType.PIE_CHART, blocking, new Recorder(mFinished, "blocking"));
+        blocking.awaitStarted();
+
+        // one more run than the queue can hold
+        List<ReportExecutor.Run> waiting = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            waiting.add(submit(ReportType.BAR_CHART, "run " + i));
+        }
+        assertThat(waiting.get(0).isCancelled()).isTrue();
+        for (ReportExecutor.Run run : waiting.subList(1, waiting.size())) {
+            assertThat(run.isCancelled()).isFalse();
+        }
+
+        blocking.release();
+        waitForSize(mFinished, 5);
+        assertThat(mGenerated).containsExactly("blocking", "run 2", "run 3", "run 4", "run 5");
+        assertThat(mFinished).containsExactly("blocking", "run 2", "run 3", "run 4", "run 5");
+        // the owner of the dropped run is notified, so that it does not wait for it
+        assertThat(mFailed).containsExactly("run 1");
+    }
+
+    @Test
+    public void cancelledRuns_shouldNotBeGeneratedNorCalledBack() throws Exception {
+        ReportExecutor executor = ReportExecutor.getInstance();
+        ReportExecutor.GenerationTime before = executor.getGenerationTime(ReportType.LINE_CHART);
+        int countBefore = before == null ? 0 : before.getCount();
+
+        BlockingGenerator blocking = new BlockingGenerator("blocking");
+        ReportExecutor.Run running = executor.submit(ReportType.LINE_CHART, blocking,
+                new Recorder(mFinished, "blocking"), new Recorder(mFailed, "blocking"));
+        blocking.awaitStarted();
+        ReportExecutor.Run queued = submit(ReportType.LINE_CHART, "queued");
+        ReportExecutor.Run next = submit(ReportType.LINE_CHART, "next");
+
+        // the running generation notices the cancellation at its next check
+        running.cancel();
+        queued.cancel();
+        blocking.release();
+        waitForSize(mFinished, 1);
+
+        assertThat(blocking.mCancellationNoticed).isTrue();
+        assertThat(mGenerated).containsExactly("blocking", "next");
+        assertThat(mFinished).containsExactly("next");
+        assertThat(mFailed).isEmpty();
+        assertThat(next.isCancelled()).isFalse();
+        // only the completed run is timed
+        assertThat(executor.getGenerationTime(ReportType.LINE_CHART).getCount()).isEqualTo(countBefore + 1);
+    }
+
+    @Test
+    public void failedGeneration_shouldCallOnFailed() throws Exception {
+        ReportExecutor.getInstance().submit(ReportType.TEXT, new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("No data");
+            }
+        }, new Recorder(mFinished, "failing"), new Recorder(mFailed, "failing"));
+        submit(ReportType.TEXT, "after");
+
+        waitForSize(mFinished, 1);
+        assertThat(mFailed).containsExactly("failing");
+        // the executor keeps generating reports after a failure
+        assertThat(mFinished).containsExactly("after");
+    }
+
+    /**
+     * Submits a run which records its generation and completion
+     */
+    private ReportExecutor.Run submit(ReportType reportType, String name) {
+        return ReportExecutor.getInstance().submit(reportType, new Recorder(mGenerated, name),
+                new Recorder(mFinished, name), new Recorder(mFailed, name));
+    }
+
+    /**
+     * Waits until the list has the expected size, running the callbacks posted to the main thread
+     */
+    private static void waitForSize(List<String> list, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (list.size() < size) {
+            if (System.currentTimeMillis() > deadline)
+                fail("Timed out waiting for " + size + " callbacks, got " + list);
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            Thread.sleep(10);
+        }
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    /**
+     * Adds a name to a list when it is run
+     */
+    private static class Recorder implements Runnable {
+        private final List<String> mList;
+        private final String mName;
+
+        Recorder(List<String> list, String name) {
+            mList = list;
+            mName = name;
+        }
+
+        @Override
+        public void run() {
+            mList.add(mName);
+        }
+    }
+
+    /**
+     * Generator which blocks the executor until it is released
+     */
+    private class BlockingGenerator implements Runnable {
+        private final String mName;
+        private final CountDownLatch mStarted = new CountDownLatch(1);
+        private final CountDownLatch mRelease = new CountDownLatch(1);
+        volatile boolean mCancellationNoticed;
+
+        BlockingGenerator(String name) {
+            mName = name;
+        }
+
+        void awaitStarted() throws InterruptedException {
+            assertThat(mStarted.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)).isTrue();
+        }
+
+        void release() {
+            mRelease.countDown();
+        }
+
+        @Override
+        public void run() {
+            mGenerated.add(mName);
+            mStarted.countDown();
+            try {
+                mRelease.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            mCancellationNoticed = ReportExecutor.isCurrentRunCancelled();
+        }
+    }
+}
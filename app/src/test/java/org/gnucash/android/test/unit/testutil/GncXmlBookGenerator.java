@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.testutil;
+
+import org.gnucash.android.export.xml.GncXmlValueCodec;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates synthetic GnuCash XML books of arbitrary size for tests and benchmarks.
+ * <p>The output only depends on the configuration and the seed, so the same book is generated on every run.
+ * The book is written in a streaming fashion and never held in memory.</p>
+ * <p>Accounts form a tree below one top level account per account type. Transactions only use the leaf
+ * accounts and all their splits are in the currency of the transaction.</p>
+ */
+public class GncXmlBookGenerator {
+
+    /**
+     * Currencies used by the generated book, the first one is the default currency
+     */
+    private static final String[] CURRENCIES = {"USD", "EUR", "GBP", "JPY", "CHF", "CAD", "AUD", "SEK"};
+
+    private static final String[] TOP_LEVEL_TYPES = {"ASSET", "BANK", "CASH", "EXPENSE", "INCOME", "LIABILITY", "CREDIT", "EQUITY"};
+
+    /**
+     * Each currency has its own top level account, so there cannot be more currencies than account types
+     */
+    private static final int CURRENCY_LIMIT = TOP_LEVEL_TYPES.length;
+
+    private static final String[] WORDS = {"Groceries", "Rent", "Salary", "Fuel", "Coffee", "Insurance", "Books",
+            "Dinner", "Train", "Phone", "Gift", "Taxes", "Repairs", "Cinema", "Pharmacy", "Bakery"};
+
+    /**
+     * 2010-01-01 00:00:00 UTC, the date of the first transaction
+     */
+    private static final long FIRST_TRANSACTION_TIME = 1262304000000L;
+
+    private static final long DAY_MILLIS = 24 * 3600 * 1000L;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private long mSeed = 42;
+    private int mAccountTreeDepth = 3;
+    private int mAccountTreeWidth = 3;
+    private int mTransactionCount = 1000;
+    private int mSplitsPerTransaction = 2;
+    private int mCommodityCount = 1;
+    private int mPriceCount = 0;
+    private int mScheduledActionCount = 0;
+
+    private Random mRandom;
+    private Writer mWriter;
+
+    /**
+     * Leaf accounts of the tree, indexed by the currency of the account
+     */
+    private List<List<String>> mLeafAccounts;
+
+    public GncXmlBookGenerator setSeed(long seed) {
+        mSeed = seed;
+        return this;
+    }
+
+    /**
+     * Sets the number of levels of accounts below each top level account
+     */
+    public GncXmlBookGenerator setAccountTreeDepth(int depth) {
+        mAccountTreeDepth = depth;
+        return this;
+    }
+
+    /**
+     * Sets the number of children of each account which is not a leaf of the tree
+     */
+    public GncXmlBookGenerator setAccountTreeWidth(int width) {
+        mAccountTreeWidth = Math.max(1, width);
+        return this;
+    }
+
+    public GncXmlBookGenerator setTransactionCount(int transactionCount) {
+        mTransactionCount = transactionCount;
+        return this;
+    }
+
+    /**
+     * Sets the number of splits of each transaction, at least 2
+     */
+    public GncXmlBookGenerator setSplitsPerTransaction(int splitsPerTransaction) {
+        mSplitsPerTransaction = Math.max(2, splitsPerTransaction);
+        return this;
+    }
+
+    /**
+     * Sets the number of currencies used by the accounts, at most 8
+     */
+    public GncXmlBookGenerator setCommodityCount(int commodityCount) {
+        mCommodityCount = Math.max(1, Math.min(CURRENCY_LIMIT, commodityCount));
+        return this;
+    }
+
+    /**
+     * Sets the number of prices. Prices are only generated if there is more than one commodity
+     */
+    public GncXmlBookGenerator setPriceCount(int priceCount) {
+        mPriceCount = priceCount;
+        return this;
+    }
+
+    public GncXmlBookGenerator setScheduledActionCount(int scheduledActionCount) {
+        mScheduledActionCount = scheduledActionCount;
+        return this;
+    }
+
+    /**
+     * Writes the book to a file
+     * @param file Destination file
+     * @param gzip Whether to compress the book like GnuCash desktop does by default
+     * @return The destination file
+     */
+    public File generate(File file, boolean gzip) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            generate(outputStream, gzip);
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    /**
+     * Writes the book to a stream. The stream is flushed but not closed
+     * @param outputStream Destination stream
+     * @param gzip Whether to compress the book like GnuCash desktop does by default
+     */
+    public void generate(OutputStream outputStream, boolean gzip) throws IOException {
+        GZIPOutputStream gzipOutputStream = gzip ? new GZIPOutputStream(outputStream, 64 * 1024) : null;
+        mWriter = new BufferedWriter(new OutputStreamWriter(gzip ? gzipOutputStream : outputStream, "UTF-8"), 64 * 1024);
+        mRandom = new Random(mSeed);
+        mLeafAccounts = new ArrayList<>();
+        for (int i = 0; i < mCommodityCount; i++) {
+            mLeafAccounts.add(new ArrayList<String>());
+        }
+
+        writeHeader();
+        writeCommodities();
+        writePrices();
+        writeAccounts();
+        writeTransactions();
+        writeScheduledActions();
+        mWriter.write("</gnc:book>\n</gnc-v2>\n");
+
+        mWriter.flush();
+        if (gzipOutputStream != null) {
+            gzipOutputStream.finish();
+        }
+        outputStream.flush();
+        mWriter = null;
+    }
+
+    private void writeHeader() throws IOException {
+        mWriter.write("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n<gnc-v2\n");
+        String[] namespaces = {"gnc", "act", "book", "cd", "cmdty", "price", "slot", "split", "sx", "trn", "ts", "bgt", "recurrence"};
+        for (String namespace : namespaces) {
+            mWriter.write("     xmlns:" + namespace + "=\"http://www.gnucash.org/XML/" + namespace + "\"\n");
+        }
+        mWriter.write(">\n<gnc:count-data cd:type=\"book\">1</gnc:count-data>\n");
+        mWriter.write("<gnc:book version=\"2.0.0\">\n<book:id type=\"guid\">" + nextGUID() + "</book:id>\n");
+        mWriter.write("<gnc:count-data cd:type=\"transaction\">" + mTransactionCount + "</gnc:count-data>\n");
+    }
+
+    private void writeCommodities() throws IOException {
+        for (int i = 0; i < mCommodityCount; i++) {
+            mWriter.write("<gnc:commodity version=\"2.0.0\">\n  <cmdty:space>ISO4217</cmdty:space>\n  <cmdty:id>"
+                    + CURRENCIES[i] + "</cmdty:id>\n</gnc:commodity>\n");
+        }
+        mWriter.write("<gnc:commodity version=\"2.0.0\">\n  <cmdty:space>template</cmdty:space>\n"
+                + "  <cmdty:id>template</cmdty:id>\n  <cmdty:name>template</cmdty:name>\n"
+                + "  <cmdty:xcode>template</cmdty:xcode>\n  <cmdty:fraction>1</cmdty:fraction>\n</gnc:commodity>\n");
+    }
+
+    private void writePrices() throws IOException {
+        if (mPriceCount == 0 || mCommodityCount < 2) {
+            return;
+        }
+        mWriter.write("<gnc:pricedb version=\"1\">\n");
+        long stepMillis = Math.max(DAY_MILLIS, 10 * 365 * DAY_MILLIS / mPriceCount);
+        for (int i = 0; i < mPriceCount; i++) {
+            mWriter.write("  <price>\n    <price:id type=\"guid\">" + nextGUID() + "</price:id>\n");
+            mWriter.write("    <price:commodity>\n      <cmdty:space>ISO4217</cmdty:space>\n      <cmdty:id>"
+                    + CURRENCIES[1 + i % (mCommodityCount - 1)] + "</cmdty:id>\n    </price:commodity>\n");
+            mWriter.write("    <price:currency>\n      <cmdty:space>ISO4217</cmdty:space>\n      <cmdty:id>"
+                    + CURRENCIES[0] + "</cmdty:id>\n    </price:currency>\n");
+            mWriter.write("    <price:time>\n      <ts:date>" + formatDate(FIRST_TRANSACTION_TIME + i * stepMillis)
+                    + "</ts:date>\n    </price:time>\n");
+            mWriter.write("    <price:source>user:price</price:source>\n    <price:type>last</price:type>\n");
+            mWriter.write("    <price:value>" + (50000000 + mRandom.nextInt(100000000)) + "/100000000</price:value>\n  </price>\n");
+        }
+        mWriter.write("</gnc:pricedb>\n");
+    }
+
+    private void writeAccounts() throws IOException {
+        String rootUID = nextGUID();
+        writeAccount("Root Account", rootUID, "ROOT", CURRENCIES[0], null, false);
+        for (int i = 0; i < TOP_LEVEL_TYPES.length; i++) {
+            String type = TOP_LEVEL_TYPES[i];
+            String currency = CURRENCIES[i % mCommodityCount];
+            String uid = nextGUID();
+            String name = type.charAt(0) + type.substring(1).toLowerCase(Locale.US);
+            writeAccount(name, uid, type, currency, rootUID, mAccountTreeDepth > 0);
+            writeAccountChildren(name, uid, type, i % mCommodityCount, mAccountTreeDepth);
+        }
+    }
+
+    private void writeAccountChildren(String parentName, String parentUID, String type, int currencyIndex, int depth)
+            throws IOException {
+        if (depth == 0) {
+            mLeafAccounts.get(currencyIndex).add(parentUID);
+            return;
+        }
+        for (int i = 0; i < mAccountTreeWidth; i++) {
+            String name = parentName + " " + (i + 1);
+            String uid = nextGUID();
+            writeAccount(name, uid, type, CURRENCIES[currencyIndex], parentUID, depth > 1);
+            writeAccountChildren(name, uid, type, currencyIndex, depth - 1);
+        }
+    }
+
+    private void writeAccount(String name, String uid, String type, String currency, String parentUID,
+                              boolean placeholder) throws IOException {
+        mWriter.write("<gnc:account version=\"2.0.0\">\n  <act:name>" + name + "</act:name>\n");
+        mWriter.write("  <act:id type=\"guid\">" + uid + "</act:id>\n  <act:type>" + type + "</act:type>\n");
+        mWriter.write("  <act:commodity>\n    <cmdty:space>ISO4217</cmdty:space>\n    <cmdty:id>" + currency
+                + "</cmdty:id>\n  </act:commodity>\n  <act:commodity-scu>100</act:commodity-scu>\n");
+        if (placeholder) {
+            mWriter.write("  <act:slots>\n    <slot>\n      <slot:key>placeholder</slot:key>\n"
+                    + "      <slot:value type=\"string\">true</slot:value>\n    </slot>\n  </act:slots>\n");
+        }
+        if (parentUID != null) {
+            mWriter.write("  <act:parent type=\"guid\">" + parentUID + "</act:parent>\n");
+        }
+        mWriter.write("</gnc:account>\n");
+    }
+
+    private void writeTransactions() throws IOException {
+        long stepMillis = mTransactionCount == 0 ? 0 : Math.max(60000, 10 * 365 * DAY_MILLIS / mTransactionCount);
+        long[] amounts = new long[mSplitsPerTransaction];
+        for (int i = 0; i < mTransactionCount; i++) {
+            int currencyIndex = mRandom.nextInt(mCommodityCount);
+            List<String> accounts = mLeafAccounts.get(currencyIndex);
+            long time = FIRST_TRANSACTION_TIME + i * stepMillis;
+            mWriter.write("<gnc:transaction version=\"2.0.0\">\n  <trn:id type=\"guid\">" + nextGUID() + "</trn:id>\n");
+            writeCurrency("trn:currency", CURRENCIES[currencyIndex]);
+            mWriter.write("  <trn:date-posted>\n    <ts:date>" + formatDate(time) + "</ts:date>\n  </trn:date-posted>\n");
+            mWriter.write("  <trn:date-entered>\n    <ts:date>" + formatDate(time) + "</ts:date>\n  </trn:date-entered>\n");
+            mWriter.write("  <trn:description>" + WORDS[mRandom.nextInt(WORDS.length)] + " " + i + "</trn:description>\n");
+            mWriter.write("  <trn:splits>\n");
+
+            long balance = 0;
+            for (int j = 0; j < amounts.length - 1; j++) {
+                amounts[j] = 1 + mRandom.nextInt(100000);
+                balance += amounts[j];
+            }
+            amounts[amounts.length - 1] = -balance;
+            for (long amount : amounts) {
+                String value = GncXmlValueCodec.formatAmount(amount, 100, false);
+                mWriter.write("    <trn:split>\n      <split:id type=\"guid\">" + nextGUID() + "</split:id>\n");
+                mWriter.write("      <split:reconciled-state>n</split:reconciled-state>\n");
+                mWriter.write("      <split:value>" + value + "</split:value>\n");
+                mWriter.write("      <split:quantity>" + value + "</split:quantity>\n");
+                mWriter.write("      <split:account type=\"guid\">" + accounts.get(mRandom.nextInt(accounts.size()))
+                        + "</split:account>\n    </trn:split>\n");
+            }
+            mWriter.write("  </trn:splits>\n</gnc:transaction>\n");
+        }
+    }
+
+    private void writeScheduledActions() throws IOException {
+        if (mScheduledActionCount == 0) {
+            return;
+        }
+        String[] actionUIDs = new String[mScheduledActionCount];
+        String[] templateAccountUIDs = new String[mScheduledActionCount];
+        String templateRootUID = nextGUID();
+        mWriter.write("<gnc:template-transactions>\n<gnc:account version=\"2.0.0\">\n"
+                + "  <act:name>Template Root</act:name>\n  <act:id type=\"guid\">" + templateRootUID + "</act:id>\n"
+                + "  <act:type>ROOT</act:type>\n</gnc:account>\n");
+        for (int i = 0; i < mScheduledActionCount; i++) {
+            actionUIDs[i] = nextGUID();
+            templateAccountUIDs[i] = nextGUID();
+            mWriter.write("<gnc:account version=\"2.0.0\">\n  <act:name>" + actionUIDs[i] + "</act:name>\n"
+                    + "  <act:id type=\"guid\">" + templateAccountUIDs[i] + "</act:id>\n  <act:type>BANK</act:type>\n"
+                    + "  <act:commodity>\n    <cmdty:space>template</cmdty:space>\n    <cmdty:id>template</cmdty:id>\n"
+                    + "  </act:commodity>\n  <act:commodity-scu>1</act:commodity-scu>\n"
+                    + "  <act:parent type=\"guid\">" + templateRootUID + "</act:parent>\n</gnc:account>\n");
+        }
+        for (int i = 0; i < mScheduledActionCount; i++) {
+            List<String> accounts = mLeafAccounts.get(0);
+            String amount = (1 + mRandom.nextInt(1000)) + "/1";
+            mWriter.write("<gnc:transaction version=\"2.0.0\">\n  <trn:id type=\"guid\">" + nextGUID() + "</trn:id>\n");
+            writeCurrency("trn:currency", CURRENCIES[0]);
+            mWriter.write("  <trn:date-posted>\n    <ts:date>" + formatDate(FIRST_TRANSACTION_TIME)
+                    + "</ts:date>\n  </trn:date-posted>\n");
+            mWriter.write("  <trn:description>Scheduled " + i + "</trn:description>\n  <trn:splits>\n");
+            writeTemplateSplit(templateAccountUIDs[i], accounts.get(mRandom.nextInt(accounts.size())), amount, "0/1");
+            writeTemplateSplit(templateAccountUIDs[i], accounts.get(mRandom.nextInt(accounts.size())), "0/1", amount);
+            mWriter.write("  </trn:splits>\n</gnc:transaction>\n");
+        }
+        mWriter.write("</gnc:template-transactions>\n");
+
+        for (int i = 0; i < mScheduledActionCount; i++) {
+            String startDate = formatDate(FIRST_TRANSACTION_TIME + i * DAY_MILLIS).substring(0, 10);
+            mWriter.write("<gnc:schedxaction version=\"2.0.0\">\n  <sx:id type=\"guid\">" + actionUIDs[i] + "</sx:id>\n");
+            mWriter.write("  <sx:name>Scheduled " + i + "</sx:name>\n  <sx:enabled>y</sx:enabled>\n");
+            // no auto-creation, so that the imported book does not depend on the current date
+            mWriter.write("  <sx:autoCreate>n</sx:autoCreate>\n  <sx:autoCreateNotify>n</sx:autoCreateNotify>\n");
+            mWriter.write("  <sx:advanceCreateDays>0</sx:advanceCreateDays>\n  <sx:advanceRemindDays>0</sx:advanceRemindDays>\n");
+            mWriter.write("  <sx:instanceCount>1</sx:instanceCount>\n");
+            mWriter.write("  <sx:start>\n    <gdate>" + startDate + "</gdate>\n  </sx:start>\n");
+            mWriter.write("  <sx:templ-acct type=\"guid\">" + templateAccountUIDs[i] + "</sx:templ-acct>\n");
+            mWriter.write("  <sx:schedule>\n    <gnc:recurrence version=\"1.0.0\">\n      <recurrence:mult>1</recurrence:mult>\n"
+                    + "      <recurrence:period_type>month</recurrence:period_type>\n      <recurrence:start>\n"
+                    + "        <gdate>" + startDate + "</gdate>\n      </recurrence:start>\n"
+                    + "    </gnc:recurrence>\n  </sx:schedule>\n</gnc:schedxaction>\n");
+        }
+    }
+
+    private void writeTemplateSplit(String templateAccountUID, String accountUID, String credit, String debit)
+            throws IOException {
+        mWriter.write("    <trn:split>\n      <split:id type=\"guid\">" + nextGUID() + "</split:id>\n");
+        mWriter.write("      <split:reconciled-state>n</split:reconciled-state>\n");
+        mWriter.write("      <split:value>0/100</split:value>\n      <split:quantity>0/1</split:quantity>\n");
+        mWriter.write("      <split:account type=\"guid\">" + templateAccountUID + "</split:account>\n");
+        mWriter.write("      <split:slots>\n        <slot>\n          <slot:key>sched-xaction</slot:key>\n"
+                + "          <slot:value type=\"frame\">\n");
+        writeSlot("account", "guid", accountUID);
+        writeSlot("credit-numeric", "numeric", credit);
+        writeSlot("debit-numeric", "numeric", debit);
+        mWriter.write("          </slot:value>\n        </slot>\n      </split:slots>\n    </trn:split>\n");
+    }
+
+    private void writeSlot(String key, String type, String value) throws IOException {
+        mWriter.write("            <slot>\n              <slot:key>" + key + "</slot:key>\n"
+                + "              <slot:value type=\"" + type + "\">" + value + "</slot:value>\n            </slot>\n");
+    }
+
+    private void writeCurrency(String tag, String currencyCode) throws IOException {
+        mWriter.write("  <" + tag + ">\n    <cmdty:space>ISO4217</cmdty:space>\n    <cmdty:id>" + currencyCode
+                + "</cmdty:id>\n  </" + tag + ">\n");
+    }
+
+    private String nextGUID() {
+        return String.format(Locale.US, "%016x%016x", mRandom.nextLong(), mRandom.nextLong());
+    }
+
+    private static String formatDate(long millis) {
+        return GncXmlValueCodec.formatDate(millis, UTC);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2018 Ngewi Fet <ngewif@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gnucash.android.test.unit.util;
+
+import org.gnucash.android.test.unit.testutil.ShadowCrashlytics;
+import org.gnucash.android.test.unit.testutil.ShadowUserVoice;
+import org.gnucash.android.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the file transfers of {@link FileUtils} with the byte array loop they replace.
+ * <p>The timings are only printed, they are not asserted since they depend on the machine.
+ * A small file is used by default. The size in megabytes can be given with:
+ * <pre>./gradlew testDevelopDebugUnitTest --tests '*FileTransferBenchmark' -PbenchmarkFileMegabytes=100</pre></p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, packageName = "org.gnucash.android", shadows = {ShadowCrashlytics.class, ShadowUserVoice.class})
+public class FileTransferBenchmark {
+
+    /**
+     * System property with the size of the benchmarked file in megabytes
+     */
+    public static final String PROPERTY_FILE_MEGABYTES = "gnucash.benchmark.file_megabytes";
+
+    private static final int DEFAULT_FILE_MEGABYTES = 8;
+
+    private File mSource;
+    private File mTarget;
+    private long mSize;
+    private long mSourceChecksum;
+
+    private interface Transfer {
+        void run() throws IOException;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        int megabytes = Integer.getInteger(PROPERTY_FILE_MEGABYTES, DEFAULT_FILE_MEGABYTES);
+        mSource = File.createTempFile("transfer", ".src");
+        mTarget = File.createTempFile("transfer", ".dst");
+        Random random = new Random(42);
+        byte[] block = new byte[1024 * 1024];
+        OutputStream outputStream = new FileOutputStream(mSource);
+        try {
+            for (int i = 0; i < megabytes; i++) {
+                random.nextBytes(block);
+                outputStream.write(block);
+            }
+        } finally {
+            outputStream.close();
+        }
+        mSize = mSource.length();
+        mSourceChecksum = checksum(mSource);
+    }
+
+    @After
+    public void tearDown() {
+        mSource.delete();
+        mTarget.delete();
+    }
+
+    @Test
+    public void benchmarkCopies() throws IOException {
+        measure("byte array loop", new Transfer() {
+            @Override
+            public void run() throws IOException {
+                InputStream inputStream = new FileInputStream(mSource);
+                OutputStream outputStream = new FileOutputStream(mTarget);
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                }
+                inputStream.close();
+                outputStream.close();
+            }
+        });
+        measure("copyFile", new Transfer() {
+            @Override
+            public void run() throws IOException {
+                FileUtils.copyFile(mSource, mTarget);
+            }
+        });
+        measure("copyToStream (file)", new Transfer() {
+            @Override
+            public void run() throws IOException {
+                OutputStream outputStream = new FileOutputStream(mTarget);
+                FileUtils.copyToStream(mSource, outputStream);
+                outputStream.close();
+            }
+        });
+        measure("copyToStream (buffered)", new Transfer() {
+            @Override
+            public void run() throws IOException {
+                OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(mTarget));
+                FileUtils.copyToStream(mSource, outputStream);
+                outputStream.close();
+            }
+        });
+    }
+
+    @Test
+    public void moveFile_shouldRenameOnSameVolume() throws IOException {
+        long start = System.nanoTime();
+        FileUtils.moveFile(mSource, mTarget);
+        report("moveFile", System.nanoTime() - start);
+
+        assertThat(mSource).doesNotExist();
+        assertThat(checksum(mTarget)).isEqualTo(mSourceChecksum);
+    }
+
+    /**
+     * Runs the transfer and checks that the target is an exact copy of the source
+     */
+    private void measure(String name, Transfer transfer) throws IOException {
+        mTarget.delete();
+        long start = System.nanoTime();
+        transfer.run();
+        report(name, System.nanoTime() - start);
+
+        assertThat(mTarget.length()).isEqualTo(mSize);
+        assertThat(checksum(mTarget)).isEqualTo(mSourceChecksum);
+    }
+
+    private void report(String name, long nanos) {
+        double megabytes = mSize / (1024.0 * 1024.0);
+        System.out.println(String.format(Locale.US, "%-24s %8.1f ms, %8.1f MB/s",
+                name, nanos / 1e6, megabytes / (nanos / 1e9)));
+    }
+
+    private static long checksum(File file) throws IOException {
+        CRC32 crc32 = new CRC32();
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                crc32.update(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return crc32.getValue();
+    }
+}